@@ -11,6 +11,8 @@ public class AuthClient implements Closeable {
     private BufferedWriter writer;
     private BufferedReader reader;
     private boolean greetingConsumed = false;
+    // Lệnh LOGIN thành công gần nhất, để reconnect() đăng nhập lại
+    private String loginLine;
 
     public AuthClient(String host, int port) {
         this.host = host;
@@ -53,7 +55,22 @@ public class AuthClient implements Closeable {
         writer.flush();
         String resp = reader.readLine();
         if (resp == null) throw new EOFException("Server closed connection.");
-        return resp.trim();
+        resp = resp.trim();
+        if (line.startsWith("LOGIN;") && resp.equals("LOGIN_OK")) loginLine = line;
+        else if (line.equals("LOGOUT")) loginLine = null;
+        return resp;
+    }
+
+    /**
+     * Open a new connection and log in again with the last successful LOGIN.
+     * The server then queues RESUME for a match still holding our seat.
+     */
+    public synchronized String reconnect() throws IOException {
+        try { close(); } catch (IOException ignored) {}
+        socket = null;
+        greetingConsumed = false;
+        connect();
+        return loginLine == null ? null : sendCommand(loginLine);
     }
 
     @Override
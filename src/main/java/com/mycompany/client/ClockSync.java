@@ -0,0 +1,97 @@
+package com.mycompany.client;
+
+/**
+ * NTP-style estimate of the offset between this machine and the server's match clock.
+ * Each PING;t1 -> PONG;t1;t2;t3 exchange gives offset = ((t2 - t1) + (t3 - t4)) / 2 and
+ * rtt = (t4 - t1) - (t3 - t2); the sample with the smallest RTT among the last few wins,
+ * because queueing delay only ever adds to RTT and skews the offset.
+ *
+ * Every PING after the first of a sync also echoes the previous PONG's t3 (PING;t1;t3), so the
+ * server can measure the round trip on its own clock; it bounds how early an answer may claim to be.
+ */
+public class ClockSync {
+    private static final int WINDOW = 8;
+
+    private final AuthClient client;
+    private final long[] offsets = new long[WINDOW];
+    private final long[] rtts = new long[WINDOW];
+    private int samples = 0;
+    private volatile long offsetMs = 0;
+    private volatile long rttMs = -1;
+    // t3 của PONG vừa nhận, gửi trả ở PING kế tiếp; -1 = bắt đầu lượt đo mới
+    private long echoT3 = -1;
+
+    public ClockSync(AuthClient client) {
+        this.client = client;
+    }
+
+    /** Local monotonic clock in ms; never jumps with the wall clock */
+    public static long localMs() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Run {@code count} PING exchanges, {@code gapMs} apart. Blocking: call off the FX thread.
+     */
+    public void sync(int count, long gapMs) {
+        echoT3 = -1;
+        for (int i = 0; i < count; i++) {
+            try {
+                sample();
+                if (i + 1 < count) Thread.sleep(gapMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("[ClockSync] PING failed: " + e.getMessage());
+            }
+        }
+        System.out.println("[ClockSync] offset=" + offsetMs + "ms rtt=" + rttMs + "ms");
+    }
+
+    private void sample() throws Exception {
+        long t1 = localMs();
+        String resp = client.sendCommand(echoT3 < 0 ? "PING;" + t1 : "PING;" + t1 + ";" + echoT3);
+        long t4 = localMs();
+        String[] p = resp.split(";");
+        if (p.length < 4 || !p[0].equals("PONG") || Long.parseLong(p[1]) != t1) return;
+        long t2 = Long.parseLong(p[2]);
+        long t3 = Long.parseLong(p[3]);
+        echoT3 = t3;
+        record(((t2 - t1) + (t3 - t4)) / 2, (t4 - t1) - (t3 - t2));
+    }
+
+    private synchronized void record(long offset, long rtt) {
+        offsets[samples % WINDOW] = offset;
+        rtts[samples % WINDOW] = rtt;
+        samples++;
+        int best = 0;
+        for (int i = 1; i < Math.min(samples, WINDOW); i++) {
+            if (rtts[i] < rtts[best]) best = i;
+        }
+        offsetMs = offsets[best];
+        rttMs = rtts[best];
+    }
+
+    public boolean isSynced() {
+        return rttMs >= 0;
+    }
+
+    public long rttMs() {
+        return rttMs;
+    }
+
+    /** Current server time estimate */
+    public long serverNow() {
+        return localMs() + offsetMs;
+    }
+
+    /** Local monotonic time at which the server clock reads {@code serverMs} */
+    public long toLocal(long serverMs) {
+        return serverMs - offsetMs;
+    }
+
+    public long toServer(long localMs) {
+        return localMs + offsetMs;
+    }
+}
@@ -1,5 +1,12 @@
 package com.mycompany.client;
 
+import com.mycompany.common.SoundCatalog;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.concurrent.ScheduledService;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -7,19 +14,77 @@ import javafx.scene.control.*;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
+import javafx.scene.media.MediaPlayer;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
+import javafx.util.Duration;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Màn hình trận đấu đối kháng. Server điều khiển toàn bộ trận (thời gian, chấm điểm);
+ * câu hỏi được dựng tại chỗ từ seed trong START_MATCH, client chỉ hiển thị các sự kiện
+ * ROUND_START / ROUND_RESULT / MATCH_END nhận qua POLL và gửi ANSWER.
+ * Chế độ xem trận (SPECTATE) dùng cùng màn hình và cùng các sự kiện, chỉ không cho trả lời;
+ * chế độ xem lại (REPLAY) phát lần lượt các vòng đã lưu của một trận cũ.
+ * Đấu lại (REMATCH) dùng lại chính cửa sổ này: REMATCH_START chỉ đặt lại điểm và bộ câu hỏi.
+ */
 public class GameFrame extends Stage {
+    private static final int MAX_EVENTS_PER_POLL = 20;
+    // Xem lại: nghe câu hỏi rồi xem kết quả của từng vòng
+    private static final long REPLAY_LISTEN_MS = 4000;
+    private static final long REPLAY_RESULT_MS = 3000;
+    private static final ButtonType REMATCH_BUTTON = new ButtonType("Đấu lại", ButtonBar.ButtonData.OK_DONE);
+
     private final String username;
     private final String opponent;
+    private final int matchId;
+    // Bộ câu hỏi dựng tại chỗ từ seed; null nếu Sound.csv khác phiên bản server (nhận câu hỏi qua ROUND_START)
+    private SoundCatalog.Question[] deck;
     private final AuthClient client;
+    private final ClockSync clock;
+    private final Stage lobbyWindow;
+    // Người xem: username/opponent là player1/player2 của trận
+    private final boolean spectating;
+    // > 0: xem lại trận đã lưu, bắt đầu từ vòng này
+    private final int replayFrom;
+    private final ArrayDeque<String[]> replayQueue = new ArrayDeque<>();
+    private String[] replayEnd;
+    private boolean replayPlaying = false;
+
+    // Match state
+    private ScheduledService<List<String>> pollService;
+    private Timeline phaseTimer;
+    private MediaPlayer mediaPlayer;
+    private int currentRound = 0;
+    // Mốc thời gian của vòng hiện tại: giờ server mở trả lời, và (giờ máy) lúc mở / lúc âm thanh thật sự phát
+    private long openAtServerMs;
+    private long openedLocalMs;
+    private long audioStartedLocalMs = -1;
+    private boolean answering = false;
+    private String selectedAnswer = null;
+    private boolean matchEnded = false;
+    // Vòng đã trả lời trước khi mất kết nối (theo RESUME): không mở lại nút trả lời
+    private int answeredRound = 0;
+    // RESUME nhận ở lobby: áp dụng sau khi đồng bộ đồng hồ
+    private String pendingResume;
+    // Phòng nhóm: danh sách người chơi (null với trận 1v1); câu hỏi luôn đi kèm ROUND_START
+    private String[] partyMembers;
+    // Cửa sổ đấu lại sau MATCH_END: bộ câu hỏi trận sau dựng sẵn từ seed trong REMATCH_OPEN
+    private boolean rematchOpen = false;
+    private long nextSeed;
+    private SoundCatalog.Question[] nextDeck;
+    private Alert matchAlert;
+    // Đã bấm "Đấu lại" và đang chờ trận mới bắt đầu
+    private boolean rematchRequested = false;
 
     // Score labels
     private Label lblScore1;
@@ -30,22 +95,77 @@ public class GameFrame extends Stage {
     private ImageView clockImageView;
     
     // Question
-    private final Label lblQuestionNumber = new Label("Câu 1:");
-    private final Label lblQuestion = new Label("Đây là âm thanh của con vật nào ?");
+    private final Label lblQuestionNumber = new Label("Chuẩn bị...");
+    private final Label lblQuestion = new Label("Trận đấu sắp bắt đầu");
     
     // Answer buttons
-    private final Button btnAnswer1 = new Button("Sư tử");
-    private final Button btnAnswer2 = new Button("Khỉ");
-    private final Button btnAnswer3 = new Button("Chó");
-    private final Button btnAnswer4 = new Button("Trâu");
+    private final Button btnAnswer1 = new Button("");
+    private final Button btnAnswer2 = new Button("");
+    private final Button btnAnswer3 = new Button("");
+    private final Button btnAnswer4 = new Button("");
+
+    public GameFrame(String username, String opponent, int matchId, long seed, String catalogVersion,
+                     AuthClient client, Stage lobbyWindow) {
+        this(username, opponent, matchId, seed, catalogVersion, false, 0, client, lobbyWindow);
+    }
+
+    /**
+     * Rejoin a match in progress from RESUME;matchId;opponent;seed;catalogVersion;...
+     */
+    public static GameFrame resume(String username, String resumeEvent, AuthClient client, Stage lobbyWindow) {
+        String[] p = resumeEvent.split(";", -1);
+        GameFrame frame = new GameFrame(username, p[2], Integer.parseInt(p[1]), Long.parseLong(p[3]), p[4],
+                client, lobbyWindow);
+        frame.pendingResume = resumeEvent;
+        return frame;
+    }
+
+    /**
+     * Party room game, opened from START_PARTY;partyId;seed;catalogVersion;name1,name2,...
+     */
+    public GameFrame(String username, int partyId, String[] members, AuthClient client, Stage lobbyWindow) {
+        this(username, members.length + " người", partyId, 0, "", false, 0, client, lobbyWindow);
+        this.partyMembers = members;
+        setTitle("Phòng nhóm #" + partyId + ": " + String.join(", ", members));
+        lblScore1.setText("Bạn: 0");
+        lblScore2.setText("Hạng -/" + members.length);
+    }
+
+    /**
+     * Spectator view, opened from SPECTATE_OK;matchId;p1;p2;score1;score2;round;seed;catalogVersion
+     */
+    public GameFrame(String player1, String player2, int matchId, long seed, String catalogVersion,
+                     int score1, int score2, AuthClient client, Stage lobbyWindow) {
+        this(player1, player2, matchId, seed, catalogVersion, true, 0, client, lobbyWindow);
+        lblScore1.setText(player1 + ": " + score1);
+        lblScore2.setText(player2 + ": " + score2);
+        lblQuestionNumber.setText("Đang xem trận");
+        lblQuestion.setText("Chờ câu hỏi tiếp theo...");
+    }
+
+    /**
+     * Replay of a saved match (matches.id from HISTORY), played back from {@code fromRound}
+     */
+    public GameFrame(int matchId, String player1, String player2, int fromRound, AuthClient client, Stage lobbyWindow) {
+        this(player1, player2, matchId, 0, "", true, Math.max(1, fromRound), client, lobbyWindow);
+        lblQuestionNumber.setText("Xem lại");
+        lblQuestion.setText("Đang tải trận đấu...");
+    }
 
-    public GameFrame(String username, String opponent, AuthClient client) {
+    private GameFrame(String username, String opponent, int matchId, long seed, String catalogVersion,
+                      boolean spectating, int replayFrom, AuthClient client, Stage lobbyWindow) {
         super();
         this.username = username;
         this.opponent = opponent;
+        this.matchId = matchId;
+        this.deck = SoundCatalog.VERSION.equals(catalogVersion) ? SoundCatalog.matchDeck(seed) : null;
         this.client = client;
+        this.clock = new ClockSync(client);
+        this.lobbyWindow = lobbyWindow;
+        this.spectating = spectating;
+        this.replayFrom = replayFrom;
 
-        setTitle("Match: " + username + " vs " + opponent);
+        setTitle((replayFrom > 0 ? "Xem lại: " : spectating ? "Xem trận: " : "Match: ") + username + " vs " + opponent);
         setResizable(true);
         setOnCloseRequest(this::handleClose);
         
@@ -107,7 +227,21 @@ public class GameFrame extends Stage {
         setupAnswerButtons();
         
         setOnShown(e -> {
-            // Start game logic here later
+            SoundManager.getInstance().stopBackgroundMusic();
+            setButtonsEnabled(false);
+            if (replayFrom > 0) {
+                startPolling();
+                requestReplay();
+                return;
+            }
+            if (deck == null && !spectating && partyMembers == null) requestFullRounds();
+            syncClock();
+            startPolling();
+        });
+        setOnHidden(e -> {
+            if (rematchOpen) declineRematch();
+            stopMatchActivity();
+            if (lobbyWindow != null) lobbyWindow.show(); // lobby tự bật lại POLL khi hiện
         });
     }
 
@@ -167,7 +301,10 @@ public class GameFrame extends Stage {
             outImageView = null;
         }
         btnBack.setStyle("-fx-background-color: transparent; -fx-cursor: hand;");
-        btnBack.setOnAction(e -> showExitConfirmDialog());
+        btnBack.setOnAction(e -> {
+            if (spectating) doLeave(); // người xem thoát không cần xác nhận
+            else showExitConfirmDialog();
+        });
         btnBackContainer.getChildren().add(btnBack);
 
         // Score area
@@ -291,11 +428,10 @@ public class GameFrame extends Stage {
     }
 
     private void setupAnswerButtons() {
-        // Answer button actions - logic will be added later
-        btnAnswer1.setOnAction(e -> handleAnswer("Sư tử"));
-        btnAnswer2.setOnAction(e -> handleAnswer("Khỉ"));
-        btnAnswer3.setOnAction(e -> handleAnswer("Chó"));
-        btnAnswer4.setOnAction(e -> handleAnswer("Trâu"));
+        btnAnswer1.setOnAction(e -> handleAnswer(btnAnswer1.getText()));
+        btnAnswer2.setOnAction(e -> handleAnswer(btnAnswer2.getText()));
+        btnAnswer3.setOnAction(e -> handleAnswer(btnAnswer3.getText()));
+        btnAnswer4.setOnAction(e -> handleAnswer(btnAnswer4.getText()));
     }
 
     private void updateImageSize(ImageView imageView, Image image, Scene scene) {
@@ -313,9 +449,694 @@ public class GameFrame extends Stage {
         imageView.setFitHeight(imageHeight * scale);
     }
 
+    /* ================== Server events ================== */
+    private void startPolling() {
+        if (client == null) return;
+        pollService = new ScheduledService<List<String>>() {
+            @Override
+            protected Task<List<String>> createTask() {
+                return new Task<List<String>>() {
+                    @Override
+                    protected List<String> call() {
+                        // Lấy hết các sự kiện đang chờ trong một lượt
+                        List<String> events = new ArrayList<>();
+                        try {
+                            for (int i = 0; i < MAX_EVENTS_PER_POLL; i++) {
+                                String resp = client.sendCommand("POLL");
+                                if (resp == null || resp.equalsIgnoreCase("NO_EVENT")) break;
+                                events.add(resp);
+                            }
+                        } catch (IOException ex) {
+                            // Mất kết nối giữa trận: server giữ ghế một lúc, đăng nhập lại để nhận RESUME
+                            if (!spectating && replayFrom == 0 && !matchEnded) reconnect();
+                        } catch (Exception ex) {
+                            // Silent error handling, retry on next tick
+                        }
+                        return events;
+                    }
+                };
+            }
+        };
+        pollService.setPeriod(Duration.millis(200));
+        pollService.setOnSucceeded(e -> {
+            List<String> events = pollService.getValue();
+            if (events == null) return;
+            for (String ev : events) handleEvent(ev);
+        });
+        pollService.start();
+    }
+
+    private void handleEvent(String ev) {
+        String[] p = ev.split(";", -1);
+        switch (p[0]) {
+            case "ROUND_START" -> {
+                // ROUND_START;matchId;round;readMs;answerMs;tiebreak;openAt[;soundKey;category;question;opt1|opt2|opt3|opt4]
+                if (p.length < 7 || !p[1].equals(String.valueOf(matchId))) return;
+                int round = Integer.parseInt(p[2]);
+                rematchRequested = false;
+                String soundKey, questionText;
+                String[] options;
+                if (p.length >= 11) {
+                    soundKey = p[7];
+                    questionText = p[9];
+                    options = p[10].split("\\|");
+                } else if (deck != null && round <= deck.length) {
+                    SoundCatalog.Question q = deck[round - 1];
+                    soundKey = q.soundKey;
+                    questionText = q.questionText;
+                    options = q.options.toArray(new String[0]);
+                } else {
+                    return;
+                }
+                onRoundStart(round, soundKey, questionText, options, Long.parseLong(p[3]), Long.parseLong(p[4]),
+                        p[5].equals("1"), Long.parseLong(p[6]));
+            }
+            case "ROUND_RESULT" -> {
+                // ROUND_RESULT;matchId;round;correct;p1;p1Answer;p1TimeMs;p2;p2Answer;p2TimeMs;score1;score2;roundWinner
+                if (p.length < 13 || !p[1].equals(String.valueOf(matchId))) return;
+                int round = Integer.parseInt(p[2]);
+                if (deck != null && round <= deck.length && !deck[round - 1].correctAnswer.equals(p[3])) {
+                    // Kết quả của server luôn là chuẩn; lệch ở đây nghĩa là bộ câu hỏi cục bộ sai
+                    System.err.println("[GameFrame] Local deck disagrees with server at round " + round);
+                }
+                boolean meFirst = p[4].equals(username);
+                onRoundResult(p[3],
+                        meFirst ? p[6] : p[9],
+                        Integer.parseInt(meFirst ? p[10] : p[11]),
+                        Integer.parseInt(meFirst ? p[11] : p[10]),
+                        p[12]);
+            }
+            case "MATCH_END" -> {
+                // MATCH_END;matchId;p1;score1;p2;score2;winner|DRAW;NORMAL|FORFEIT
+                if (p.length < 8 || !p[1].equals(String.valueOf(matchId))) return;
+                boolean meFirst = p[2].equals(username);
+                onMatchEnd(Integer.parseInt(meFirst ? p[3] : p[5]), Integer.parseInt(meFirst ? p[5] : p[3]),
+                        p[6], p[7]);
+            }
+            case "REMATCH_OPEN" -> {
+                // REMATCH_OPEN;matchId;windowMs;nextSeed
+                if (p.length < 4 || !p[1].equals(String.valueOf(matchId))) return;
+                onRematchOpen(Long.parseLong(p[2]), Long.parseLong(p[3]));
+            }
+            case "REMATCH_REQUESTED" -> {
+                // REMATCH_REQUESTED;matchId;name
+                if (p.length < 3 || !p[1].equals(String.valueOf(matchId))) return;
+                if (matchAlert != null) matchAlert.setContentText(matchAlert.getContentText() + "\n" + p[2] + " muốn đấu lại!");
+            }
+            case "REMATCH_CLOSED" -> {
+                // REMATCH_CLOSED;matchId;DECLINED|EXPIRED|UNAVAILABLE
+                if (p.length < 3 || !p[1].equals(String.valueOf(matchId))) return;
+                onRematchClosed(p[2]);
+            }
+            case "REMATCH_START" -> {
+                // REMATCH_START;matchId;seed;catalogVersion
+                if (p.length < 4 || !p[1].equals(String.valueOf(matchId))) return;
+                onRematchStart(Long.parseLong(p[2]), p[3]);
+            }
+            case "REPLAY_ROUND" -> {
+                // REPLAY_ROUND;matchId;round;soundKey;category;question;opts;correct;p1Answer;p1TimeMs;p2Answer;p2TimeMs;score1;score2;winner
+                if (p.length < 15 || !p[1].equals(String.valueOf(matchId))) return;
+                replayQueue.add(p);
+                if (!replayPlaying) playNextReplayRound();
+            }
+            case "REPLAY_END" -> {
+                // REPLAY_END;matchId;p1;score1;p2;score2;winner|DRAW;NORMAL|FORFEIT
+                if (p.length < 8 || !p[1].equals(String.valueOf(matchId))) return;
+                replayEnd = p;
+                if (!replayPlaying) playNextReplayRound();
+            }
+            case "RESUME" -> {
+                // RESUME;matchId;opponent;seed;catalogVersion;round;myScore;opponentScore;phase;readMs;answerMs;tiebreak;openAt;answered
+                //   [;soundKey;category;question;opt1|opt2|opt3|opt4]
+                if (p.length < 14 || !p[1].equals(String.valueOf(matchId))) return;
+                onResume(p);
+            }
+            case "OPPONENT_DISCONNECTED" -> {
+                if (p.length < 3 || !p[1].equals(String.valueOf(matchId))) return;
+                lblQuestionNumber.setText(opponent + " mất kết nối, chờ tối đa " + Long.parseLong(p[2]) / 1000 + " giây...");
+            }
+            case "OPPONENT_RECONNECTED" -> {
+                if (p.length < 2 || !p[1].equals(String.valueOf(matchId))) return;
+                lblQuestionNumber.setText(currentRound > 10 ? "Câu phụ:" : "Câu " + currentRound + ":");
+            }
+            case "PARTY_ROUND_RESULT" -> {
+                // PARTY_ROUND_RESULT;partyId;round;correct;fastest|NONE;name:answer:timeMs:score,...
+                if (p.length < 6 || !p[1].equals(String.valueOf(matchId))) return;
+                onPartyRoundResult(p[3], p[4], p[5].split(","));
+            }
+            case "PARTY_LEFT" -> {
+                if (p.length < 3 || !p[1].equals(String.valueOf(matchId))) return;
+                lblQuestionNumber.setText(p[2] + " đã rời phòng");
+            }
+            case "PARTY_END" -> {
+                // PARTY_END;partyId;NORMAL|FORFEIT;name:score:place,...
+                if (p.length < 4 || !p[1].equals(String.valueOf(matchId))) return;
+                onPartyEnd(p[3].split(","));
+            }
+            case "SPECTATE_DROPPED" -> {
+                // Server bỏ người xem không POLL kịp để không làm chậm trận
+                if (p.length < 2 || !p[1].equals(String.valueOf(matchId))) return;
+                onSpectateDropped();
+            }
+            case "ACHIEVEMENT" -> {
+                // ACHIEVEMENT;id;title - đến sau MATCH_END, khi trận đã được lưu
+                if (p.length < 3) return;
+                String text = "Thành tích mới: " + p[2];
+                if (matchAlert != null) matchAlert.setContentText(matchAlert.getContentText() + "\n" + text);
+                else lblQuestion.setText(lblQuestion.getText() + "\n" + text);
+            }
+            default -> {
+                // Sự kiện của màn hình khác (sảnh, bạn bè...): bỏ qua
+            }
+        }
+    }
+
+    private void onRoundStart(int round, String soundKey, String questionText, String[] options,
+                              long readMs, long answerMs, boolean tiebreak, long openAtServerMs) {
+        stopPhaseTimer();
+        stopSound();
+        currentRound = round;
+        answering = false;
+        selectedAnswer = null;
+
+        lblQuestionNumber.setText(tiebreak ? "Câu phụ:" : "Câu " + round + ":");
+        lblQuestion.setText(questionText);
+        Button[] buttons = {btnAnswer1, btnAnswer2, btnAnswer3, btnAnswer4};
+        for (int i = 0; i < buttons.length; i++) {
+            buttons[i].setText(i < options.length ? options[i] : "");
+        }
+        resetAnswerButtons();
+        setButtonsEnabled(false);
+
+        // Đọc câu hỏi tới đúng giờ server đã hẹn (openAt), rồi phát âm thanh và mở trả lời.
+        // Chưa đồng bộ được đồng hồ thì đếm readMs kể từ lúc nhận sự kiện.
+        this.openAtServerMs = openAtServerMs;
+        long openLocal = clock.isSynced() ? clock.toLocal(openAtServerMs) : ClockSync.localMs() + readMs;
+        countdownTo(openLocal, Color.ORANGE, () -> {
+            answering = !spectating && answeredRound != round;
+            openedLocalMs = ClockSync.localMs();
+            audioStartedLocalMs = -1;
+            setButtonsEnabled(answering);
+            playSound(soundKey);
+            countdownTo(openLocal + answerMs, Color.RED, () -> setButtonsEnabled(false));
+        });
+    }
+
+    /**
+     * Continue from a server snapshot instead of the events missed while disconnected:
+     * scores, then the current round re-entered at its place on the shared openAt timeline
+     */
+    private void onResume(String[] p) {
+        int round = Integer.parseInt(p[5]);
+        lblScore1.setText(username + ": " + p[6]);
+        lblScore2.setText(opponent + ": " + p[7]);
+        if (p[13].equals("1")) answeredRound = round;
+        boolean inRound = p[8].equals("READING") || p[8].equals("ANSWERING");
+        String soundKey, questionText;
+        String[] options;
+        if (p.length >= 18) {
+            soundKey = p[14];
+            questionText = p[16];
+            options = p[17].split("\\|");
+        } else if (deck != null && round >= 1 && round <= deck.length) {
+            SoundCatalog.Question q = deck[round - 1];
+            soundKey = q.soundKey;
+            questionText = q.questionText;
+            options = q.options.toArray(new String[0]);
+        } else {
+            inRound = false;
+            soundKey = questionText = null;
+            options = null;
+        }
+        if (!inRound) {
+            stopPhaseTimer();
+            currentRound = round;
+            lblQuestionNumber.setText("Đã kết nối lại");
+            lblQuestion.setText("Chờ câu hỏi tiếp theo...");
+            return;
+        }
+        onRoundStart(round, soundKey, questionText, options, Long.parseLong(p[9]), Long.parseLong(p[10]),
+                p[11].equals("1"), Long.parseLong(p[12]));
+        if (answeredRound == round) lblQuestion.setText(questionText + "\n(Bạn đã trả lời câu này)");
+    }
+
+    private void reconnect() {
+        try {
+            client.reconnect();
+        } catch (IOException ex) {
+            System.err.println("[GameFrame] Reconnect failed: " + ex.getMessage()); // thử lại ở lượt POLL sau
+        }
+    }
+
+    private void syncClock() {
+        if (client == null) return;
+        // Vài lần PING trong 3 giây chuẩn bị; mẫu có RTT nhỏ nhất cho độ lệch chính xác nhất
+        Thread t = new Thread(() -> {
+            clock.sync(8, 100);
+            if (pendingResume != null) Platform.runLater(() -> {
+                handleEvent(pendingResume);
+                pendingResume = null;
+            });
+        }, "clock-sync");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void requestFullRounds() {
+        Thread t = new Thread(() -> {
+            try {
+                client.sendCommand("GET_DECK;" + matchId);
+            } catch (Exception ignored) {
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void onRoundResult(String correctAnswer, String myTimeMs, int myScore, int opponentScore, String roundWinner) {
+        stopPhaseTimer();
+        stopSound();
+        answering = false;
+        lblTimer.setText("");
+        lblScore1.setText(username + ": " + myScore);
+        lblScore2.setText(opponent + ": " + opponentScore);
+        highlightAnswer(correctAnswer);
+
+        if (spectating) {
+            String winnerText = roundWinner.equals("DRAW") ? "Hòa" : roundWinner + " thắng câu này";
+            lblQuestion.setText(String.format("Đáp án: %s\n%s", correctAnswer, winnerText));
+            return;
+        }
+        boolean correct = correctAnswer.equals(selectedAnswer);
+        String time = myTimeMs.equals("-1") ? "-" : String.format("%.1f giây", Integer.parseInt(myTimeMs) / 1000.0);
+        String winnerText = roundWinner.equals("DRAW") ? "Hòa" : (roundWinner.equals(username) ? "Bạn thắng câu này" : opponent + " thắng câu này");
+        lblQuestion.setText(String.format("%s\nĐáp án: %s\nThời gian: %s\n%s",
+                correct ? "✓ Đúng!" : "✗ Sai!", correctAnswer, time, winnerText));
+    }
+
+    private void onMatchEnd(int myScore, int opponentScore, String winner, String reason) {
+        matchEnded = true;
+        // Trận 1v1 kết thúc bình thường: vẫn POLL để nhận REMATCH_OPEN
+        boolean canRematch = !spectating && partyMembers == null && !reason.equals("FORFEIT");
+        if (canRematch) {
+            stopPhaseTimer();
+            stopSound();
+        } else {
+            stopMatchActivity();
+        }
+        setButtonsEnabled(false);
+        lblScore1.setText(username + ": " + myScore);
+        lblScore2.setText(opponent + ": " + opponentScore);
+
+        String result;
+        if (spectating) {
+            result = winner.equals("DRAW") ? "Hòa!" : winner + " đã thắng!";
+            if (reason.equals("FORFEIT")) result += " (đối thủ đã rời trận)";
+        } else {
+            result = winner.equals("DRAW") ? "Hòa!" : (winner.equals(username) ? "Bạn đã thắng!" : "Bạn đã thua!");
+        }
+        if (!spectating && reason.equals("FORFEIT")) {
+            result += winner.equals(username) ? " (đối thủ đã rời trận)" : " (bạn đã rời trận)";
+        }
+        lblQuestionNumber.setText("Kết thúc");
+        lblQuestion.setText(String.format("%s\n%s %d - %d %s", result, username, myScore, opponentScore, opponent));
+
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.initOwner(this);
+        alert.setTitle("Kết quả trận đấu");
+        alert.setHeaderText(result);
+        alert.setContentText(String.format("%s %d - %d %s", username, myScore, opponentScore, opponent));
+        if (canRematch) {
+            // Nút đấu lại chỉ bật khi server mở cửa sổ đấu lại
+            alert.getButtonTypes().setAll(REMATCH_BUTTON, ButtonType.CLOSE);
+            alert.getDialogPane().lookupButton(REMATCH_BUTTON).setDisable(true);
+            matchAlert = alert;
+        }
+        alert.setOnHidden(e -> {
+            matchAlert = null;
+            if (alert.getResult() == REMATCH_BUTTON && rematchOpen) requestRematch();
+            else close();
+        });
+        alert.show();
+    }
+
+    private void onRematchOpen(long windowMs, long seed) {
+        rematchOpen = true;
+        nextSeed = seed;
+        // Dựng sẵn ngay (vài micro giây), REMATCH_START chỉ còn đổi tham chiếu
+        nextDeck = deck != null ? SoundCatalog.matchDeck(seed) : null;
+        if (matchAlert != null) {
+            matchAlert.getDialogPane().lookupButton(REMATCH_BUTTON).setDisable(false);
+            matchAlert.setContentText(matchAlert.getContentText() + "\nĐấu lại trong " + windowMs / 1000 + " giây?");
+        }
+    }
+
+    private void requestRematch() {
+        rematchRequested = true;
+        lblQuestionNumber.setText("Đấu lại");
+        lblQuestion.setText("Chờ " + opponent + " đồng ý...");
+        Task<String> task = new Task<String>() {
+            @Override
+            protected String call() {
+                try {
+                    return client.sendCommand("REMATCH;" + matchId);
+                } catch (Exception ex) {
+                    return "ERROR:" + ex.getMessage();
+                }
+            }
+        };
+        task.setOnSucceeded(e -> {
+            String resp = task.getValue();
+            if (resp == null || !resp.startsWith("REMATCH_OK")) {
+                System.err.println("[GameFrame] Rematch rejected: " + resp);
+                onRematchClosed("UNAVAILABLE");
+            }
+        });
+        new Thread(task).start();
+    }
+
+    private void onRematchClosed(String reason) {
+        rematchOpen = false;
+        nextDeck = null;
+        String text = reason.equals("DECLINED") ? opponent + " không muốn đấu lại." : "Không thể đấu lại.";
+        if (matchAlert != null) {
+            matchAlert.getDialogPane().lookupButton(REMATCH_BUTTON).setDisable(true);
+            matchAlert.setContentText(matchAlert.getContentText() + "\n" + text);
+            return;
+        }
+        if (!rematchRequested) return;
+        // Đang chờ đối thủ sau khi bấm đấu lại: báo rồi về sảnh
+        rematchRequested = false;
+        stopMatchActivity();
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.initOwner(this);
+        alert.setTitle("Đấu lại");
+        alert.setHeaderText(null);
+        alert.setContentText(text);
+        alert.setOnHidden(e -> close());
+        alert.show();
+    }
+
+    /**
+     * Same window, same clock sync and session: only the deck and the scores are reset
+     */
+    private void onRematchStart(long seed, String catalogVersion) {
+        rematchOpen = false;
+        if (nextDeck != null && nextSeed == seed) deck = nextDeck;
+        else deck = SoundCatalog.VERSION.equals(catalogVersion) ? SoundCatalog.matchDeck(seed) : null;
+        nextDeck = null;
+        matchEnded = false;
+        currentRound = 0;
+        answeredRound = 0;
+        answering = false;
+        selectedAnswer = null;
+        lblScore1.setText(username + ": 0");
+        lblScore2.setText(opponent + ": 0");
+        lblTimer.setText("");
+        lblQuestionNumber.setText("Chuẩn bị...");
+        lblQuestion.setText("Trận đấu lại sắp bắt đầu");
+        resetAnswerButtons();
+        setButtonsEnabled(false);
+    }
+
+    private void declineRematch() {
+        rematchOpen = false;
+        Thread t = new Thread(() -> {
+            try {
+                client.sendCommand("REMATCH_DECLINE");
+            } catch (Exception ignored) {
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void onPartyRoundResult(String correctAnswer, String fastest, String[] entries) {
+        stopPhaseTimer();
+        stopSound();
+        answering = false;
+        lblTimer.setText("");
+        highlightAnswer(correctAnswer);
+
+        int myScore = 0;
+        String myTime = "-1";
+        List<String[]> standings = new ArrayList<>();
+        for (String entry : entries) {
+            String[] f = entry.split(":", -1); // name:answer:timeMs:score
+            if (f.length < 4) continue;
+            standings.add(new String[] {f[0], f[3]});
+            if (f[0].equals(username)) {
+                myScore = Integer.parseInt(f[3]);
+                myTime = f[2];
+            }
+        }
+        standings.sort((a, b) -> Integer.parseInt(b[1]) - Integer.parseInt(a[1]));
+        int rank = 1;
+        for (String[] s : standings) if (Integer.parseInt(s[1]) > myScore) rank++;
+        lblScore1.setText("Bạn: " + myScore);
+        lblScore2.setText("Hạng " + rank + "/" + standings.size());
+
+        boolean correct = correctAnswer.equals(selectedAnswer);
+        String time = myTime.equals("-1") ? "-" : String.format("%.1f giây", Integer.parseInt(myTime) / 1000.0);
+        StringBuilder top = new StringBuilder();
+        for (int i = 0; i < Math.min(3, standings.size()); i++) {
+            top.append(i == 0 ? "" : "  ").append(i + 1).append(". ").append(standings.get(i)[0])
+               .append(" (").append(standings.get(i)[1]).append(")");
+        }
+        lblQuestion.setText(String.format("%s\nĐáp án: %s\nThời gian: %s\n%s\n%s",
+                correct ? "✓ Đúng!" : "✗ Sai!", correctAnswer, time,
+                fastest.equals("NONE") ? "Không ai đúng" : "Nhanh nhất: " + fastest, top));
+    }
+
+    private void onPartyEnd(String[] entries) {
+        matchEnded = true;
+        stopMatchActivity();
+        setButtonsEnabled(false);
+
+        List<String[]> standings = new ArrayList<>();
+        String myPlace = "?";
+        for (String entry : entries) {
+            String[] f = entry.split(":", -1); // name:score:place
+            if (f.length < 3) continue;
+            standings.add(f);
+            if (f[0].equals(username)) myPlace = f[2];
+        }
+        standings.sort((a, b) -> Integer.parseInt(a[2]) - Integer.parseInt(b[2]));
+        StringBuilder table = new StringBuilder();
+        for (String[] f : standings) table.append(f[2]).append(". ").append(f[0]).append(" - ").append(f[1]).append(" điểm\n");
+
+        String result = myPlace.equals("1") ? "Bạn đã thắng!" : "Bạn xếp hạng " + myPlace;
+        lblQuestionNumber.setText("Kết thúc");
+        lblQuestion.setText(result + "\n" + table.toString().trim());
+
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.initOwner(this);
+        alert.setTitle("Kết quả phòng nhóm");
+        alert.setHeaderText(result);
+        alert.setContentText(table.toString().trim());
+        alert.setOnHidden(e -> close());
+        alert.show();
+    }
+
+    private void requestReplay() {
+        Thread t = new Thread(() -> {
+            try {
+                String resp = client.sendCommand("REPLAY;" + matchId + ";" + replayFrom);
+                if (resp == null || !resp.startsWith("REPLAY_OK")) {
+                    Platform.runLater(() -> lblQuestion.setText("Không có bản ghi của trận này."));
+                }
+            } catch (Exception ignored) {
+            }
+        }, "replay-request");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void playNextReplayRound() {
+        String[] p = replayQueue.poll();
+        if (p == null) {
+            replayPlaying = false;
+            if (replayEnd != null) {
+                onMatchEnd(Integer.parseInt(replayEnd[3]), Integer.parseInt(replayEnd[5]), replayEnd[6], replayEnd[7]);
+            }
+            return;
+        }
+        replayPlaying = true;
+        int round = Integer.parseInt(p[2]);
+        String[] options = p[6].split("\\|");
+        lblQuestionNumber.setText(round > 10 ? "Câu phụ:" : "Câu " + round + ":");
+        lblQuestion.setText(p[5]);
+        Button[] buttons = {btnAnswer1, btnAnswer2, btnAnswer3, btnAnswer4};
+        for (int i = 0; i < buttons.length; i++) {
+            buttons[i].setText(i < options.length ? options[i] : "");
+        }
+        resetAnswerButtons();
+        setButtonsEnabled(false);
+        playSound(p[3]);
+
+        countdownTo(ClockSync.localMs() + REPLAY_LISTEN_MS, Color.ORANGE, () -> {
+            stopSound();
+            selectedAnswer = null;
+            highlightAnswer(p[7]);
+            lblScore1.setText(username + ": " + p[12]);
+            lblScore2.setText(opponent + ": " + p[13]);
+            String winnerText = p[14].equals("DRAW") ? "Hòa" : p[14] + " thắng câu này";
+            lblQuestion.setText(String.format("Đáp án: %s\n%s: %s\n%s: %s\n%s", p[7],
+                    username, replayAnswer(p[8], p[9]), opponent, replayAnswer(p[10], p[11]), winnerText));
+            countdownTo(ClockSync.localMs() + REPLAY_RESULT_MS, Color.GRAY, this::playNextReplayRound);
+        });
+    }
+
+    private static String replayAnswer(String answer, String timeMs) {
+        if (answer.isEmpty() || timeMs.equals("-1")) return "không trả lời";
+        return String.format("%s (%.1f giây)", answer, Integer.parseInt(timeMs) / 1000.0);
+    }
+
+    private void onSpectateDropped() {
+        matchEnded = true;
+        stopMatchActivity();
+        lblQuestionNumber.setText("Ngừng xem");
+        lblQuestion.setText("Kết nối quá chậm để theo dõi trận đấu.");
+
+        Alert alert = new Alert(Alert.AlertType.WARNING);
+        alert.initOwner(this);
+        alert.setTitle("Xem trận");
+        alert.setHeaderText("Đã ngừng xem trận");
+        alert.setContentText("Kết nối quá chậm để theo dõi trận đấu.");
+        alert.setOnHidden(e -> close());
+        alert.show();
+    }
+
+    /** Count down to a local monotonic deadline (ClockSync.localMs), checked every 50ms */
+    private void countdownTo(long deadlineLocalMs, Color color, Runnable onDone) {
+        stopPhaseTimer();
+        lblTimer.setTextFill(color);
+        lblTimer.setText(String.valueOf(Math.max(0, (deadlineLocalMs - ClockSync.localMs() + 999) / 1000)));
+        phaseTimer = new Timeline(new KeyFrame(Duration.millis(50), e -> {
+            long left = deadlineLocalMs - ClockSync.localMs();
+            if (left > 0) {
+                lblTimer.setText(String.valueOf((left + 999) / 1000));
+            } else {
+                lblTimer.setText("0");
+                stopPhaseTimer();
+                onDone.run();
+            }
+        }));
+        phaseTimer.setCycleCount(Timeline.INDEFINITE);
+        phaseTimer.play();
+    }
+
     private void handleAnswer(String answer) {
-        // Logic will be added later
-        System.out.println("Selected answer: " + answer);
+        if (!answering || answer == null || answer.isEmpty()) return;
+        answering = false;
+        selectedAnswer = answer;
+        setButtonsEnabled(false);
+        markSelected(answer);
+
+        // Thời gian phản xạ tính từ lúc âm thanh thật sự phát (MediaPlayer mở file mất một lúc),
+        // quy về giờ server bằng mốc openAt chung của cả hai người chơi
+        long heardFrom = audioStartedLocalMs >= 0 ? audioStartedLocalMs : openedLocalMs;
+        final long answeredAt = openAtServerMs + Math.max(0, ClockSync.localMs() - heardFrom);
+        final int round = currentRound;
+        Task<String> task = new Task<String>() {
+            @Override
+            protected String call() {
+                try {
+                    return client.sendCommand("ANSWER;" + matchId + ";" + round + ";" + answeredAt + ";" + answer);
+                } catch (Exception ex) {
+                    return "ERROR:" + ex.getMessage();
+                }
+            }
+        };
+        task.setOnSucceeded(e -> {
+            String resp = task.getValue();
+            if (resp == null || !resp.startsWith("ANSWER_OK")) {
+                System.err.println("[GameFrame] Answer rejected: " + resp);
+            }
+        });
+        new Thread(task).start();
+    }
+
+    private void playSound(String soundKey) {
+        stopSound();
+        String audioFile = SoundCatalog.audioFileOf(soundKey);
+        if (audioFile != null) {
+            mediaPlayer = SoundManager.getInstance().playSound(audioFile, 0.7);
+            if (mediaPlayer != null) {
+                mediaPlayer.setOnPlaying(() -> {
+                    if (audioStartedLocalMs < 0) audioStartedLocalMs = ClockSync.localMs();
+                });
+            }
+        }
+    }
+
+    private void stopSound() {
+        if (mediaPlayer != null) {
+            mediaPlayer.stop();
+            mediaPlayer.dispose();
+            mediaPlayer = null;
+        }
+    }
+
+    private void stopPhaseTimer() {
+        if (phaseTimer != null) {
+            phaseTimer.stop();
+            phaseTimer = null;
+        }
+    }
+
+    private void stopMatchActivity() {
+        if (pollService != null) {
+            pollService.cancel();
+            pollService = null;
+        }
+        stopPhaseTimer();
+        stopSound();
+    }
+
+    /* ================== Answer button styles ================== */
+    private static final String DEFAULT_STYLE = "-fx-background-color: rgba(220, 220, 220, 0.9); " +
+                                                "-fx-background-radius: 15; " +
+                                                "-fx-text-fill: black; " +
+                                                "-fx-font-size: 18px; " +
+                                                "-fx-font-weight: bold; " +
+                                                "-fx-pref-width: 220; " +
+                                                "-fx-pref-height: 70; " +
+                                                "-fx-opacity: 1.0;";
+    private static final String SELECTED_STYLE = DEFAULT_STYLE.replace("rgba(220, 220, 220, 0.9)", "rgba(255, 235, 59, 1.0)");
+    private static final String CORRECT_STYLE = DEFAULT_STYLE.replace("rgba(220, 220, 220, 0.9)", "rgba(0, 255, 0, 1.0)");
+    private static final String WRONG_STYLE = DEFAULT_STYLE.replace("rgba(220, 220, 220, 0.9)", "rgba(255, 0, 0, 1.0)");
+
+    private void resetAnswerButtons() {
+        for (Button b : new Button[] {btnAnswer1, btnAnswer2, btnAnswer3, btnAnswer4}) {
+            b.setStyle(DEFAULT_STYLE);
+        }
+    }
+
+    private void markSelected(String answer) {
+        for (Button b : new Button[] {btnAnswer1, btnAnswer2, btnAnswer3, btnAnswer4}) {
+            if (b.getText().equals(answer)) b.setStyle(SELECTED_STYLE);
+        }
+    }
+
+    private void highlightAnswer(String correctAnswer) {
+        for (Button b : new Button[] {btnAnswer1, btnAnswer2, btnAnswer3, btnAnswer4}) {
+            if (b.getText().equals(correctAnswer)) {
+                b.setStyle(CORRECT_STYLE);
+            } else if (b.getText().equals(selectedAnswer)) {
+                b.setStyle(WRONG_STYLE);
+            } else {
+                b.setStyle(DEFAULT_STYLE);
+            }
+        }
+        setButtonsEnabled(false);
+    }
+
+    private void setButtonsEnabled(boolean enabled) {
+        btnAnswer1.setDisable(!enabled);
+        btnAnswer2.setDisable(!enabled);
+        btnAnswer3.setDisable(!enabled);
+        btnAnswer4.setDisable(!enabled);
     }
 
     private void showExitConfirmDialog() {
@@ -390,12 +1211,27 @@ public class GameFrame extends Stage {
     }
 
     private void doLeave() {
-        // Optionally tell server later (e.g., SEND/LEAVE). For now just close.
+        sendLeave();
         close();
     }
 
     private void handleClose(WindowEvent e) {
-        // Optionally show confirmation on window close
-        // For now just close
+        // Đóng cửa sổ giữa trận = bỏ trận
+        sendLeave();
+    }
+
+    private void sendLeave() {
+        if (matchEnded || client == null) return;
+        matchEnded = true;
+        stopMatchActivity();
+        if (replayFrom > 0) return; // xem lại: không có gì phải báo server
+        Thread t = new Thread(() -> {
+            try {
+                client.sendCommand(spectating ? "SPECTATE_STOP" : partyMembers != null ? "PARTY_LEAVE" : "LEAVE;" + matchId);
+            } catch (Exception ignored) {
+            }
+        });
+        t.setDaemon(true);
+        t.start();
     }
 }
@@ -9,6 +9,8 @@ import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
@@ -17,6 +19,7 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import javafx.animation.ScaleTransition;
+import javafx.concurrent.ScheduledService;
 import javafx.concurrent.Task;
 import javafx.util.Duration;
 
@@ -24,12 +27,30 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class LeaderboardFrame extends Stage {
+    private static final int PAGE_SIZE = 100;
+    // Khung "Tất cả" được cập nhật trực tiếp: mỗi lượt đọc tối đa chừng này dòng LEADERBOARD_POLL
+    private static final int MAX_LIVE_LINES_PER_POLL = PAGE_SIZE + 2;
+
+    // Khung thời gian: nhãn hiển thị -> giá trị window= gửi lên server
+    private static final String[][] WINDOWS = {
+        {"Tất cả", "all"},
+        {"Hôm nay", "day"},
+        {"Tuần này", "week"},
+        {"Mùa này", "season"}
+    };
+
     private AuthClient client;
     private String username;
     private TableView<LeaderboardData> tableView;
     private ObservableList<LeaderboardData> dataList;
     private HBox userInfoBox;
     private Label userInfoLabel;
+    private String currentWindow = "all";
+    // Đang đăng ký SUBSCRIBE_LEADERBOARD trên server (chỉ khung "all")
+    private volatile boolean subscribed;
+    private ScheduledService<List<String>> liveService;
+    // Sau LEADERBOARD_RESET: vị trí dòng kế tiếp đang được ghi lại; -1 khi không reset
+    private int resetIndex = -1;
 
     public LeaderboardFrame(AuthClient client, String username) {
         super();
@@ -53,6 +74,19 @@ public class LeaderboardFrame extends Stage {
         titleLabel.setTextFill(Color.BLACK);
         titleLabel.setStyle("-fx-padding: 0 0 10 0;");
 
+        // Window selector, next to the title
+        ComboBox<String> windowSelector = new ComboBox<>();
+        for (String[] w : WINDOWS) {
+            windowSelector.getItems().add(w[0]);
+        }
+        windowSelector.getSelectionModel().selectFirst();
+        windowSelector.setStyle("-fx-font-size: 13px; -fx-background-radius: 10;");
+
+        Region titleSpacer = new Region();
+        HBox.setHgrow(titleSpacer, Priority.ALWAYS);
+        HBox titleBar = new HBox(10, titleLabel, titleSpacer, windowSelector);
+        titleBar.setAlignment(Pos.CENTER_LEFT);
+
         // User info panel (will be updated after loading)
         userInfoBox = new HBox(15);
         userInfoBox.setAlignment(Pos.CENTER);
@@ -78,11 +112,21 @@ public class LeaderboardFrame extends Stage {
         VBox contentBox = new VBox(15);
         contentBox.getChildren().addAll(userInfoBox, loadingLabel, tableView);
 
-        root.getChildren().addAll(titleLabel, contentBox);
+        root.getChildren().addAll(titleBar, contentBox);
+
+        windowSelector.setOnAction(e -> {
+            int idx = windowSelector.getSelectionModel().getSelectedIndex();
+            if (idx < 0 || WINDOWS[idx][1].equals(currentWindow)) return;
+            currentWindow = WINDOWS[idx][1];
+            loadingLabel.setText("Đang tải...");
+            loadingLabel.setVisible(true);
+            loadLeaderboard(loadingLabel);
+        });
 
         // Close button with hover effect
         Button btnClose = createCloseButton();
         btnClose.setOnAction(e -> close());
+        setOnHidden(e -> stopLiveUpdates());
 
         HBox buttonBox = new HBox();
         buttonBox.setAlignment(Pos.CENTER);
@@ -308,13 +352,27 @@ public class LeaderboardFrame extends Stage {
             return;
         }
 
+        final String window = currentWindow;
+        final boolean live = window.equals("all");
+        if (liveService != null) liveService.cancel();
         Task<Void> leaderboardTask = new Task<Void>() {
             @Override
             protected Void call() {
                 try {
-                    // Send GET_LEADERBOARD command
-                    String resp = client.sendCommand("GET_LEADERBOARD");
-                    if (resp == null || !resp.startsWith("LEADERBOARD_REQUEST_OK")) {
+                    // "all": đăng ký cửa sổ để nhận cả thay đổi sau này; các khung khác lấy một lần qua mailbox
+                    String resp;
+                    if (live) {
+                        resp = client.sendCommand("SUBSCRIBE_LEADERBOARD;0;" + PAGE_SIZE);
+                        subscribed = resp != null && resp.startsWith("LEADERBOARD_SUBSCRIBED");
+                    } else {
+                        if (subscribed) {
+                            subscribed = false;
+                            client.sendCommand("UNSUBSCRIBE_LEADERBOARD");
+                        }
+                        resp = client.sendCommand("GET_LEADERBOARD;window=" + window + ";0;" + PAGE_SIZE);
+                    }
+                    String okPrefix = live ? "LEADERBOARD_SUBSCRIBED" : "LEADERBOARD_REQUEST_OK";
+                    if (resp == null || !resp.startsWith(okPrefix)) {
                         Platform.runLater(() -> {
                             loadingLabel.setText("Lỗi: " + (resp != null ? resp : "Không có phản hồi"));
                         });
@@ -325,10 +383,10 @@ public class LeaderboardFrame extends Stage {
                     List<LeaderboardData> entries = new ArrayList<>();
                     boolean leaderboardEnd = false;
                     int pollCount = 0;
-                    int maxPolls = 100; // Safety limit
+                    int maxPolls = PAGE_SIZE + 50; // Safety limit: one poll per row plus idle polls
 
                     while (!leaderboardEnd && pollCount < maxPolls) {
-                        String pollResp = client.sendCommand("POLL");
+                        String pollResp = client.sendCommand(live ? "LEADERBOARD_POLL" : "POLL");
                         if (pollResp == null) break;
 
                         if (pollResp.equals("NO_EVENT")) {
@@ -356,26 +414,16 @@ public class LeaderboardFrame extends Stage {
                         pollCount++;
                     }
 
-                    // Set ranks and find current user's info
-                    int currentUserRank = 0;
-                    int currentUserWins = 0;
-                    double currentUserWinRate = 0.0;
-                    
+                    // Set ranks
                     for (int i = 0; i < entries.size(); i++) {
                         entries.get(i).setRank(i + 1);
-                        if (entries.get(i).getUsername().equals(username)) {
-                            currentUserRank = i + 1;
-                            currentUserWins = entries.get(i).getWins();
-                            currentUserWinRate = entries.get(i).getWinRate();
-                        }
                     }
 
                     // Update UI
                     final List<LeaderboardData> finalEntries = entries;
-                    final int finalRank = currentUserRank;
-                    final int finalWins = currentUserWins;
-                    final double finalWinRate = currentUserWinRate;
                     Platform.runLater(() -> {
+                        // Bỏ qua kết quả cũ nếu người dùng đã đổi khung thời gian
+                        if (!window.equals(currentWindow)) return;
                         loadingLabel.setVisible(false);
                         dataList.clear();
                         if (finalEntries.isEmpty()) {
@@ -384,15 +432,8 @@ public class LeaderboardFrame extends Stage {
                             dataList.addAll(finalEntries);
                         }
                         
-                        // Update user info
-                        if (finalRank > 0) {
-                            userInfoLabel.setText(String.format("Tài khoản: %s | Hạng: #%d | Số trận thắng: %d | Tỉ lệ thắng: %.2f%%", 
-                                username, finalRank, finalWins, finalWinRate));
-                            userInfoBox.setVisible(true);
-                        } else {
-                            userInfoLabel.setText("Tài khoản: " + username + " | Chưa có dữ liệu");
-                            userInfoBox.setVisible(true);
-                        }
+                        updateUserInfo();
+                        if (live) startLiveUpdates();
                     });
 
                 } catch (Exception e) {
@@ -408,6 +449,99 @@ public class LeaderboardFrame extends Stage {
         new Thread(leaderboardTask).start();
     }
 
+    private void updateUserInfo() {
+        for (LeaderboardData row : dataList) {
+            if (row.getRank() > 0 && row.getUsername().equals(username)) {
+                userInfoLabel.setText(String.format("Tài khoản: %s | Hạng: #%d | Số trận thắng: %d | Tỉ lệ thắng: %.2f%%",
+                    username, row.getRank(), row.getWins(), row.getWinRate()));
+                userInfoBox.setVisible(true);
+                return;
+            }
+        }
+        userInfoLabel.setText("Tài khoản: " + username + " | Chưa có dữ liệu");
+        userInfoBox.setVisible(true);
+    }
+
+    /* ================== Live updates (window "all") ================== */
+    private void startLiveUpdates() {
+        if (liveService == null) {
+            liveService = new ScheduledService<List<String>>() {
+                @Override
+                protected Task<List<String>> createTask() {
+                    return new Task<List<String>>() {
+                        @Override
+                        protected List<String> call() {
+                            List<String> lines = new ArrayList<>();
+                            try {
+                                for (int i = 0; i < MAX_LIVE_LINES_PER_POLL; i++) {
+                                    String line = client.sendCommand("LEADERBOARD_POLL");
+                                    if (line == null || !line.startsWith("LEADERBOARD")) break;
+                                    lines.add(line);
+                                }
+                            } catch (Exception ex) {
+                                // thử lại ở lượt sau
+                            }
+                            return lines;
+                        }
+                    };
+                }
+            };
+            liveService.setPeriod(Duration.seconds(2));
+            liveService.setDelay(Duration.seconds(2));
+            liveService.setOnSucceeded(e -> applyLiveUpdates(liveService.getValue()));
+        }
+        resetIndex = -1;
+        liveService.restart();
+    }
+
+    /**
+     * Patch the visible rows in place: LEADERBOARD_ROW;rank;username;wins;winRate replaces one row;
+     * after LEADERBOARD_RESET the whole window is resent as LEADERBOARD;... up to LEADERBOARD_END
+     */
+    private void applyLiveUpdates(List<String> lines) {
+        if (lines == null || lines.isEmpty() || !currentWindow.equals("all")) return;
+        for (String line : lines) {
+            String[] p = line.split(";");
+            if (line.startsWith("LEADERBOARD_ROW;") && p.length >= 5) {
+                int rank = Integer.parseInt(p[1]);
+                setRow(rank - 1, new LeaderboardData(rank, p[2], Integer.parseInt(p[3]), Double.parseDouble(p[4])));
+            } else if (line.equals("LEADERBOARD_RESET")) {
+                resetIndex = 0;
+            } else if (line.startsWith("LEADERBOARD;") && resetIndex >= 0 && p.length >= 4) {
+                setRow(resetIndex, new LeaderboardData(resetIndex + 1, p[1], Integer.parseInt(p[2]), Double.parseDouble(p[3])));
+                resetIndex++;
+            } else if (line.equals("LEADERBOARD_END") && resetIndex >= 0) {
+                if (resetIndex < dataList.size()) dataList.remove(resetIndex, dataList.size());
+                resetIndex = -1;
+            }
+        }
+        updateUserInfo();
+    }
+
+    private void setRow(int index, LeaderboardData row) {
+        // Bỏ dòng "Chưa có dữ liệu" khi dòng thật đầu tiên tới
+        if (dataList.size() == 1 && dataList.get(0).getRank() == 0) dataList.clear();
+        if (index < dataList.size()) {
+            dataList.set(index, row);
+        } else if (index == dataList.size()) {
+            dataList.add(row);
+        }
+    }
+
+    private void stopLiveUpdates() {
+        if (liveService != null) liveService.cancel();
+        if (subscribed && client != null) {
+            subscribed = false;
+            new Thread(() -> {
+                try {
+                    client.sendCommand("UNSUBSCRIBE_LEADERBOARD");
+                } catch (Exception ex) {
+                    // server cũng tự hủy khi phiên kết thúc
+                }
+            }).start();
+        }
+    }
+
     // Data class for TableView
     public static class LeaderboardData {
         private int rank;
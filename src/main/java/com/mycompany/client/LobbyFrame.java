@@ -21,8 +21,9 @@ import javafx.stage.WindowEvent;
 import javafx.util.Duration;
 
 import java.io.InputStream;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class LobbyFrame extends Stage {
@@ -31,15 +32,40 @@ public class LobbyFrame extends Stage {
     private final int port;
     private AuthClient client;    
 
-    // Online users list (excluding self)
+    // Bạn bè đang online (để thách đấu): FRIENDS lúc mở sảnh, sau đó cập nhật theo PRESENCE
     private final ListView<String> lstOnline = new ListView<>();
+    private final Map<String, Boolean> friends = new java.util.TreeMap<>();
     
     // Invites / Events log
     private final TextArea taEvent = new TextArea();
+    // Chat sảnh: tin đọc bằng CHAT_POLL cùng nhịp với POLL
+    private static final int CHAT_LINES = 200;
+    private static final int MAX_CHAT_PER_POLL = 20;
+    // Chi tiết vòng của các trận đã mở trong hộp lịch sử, giữ theo lần mở gần nhất (chỉ dùng trên luồng FX)
+    private static final int ROUNDS_CACHE_SIZE = 16;
+    private final Map<Integer, List<String>> roundsCache = new java.util.LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<String>> eldest) {
+            return size() > ROUNDS_CACHE_SIZE;
+        }
+    };
+    private final ListView<String> lstChat = new ListView<>();
+    private final TextField tfChat = new TextField();
 
-    private ScheduledService<Void> whoService;
     private ScheduledService<String> eventService;
 
+    // Hộp thoại thi đấu đang mở (để đóng khi trận bắt đầu) và trạng thái hàng đợi ghép ngẫu nhiên
+    private Stage competitiveDialog;
+    private boolean inQueue = false;
+    // Hộp thoại thách đấu đang mở theo người mời: đóng khi lời mời bị hủy hoặc hết hạn
+    private final Map<String, Stage> challengeDialogs = new HashMap<>();
+    // Phòng nhóm đang tham gia (0 = không có) và hộp thoại của nó, cập nhật theo PARTY_MEMBERS
+    private int partyId = 0;
+    private Stage partyDialog;
+    private final ListView<String> partyMembers = new ListView<>();
+    private final Label partyStatus = new Label();
+    private final Button btnPartyStart = new Button("Bắt đầu");
+
     public LobbyFrame(String username, String host, int port, AuthClient loggedInClient) {
         super();
         this.username = username;
@@ -90,6 +116,11 @@ public class LobbyFrame extends Stage {
         StackPane.setAlignment(btnSoundToggle, Pos.TOP_RIGHT);
         StackPane.setMargin(btnSoundToggle, new Insets(15, 15, 0, 0));
         root.getChildren().add(btnSoundToggle);
+
+        VBox chatPanel = buildChatPanel();
+        StackPane.setAlignment(chatPanel, Pos.BOTTOM_RIGHT);
+        StackPane.setMargin(chatPanel, new Insets(0, 15, 15, 0));
+        root.getChildren().add(chatPanel);
         
         root.setAlignment(Pos.CENTER);
         root.setStyle("-fx-background-color: transparent;");
@@ -114,7 +145,7 @@ public class LobbyFrame extends Stage {
         // Start polling and background music
         setOnShown(e -> {
             startPolling();
-            refreshOnline();
+            refreshFriends();
             SoundManager.getInstance().playBackgroundMusic("/sounds/notification/back_ground.wav");
         });
     }
@@ -231,6 +262,20 @@ public class LobbyFrame extends Stage {
         btnCompetitive.setOnMouseExited(e -> btnCompetitive.setStyle(buttonStyle));
         btnCompetitive.setOnAction(e -> showCompetitiveMatchDialog());
 
+        // Xem trận đấu đang diễn ra
+        Button btnSpectate = new Button("Xem trận đấu");
+        btnSpectate.setStyle(buttonStyle);
+        btnSpectate.setOnMouseEntered(e -> btnSpectate.setStyle(buttonHoverStyle));
+        btnSpectate.setOnMouseExited(e -> btnSpectate.setStyle(buttonStyle));
+        btnSpectate.setOnAction(e -> showLiveMatchesDialog());
+
+        // Phòng nhóm 2..8 người
+        Button btnParty = new Button("Phòng nhóm");
+        btnParty.setStyle(buttonStyle);
+        btnParty.setOnMouseEntered(e -> btnParty.setStyle(buttonHoverStyle));
+        btnParty.setOnMouseExited(e -> btnParty.setStyle(buttonStyle));
+        btnParty.setOnAction(e -> showPartyDialog());
+
         // Luyện tập
         Button btnPractice = new Button("Luyện tập");
         btnPractice.setStyle(buttonStyle);
@@ -278,6 +323,8 @@ public class LobbyFrame extends Stage {
 
         menu.getChildren().addAll(
             btnCompetitive,
+            btnSpectate,
+            btnParty,
             btnPractice,
             btnLeaderboard,
             btnHistory,
@@ -287,6 +334,50 @@ public class LobbyFrame extends Stage {
         return menu;
     }
 
+    private VBox buildChatPanel() {
+        taEvent.setEditable(false);
+        taEvent.setWrapText(true);
+        taEvent.setPrefRowCount(3);
+        lstChat.setPrefHeight(150);
+        tfChat.setPromptText("Nhắn cho cả sảnh...");
+        tfChat.setOnAction(e -> sendChat());
+        Button btnSend = new Button("Gửi");
+        btnSend.setOnAction(e -> sendChat());
+        HBox.setHgrow(tfChat, Priority.ALWAYS);
+        HBox inputRow = new HBox(5, tfChat, btnSend);
+
+        Label title = new Label("Chat sảnh");
+        title.setFont(Font.font("Arial", FontWeight.BOLD, 13));
+        VBox panel = new VBox(5, taEvent, title, lstChat, inputRow);
+        panel.setPadding(new Insets(8));
+        panel.setStyle("-fx-background-color: rgba(255, 255, 255, 0.75); -fx-background-radius: 10;");
+        panel.setMaxSize(300, 290);
+        panel.setPrefSize(300, 290);
+        return panel;
+    }
+
+    private void sendChat() {
+        String text = tfChat.getText().strip();
+        if (text.isEmpty() || client == null) return;
+        tfChat.clear();
+        sendCommandAsync("CHAT;" + text, resp -> {
+            if (resp == null || !resp.startsWith("CHAT_OK")) {
+                event("Không gửi được tin nhắn: " + (resp == null ? "Không có phản hồi" : resp));
+            }
+        });
+    }
+
+    // CHAT;seq;from;text
+    private void appendChat(List<String> frames) {
+        for (String frame : frames) {
+            String[] p = frame.split(";", 4);
+            if (p.length == 4) lstChat.getItems().add(p[2] + ": " + p[3]);
+        }
+        int extra = lstChat.getItems().size() - CHAT_LINES;
+        if (extra > 0) lstChat.getItems().remove(0, extra);
+        lstChat.scrollTo(lstChat.getItems().size() - 1);
+    }
+
     private void updateImageSize(ImageView imageView, Image image, Scene scene) {
         double sceneWidth = scene.getWidth();
         double sceneHeight = scene.getHeight();
@@ -393,8 +484,11 @@ public class LobbyFrame extends Stage {
     }
 
     private void showChallengeDialog(String opponent) {
+        if (challengeDialogs.containsKey(opponent)) return; // lời mời này đang hiển thị
         // Create custom dialog with rounded corners for challenge notification
         Stage dialog = new Stage();
+        challengeDialogs.put(opponent, dialog);
+        dialog.setOnHidden(e -> challengeDialogs.remove(opponent, dialog));
         dialog.initModality(Modality.APPLICATION_MODAL);
         dialog.initOwner(this);
         dialog.setTitle("Thách đấu");
@@ -508,8 +602,7 @@ public class LobbyFrame extends Stage {
     }
 
     private void showCompetitiveMatchDialog() {
-        // Refresh online list first
-        refreshOnline();
+        refreshFriends();
         
         // Create dialog to select opponent
         Stage dialog = new Stage();
@@ -522,7 +615,7 @@ public class LobbyFrame extends Stage {
         dialogRoot.setPadding(new Insets(20));
         dialogRoot.setStyle("-fx-background-color: white;");
 
-        Label titleLabel = new Label("Chọn người chơi để thách đấu:");
+        Label titleLabel = new Label("Chọn bạn bè để thách đấu:");
         titleLabel.setFont(Font.font("Arial", FontWeight.BOLD, 16));
 
         // List of online users (excluding self)
@@ -565,18 +658,51 @@ public class LobbyFrame extends Stage {
                          "-fx-cursor: hand;");
         btnCancel.setOnAction(e -> dialog.close());
 
+        // Ghép ngẫu nhiên với người chơi cùng trình độ
+        Button btnQuickMatch = new Button("Ghép ngẫu nhiên");
+        String quickMatchStyle = "-fx-background-color: #1a5276; " +
+                                 "-fx-background-radius: 10; " +
+                                 "-fx-text-fill: white; " +
+                                 "-fx-font-size: 14px; " +
+                                 "-fx-font-weight: bold; " +
+                                 "-fx-pref-width: 310; " +
+                                 "-fx-pref-height: 35; " +
+                                 "-fx-cursor: hand;";
+        btnQuickMatch.setStyle(quickMatchStyle);
+        btnQuickMatch.setOnAction(e -> toggleQueue(btnQuickMatch));
+
+        // Không có ai để thách đấu: đấu với bot của server
+        Button btnBot = new Button("Đấu với máy");
+        btnBot.setStyle(quickMatchStyle.replace("#1a5276", "#6c3483"));
+        btnBot.setOnAction(e -> playBot());
+
         HBox buttonBox = new HBox(10);
         buttonBox.setAlignment(Pos.CENTER);
         buttonBox.getChildren().addAll(btnChallenge, btnCancel);
 
-        dialogRoot.getChildren().addAll(titleLabel, new ScrollPane(dialogList), buttonBox);
+        Button btnAddFriend = new Button("Thêm bạn");
+        btnAddFriend.setOnAction(e -> addFriend());
+        Button btnRemoveFriend = new Button("Hủy kết bạn");
+        btnRemoveFriend.setOnAction(e -> removeFriend(dialogList.getSelectionModel().getSelectedItem()));
+        HBox friendBox = new HBox(10, btnAddFriend, btnRemoveFriend);
+        friendBox.setAlignment(Pos.CENTER);
+
+        dialogRoot.getChildren().addAll(titleLabel, new ScrollPane(dialogList), friendBox, buttonBox, btnQuickMatch, btnBot);
+        dialogRoot.setAlignment(Pos.TOP_CENTER);
 
-        Scene dialogScene = new Scene(dialogRoot, 350, 450);
+        // Đóng hộp thoại khi đang chờ ghép thì rời hàng đợi
+        dialog.setOnHidden(e -> {
+            competitiveDialog = null;
+            if (inQueue) sendQueueCommand("QUEUE_LEAVE", null);
+        });
+        competitiveDialog = dialog;
+
+        Scene dialogScene = new Scene(dialogRoot, 350, 585);
         dialog.setScene(dialogScene);
         
         // Center dialog relative to lobby window, not screen
         double dialogWidth = 350;
-        double dialogHeight = 450;
+        double dialogHeight = 585;
         double lobbyX = this.getX();
         double lobbyY = this.getY();
         double lobbyWidth = this.getWidth();
@@ -588,41 +714,313 @@ public class LobbyFrame extends Stage {
         dialog.showAndWait();
     }
 
-    /* ================== Poll timers ================== */
-    private void startPolling() {
-        if (whoService == null) {
-            whoService = new ScheduledService<Void>() {
-                @Override
-                protected Task<Void> createTask() {
-                    return new Task<Void>() {
-                        @Override
-                        protected Void call() {
-                            if (client == null) return null;
-                            try {
-                                String resp = client.sendCommand("WHO");
-                                Platform.runLater(() -> {
-                                    if (resp != null && resp.toUpperCase().startsWith("ONLINE;")) {
-                    String list = resp.substring("ONLINE;".length());
-                    List<String> users = Arrays.stream(list.split(","))
-                            .map(String::trim).filter(s -> !s.isEmpty())
-                                                .filter(s -> !s.equals(username)) // Exclude self
-                            .collect(Collectors.toList());
-                                        lstOnline.getItems().clear();
-                                        lstOnline.getItems().addAll(users);
-                                    }
-                                });
-                            } catch (Exception ex) {
-                                // Silent error handling
-                            }
-                return null;
+    /**
+     * Live matches, highest rated first (LIST_LIVE); choosing one sends SPECTATE and opens GameFrame as a viewer
+     */
+    private void showLiveMatchesDialog() {
+        if (client == null) {
+            showCustomAlert("Lỗi", "Không kết nối được đến server.", Alert.AlertType.ERROR);
+            return;
+        }
+        Stage dialog = new Stage();
+        dialog.initModality(Modality.APPLICATION_MODAL);
+        dialog.initOwner(this);
+        dialog.setTitle("Trận đấu đang diễn ra");
+        dialog.setResizable(false);
+
+        VBox dialogRoot = new VBox(15);
+        dialogRoot.setPadding(new Insets(20));
+        dialogRoot.setStyle("-fx-background-color: white;");
+
+        Label titleLabel = new Label("Chọn trận đấu để xem:");
+        titleLabel.setFont(Font.font("Arial", FontWeight.BOLD, 16));
+
+        ListView<String> liveList = new ListView<>();
+        liveList.setPrefHeight(300);
+        liveList.setPrefWidth(380);
+        List<Integer> matchIds = new java.util.ArrayList<>();
+
+        Button btnWatch = new Button("Xem");
+        btnWatch.setStyle("-fx-background-color: #2d5016; " +
+                          "-fx-background-radius: 10; " +
+                          "-fx-text-fill: white; " +
+                          "-fx-font-size: 14px; " +
+                          "-fx-font-weight: bold; " +
+                          "-fx-pref-width: 150; " +
+                          "-fx-pref-height: 35; " +
+                          "-fx-cursor: hand;");
+        btnWatch.setOnAction(e -> {
+            int index = liveList.getSelectionModel().getSelectedIndex();
+            if (index < 0 || index >= matchIds.size()) {
+                showCustomAlert("Cảnh báo", "Vui lòng chọn một trận đấu.", Alert.AlertType.WARNING);
+                return;
             }
-                    };
+            spectate(matchIds.get(index), dialog);
+        });
+
+        Button btnCancel = new Button("Đóng");
+        btnCancel.setStyle("-fx-background-color: #666; " +
+                           "-fx-background-radius: 10; " +
+                           "-fx-text-fill: white; " +
+                           "-fx-font-size: 14px; " +
+                           "-fx-font-weight: bold; " +
+                           "-fx-pref-width: 150; " +
+                           "-fx-pref-height: 35; " +
+                           "-fx-cursor: hand;");
+        btnCancel.setOnAction(e -> dialog.close());
+
+        HBox buttonBox = new HBox(10);
+        buttonBox.setAlignment(Pos.CENTER);
+        buttonBox.getChildren().addAll(btnWatch, btnCancel);
+
+        dialogRoot.getChildren().addAll(titleLabel, liveList, buttonBox);
+        dialogRoot.setAlignment(Pos.TOP_CENTER);
+        dialog.setScene(new Scene(dialogRoot, 420, 430));
+        dialog.setX(this.getX() + (this.getWidth() - 420) / 2);
+        dialog.setY(this.getY() + (this.getHeight() - 430) / 2);
+
+        liveList.getItems().add("Đang tải...");
+        // Tạm dừng POLL của lobby để không "cướp" các dòng LIVE_MATCH
+        stopPolling();
+        Task<List<String[]>> task = new Task<List<String[]>>() {
+            @Override
+            protected List<String[]> call() throws Exception {
+                List<String[]> rows = new java.util.ArrayList<>();
+                String resp = client.sendCommand("LIST_LIVE");
+                if (resp == null || !resp.startsWith("LIVE_MATCHES_REQUEST_OK")) return rows;
+                for (int polls = 0; polls < 50; polls++) {
+                    String ev = client.sendCommand("POLL");
+                    if (ev == null || ev.equals("LIVE_MATCH_END")) break;
+                    if (ev.equals("NO_EVENT")) {
+                        Thread.sleep(100);
+                        continue;
+                    }
+                    // LIVE_MATCH;matchId;p1;rating1;p2;rating2;spectators
+                    if (ev.startsWith("LIVE_MATCH;")) rows.add(ev.split(";"));
                 }
-            };
-            whoService.setPeriod(Duration.seconds(5));
-            whoService.setDelay(Duration.millis(200));
+                return rows;
+            }
+        };
+        task.setOnSucceeded(e -> {
+            startPolling();
+            liveList.getItems().clear();
+            for (String[] p : task.getValue()) {
+                if (p.length < 7) continue;
+                matchIds.add(Integer.parseInt(p[1]));
+                liveList.getItems().add(String.format("%s (%s) vs %s (%s) | %s người xem", p[2], p[3], p[4], p[5], p[6]));
+            }
+            if (matchIds.isEmpty()) liveList.getItems().add("Hiện không có trận đấu nào.");
+        });
+        task.setOnFailed(e -> {
+            startPolling();
+            liveList.getItems().setAll("Lỗi: " + task.getException().getMessage());
+        });
+        new Thread(task).start();
+
+        dialog.showAndWait();
+    }
+
+    /**
+     * Party room: create one or join by id, then wait for the host to start (PARTY_START).
+     * Member list updates arrive as PARTY_MEMBERS through the lobby's POLL.
+     */
+    private void showPartyDialog() {
+        if (client == null) {
+            showCustomAlert("Lỗi", "Không kết nối được đến server.", Alert.AlertType.ERROR);
+            return;
+        }
+        if (partyDialog != null) {
+            partyDialog.toFront();
+            return;
+        }
+        Stage dialog = new Stage();
+        dialog.initOwner(this);
+        dialog.setTitle("Phòng nhóm");
+        dialog.setResizable(false);
+
+        VBox dialogRoot = new VBox(12);
+        dialogRoot.setPadding(new Insets(20));
+        dialogRoot.setStyle("-fx-background-color: white;");
+
+        String buttonStyle = "-fx-background-color: #2d5016; " +
+                             "-fx-background-radius: 10; " +
+                             "-fx-text-fill: white; " +
+                             "-fx-font-size: 14px; " +
+                             "-fx-font-weight: bold; " +
+                             "-fx-pref-width: 120; " +
+                             "-fx-pref-height: 35; " +
+                             "-fx-cursor: hand;";
+
+        Button btnCreate = new Button("Tạo phòng");
+        btnCreate.setStyle(buttonStyle);
+        TextField txtPartyId = new TextField();
+        txtPartyId.setPromptText("Mã phòng");
+        txtPartyId.setPrefWidth(100);
+        Button btnJoin = new Button("Vào phòng");
+        btnJoin.setStyle(buttonStyle);
+        HBox joinBox = new HBox(10, btnCreate, txtPartyId, btnJoin);
+        joinBox.setAlignment(Pos.CENTER);
+
+        partyStatus.setText("Tạo phòng mới hoặc nhập mã phòng để tham gia (2-8 người).");
+        partyStatus.setWrapText(true);
+        partyMembers.getItems().clear();
+        partyMembers.setPrefHeight(200);
+
+        btnPartyStart.setStyle(buttonStyle);
+        btnPartyStart.setDisable(true);
+        Button btnLeave = new Button("Rời phòng");
+        btnLeave.setStyle(buttonStyle.replace("#2d5016", "#666"));
+        HBox actionBox = new HBox(10, btnPartyStart, btnLeave);
+        actionBox.setAlignment(Pos.CENTER);
+
+        btnCreate.setOnAction(e -> sendCommandAsync("PARTY_CREATE", resp -> {
+            if (resp != null && resp.startsWith("PARTY_CREATED;")) {
+                partyId = Integer.parseInt(resp.substring("PARTY_CREATED;".length()));
+                partyStatus.setText("Phòng #" + partyId + " - gửi mã này cho bạn bè.");
+            } else {
+                partyStatus.setText("Không tạo được phòng: " + resp);
+            }
+        }));
+        btnJoin.setOnAction(e -> sendCommandAsync("PARTY_JOIN;" + txtPartyId.getText().trim(), resp -> {
+            if (resp != null && resp.startsWith("PARTY_JOINED;")) {
+                partyId = Integer.parseInt(resp.substring("PARTY_JOINED;".length()));
+                partyStatus.setText("Đã vào phòng #" + partyId + ", chờ chủ phòng bắt đầu.");
+            } else {
+                partyStatus.setText("Không vào được phòng: " + resp);
+            }
+        }));
+        btnPartyStart.setOnAction(e -> sendCommandAsync("PARTY_START", resp -> {
+            if (resp == null || !resp.startsWith("PARTY_START_OK")) partyStatus.setText("Không bắt đầu được: " + resp);
+        }));
+        btnLeave.setOnAction(e -> dialog.close());
+        dialog.setOnHidden(e -> {
+            partyDialog = null;
+            // Đóng hộp thoại trước khi bắt đầu = rời phòng (START_PARTY đã đặt partyId = 0)
+            if (partyId != 0) {
+                partyId = 0;
+                sendCommandAsync("PARTY_LEAVE", resp -> { });
+            }
+        });
+
+        dialogRoot.getChildren().addAll(joinBox, partyStatus, partyMembers, actionBox);
+        dialogRoot.setAlignment(Pos.TOP_CENTER);
+        dialog.setScene(new Scene(dialogRoot, 440, 380));
+        dialog.setX(this.getX() + (this.getWidth() - 440) / 2);
+        dialog.setY(this.getY() + (this.getHeight() - 380) / 2);
+        partyDialog = dialog;
+        dialog.show();
+    }
+
+    private void onPartyMembers(int id, String host, String[] members) {
+        if (id != partyId) return;
+        partyMembers.getItems().setAll(members);
+        partyStatus.setText("Phòng #" + id + " - chủ phòng: " + host + " (" + members.length + "/8)");
+        btnPartyStart.setDisable(!host.equals(username) || members.length < 2);
+    }
+
+    private void sendCommandAsync(String command, java.util.function.Consumer<String> onReply) {
+        Task<String> task = new Task<String>() {
+            @Override
+            protected String call() {
+                try {
+                    return client.sendCommand(command);
+                } catch (Exception ex) {
+                    return "ERROR:" + ex.getMessage();
+                }
+            }
+        };
+        task.setOnSucceeded(e -> onReply.accept(task.getValue()));
+        new Thread(task).start();
+    }
+
+    private void spectate(int matchId, Stage dialogToClose) {
+        stopPolling(); // các sự kiện của trận bắt đầu đến ngay sau SPECTATE_OK
+        Task<String> task = new Task<String>() {
+            @Override
+            protected String call() throws Exception {
+                return client.sendCommand("SPECTATE;" + matchId);
+            }
+        };
+        task.setOnSucceeded(e -> {
+            String resp = task.getValue();
+            // SPECTATE_OK;matchId;p1;p2;score1;score2;round;seed;catalogVersion
+            String[] p = resp == null ? new String[0] : resp.split(";");
+            if (p.length < 9 || !p[0].equals("SPECTATE_OK")) {
+                startPolling();
+                showCustomAlert("Lỗi", "Không thể xem trận: " + (resp == null ? "Không có phản hồi" : resp), Alert.AlertType.ERROR);
+                return;
+            }
+            dialogToClose.close();
+            new GameFrame(p[2], p[3], matchId, Long.parseLong(p[7]), p[8],
+                    Integer.parseInt(p[4]), Integer.parseInt(p[5]), client, this).show();
+            hide();
+        });
+        task.setOnFailed(e -> {
+            startPolling();
+            showCustomAlert("Lỗi", "Không thể xem trận: " + task.getException().getMessage(), Alert.AlertType.ERROR);
+        });
+        new Thread(task).start();
+    }
+
+    private void playBot() {
+        ChoiceDialog<String> choice = new ChoiceDialog<>("Trung bình", "Dễ", "Trung bình", "Khó");
+        choice.initOwner(competitiveDialog != null ? competitiveDialog : this);
+        choice.setTitle("Đấu với máy");
+        choice.setHeaderText(null);
+        choice.setContentText("Độ khó:");
+        choice.showAndWait().ifPresent(level -> {
+            String code = level.equals("Dễ") ? "easy" : level.equals("Khó") ? "hard" : "normal";
+            // Server tự rời hàng đợi; trận bắt đầu bằng START_MATCH qua POLL như mọi trận khác
+            sendCommandAsync("PLAY_BOT;" + code, resp -> {
+                inQueue = false;
+                if (resp == null || !resp.startsWith("PLAY_BOT_OK")) {
+                    showCustomAlert("Lỗi", "Không thể đấu với máy: " + resp, Alert.AlertType.ERROR);
+                }
+            });
+        });
+    }
+
+    private void toggleQueue(Button btnQuickMatch) {
+        if (!inQueue) {
+            sendQueueCommand("QUEUE_JOIN", resp -> {
+                if (resp != null && resp.startsWith("QUEUE_JOINED")) {
+                    btnQuickMatch.setText("Đang tìm đối thủ... (Hủy)");
+                    event("Đang tìm đối thủ cùng trình độ...");
+                } else {
+                    showCustomAlert("Lỗi", "Không thể vào hàng đợi: " + (resp == null ? "Không có phản hồi" : resp), Alert.AlertType.ERROR);
+                }
+            });
+        } else {
+            sendQueueCommand("QUEUE_LEAVE", resp -> {
+                btnQuickMatch.setText("Ghép ngẫu nhiên");
+                event("Đã hủy tìm đối thủ.");
+            });
         }
+    }
+
+    private void sendQueueCommand(String cmd, java.util.function.Consumer<String> onReply) {
+        if (client == null) return;
+        Task<String> task = new Task<String>() {
+            @Override
+            protected String call() {
+                try {
+                    return client.sendCommand(cmd);
+                } catch (Exception ex) {
+                    return "ERROR:" + ex.getMessage();
+                }
+            }
+        };
+        task.setOnSucceeded(e -> {
+            String resp = task.getValue();
+            if (cmd.equals("QUEUE_JOIN")) inQueue = resp != null && resp.startsWith("QUEUE_JOINED");
+            else inQueue = false;
+            if (onReply != null) onReply.accept(resp);
+        });
+        new Thread(task).start();
+    }
 
+    /* ================== Poll timers ================== */
+    private void startPolling() {
         if (eventService == null) {
             eventService = new ScheduledService<String>() {
                 @Override
@@ -632,7 +1030,16 @@ public class LobbyFrame extends Stage {
                         protected String call() {
                             if (client == null) return null;
                             try {
-                                return client.sendCommand("POLL");
+                                String resp = client.sendCommand("POLL");
+                                // Chat: đọc hết tin mới theo con trỏ của phiên, mỗi lượt tối đa MAX_CHAT_PER_POLL
+                                List<String> chat = new java.util.ArrayList<>();
+                                for (int i = 0; i < MAX_CHAT_PER_POLL; i++) {
+                                    String frame = client.sendCommand("CHAT_POLL");
+                                    if (frame == null || !frame.startsWith("CHAT;")) break;
+                                    chat.add(frame);
+                                }
+                                if (!chat.isEmpty()) Platform.runLater(() -> appendChat(chat));
+                                return resp;
                             } catch (Exception ex) {
                 return null;
             }
@@ -652,6 +1059,14 @@ public class LobbyFrame extends Stage {
                     Platform.runLater(() -> {
                         showChallengeDialog(from);
                     });
+                } else if (up.startsWith("INVITE_CANCELLED;") || up.startsWith("INVITE_EXPIRED;")) {
+                    String from = resp.substring(resp.indexOf(';') + 1);
+                    boolean expired = up.startsWith("INVITE_EXPIRED;");
+                    event("Lời thách đấu từ " + from + (expired ? " đã hết hạn." : " đã bị hủy."));
+                    Platform.runLater(() -> {
+                        Stage dialog = challengeDialogs.get(from);
+                        if (dialog != null) dialog.close();
+                    });
                 } else if (up.startsWith("INVITE_RESULT;")) {
                     String[] p = resp.split(";", 3);
                     String who = (p.length > 1) ? p[1] : "?";
@@ -665,54 +1080,140 @@ public class LobbyFrame extends Stage {
                         });
                     }
                 } else if (up.startsWith("START_MATCH;")) {
-                    String opp = resp.substring("START_MATCH;".length());
+                    // START_MATCH;opponent;matchId;seed;catalogVersion
+                    String[] p = resp.split(";");
+                    String opp = (p.length > 1) ? p[1] : "?";
+                    int matchId = (p.length > 2) ? Integer.parseInt(p[2].trim()) : 0;
+                    long seed = (p.length > 3) ? Long.parseLong(p[3].trim()) : 0;
+                    String catalogVersion = (p.length > 4) ? p[4].trim() : "";
                     event("Trận đấu bắt đầu với " + opp + "!");
                     Platform.runLater(() -> {
-                        new GameFrame(username, opp, client).show();
-                        close();
+                        // Lobby chỉ ẩn đi; GameFrame sẽ hiện lại lobby khi trận kết thúc
+                        stopPolling();
+                        inQueue = false; // server đã bỏ khỏi hàng đợi khi ghép cặp
+                        if (competitiveDialog != null) competitiveDialog.close();
+                        new GameFrame(username, opp, matchId, seed, catalogVersion, client, this).show();
+                        hide();
                     });
+                } else if (up.startsWith("PARTY_MEMBERS;")) {
+                    // PARTY_MEMBERS;partyId;host;name1,name2,...
+                    String[] p = resp.split(";", 4);
+                    if (p.length == 4) Platform.runLater(() -> onPartyMembers(Integer.parseInt(p[1]), p[2], p[3].split(",")));
+                } else if (up.startsWith("START_PARTY;")) {
+                    // START_PARTY;partyId;seed;catalogVersion;name1,name2,...
+                    String[] p = resp.split(";", 5);
+                    if (p.length < 5) return;
+                    event("Phòng nhóm #" + p[1] + " bắt đầu!");
+                    Platform.runLater(() -> {
+                        stopPolling();
+                        partyId = 0;
+                        if (partyDialog != null) partyDialog.close();
+                        new GameFrame(username, Integer.parseInt(p[1]), p[4].split(","), client, this).show();
+                        hide();
+                    });
+                } else if (up.startsWith("RESUME;")) {
+                    // Đăng nhập lại khi trận cũ còn giữ ghế: vào lại trận từ ảnh chụp trạng thái
+                    event("Tiếp tục trận đấu đang dở!");
+                    Platform.runLater(() -> {
+                        stopPolling();
+                        inQueue = false;
+                        if (competitiveDialog != null) competitiveDialog.close();
+                        GameFrame.resume(username, resp, client, this).show();
+                        hide();
+                    });
+                } else if (up.startsWith("PRESENCE;")) {
+                    // PRESENCE;name;ONLINE|OFFLINE - chỉ từ bạn bè
+                    String[] p = resp.split(";");
+                    if (p.length < 3 || !friends.containsKey(p[1])) return;
+                    friends.put(p[1], p[2].equals("ONLINE"));
+                    updateOnlineList();
+                } else if (up.startsWith("FRIEND_REQUEST;")) {
+                    String from = resp.substring("FRIEND_REQUEST;".length());
+                    event(from + " muốn kết bạn.");
+                    Platform.runLater(() -> onFriendRequest(from));
+                } else if (up.startsWith("FRIEND_ADDED;")) {
+                    // FRIEND_ADDED;name;online
+                    String[] p = resp.split(";");
+                    if (p.length < 3) return;
+                    event("Bạn và " + p[1] + " đã là bạn bè.");
+                    friends.put(p[1], p[2].equals("1"));
+                    updateOnlineList();
+                } else if (up.startsWith("FRIEND_REMOVED;")) {
+                    String name = resp.substring("FRIEND_REMOVED;".length());
+                    if (friends.remove(name) != null) updateOnlineList();
+                } else if (up.startsWith("ACHIEVEMENT;")) {
+                    // ACHIEVEMENT;id;title - chỉ gửi một lần, khi vừa đạt
+                    String[] p = resp.split(";", 3);
+                    if (p.length < 3) return;
+                    event("Thành tích mới: " + p[2]);
+                    Platform.runLater(() -> showCustomAlert("Thành tích mới", p[2], Alert.AlertType.INFORMATION));
                 }
             });
         }
 
-        if (!whoService.isRunning()) whoService.start();
-        if (!eventService.isRunning()) eventService.start();
+        // restart() vì service có thể đã bị cancel khi vào trận
+        if (!eventService.isRunning()) eventService.restart();
     }
 
     private void stopPolling() {
-        if (whoService != null) whoService.cancel();
         if (eventService != null) eventService.cancel();
     }
 
-    /* ================== WHO (online list) ================== */
-    private void refreshOnline() {
-        if (client == null) return;
-        Task<String> task = new Task<String>() {
-            @Override
-            protected String call() {
-                try {
-                    return client.sendCommand("WHO");
-                } catch (Exception ex) {
-                    return "ERROR:" + ex.getMessage();
-                }
+    /* ================== Friends (online list) ================== */
+    private void refreshFriends() {
+        sendCommandAsync("FRIENDS", resp -> {
+            // FRIENDS;name:1,name:0,...
+            if (resp == null || !resp.startsWith("FRIENDS;")) return;
+            friends.clear();
+            for (String entry : resp.substring("FRIENDS;".length()).split(",")) {
+                int colon = entry.lastIndexOf(':');
+                if (colon > 0) friends.put(entry.substring(0, colon), entry.endsWith(":1"));
             }
-        };
+            updateOnlineList();
+        });
+    }
 
-        task.setOnSucceeded(e -> {
-            String resp = task.getValue();
-            if (resp == null) return;
-            if (resp.toUpperCase().startsWith("ONLINE;")) {
-                String list = resp.substring("ONLINE;".length());
-                List<String> users = Arrays.stream(list.split(","))
-                        .map(String::trim).filter(s -> !s.isEmpty())
-                        .filter(s -> !s.equals(username)) // Exclude self
-                        .collect(Collectors.toList());
-                lstOnline.getItems().clear();
-                lstOnline.getItems().addAll(users);
+    private void updateOnlineList() {
+        lstOnline.getItems().setAll(friends.entrySet().stream()
+                .filter(Map.Entry::getValue).map(Map.Entry::getKey).collect(Collectors.toList()));
+    }
+
+    private void addFriend() {
+        TextInputDialog input = new TextInputDialog();
+        input.initOwner(competitiveDialog != null ? competitiveDialog : this);
+        input.setTitle("Thêm bạn");
+        input.setHeaderText(null);
+        input.setContentText("Tên người chơi:");
+        input.showAndWait().map(String::trim).filter(s -> !s.isEmpty()).ifPresent(name ->
+                sendCommandAsync("FRIEND_ADD;" + name, resp -> {
+                    if (resp != null && resp.startsWith("FRIEND_ADD_OK;PENDING")) {
+                        event("Đã gửi lời mời kết bạn tới " + name + ".");
+                    } else if (resp == null || !resp.startsWith("FRIEND_ADD_OK")) {
+                        showCustomAlert("Lỗi", "Không thể thêm bạn: " + resp, Alert.AlertType.ERROR);
+                    }
+                }));
+    }
+
+    private void removeFriend(String name) {
+        if (name == null) return;
+        sendCommandAsync("FRIEND_REMOVE;" + name, resp -> {
+            if (resp != null && resp.startsWith("FRIEND_REMOVE_OK")) {
+                friends.remove(name);
+                updateOnlineList();
             }
         });
+    }
 
-        new Thread(task).start();
+    private void onFriendRequest(String from) {
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.initOwner(this);
+        alert.setTitle("Lời mời kết bạn");
+        alert.setHeaderText(null);
+        alert.setContentText(from + " muốn kết bạn với bạn. Đồng ý?");
+        alert.showAndWait().ifPresent(button -> {
+            if (button == ButtonType.OK) sendCommandAsync("FRIEND_ADD;" + from, resp -> { });
+            else removeFriend(from);
+        });
     }
 
     /* ================== Invite / Challenge ================== */
@@ -748,6 +1249,15 @@ public class LobbyFrame extends Stage {
                 // No alert when invite is sent successfully - wait for response
                 event("Bạn đã gửi lời thách đấu đến " + to + ".");
                 // Don't close dialog - let user send more invites if needed
+            } else if (resp != null && resp.startsWith("INVITE_PENDING")) {
+                // Lời mời trước vẫn đang chờ: server không gửi lại, cho phép rút lại
+                Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+                        "Bạn đã thách đấu " + to + " và đang chờ phản hồi. Hủy lời thách đấu?",
+                        ButtonType.YES, ButtonType.NO);
+                confirm.initOwner(this);
+                confirm.setTitle("Thách đấu");
+                confirm.setHeaderText(null);
+                confirm.showAndWait().filter(b -> b == ButtonType.YES).ifPresent(b -> cancelInvite(to));
             } else {
                 // Only show error if sending failed
                 showCustomAlert("Lỗi", "Gửi lời thách đấu thất bại: " + (resp == null ? "Không có phản hồi" : resp), Alert.AlertType.ERROR);
@@ -758,6 +1268,30 @@ public class LobbyFrame extends Stage {
         new Thread(task).start();
     }
 
+    private void cancelInvite(String to) {
+        Task<String> task = new Task<String>() {
+            @Override
+            protected String call() {
+                try {
+                    return client.sendCommand("INVITE_CANCEL;" + to);
+                } catch (Exception ex) {
+                    return "ERROR:" + ex.getMessage();
+                }
+            }
+        };
+
+        task.setOnSucceeded(e -> {
+            String resp = task.getValue();
+            if (resp != null && resp.startsWith("INVITE_CANCEL_OK")) {
+                event("Bạn đã hủy lời thách đấu đến " + to + ".");
+            } else {
+                event("Hủy lời thách đấu thất bại: " + (resp == null ? "Không có phản hồi" : resp));
+            }
+        });
+
+        new Thread(task).start();
+    }
+
     private void respondInvite(String opponent, boolean accept) {
         if (client == null) return;
         Task<String> task = new Task<String>() {
@@ -888,8 +1422,21 @@ public class LobbyFrame extends Stage {
         loadingLabel.setFont(Font.font("Arial", 14));
         loadingLabel.setTextFill(Color.GRAY);
         
+        // Chi tiết từng vòng, hiện dưới danh sách khi bấm vào một trận
+        ListView<String> roundsList = new ListView<>();
+        roundsList.setPrefHeight(175);
+        roundsList.setPrefWidth(500);
+        roundsList.setStyle("-fx-background-color: #fafafa; " +
+                            "-fx-background-radius: 12; " +
+                            "-fx-border-radius: 12; " +
+                            "-fx-border-color: #d0d0d0; " +
+                            "-fx-border-width: 2; " +
+                            "-fx-font-size: 12px;");
+        roundsList.setVisible(false);
+        roundsList.setManaged(false);
+
         VBox contentBox = new VBox(15);
-        contentBox.getChildren().addAll(loadingLabel, historyList);
+        contentBox.getChildren().addAll(loadingLabel, historyList, roundsList);
 
         dialogRoot.getChildren().addAll(titleLabel, contentBox);
 
@@ -922,9 +1469,53 @@ public class LobbyFrame extends Stage {
             "-fx-cursor: hand;"));
         btnClose.setOnAction(e -> dialog.close());
 
-        HBox buttonBox = new HBox();
+        // Xem lại trận đã chọn: {matchId, player1, player2} theo đúng thứ tự dòng trong danh sách
+        List<String[]> replayTargets = new java.util.ArrayList<>();
+        Button btnReplay = new Button("Xem lại");
+        btnReplay.setStyle("-fx-background-color: #1a5276; " +
+                           "-fx-background-radius: 15; " +
+                           "-fx-text-fill: white; " +
+                           "-fx-font-size: 14px; " +
+                           "-fx-font-weight: bold; " +
+                           "-fx-pref-width: 120; " +
+                           "-fx-pref-height: 40; " +
+                           "-fx-cursor: hand;");
+        btnReplay.setOnAction(e -> {
+            int index = historyList.getSelectionModel().getSelectedIndex();
+            if (index < 0 || index >= replayTargets.size() || replayTargets.get(index) == null) {
+                showCustomAlert("Cảnh báo", "Vui lòng chọn một trận đấu để xem lại.", Alert.AlertType.WARNING);
+                return;
+            }
+            String[] target = replayTargets.get(index);
+            dialog.close();
+            stopPolling();
+            new GameFrame(Integer.parseInt(target[0]), target[1], target[2], 1, client, this).show();
+            hide();
+        });
+
+        // Bấm vào một trận để mở / đóng chi tiết vòng; chỉ tải khi mở lần đầu
+        int[] expanded = {-1};
+        historyList.setOnMouseClicked(e -> {
+            int index = historyList.getSelectionModel().getSelectedIndex();
+            if (index < 0 || index >= replayTargets.size() || replayTargets.get(index) == null) return;
+            if (index == expanded[0]) {
+                expanded[0] = -1;
+                roundsList.setVisible(false);
+                roundsList.setManaged(false);
+                historyList.setPrefHeight(400);
+                return;
+            }
+            expanded[0] = index;
+            roundsList.setVisible(true);
+            roundsList.setManaged(true);
+            historyList.setPrefHeight(210);
+            String[] target = replayTargets.get(index);
+            showMatchRounds(Integer.parseInt(target[0]), target[1], target[2], roundsList, () -> expanded[0] == index);
+        });
+
+        HBox buttonBox = new HBox(10);
         buttonBox.setAlignment(Pos.CENTER);
-        buttonBox.getChildren().add(btnClose);
+        buttonBox.getChildren().addAll(btnReplay, btnClose);
         dialogRoot.getChildren().add(buttonBox);
 
         Scene dialogScene = new Scene(dialogRoot, 550, 550);
@@ -960,6 +1551,7 @@ public class LobbyFrame extends Stage {
 
                     // Poll for HISTORY messages
                     List<String> matches = new java.util.ArrayList<>();
+                    List<String[]> targets = new java.util.ArrayList<>();
                     boolean historyEnd = false;
                     int pollCount = 0;
                     int maxPolls = 50; // Safety limit
@@ -978,7 +1570,7 @@ public class LobbyFrame extends Stage {
                         }
 
                         if (pollResp.startsWith("HISTORY;")) {
-                            // Parse: HISTORY;player1;player2;score1;score2;winner
+                            // Parse: HISTORY;player1;player2;score1;score2;winner[;matchId]
                             String[] parts = pollResp.split(";");
                             if (parts.length >= 6) {
                                 String p1 = parts[1];
@@ -1010,6 +1602,7 @@ public class LobbyFrame extends Stage {
                                 String displayText = String.format("%s vs %s | Điểm: %d - %d | %s", 
                                     trimmedP1, trimmedP2, score1, score2, resultText);
                                 matches.add(displayText);
+                                targets.add(parts.length >= 7 ? new String[] {parts[6].trim(), trimmedP1, trimmedP2} : null);
                             } else {
                                 System.err.println("[CLIENT] HISTORY message has wrong format. Expected 6 parts, got " + parts.length);
                             }
@@ -1032,6 +1625,7 @@ public class LobbyFrame extends Stage {
                             historyList.getItems().add("Bạn chưa có trận đấu nào.");
                         } else {
                             historyList.getItems().addAll(finalMatches);
+                            replayTargets.addAll(targets);
                         }
                     });
 
@@ -1048,6 +1642,58 @@ public class LobbyFrame extends Stage {
         new Thread(historyTask).start();
     }
 
+    /**
+     * Rounds of a saved match in {@code roundsList}: from roundsCache, otherwise one GET_MATCH_ROUNDS
+     * request. {@code stillWanted} is checked before showing a late reply (the row may have been closed).
+     */
+    private void showMatchRounds(int matchId, String p1, String p2, ListView<String> roundsList,
+                                 java.util.function.BooleanSupplier stillWanted) {
+        List<String> cached = roundsCache.get(matchId);
+        if (cached != null) {
+            roundsList.getItems().setAll(cached);
+            System.out.println("[LobbyFrame] Match #" + matchId + " rounds: cached");
+            return;
+        }
+        roundsList.getItems().setAll("Đang tải chi tiết...");
+        long start = System.nanoTime();
+        sendCommandAsync("GET_MATCH_ROUNDS;" + matchId, resp -> {
+            if (resp == null || !resp.startsWith("MATCH_ROUNDS;")) {
+                if (stillWanted.getAsBoolean()) {
+                    roundsList.getItems().setAll("Không tải được chi tiết: " + (resp != null ? resp : "không có phản hồi"));
+                }
+                return;
+            }
+            System.out.printf("[LobbyFrame] Match #%d rounds: %d bytes in %.1f ms%n", matchId,
+                    resp.getBytes(java.nio.charset.StandardCharsets.UTF_8).length + 1, (System.nanoTime() - start) / 1e6);
+            // MATCH_ROUNDS;matchId;round|round|...
+            String[] p = resp.split(";", 3);
+            List<String> lines = new java.util.ArrayList<>();
+            if (p.length == 3 && !p[2].isEmpty()) {
+                for (String round : p[2].split("\\|")) lines.add(formatRound(round, p1, p2));
+            }
+            roundsCache.put(matchId, lines);
+            if (stillWanted.getAsBoolean()) roundsList.getItems().setAll(lines);
+        });
+    }
+
+    // no,soundKey,correctAnswer,p1,p2,winner[,T] -> "Vòng 3: Đàn guitar | a: đúng 1.2s | b: sai (Sáo) 2.4s"
+    private static String formatRound(String round, String p1, String p2) {
+        String[] f = round.split(",", -1);
+        if (f.length < 6) return round;
+        String title = "Vòng " + f[0] + (f.length > 6 && f[6].equals("T") ? " (tie-break)" : "");
+        String mark = f[5].equals("1") ? " ← " + p1 : f[5].equals("2") ? " ← " + p2 : "";
+        return title + ": " + f[2] + " | " + p1 + ": " + formatAnswer(f[3]) + " | " + p2 + ": " + formatAnswer(f[4]) + mark;
+    }
+
+    // +timeMs (đúng) | -timeMs:answer (sai) | rỗng (không trả lời)
+    private static String formatAnswer(String token) {
+        if (token.isEmpty()) return "không trả lời";
+        if (token.charAt(0) == '+') return String.format("đúng %.1fs", Integer.parseInt(token.substring(1)) / 1000.0);
+        int colon = token.indexOf(':');
+        if (colon < 0) return token;
+        return String.format("sai (%s) %.1fs", token.substring(colon + 1), Integer.parseInt(token.substring(1, colon)) / 1000.0);
+    }
+
     private void handleClose(WindowEvent e) {
         // Stop background music when closing
         SoundManager.getInstance().stopBackgroundMusic();
@@ -1,5 +1,9 @@
 package com.mycompany.client;
 
+import com.mycompany.common.SoundCatalog;
+import com.mycompany.common.SoundCatalog.Question;
+import com.mycompany.common.SplitMix64;
+
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.geometry.Insets;
@@ -18,49 +22,15 @@ import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
 import javafx.util.Duration;
 
-import java.io.BufferedReader;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class PracticeFrame extends Stage {
     
     // Reference to lobby window
     private Stage lobbyWindow = null;
     
-    // Sound data structure
-    private static class SoundData {
-        String id;
-        String displayName;
-        String category;
-        String audioFile;
-        
-        SoundData(String id, String displayName, String category, String audioFile) {
-            this.id = id;
-            this.displayName = displayName;
-            this.category = category;
-            this.audioFile = audioFile;
-        }
-    }
-    
-    // Question data
-    private static class Question {
-        SoundData sound;
-        String questionText;
-        List<String> options;
-        String correctAnswer;
-        
-        Question(SoundData sound, String questionText, List<String> options, String correctAnswer) {
-            this.sound = sound;
-            this.questionText = questionText;
-            this.options = options;
-            this.correctAnswer = correctAnswer;
-        }
-    }
-    
-    private final List<SoundData> allSounds = new ArrayList<>();
-    private final List<Question> questions = new ArrayList<>();
+    private List<Question> questions = new ArrayList<>();
     private int currentQuestionIndex = 0;
     private int correctAnswers = 0;
     private long questionStartTime = 0;
@@ -104,9 +74,6 @@ public class PracticeFrame extends Stage {
         setOnCloseRequest(this::handleClose);
         setOnHidden(e -> showLobbyAgain()); // Show lobby when practice is hidden
         
-        // Load sounds from CSV
-        loadSoundsFromCSV();
-        
         // Generate 10 random questions
         generateQuestions();
         
@@ -147,123 +114,9 @@ public class PracticeFrame extends Stage {
         });
     }
     
-    private void loadSoundsFromCSV() {
-        try {
-            InputStream csvStream = getClass().getResourceAsStream("/Sound.csv");
-            if (csvStream == null) {
-                System.err.println("Cannot find Sound.csv");
-                return;
-            }
-            
-            BufferedReader reader = new BufferedReader(new InputStreamReader(csvStream, "UTF-8"));
-            String line;
-            boolean firstLine = true;
-            
-            while ((line = reader.readLine()) != null) {
-                if (firstLine) {
-                    firstLine = false;
-                    continue; // Skip header
-                }
-                
-                String[] parts = line.split(",");
-                if (parts.length >= 4) {
-                    String id = parts[0].trim();
-                    String displayName = parts[1].trim();
-                    String category = parts[2].trim();
-                    String audioFile = parts[3].trim();
-                    
-                    allSounds.add(new SoundData(id, displayName, category, audioFile));
-                }
-            }
-            reader.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-    
     private void generateQuestions() {
-        Random random = new Random();
-        String[] categories = {"ANIMAL", "INSTRUMENT", "VEHICLE"};
-        String[] questionTexts = {
-            "Đây là âm thanh của con vật gì?",
-            "Đây là âm thanh của nhạc cụ nào?",
-            "Đây là âm thanh của phương tiện nào?"
-        };
-        
-        Map<String, String> categoryToQuestion = new HashMap<>();
-        categoryToQuestion.put("ANIMAL", questionTexts[0]);
-        categoryToQuestion.put("INSTRUMENT", questionTexts[1]);
-        categoryToQuestion.put("VEHICLE", questionTexts[2]);
-        
-        for (int i = 0; i < 10; i++) {
-            // Random category
-            String category = categories[random.nextInt(categories.length)];
-            
-            // Get all sounds of this category
-            List<SoundData> categorySounds = allSounds.stream()
-                .filter(s -> s.category.equals(category))
-                .collect(Collectors.toList());
-            
-            if (categorySounds.isEmpty()) {
-                i--; // Retry this question
-                continue;
-            }
-            
-            // Random sound from category (correct answer)
-            SoundData correctSound = categorySounds.get(random.nextInt(categorySounds.size()));
-            
-            // Generate 3 wrong answers from same category
-            List<SoundData> wrongOptions = categorySounds.stream()
-                .filter(s -> !s.id.equals(correctSound.id))
-                .collect(Collectors.toList());
-            Collections.shuffle(wrongOptions);
-            
-            // Ensure we have exactly 4 options
-            List<String> options = new ArrayList<>();
-            options.add(correctSound.displayName); // Add correct answer
-            
-            // Add wrong answers from same category
-            int wrongCount = Math.min(3, wrongOptions.size());
-            for (int j = 0; j < wrongCount; j++) {
-                options.add(wrongOptions.get(j).displayName);
-            }
-            
-            // If we don't have enough options (less than 4), fill with more from same category (with repetition if needed)
-            while (options.size() < 4 && wrongOptions.size() > 0) {
-                int randomIndex = random.nextInt(wrongOptions.size());
-                String option = wrongOptions.get(randomIndex).displayName;
-                if (!options.contains(option)) {
-                    options.add(option);
-                } else if (wrongOptions.size() == 1) {
-                    // If only one option left and we still need more, add it anyway
-                    options.add(option);
-                }
-            }
-            
-            // Shuffle options to randomize position
-            Collections.shuffle(options);
-            
-            // Ensure we have exactly 4 options
-            while (options.size() < 4) {
-                // Fallback: if somehow we don't have 4, add from all sounds
-                SoundData fallback = allSounds.get(random.nextInt(allSounds.size()));
-                if (!options.contains(fallback.displayName)) {
-                    options.add(fallback.displayName);
-                }
-            }
-            
-            // Trim to exactly 4
-            if (options.size() > 4) {
-                options = options.subList(0, 4);
-            }
-            
-            questions.add(new Question(
-                correctSound,
-                categoryToQuestion.get(category),
-                options,
-                correctSound.displayName
-            ));
-        }
+        // Cùng bộ sinh với trận đấu: một seed ngẫu nhiên mở rộng thành 10 câu
+        questions = Arrays.asList(SoundCatalog.deck(new SplitMix64(new Random().nextLong()), 10));
     }
     
     private void initializeUI() {
@@ -617,7 +470,7 @@ public class PracticeFrame extends Stage {
         setButtonsEnabled(true);
         
         // Play sound
-        playSound(question.sound.audioFile);
+        playSound(question.audioFile);
         
         int[] countdown = {10};
         phaseTimer = new Timeline(new KeyFrame(Duration.seconds(1), e -> {
@@ -646,6 +499,12 @@ public class PracticeFrame extends Stage {
         
         // Use SoundManager to play sound (will check if sound is enabled)
         mediaPlayer = SoundManager.getInstance().playSound(audioFile, 0.7);
+        if (mediaPlayer != null) {
+            // Tính giờ từ lúc âm thanh thật sự phát, không phải lúc tạo MediaPlayer
+            mediaPlayer.setOnPlaying(() -> {
+                if (!answerSubmitted) questionStartTime = System.currentTimeMillis();
+            });
+        }
     }
     
     private void handleAnswer(String answer) {
@@ -0,0 +1,168 @@
+package com.mycompany.common;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * The sound catalog (Sound.csv), shared by the server match engine and the client practice mode.
+ * Loaded once into parallel arrays, with one int index array per category, so
+ * building a question is a partial Fisher–Yates over a few ints: no stream or list copies.
+ *
+ * Matches only send a seed: {@link #matchDeck(long)} expands it identically on the server
+ * and on every client whose Sound.csv has the same {@link #VERSION}.
+ */
+public class SoundCatalog {
+
+    public static class Question {
+        public final String soundKey;
+        public final String audioFile;
+        public final String category;
+        public final String questionText;
+        public final List<String> options;
+        public final String correctAnswer;
+
+        Question(String soundKey, String audioFile, String category, String questionText,
+                 List<String> options, String correctAnswer) {
+            this.soundKey = soundKey;
+            this.audioFile = audioFile;
+            this.category = category;
+            this.questionText = questionText;
+            this.options = options;
+            this.correctAnswer = correctAnswer;
+        }
+    }
+
+    public static final int OPTIONS = 4;
+    /** 10 rounds + 1 tie-break */
+    public static final int MATCH_DECK_SIZE = 11;
+    /** CRC32 of the catalog rows (hex); a seed only means the same deck when versions match */
+    public static final String VERSION;
+
+    private static final String[] CATEGORIES = {"animal", "instrument", "vehicle"};
+    private static final String[] QUESTION_TEXTS = {
+        "Đây là âm thanh của con vật gì?",
+        "Đây là âm thanh của nhạc cụ nào?",
+        "Đây là âm thanh của phương tiện nào?"
+    };
+
+    // Mảng song song theo chỉ số âm thanh
+    private static final List<String> KEYS = new ArrayList<>();
+    private static final List<String> NAMES = new ArrayList<>();
+    private static final List<String> AUDIO = new ArrayList<>();
+    private static final Map<String, Integer> BY_KEY = new HashMap<>();
+    private static final int[][] BY_CATEGORY = new int[CATEGORIES.length][];
+    // Chỉ các thể loại đủ 4 âm thanh mới ra được câu hỏi
+    private static final int[] PLAYABLE;
+
+    static {
+        List<List<Integer>> byCategory = new ArrayList<>();
+        for (int i = 0; i < CATEGORIES.length; i++) byCategory.add(new ArrayList<>());
+        CRC32 crc = new CRC32();
+        try (InputStream in = SoundCatalog.class.getResourceAsStream("/Sound.csv")) {
+            if (in == null) {
+                System.err.println("[SoundCatalog] Cannot find Sound.csv");
+            } else {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                reader.readLine(); // header
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(",");
+                    if (parts.length < 4) continue;
+                    int cat = categoryIndex(parts[2].trim().toLowerCase());
+                    if (cat < 0) continue;
+                    // Băm nội dung đã chuẩn hóa, không phải byte thô: CRLF/LF hay BOM không đổi phiên bản
+                    crc.update((parts[0].trim() + ',' + parts[1].trim() + ',' + CATEGORIES[cat] + '\n')
+                            .getBytes(StandardCharsets.UTF_8));
+                    int idx = KEYS.size();
+                    KEYS.add(parts[0].trim());
+                    NAMES.add(parts[1].trim());
+                    AUDIO.add(parts[3].trim());
+                    BY_KEY.put(parts[0].trim(), idx);
+                    byCategory.get(cat).add(idx);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("[SoundCatalog] Failed to load Sound.csv: " + e.getMessage());
+        }
+
+        VERSION = Long.toHexString(crc.getValue());
+
+        int playable = 0;
+        for (int c = 0; c < CATEGORIES.length; c++) {
+            List<Integer> list = byCategory.get(c);
+            BY_CATEGORY[c] = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) BY_CATEGORY[c][i] = list.get(i);
+            if (list.size() >= OPTIONS) playable++;
+        }
+        PLAYABLE = new int[playable];
+        for (int c = 0, p = 0; c < CATEGORIES.length; c++) {
+            if (BY_CATEGORY[c].length >= OPTIONS) PLAYABLE[p++] = c;
+        }
+    }
+
+    private static int categoryIndex(String category) {
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            if (CATEGORIES[i].equals(category)) return i;
+        }
+        return -1;
+    }
+
+    public static String audioFileOf(String soundKey) {
+        Integer idx = BY_KEY.get(soundKey);
+        return idx == null ? null : AUDIO.get(idx);
+    }
+
+    /**
+     * Build a deck of {@code size} random questions.
+     * Each category's index array is copied once per deck and permuted in place,
+     * so a deck costs a few small int arrays plus the questions themselves.
+     */
+    public static Question[] deck(Random random, int size) {
+        if (PLAYABLE.length == 0) throw new IllegalStateException("Sound catalog has no category with " + OPTIONS + " sounds");
+        int[][] scratch = new int[CATEGORIES.length][];
+        Question[] deck = new Question[size];
+        for (int i = 0; i < size; i++) {
+            int cat = PLAYABLE[random.nextInt(PLAYABLE.length)];
+            if (scratch[cat] == null) scratch[cat] = BY_CATEGORY[cat].clone();
+            deck[i] = question(cat, scratch[cat], random);
+        }
+        return deck;
+    }
+
+    /** The deck a match with this seed plays; identical on server and clients */
+    public static Question[] matchDeck(long seed) {
+        return deck(new SplitMix64(seed), MATCH_DECK_SIZE);
+    }
+
+    public static Question randomQuestion(Random random) {
+        return deck(random, 1)[0];
+    }
+
+    private static Question question(int cat, int[] sounds, Random random) {
+        // Partial Fisher–Yates: 4 phần tử đầu của mảng thành 4 âm thanh ngẫu nhiên khác nhau
+        int n = sounds.length;
+        for (int i = 0; i < OPTIONS; i++) {
+            int j = i + random.nextInt(n - i);
+            int tmp = sounds[i];
+            sounds[i] = sounds[j];
+            sounds[j] = tmp;
+        }
+        // sounds[0] là đáp án đúng; đổi nó vào một vị trí ngẫu nhiên (3 đáp án sai đã ngẫu nhiên sẵn)
+        int correct = sounds[0];
+        int slot = random.nextInt(OPTIONS);
+        String[] options = new String[OPTIONS];
+        for (int i = 0; i < OPTIONS; i++) options[i] = NAMES.get(sounds[i]);
+        options[0] = options[slot];
+        options[slot] = NAMES.get(correct);
+        return new Question(KEYS.get(correct), AUDIO.get(correct), CATEGORIES[cat], QUESTION_TEXTS[cat],
+                List.of(options), NAMES.get(correct));
+    }
+}
@@ -0,0 +1,37 @@
+package com.mycompany.common;
+
+import java.util.Random;
+
+/**
+ * SplitMix64 generator behind the java.util.Random API.
+ * Server and clients expand a match seed with it, so the sequence must never change:
+ * {@link Random#nextInt(int)} is specified in terms of {@link #next(int)}, which makes
+ * the whole question deck a pure function of (seed, Sound.csv).
+ */
+public class SplitMix64 extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private long state;
+
+    public SplitMix64(long seed) {
+        super(0);
+        this.state = seed;
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        this.state = seed; // gọi từ constructor của Random trước khi state được gán lại
+    }
+
+    public long nextLong64() {
+        long z = (state += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong64() >>> (64 - bits));
+    }
+}
@@ -0,0 +1,390 @@
+package com.mycompany.server;
+
+import com.mycompany.common.SoundCatalog;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Achievements, evaluated incrementally from each persisted match instead of re-querying
+ * match_rounds. The rules in achievements.csv are compiled once into predicates over a round
+ * (correct, category, answer time) or a match (won / drawn / lost, perfect); round rules are
+ * indexed by category so a round only visits the rules that can match it.
+ *
+ * Each user keeps one counter per rule: a count rule adds up hits, a streak rule goes back to 0
+ * on a miss. Crossing the target sets the rule's bit and pushes ACHIEVEMENT;id;title through
+ * {@code notify}, once. Progress is loaded from user_achievements at startup and flushed back in
+ * batches, like CategoryStats, including the replay of matches saved after the last flush.
+ */
+public class Achievements {
+    private static final long FLUSH_PERIOD_S = 30;
+
+    // Điều kiện đã biên dịch, dạng bit
+    static final int CORRECT = 1;
+    static final int WON = 1 << 1;
+    static final int DRAWN = 1 << 2;
+    static final int LOST = 1 << 3;
+    static final int PERFECT = 1 << 4;
+
+    public static final Achievements INSTANCE =
+            new Achievements(load("/achievements.csv"), (userId, event) -> Server.box(userId).add(event));
+
+    static final class Rule {
+        final int index;
+        final String id;
+        final String title;
+        final boolean streak;
+        final boolean perRound;
+        final int require;   // các bit phải có
+        final int category;  // -1: mọi thể loại
+        final int underMs;   // thời gian trả lời phải nhỏ hơn
+        final int target;
+        final String event;  // ACHIEVEMENT;id;title, mã hóa sẵn
+
+        Rule(int index, String id, String title, boolean streak, boolean perRound, int require,
+             int category, int underMs, int target) {
+            this.index = index;
+            this.id = id;
+            this.title = title;
+            this.streak = streak;
+            this.perRound = perRound;
+            this.require = require;
+            this.category = category;
+            this.underMs = underMs;
+            this.target = target;
+            this.event = "ACHIEVEMENT;" + id + ";" + title;
+        }
+    }
+
+    static final class Progress {
+        final int[] counters;
+        long unlocked; // bit i: đã đạt luật i
+        long unlockedUnsaved; // đạt nhưng chưa ghi unlocked_at xuống DB
+
+        Progress(int rules) {
+            counters = new int[rules];
+        }
+    }
+
+    private final Rule[] rules;
+    private final int[][] roundRules = new int[CategoryStats.CATEGORIES.length][];
+    private final int[] matchRules;
+    private final UserTable<Progress> progress = new UserTable<>(1024);
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    private final BiConsumer<Integer, String> notify;
+    // Như CategoryStats: áp dụng một trận và chụp bản flush loại trừ nhau
+    private final Object applyLock = new Object();
+    private int appliedThrough;
+    private ScheduledExecutorService flusher;
+    long evaluations; // chỉ dùng cho benchmark
+
+    Achievements(Rule[] rules, BiConsumer<Integer, String> notify) {
+        if (rules.length > Long.SIZE) throw new IllegalArgumentException("At most 64 achievements");
+        this.rules = rules;
+        this.notify = notify;
+        List<Integer> match = new ArrayList<>();
+        for (int c = 0; c < roundRules.length; c++) {
+            List<Integer> list = new ArrayList<>();
+            for (Rule r : rules) if (r.perRound && (r.category < 0 || r.category == c)) list.add(r.index);
+            roundRules[c] = list.stream().mapToInt(Integer::intValue).toArray();
+        }
+        for (Rule r : rules) if (!r.perRound) match.add(r.index);
+        matchRules = match.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /* ================== Rules ================== */
+
+    static Rule[] load(String resource) {
+        List<String> lines = new ArrayList<>();
+        try (InputStream in = Achievements.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                System.err.println("[Achievements] Cannot find " + resource);
+                return new Rule[0];
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            reader.readLine(); // header
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (!line.isBlank()) lines.add(line);
+            }
+        } catch (Exception e) {
+            System.err.println("[Achievements] Failed to load " + resource + ": " + e.getMessage());
+            return new Rule[0];
+        }
+        return compile(lines);
+    }
+
+    /**
+     * id,title,count|streak,round|match,condition,target. Conditions are space separated:
+     * correct, category=NAME, under=MS for rounds; won, drawn, lost, perfect for matches.
+     * A line that does not parse is reported and skipped.
+     */
+    static Rule[] compile(List<String> lines) {
+        List<Rule> rules = new ArrayList<>();
+        for (String line : lines) {
+            String[] f = line.split(",");
+            try {
+                if (f.length < 6) throw new IllegalArgumentException("expected 6 fields");
+                boolean streak = f[2].trim().equals("streak");
+                boolean perRound = f[3].trim().equals("round");
+                int require = 0, category = -1, underMs = Integer.MAX_VALUE;
+                for (String cond : f[4].trim().split("\\s+")) {
+                    if (cond.startsWith("category=")) {
+                        category = CategoryStats.categoryIndex(cond.substring("category=".length()));
+                        if (category < 0) throw new IllegalArgumentException("unknown category " + cond);
+                    } else if (cond.startsWith("under=")) {
+                        underMs = Integer.parseInt(cond.substring("under=".length()));
+                    } else {
+                        require |= switch (cond) {
+                            case "correct" -> CORRECT;
+                            case "won" -> WON;
+                            case "drawn" -> DRAWN;
+                            case "lost" -> LOST;
+                            case "perfect" -> PERFECT;
+                            default -> throw new IllegalArgumentException("unknown condition " + cond);
+                        };
+                    }
+                }
+                if (perRound != ((require & ~CORRECT) == 0)) throw new IllegalArgumentException("condition does not fit " + f[3]);
+                rules.add(new Rule(rules.size(), f[0].trim(), f[1].trim(), streak, perRound, require, category, underMs,
+                        Integer.parseInt(f[5].trim())));
+            } catch (RuntimeException e) {
+                System.err.println("[Achievements] Skipping rule '" + line + "': " + e.getMessage());
+            }
+        }
+        return rules.toArray(new Rule[0]);
+    }
+
+    /* ================== Evaluation ================== */
+
+    /**
+     * Advance both players' counters with a freshly persisted match ({@code matchId} is matches.id,
+     * in increasing order); newly reached achievements are pushed after the player's progress is updated.
+     */
+    public void onMatchPersisted(int matchId, MatchResult result, List<RoundRecord> rounds) {
+        List<Rule>[] reached = apply(matchId, result, rounds);
+        if (reached == null) return;
+        for (int seat = 0; seat < 2; seat++) {
+            if (reached[seat] == null) continue;
+            int userId = seat == 0 ? result.getPlayer1Id() : result.getPlayer2Id();
+            for (Rule r : reached[seat]) notify.accept(userId, r.event);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<Rule>[] apply(int matchId, MatchResult result, List<RoundRecord> rounds) {
+        int winnerId = result.getWinnerId();
+        List<Rule>[] reached = new List[2];
+        synchronized (applyLock) {
+            if (matchId <= appliedThrough) return null; // đã áp dụng khi khởi động
+            for (int seat = 0; seat < 2; seat++) {
+                int userId = seat == 0 ? result.getPlayer1Id() : result.getPlayer2Id();
+                int outcome = winnerId == 0 ? DRAWN : winnerId == userId ? WON : LOST;
+                reached[seat] = evaluate(userId, seat, outcome, rounds);
+            }
+            appliedThrough = matchId;
+        }
+        return reached;
+    }
+
+    private List<Rule> evaluate(int userId, int seat, int outcome, List<RoundRecord> rounds) {
+        Progress p = progress.computeIfAbsent(userId, id -> new Progress(rules.length));
+        List<Rule> reached = null;
+        synchronized (p) {
+            boolean perfect = !rounds.isEmpty();
+            for (RoundRecord r : rounds) {
+                boolean correct = seat == 0 ? r.isP1Correct() : r.isP2Correct();
+                Integer timeMs = seat == 0 ? r.getP1TimeMs() : r.getP2TimeMs();
+                if (!correct) perfect = false;
+                int cat = CategoryStats.categoryIndex(r.getCategory());
+                if (cat < 0) continue;
+                int facts = correct ? CORRECT : 0;
+                int time = timeMs == null ? Integer.MAX_VALUE : timeMs;
+                for (int i : roundRules[cat]) {
+                    Rule rule = rules[i];
+                    reached = step(p, rule, (facts & rule.require) == rule.require && time < rule.underMs, reached);
+                }
+            }
+            int facts = outcome | (perfect ? PERFECT : 0);
+            for (int i : matchRules) {
+                Rule rule = rules[i];
+                reached = step(p, rule, (facts & rule.require) == rule.require, reached);
+            }
+        }
+        dirty.add(userId);
+        return reached;
+    }
+
+    private List<Rule> step(Progress p, Rule rule, boolean hit, List<Rule> reached) {
+        evaluations++;
+        long bit = 1L << rule.index;
+        if ((p.unlocked & bit) != 0) return reached;
+        if (!hit) {
+            if (rule.streak) p.counters[rule.index] = 0;
+            return reached;
+        }
+        if (++p.counters[rule.index] < rule.target) return reached;
+        p.unlocked |= bit;
+        p.unlockedUnsaved |= bit;
+        if (reached == null) reached = new ArrayList<>(2);
+        reached.add(rule);
+        return reached;
+    }
+
+    /* ================== Persistence ================== */
+
+    /**
+     * Load saved progress, replay the rated matches saved after the last flush, and start the
+     * periodic flush. Called once at server start.
+     */
+    public synchronized void start() {
+        if (flusher != null) return;
+        Map<String, Rule> byId = new HashMap<>();
+        for (Rule r : rules) byId.put(r.id, r);
+        List<int[]> rows = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        synchronized (applyLock) {
+            try {
+                Database.loadAchievements(rows, ids);
+                for (int i = 0; i < rows.size(); i++) {
+                    Rule rule = byId.get(ids.get(i));
+                    if (rule == null) continue; // luật đã bị bỏ khỏi achievements.csv
+                    int[] row = rows.get(i);
+                    Progress p = progress.computeIfAbsent(row[0], id -> new Progress(rules.length));
+                    p.counters[rule.index] = row[1];
+                    if (row[2] != 0) p.unlocked |= 1L << rule.index;
+                }
+                System.out.println("[Achievements] " + rules.length + " rules, loaded " + rows.size() + " progress rows");
+                replaySince(Database.loadWatermark("user_achievements"));
+            } catch (SQLException e) {
+                System.err.println("[Achievements] Failed to load progress: " + e.getMessage());
+            }
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "achievements-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_PERIOD_S, FLUSH_PERIOD_S, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "achievements-final-flush"));
+    }
+
+    // Trận đã lưu sau lần flush cuối: áp dụng lại, không báo (người chơi đã rời đi từ lâu)
+    private void replaySince(int watermark) throws SQLException {
+        if (watermark < 0) return;
+        appliedThrough = Math.max(appliedThrough, watermark);
+        List<Integer> ids = new ArrayList<>();
+        List<MatchResult> results = new ArrayList<>();
+        List<List<RoundRecord>> rounds = new ArrayList<>();
+        Database.loadMatchesAfter(watermark, ids, results, rounds, new ArrayList<>());
+        int replayed = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (!results.get(i).isRated()) continue;
+            apply(ids.get(i), results.get(i), rounds.get(i));
+            replayed++;
+        }
+        if (!ids.isEmpty()) appliedThrough = Math.max(appliedThrough, ids.get(ids.size() - 1));
+        if (replayed > 0) System.out.println("[Achievements] Replayed " + replayed + " matches after #" + watermark);
+    }
+
+    void flush() {
+        if (dirty.isEmpty()) return;
+        List<int[]> batch = new ArrayList<>(); // {userId, ruleIndex, progress, unlocked}
+        List<Integer> users = new ArrayList<>();
+        int through;
+        synchronized (applyLock) {
+            through = appliedThrough;
+            for (Integer userId : dirty) {
+                dirty.remove(userId);
+                users.add(userId);
+                Progress p = progress.get(userId);
+                if (p == null) continue;
+                synchronized (p) {
+                    for (Rule r : rules) {
+                        long bit = 1L << r.index;
+                        if (p.counters[r.index] == 0 && (p.unlocked & bit) == 0) continue;
+                        batch.add(new int[] {userId, r.index, p.counters[r.index], (p.unlockedUnsaved & bit) != 0 ? 1 : 0});
+                    }
+                    p.unlockedUnsaved = 0;
+                }
+            }
+        }
+        List<String> ids = new ArrayList<>(batch.size());
+        for (int[] row : batch) ids.add(rules[row[1]].id);
+        try {
+            Database.saveAchievements(batch, ids, through);
+        } catch (SQLException e) {
+            System.err.println("[Achievements] Flush failed, will retry: " + e.getMessage());
+            for (int[] row : batch) {
+                if (row[3] == 0) continue;
+                Progress p = progress.get(row[0]);
+                synchronized (p) {
+                    p.unlockedUnsaved |= 1L << row[1];
+                }
+            }
+            dirty.addAll(users);
+        }
+    }
+
+    /**
+     * Evaluation throughput on synthetic 1v1 matches built from real catalog decks.
+     * Usage: Achievements [users] [matches]
+     */
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int matches = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        long[] unlocks = new long[1];
+        Rule[] rules = load("/achievements.csv");
+        Random random = new Random(42);
+
+        // Dựng trước các trận để chỉ đo phần đánh giá luật
+        List<MatchResult> results = new ArrayList<>(matches);
+        List<List<RoundRecord>> allRounds = new ArrayList<>(matches);
+        for (int m = 0; m < matches; m++) {
+            int a = 1 + random.nextInt(users), b = 1 + random.nextInt(users - 1);
+            if (b >= a) b++;
+            SoundCatalog.Question[] deck = SoundCatalog.matchDeck(random.nextLong());
+            List<RoundRecord> rounds = new ArrayList<>(10);
+            int s1 = 0, s2 = 0;
+            for (int r = 0; r < 10; r++) {
+                SoundCatalog.Question q = deck[r];
+                boolean c1 = random.nextInt(10) < 7, c2 = random.nextInt(10) < 7;
+                if (c1) s1++;
+                if (c2) s2++;
+                rounds.add(new RoundRecord(r + 1, q.soundKey, q.category, q.questionText, q.correctAnswer,
+                        q.correctAnswer, 500 + random.nextInt(5000), c1, q.correctAnswer, 500 + random.nextInt(5000), c2,
+                        c1 == c2 ? "draw" : c1 ? "player1" : "player2", false));
+            }
+            results.add(new MatchResult(a, b, s1, s2, s1 == s2 ? "draw" : s1 > s2 ? "player1" : "player2",
+                    false, 10, null, null));
+            allRounds.add(rounds);
+        }
+
+        for (int pass = 0; pass < 2; pass++) { // lượt đầu để JIT làm nóng
+            Achievements engine = new Achievements(rules, (userId, event) -> unlocks[0]++);
+            unlocks[0] = 0;
+            long start = System.nanoTime();
+            for (int m = 0; m < matches; m++) engine.onMatchPersisted(m + 1, results.get(m), allRounds.get(m));
+            double secs = (System.nanoTime() - start) / 1e9;
+            if (pass == 1) {
+                System.out.printf("[Achievements] %d rules, %,d users, %,d matches: %,.0f matches/s, %,.0f rule evaluations/s%n",
+                        rules.length, users, matches, matches / secs, engine.evaluations / secs);
+                System.out.printf("[Achievements] %,d evaluations (%.1f per match), %,d unlocks pushed, %,d users to flush%n",
+                        engine.evaluations, engine.evaluations / (double) matches, unlocks[0], engine.dirty.size());
+            }
+        }
+    }
+}
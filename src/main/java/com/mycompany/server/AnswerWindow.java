@@ -0,0 +1,58 @@
+package com.mycompany.server;
+
+/**
+ * Answer acceptance and timing shared by MatchRoom and PartyRoom, so a 1v1 match and a party
+ * judge the same answer the same way. Both rooms call these from their own loop.
+ *
+ * A round takes answers once its openAt has passed (EARLY_MS sooner, for the client's clock
+ * estimate) until the room closes it. The time charged is the client's claimed answer time,
+ * clamped to [arrival - maxCorrection, arrival]: nobody answers after the packet arrived, and the
+ * claim may only be as early as the session's one-way delay (half its measured RTT) plus the
+ * client's audio start-up. A claim earlier than that is charged at the bound and counted.
+ */
+final class AnswerWindow {
+    // Trễ mở âm thanh và giao diện phía client, cộng vào RTT/2 khi kẹp thời điểm client khai
+    static final long AUDIO_ALLOWANCE_MS = 250;
+    // Trần tuyệt đối cho phần bù, kể cả khi RTT đo được rất lớn
+    static final long MAX_CORRECTION_MS = 1000;
+    // Đồng hồ client ước lượng lệch một chút: nhận câu trả lời tới sớm hơn giờ mở tối đa chừng này
+    static final long EARLY_MS = 200;
+
+    private AnswerWindow() {
+    }
+
+    /**
+     * Why an answer for {@code roundNo} cannot be taken now, or null if it can.
+     * {@code answering}/{@code reading} are the room's current phase.
+     */
+    static String reject(boolean answering, boolean reading, long receivedMs, long openAtMs,
+                         int roundNo, int round, boolean alreadyAnswered) {
+        boolean open = answering || (reading && receivedMs >= openAtMs - EARLY_MS);
+        if (!open || roundNo != round) return "Not accepting answers for this round";
+        if (alreadyAnswered) return "Already answered";
+        return null;
+    }
+
+    /**
+     * How much earlier than its arrival an answer may claim to be, for a session whose smallest
+     * measured round trip is {@code rttMs} (-1 if it never echoed a PONG)
+     */
+    static long maxCorrectionMs(long rttMs) {
+        return Math.min(MAX_CORRECTION_MS, Math.max(0, rttMs) / 2 + AUDIO_ALLOWANCE_MS);
+    }
+
+    /**
+     * Time charged for an accepted answer, in ms after openAt, within [0, ANSWER_MS].
+     * {@code answeredAtMs} is the client's claim in server time, -1 if it did not send one.
+     */
+    static int elapsedMs(long receivedMs, long openAtMs, long answeredAtMs, long maxCorrectionMs, RoomLoop loop) {
+        long arrivalMs = receivedMs - openAtMs;
+        long elapsedMs = arrivalMs;
+        if (answeredAtMs >= 0) {
+            long claimedMs = answeredAtMs - openAtMs;
+            elapsedMs = Math.max(arrivalMs - maxCorrectionMs, Math.min(claimedMs, arrivalMs));
+            loop.recordCorrection(arrivalMs - elapsedMs, claimedMs < arrivalMs - maxCorrectionMs);
+        }
+        return (int) Math.min(Math.max(0, elapsedMs), MatchRoom.ANSWER_MS);
+    }
+}
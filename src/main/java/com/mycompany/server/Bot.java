@@ -0,0 +1,150 @@
+package com.mycompany.server;
+
+import com.mycompany.common.SoundCatalog;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A server-side opponent in one seat of a MatchRoom. It has no socket and no thread:
+ * the room hands it the same events a client would POLL (on the room's loop), it rebuilds
+ * the deck from the START_MATCH seed like a client does, and for each ROUND_START it
+ * schedules one answer on the shared timer wheel. The answer goes back through the room's
+ * inbox with the same timing rules as a player's ANSWER.
+ */
+public class Bot {
+
+    /**
+     * Skill of a bot level: chance of a correct answer, and a log-normal reaction time
+     * (median and sigma, measured from when answers open). Reactions past the answer
+     * window mean no answer. Override with -Dbot.<level>=accuracy,medianMs,sigma
+     */
+    public static final class Profile {
+        public final String level;
+        public final String username;
+        public final double accuracy;
+        public final long medianMs;
+        public final double sigma;
+        // users.id của tài khoản bot, gán khi khởi động (Bot.start)
+        volatile int userId;
+
+        Profile(String level, double accuracy, long medianMs, double sigma) {
+            this.level = level;
+            this.username = RESERVED_PREFIX + level;
+            String override = System.getProperty("bot." + level);
+            if (override != null) {
+                String[] p = override.split(",");
+                accuracy = Double.parseDouble(p[0].trim());
+                medianMs = Long.parseLong(p[1].trim());
+                sigma = Double.parseDouble(p[2].trim());
+            }
+            this.accuracy = accuracy;
+            this.medianMs = medianMs;
+            this.sigma = sigma;
+        }
+
+        public int userId() {
+            return userId;
+        }
+    }
+
+    // Tên tài khoản bắt đầu bằng chuỗi này chỉ dành cho bot (REGISTER từ chối)
+    public static final String RESERVED_PREFIX = "bot_";
+
+    public static final Profile EASY = new Profile("easy", 0.55, 4000, 0.5);
+    public static final Profile NORMAL = new Profile("normal", 0.75, 2500, 0.45);
+    public static final Profile HARD = new Profile("hard", 0.92, 1300, 0.35);
+    private static final Profile[] PROFILES = {EASY, NORMAL, HARD};
+
+    // Đếm toàn cục, cho BotLoad
+    static final LongAdder ANSWERS = new LongAdder();
+
+    private final MatchRoom room;
+    private final int seat;
+    private final Profile profile;
+    private SoundCatalog.Question[] deck;
+
+    Bot(MatchRoom room, int seat, Profile profile) {
+        this.room = room;
+        this.seat = seat;
+        this.profile = profile;
+    }
+
+    /** Level name (easy / normal / hard) to profile; null if unknown */
+    public static Profile profile(String level) {
+        for (Profile p : PROFILES) if (p.level.equalsIgnoreCase(level)) return p;
+        return null;
+    }
+
+    /**
+     * Find or create the bot accounts (users.is_bot), so bot matches are saved like any other,
+     * unrated. The password is random: nobody can log in as a bot. A player account that already
+     * holds a bot's name is never adopted; that level stays unavailable.
+     */
+    public static void start() {
+        for (Profile p : PROFILES) {
+            try {
+                int id = Database.findBotId(p.username);
+                if (id < 0) {
+                    System.err.println("[Bot] " + p.username + " is a player account; level " + p.level + " disabled");
+                    continue;
+                }
+                if (id == 0) {
+                    Database.registerBot(p.username, Long.toHexString(ThreadLocalRandom.current().nextLong()));
+                    id = Database.findBotId(p.username);
+                }
+                p.userId = id;
+                UserDirectory.register(id, p.username);
+            } catch (SQLException e) {
+                System.err.println("[Bot] Cannot prepare account " + p.username + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * An event for this seat; runs on the room's loop, so it only parses and schedules
+     */
+    void onEvent(String event) {
+        if (event.startsWith("START_MATCH;")) {
+            // START_MATCH;opponent;matchId;seed;catalogVersion
+            String[] p = event.split(";");
+            deck = SoundCatalog.matchDeck(Long.parseLong(p[3]));
+        } else if (event.startsWith("REMATCH_START;")) {
+            // REMATCH_START;matchId;seed;catalogVersion
+            String[] p = event.split(";");
+            deck = SoundCatalog.matchDeck(Long.parseLong(p[2]));
+        } else if (event.startsWith("ROUND_START;")) {
+            // ROUND_START;matchId;round;readMs;answerMs;tiebreak;openAt
+            String[] p = event.split(";", 8);
+            int round = Integer.parseInt(p[2]);
+            long answerMs = Long.parseLong(p[4]);
+            long openAtMs = Long.parseLong(p[6]);
+            if (deck != null && round <= deck.length) planAnswer(deck[round - 1], round, answerMs, openAtMs);
+        }
+    }
+
+    private void planAnswer(SoundCatalog.Question q, int round, long answerMs, long openAtMs) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long reactionMs = Math.round(profile.medianMs * Math.exp(profile.sigma * rnd.nextGaussian()));
+        if (reactionMs >= answerMs) return; // hết giờ: không trả lời
+        String answer = q.correctAnswer;
+        if (rnd.nextDouble() >= profile.accuracy) {
+            // Chọn một phương án sai bất kỳ
+            int wrong = rnd.nextInt(q.options.size() - 1);
+            for (String option : q.options) {
+                if (option.equals(q.correctAnswer)) continue;
+                if (wrong-- == 0) {
+                    answer = option;
+                    break;
+                }
+            }
+        }
+        long answeredAtMs = openAtMs + reactionMs;
+        String chosen = answer;
+        MatchEngine.TIMER.schedule(() -> {
+            ANSWERS.increment();
+            room.botAnswer(seat, round, chosen, System.nanoTime(), answeredAtMs);
+        }, Math.max(0, answeredAtMs - ServerClock.nowMs()));
+    }
+}
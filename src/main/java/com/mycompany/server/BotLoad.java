@@ -0,0 +1,56 @@
+package com.mycompany.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load source: keeps {@code matches} bot-vs-bot matches running on the real MatchEngine
+ * (same loops, timer wheel and answer path as players, nothing saved) and reports what
+ * it costs. Matches run at normal speed, so rounds start staggered after the first minute.
+ * Usage: BotLoad [matches] [seconds]
+ */
+public class BotLoad {
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("match.persist", "false"); // trước khi MatchEngine được nạp
+        int target = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        // Tài khoản giả: không có database, không có BY_USER cho ghế bot
+        Bot.NORMAL.userId = 1;
+        Bot.HARD.userId = 2;
+        QuestionDeckService.start();
+
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        Runtime rt = Runtime.getRuntime();
+        long heapBefore = rt.totalMemory() - rt.freeMemory();
+        long cpuStart = os.getProcessCpuTime();
+        long wallStart = System.nanoTime();
+        long started = 0;
+
+        for (int s = 1; s <= seconds; s++) {
+            // Giữ đủ số trận: trận xong thì mở trận mới
+            while (MatchEngine.runningMatches() < target) {
+                MatchEngine.startBotMatch(Bot.NORMAL, Bot.HARD);
+                started++;
+            }
+            Thread.sleep(1000);
+            if (s % 10 == 0 || s == seconds) {
+                System.out.printf("[BotLoad] %3ds: %,d running, %,d started, %,d answers, cpu %.2f cores%n",
+                        s, MatchEngine.runningMatches(), started, Bot.ANSWERS.sum(),
+                        (os.getProcessCpuTime() - cpuStart) / (double) (System.nanoTime() - wallStart));
+            }
+        }
+
+        long wall = System.nanoTime() - wallStart;
+        long cpu = os.getProcessCpuTime() - cpuStart;
+        long answers = Bot.ANSWERS.sum();
+        System.gc();
+        long heap = rt.totalMemory() - rt.freeMemory() - heapBefore;
+        System.out.printf("[BotLoad] %,d matches: %.2f cores, %,.0f answers/s, %.1f us CPU per answer, ~%,d bytes heap per match%n",
+                target, cpu / (double) wall, answers / (wall / 1e9), answers == 0 ? 0.0 : cpu / 1000.0 / answers,
+                heap / Math.max(1, target));
+        MatchEngine.logLoopStats(TimeUnit.SECONDS.toNanos(seconds));
+        System.exit(0);
+    }
+}
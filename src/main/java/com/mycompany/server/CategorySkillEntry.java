@@ -0,0 +1,31 @@
+package com.mycompany.server;
+
+public class CategorySkillEntry {
+    private final String username;
+    private final int rounds;
+    private final double accuracy; // %
+    private final int medianMs;
+
+    public CategorySkillEntry(String username, int rounds, double accuracy, int medianMs) {
+        this.username = username;
+        this.rounds = rounds;
+        this.accuracy = accuracy;
+        this.medianMs = medianMs;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public double getAccuracy() {
+        return accuracy;
+    }
+
+    public int getMedianMs() {
+        return medianMs;
+    }
+}
@@ -0,0 +1,29 @@
+package com.mycompany.server;
+
+/**
+ * DTO for one row of user_category_stats
+ */
+public class CategoryStatRow {
+    private final int userId;
+    private final String username; // chỉ có khi đọc từ DB
+    private final String category;
+    private final int rounds;
+    private final int correct;
+    private final byte[] timeSketch;
+
+    public CategoryStatRow(int userId, String username, String category, int rounds, int correct, byte[] timeSketch) {
+        this.userId = userId;
+        this.username = username;
+        this.category = category;
+        this.rounds = rounds;
+        this.correct = correct;
+        this.timeSketch = timeSketch;
+    }
+
+    public int getUserId() { return userId; }
+    public String getUsername() { return username; }
+    public String getCategory() { return category; }
+    public int getRounds() { return rounds; }
+    public int getCorrect() { return correct; }
+    public byte[] getTimeSketch() { return timeSketch; }
+}
@@ -0,0 +1,210 @@
+package com.mycompany.server;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-user, per-category accuracy and answer-time aggregates, updated in memory as
+ * rounds are persisted. Rows of match_rounds are not re-read in normal operation: the
+ * aggregates (including the time sketch) are loaded once from user_category_stats at startup
+ * and flushed back in batches. Each flush also records the last match it includes, so after a
+ * crash startup replays only the matches saved since then.
+ */
+public class CategoryStats {
+    public static final String[] CATEGORIES = {"instrument", "animal", "vehicle"};
+
+    // Cần tối thiểu số câu này mới được xếp hạng
+    private static final int MIN_ROUNDS = 10;
+    private static final long TOP_CACHE_MS = 2_000;
+    private static final long FLUSH_PERIOD_S = 30;
+
+    static class Skill {
+        int rounds;
+        int correct;
+        final QuantileSketch times;
+
+        Skill(int rounds, int correct, QuantileSketch times) {
+            this.rounds = rounds;
+            this.correct = correct;
+            this.times = times;
+        }
+    }
+
+    private static class TopList {
+        final List<CategorySkillEntry> entries;
+        final long builtAt;
+
+        TopList(List<CategorySkillEntry> entries, long builtAt) {
+            this.entries = entries;
+            this.builtAt = builtAt;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final UserTable<Skill>[] SKILLS = new UserTable[CATEGORIES.length];
+    private static final TopList[] TOP = new TopList[CATEGORIES.length];
+    // (userId << 2) | categoryIndex của các bản ghi chưa được ghi xuống DB
+    private static final Set<Long> DIRTY = ConcurrentHashMap.newKeySet();
+    // Cộng một trận và chụp bản flush loại trừ nhau, để mốc ghi xuống khớp đúng các dòng
+    private static final Object APPLY = new Object();
+    private static int appliedThrough;
+
+    private static ScheduledExecutorService flusher;
+
+    static {
+        for (int i = 0; i < CATEGORIES.length; i++) SKILLS[i] = new UserTable<>(1024);
+    }
+
+    public static int categoryIndex(String category) {
+        if (category == null) return -1;
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            if (CATEGORIES[i].equalsIgnoreCase(category)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Fold the rounds of a freshly persisted match into both players' aggregates.
+     * Matches arrive in id order ({@code matchId} is matches.id).
+     */
+    public static void onMatchPersisted(int matchId, MatchResult result, List<RoundRecord> rounds) {
+        synchronized (APPLY) {
+            if (matchId <= appliedThrough) return; // đã cộng khi khởi động
+            for (RoundRecord r : rounds) {
+                int cat = categoryIndex(r.getCategory());
+                if (cat < 0) continue;
+                record(result.getPlayer1Id(), cat, r.isP1Correct(), r.getP1TimeMs());
+                record(result.getPlayer2Id(), cat, r.isP2Correct(), r.getP2TimeMs());
+            }
+            appliedThrough = matchId;
+        }
+    }
+
+    static void record(int userId, int cat, boolean correct, Integer timeMs) {
+        Skill s = SKILLS[cat].computeIfAbsent(userId, id -> new Skill(0, 0, new QuantileSketch()));
+        synchronized (s) {
+            s.rounds++;
+            if (correct) s.correct++;
+            if (timeMs != null) s.times.add(timeMs);
+        }
+        DIRTY.add(((long) userId << 2) | cat);
+    }
+
+    /**
+     * Top n users of a category by accuracy, then median answer time (-1 when no answer time
+     * is known, e.g. rows backfilled without times; those sort last). Served from memory;
+     * the sorted list is rebuilt at most every couple of seconds.
+     */
+    public static List<CategorySkillEntry> top(String category, int n) {
+        int cat = categoryIndex(category);
+        if (cat < 0) return List.of();
+        long now = System.currentTimeMillis();
+        TopList cached = TOP[cat];
+        if (cached == null || now - cached.builtAt > TOP_CACHE_MS) {
+            cached = new TopList(buildTop(cat), now);
+            TOP[cat] = cached;
+        }
+        return cached.entries.size() <= n ? cached.entries : cached.entries.subList(0, n);
+    }
+
+    private static List<CategorySkillEntry> buildTop(int cat) {
+        List<CategorySkillEntry> all = new ArrayList<>();
+        SKILLS[cat].forEach((s, userId) -> {
+            String name = UserDirectory.nameOf(userId);
+            if (name == null) return;
+            synchronized (s) {
+                if (s.rounds < MIN_ROUNDS) return;
+                // Sketch rỗng không có nghĩa là trả lời nhanh nhất: để -1 (chưa biết)
+                int median = s.times.count() == 0 ? -1 : s.times.median();
+                all.add(new CategorySkillEntry(name, s.rounds, s.correct * 100.0 / s.rounds, median));
+            }
+        });
+        all.sort(Comparator.comparingDouble(CategorySkillEntry::getAccuracy).reversed()
+                .thenComparingInt((CategorySkillEntry e) -> e.getMedianMs() < 0 ? Integer.MAX_VALUE : e.getMedianMs())
+                .thenComparing(CategorySkillEntry::getUsername));
+        return List.copyOf(all);
+    }
+
+    /**
+     * Load persisted aggregates, replay the rated matches saved after the last flush, and start
+     * the periodic flush. Called once at server start.
+     */
+    public static synchronized void start() {
+        if (flusher != null) return;
+        synchronized (APPLY) {
+            try {
+                List<CategoryStatRow> rows = Database.loadCategoryStats();
+                for (CategoryStatRow row : rows) {
+                    int cat = categoryIndex(row.getCategory());
+                    if (cat < 0) continue;
+                    UserDirectory.register(row.getUserId(), row.getUsername());
+                    SKILLS[cat].put(row.getUserId(),
+                            new Skill(row.getRounds(), row.getCorrect(), QuantileSketch.fromBytes(row.getTimeSketch())));
+                }
+                System.out.println("[CategoryStats] Loaded " + rows.size() + " aggregates");
+                replaySince(Database.loadWatermark("user_category_stats"));
+            } catch (SQLException e) {
+                System.err.println("[CategoryStats] Failed to load aggregates: " + e.getMessage());
+            }
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "category-stats-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(CategoryStats::flush, FLUSH_PERIOD_S, FLUSH_PERIOD_S, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(CategoryStats::flush, "category-stats-final-flush"));
+    }
+
+    // Các trận đã lưu nhưng lần flush cuối chưa kịp ghi (server dừng đột ngột)
+    private static void replaySince(int watermark) throws SQLException {
+        if (watermark < 0) return;
+        appliedThrough = Math.max(appliedThrough, watermark);
+        List<Integer> ids = new ArrayList<>();
+        List<MatchResult> results = new ArrayList<>();
+        List<List<RoundRecord>> rounds = new ArrayList<>();
+        Database.loadMatchesAfter(watermark, ids, results, rounds, new ArrayList<>());
+        int replayed = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (!results.get(i).isRated()) continue;
+            onMatchPersisted(ids.get(i), results.get(i), rounds.get(i));
+            replayed++;
+        }
+        if (!ids.isEmpty()) appliedThrough = Math.max(appliedThrough, ids.get(ids.size() - 1));
+        if (replayed > 0) System.out.println("[CategoryStats] Replayed " + replayed + " matches after #" + watermark);
+    }
+
+    static void flush() {
+        if (DIRTY.isEmpty()) return;
+        List<CategoryStatRow> batch = new ArrayList<>();
+        int through;
+        synchronized (APPLY) {
+            through = appliedThrough;
+            for (Long key : DIRTY) {
+                DIRTY.remove(key);
+                int userId = (int) (key >>> 2);
+                int cat = (int) (key & 3);
+                Skill s = SKILLS[cat].get(userId);
+                if (s == null) continue;
+                synchronized (s) {
+                    batch.add(new CategoryStatRow(userId, null, CATEGORIES[cat], s.rounds, s.correct, s.times.toBytes()));
+                }
+            }
+        }
+        try {
+            Database.saveCategoryStats(batch, through);
+        } catch (SQLException e) {
+            System.err.println("[CategoryStats] Flush failed, will retry: " + e.getMessage());
+            for (CategoryStatRow row : batch) {
+                DIRTY.add(((long) row.getUserId() << 2) | categoryIndex(row.getCategory()));
+            }
+        }
+    }
+}
@@ -4,10 +4,22 @@ import java.io.*;
 import java.net.Socket;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ClientHandler extends Thread {
     private final Socket socket;
     private String currentUser = null;
+    private int currentUserId = 0;
+    // Seq của tin chat sảnh kế tiếp phiên này chưa đọc (LobbyChat)
+    private long chatCursor;
+    // Cửa sổ bảng xếp hạng đang mở ở LeaderboardFrame (Standings), null nếu không có
+    private Standings.Subscription leaderboardSub;
+    // Giờ server của PONG vừa gửi và RTT nhỏ nhất đo được trong lượt đồng bộ gần nhất (-1 = chưa đo)
+    private long lastPongMs = -1;
+    private long minRttMs = -1;
 
     public ClientHandler(Socket socket) { this.socket = socket; }
 
@@ -24,6 +36,7 @@ public class ClientHandler extends Thread {
             String line;
             while ((line = in.readLine()) != null) {
                 try {
+                    long receivedNanos = System.nanoTime();
                     line = line.trim();
                     if (line.isEmpty()) continue;
 
@@ -52,13 +65,41 @@ public class ClientHandler extends Thread {
 
                             // --- NEW: thách đấu ---
                             case "INVITE"   -> handleInvite(parts, out);
+                            case "INVITE_CANCEL" -> handleInviteCancel(parts, out);
                             case "RESPOND"  -> handleRespond(parts, out);
+                            case "ANSWER"   -> handleAnswer(parts, receivedNanos, out);
+                            case "LEAVE"    -> handleLeave(parts, out);
+                            case "GET_DECK" -> handleGetDeck(parts, out);
+                            case "QUEUE_JOIN"  -> handleQueueJoin(out);
+                            case "QUEUE_LEAVE" -> handleQueueLeave(out);
+                            case "PLAY_BOT" -> handlePlayBot(parts, out);
+                            case "REMATCH"  -> handleRematch(parts, out);
+                            case "REMATCH_DECLINE" -> handleRematchDecline(out);
+                            case "SPECTATE" -> handleSpectate(parts, out);
+                            case "SPECTATE_STOP" -> handleSpectateStop(out);
+                            case "LIST_LIVE" -> handleListLive(out);
+                            case "PARTY_CREATE" -> handlePartyCreate(out);
+                            case "PARTY_JOIN"  -> handlePartyJoin(parts, out);
+                            case "PARTY_START" -> handlePartyStart(out);
+                            case "PARTY_LEAVE" -> handlePartyLeave(out);
                         case "POLL"     -> handlePoll(out);
+                        case "CHAT"     -> handleChat(parts, out);
+                        case "CHAT_POLL" -> handleChatPoll(out);
+                        case "FRIENDS"  -> handleFriends(out);
+                        case "FRIEND_ADD" -> handleFriendAdd(parts, out);
+                        case "FRIEND_REMOVE" -> handleFriendRemove(parts, out);
                         case "GET_HISTORY" -> handleGetHistory(parts, out);
+                        case "REPLAY" -> handleReplay(parts, out);
+                        case "GET_MATCH_ROUNDS" -> handleGetMatchRounds(parts, out);
                         case "GET_LEADERBOARD" -> handleGetLeaderboard(parts, out);
+                        case "GET_CATEGORY_LEADERBOARD" -> handleGetCategoryLeaderboard(parts, out);
+                        case "GET_RATING_LEADERBOARD" -> handleGetRatingLeaderboard(parts, out);
+                        case "SUBSCRIBE_LEADERBOARD" -> handleSubscribeLeaderboard(parts, out);
+                        case "LEADERBOARD_POLL" -> handleLeaderboardPoll(out);
+                        case "UNSUBSCRIBE_LEADERBOARD" -> { stopLeaderboard(); out.println("LEADERBOARD_UNSUBSCRIBED"); }
 
                             case "LOGOUT"   -> { handleLogout(out); return; }
-                            case "PING"     -> out.println("PONG");
+                            case "PING"     -> handlePing(parts, receivedNanos, out);
                             case "EXIT"     -> { out.println("BYE"); return; }
                             default         -> out.println("ERROR;Unknown command");
                         }
@@ -87,10 +128,12 @@ public class ClientHandler extends Thread {
             System.err.println("[ClientHandler] Unexpected error: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            stopLeaderboard();
             if (currentUser != null) {
-                Server.ONLINE_USERS.remove(currentUser);
+                signOff(false);
                 System.out.println("[ClientHandler] User " + currentUser + " disconnected");
                 currentUser = null;
+                currentUserId = 0;
             }
             try {
                 if (in != null) in.close();
@@ -106,6 +149,7 @@ public class ClientHandler extends Thread {
         if (parts.length < 3) { out.println("ERROR;Syntax: REGISTER;username;password"); return; }
         String u = parts[1].trim(), p = parts[2].trim();
         if (u.isEmpty() || p.isEmpty()) { out.println("ERROR;Username or password cannot be empty"); return; }
+        if (u.toLowerCase(Locale.ROOT).startsWith(Bot.RESERVED_PREFIX)) { out.println("ERROR;Username is reserved"); return; }
         if (Database.userExists(u))     { out.println("ERROR;Username already exists"); return; }
         Database.registerUser(u, p);
         out.println("REGISTER_OK");
@@ -119,13 +163,25 @@ public class ClientHandler extends Thread {
                 return; 
             }
             String u = parts[1].trim(), p = parts[2].trim();
-            if (Database.checkLogin(u, p)) {
+            int userId = Database.checkLogin(u, p);
+            if (userId > 0) {
                 currentUser = u;
-                Server.ONLINE_USERS.add(currentUser);
-                Server.box(currentUser); // tạo mailbox
+                currentUserId = userId;
+                UserDirectory.register(userId, u);
+                Server.ONLINE_USERS.put(userId, this);
+                Server.box(userId); // tạo mailbox
+                chatCursor = LobbyChat.INSTANCE.historyCursor();
                 out.println("LOGIN_OK");
                 out.flush();
                 System.out.println("[LOGIN] User " + u + " logged in successfully");
+                // Còn giữ ghế trong một trận: ảnh chụp trạng thái (RESUME;...) được đẩy vào mailbox
+                if (MatchEngine.resume(userId)) System.out.println("[LOGIN] " + u + " resuming a match");
+                // Báo bạn bè đang online; LOGIN_OK đã gửi nên lỗi ở đây chỉ ghi log
+                try {
+                    Friends.INSTANCE.login(userId, u);
+                } catch (SQLException e) {
+                    System.err.println("[LOGIN] Cannot load friends of " + u + ": " + e.getMessage());
+                }
             } else {
                 out.println("ERROR;Invalid username or password");
                 out.flush();
@@ -152,28 +208,74 @@ public class ClientHandler extends Thread {
     }
 
     private void handleWho(PrintWriter out) {
-        String joined = String.join(",", Server.ONLINE_USERS);
+        StringBuilder joined = new StringBuilder();
+        Server.ONLINE_USERS.forEach((handler, id) -> {
+            String name = UserDirectory.nameOf(id);
+            if (name == null) return;
+            if (joined.length() > 0) joined.append(',');
+            joined.append(name);
+        });
         out.println("ONLINE;" + joined);
     }
 
+    // ======= FRIENDS =======
+    // Sự kiện qua POLL: PRESENCE;name;ONLINE|OFFLINE (chỉ từ bạn bè), FRIEND_REQUEST;name,
+    // FRIEND_ADDED;name;online, FRIEND_REMOVED;name
+
+    // FRIENDS -> FRIENDS;name:1,name:0,... (1 = online)
+    private void handleFriends(PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        out.println(Friends.INSTANCE.snapshot(currentUserId));
+    }
+
+    // FRIEND_ADD;name -> FRIEND_ADD_OK;PENDING (chờ người kia thêm lại) | FRIEND_ADD_OK;FRIENDS
+    private void handleFriendAdd(String[] parts, PrintWriter out) throws SQLException {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        String name = parts.length >= 2 ? parts[1].trim() : "";
+        int friendId = UserDirectory.idOf(name);
+        if (friendId <= 0) { out.println("ERROR;User not found"); return; }
+        if (friendId == currentUserId) { out.println("ERROR;Cannot add yourself"); return; }
+        out.println(Friends.INSTANCE.add(currentUserId, currentUser, friendId, name));
+    }
+
+    // FRIEND_REMOVE;name -> FRIEND_REMOVE_OK (hủy kết bạn, hoặc từ chối / rút lời mời)
+    private void handleFriendRemove(String[] parts, PrintWriter out) throws SQLException {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        int friendId = UserDirectory.idOf(parts.length >= 2 ? parts[1].trim() : "");
+        if (friendId <= 0) { out.println("ERROR;User not found"); return; }
+        Friends.INSTANCE.remove(currentUserId, currentUser, friendId);
+        out.println("FRIEND_REMOVE_OK");
+    }
+
     // ======= CHALLENGE HANDLERS =======
 
     // INVITE;toUser  -> push sự kiện cho người nhận: INVITE_FROM;fromUser
-    private void handleInvite(String[] parts, PrintWriter out) {
+    // Lời mời hết hạn sau Invites.TTL_MS: INVITE_EXPIRED;fromUser cho người nhận, INVITE_RESULT;toUser;EXPIRED cho người mời
+    private void handleInvite(String[] parts, PrintWriter out) throws SQLException {
         if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
         if (parts.length < 2)    { out.println("ERROR;Syntax: INVITE;toUser"); return; }
         String to = parts[1].trim();
         if (to.isEmpty()) { out.println("ERROR;Missing recipient"); return; }
-        if (!Server.ONLINE_USERS.contains(to)) { out.println("ERROR;User not online"); return; }
-        if (to.equals(currentUser)) { out.println("ERROR;Cannot invite yourself"); return; }
+        int toId = UserDirectory.idOf(to);
+        if (!Server.isOnline(toId)) { out.println("ERROR;User not online"); return; }
+        if (toId == currentUserId) { out.println("ERROR;Cannot invite yourself"); return; }
 
-        // đẩy sự kiện đến người nhận
-        Server.box(to).add("INVITE_FROM;" + currentUser);
-        out.println("INVITE_SENT");
+        // đẩy sự kiện đến người nhận; mời lại khi lời mời cũ còn chờ thì không gửi thêm
+        Invites.SendResult sent = Invites.INSTANCE.send(currentUserId, currentUser, toId, to);
+        out.println(sent == Invites.SendResult.SENT ? "INVITE_SENT" : "INVITE_PENDING");
+    }
+
+    // INVITE_CANCEL;toUser -> người nhận: INVITE_CANCELLED;fromUser
+    private void handleInviteCancel(String[] parts, PrintWriter out) throws SQLException {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        if (parts.length < 2)    { out.println("ERROR;Syntax: INVITE_CANCEL;toUser"); return; }
+        int toId = UserDirectory.idOf(parts[1].trim());
+        if (!Invites.INSTANCE.cancel(currentUserId, toId)) { out.println("ERROR;No pending invite"); return; }
+        out.println("INVITE_CANCEL_OK");
     }
 
     // RESPOND;opponent;ACCEPT|REJECT  -> push kết quả cho người mời: INVITE_RESULT;responder;ACCEPT|REJECT
-    private void handleRespond(String[] parts, PrintWriter out) {
+    private void handleRespond(String[] parts, PrintWriter out) throws SQLException {
         if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
         if (parts.length < 3)    { out.println("ERROR;Syntax: RESPOND;opponent;ACCEPT|REJECT"); return; }
         String opponent = parts[1].trim();
@@ -181,14 +283,284 @@ public class ClientHandler extends Thread {
         if (!decision.equals("ACCEPT") && !decision.equals("REJECT")) {
             out.println("ERROR;Decision must be ACCEPT or REJECT"); return;
         }
-        // gửi kết quả cho người mời
-        Server.box(opponent).add("INVITE_RESULT;" + currentUser + ";" + decision);
-        out.println("RESPOND_OK");
-        // Option: nếu ACCEPT, có thể đẩy thêm START_MATCH cho cả hai ở đây
+        int opponentId = UserDirectory.idOf(opponent);
+        if (opponentId <= 0) { out.println("ERROR;Unknown user"); return; }
+        // Chỉ trả lời được lời mời còn chờ (chưa hết hạn, chưa bị hủy)
+        if (!Invites.INSTANCE.pending(opponentId, currentUserId)) { out.println("ERROR;No pending invite"); return; }
+        // Kiểm tra trước khi lấy lời mời ra: ACCEPT thất bại thì lời mời vẫn còn để thử lại
         if (decision.equals("ACCEPT")) {
-            Server.box(opponent).add("START_MATCH;" + currentUser);
-            Server.box(currentUser).add("START_MATCH;" + opponent);
+            if (!Server.isOnline(opponentId)) { out.println("ERROR;User not online"); return; }
+            if (MatchEngine.isPlaying(opponentId) || MatchEngine.isPlaying(currentUserId)) {
+                out.println("ERROR;Player is already in a match"); return;
+            }
+        }
+        // Lời mời có thể vừa hết hạn hoặc bị hủy giữa lúc kiểm tra và lúc lấy
+        if (Invites.INSTANCE.take(opponentId, currentUserId) == null) { out.println("ERROR;No pending invite"); return; }
+        if (decision.equals("REJECT")) {
+            Server.box(opponentId).add("INVITE_RESULT;" + currentUser + ";REJECT");
+            out.println("RESPOND_OK");
+            return;
+        }
+        // ACCEPT: server tạo trận và đẩy START_MATCH;opponent;matchId cho cả hai
+        Matchmaker.INSTANCE.leave(opponentId);
+        Matchmaker.INSTANCE.leave(currentUserId);
+        if (MatchEngine.startMatch(opponentId, opponent, currentUserId, currentUser) == null) {
+            // Một trong hai vừa vào trận khác: báo lỗi cả hai phía, không có trận nào để chờ
+            Server.box(opponentId).add("INVITE_RESULT;" + currentUser + ";FAILED");
+            out.println("ERROR;Player is already in a match");
+            return;
+        }
+        Server.box(opponentId).add("INVITE_RESULT;" + currentUser + ";ACCEPT");
+        out.println("RESPOND_OK");
+    }
+
+    private static final long ANSWER_REPLY_TIMEOUT_MS = 2000;
+    private static final int LIVE_MATCHES_LIMIT = 20;
+
+    // PING -> PONG; PING;t1[;echo] -> PONG;t1;t2;t3 (giờ server lúc nhận và lúc gửi, để client ước lượng lệch đồng hồ)
+    // echo là t3 của PONG trước: server tự đo RTT trên đồng hồ của mình, client chỉ có thể làm nó lớn thêm
+    private void handlePing(String[] parts, long receivedNanos, PrintWriter out) {
+        if (parts.length < 2) { out.println("PONG"); return; }
+        long receivedMs = ServerClock.toMs(receivedNanos);
+        if (parts.length < 3) {
+            minRttMs = -1; // lượt đồng bộ mới: bỏ số đo cũ
+        } else if (lastPongMs >= 0 && parts[2].trim().equals(String.valueOf(lastPongMs))) {
+            long rtt = receivedMs - lastPongMs;
+            if (minRttMs < 0 || rtt < minRttMs) minRttMs = rtt;
+        }
+        lastPongMs = ServerClock.nowMs();
+        out.println("PONG;" + parts[1].trim() + ";" + receivedMs + ";" + lastPongMs);
+    }
+
+    // ANSWER;matchId;round;answeredAt;answer -> ANSWER_OK, kết quả đến sau qua ROUND_RESULT
+    // answeredAt: thời điểm trả lời theo giờ server do client ước lượng; dạng cũ ANSWER;matchId;round;answer vẫn nhận
+    private void handleAnswer(String[] parts, long receivedNanos, PrintWriter out) throws InterruptedException {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        String[] rest = parts.length >= 3 ? parts[2].split(";", 3) : new String[0];
+        if (rest.length < 2) { out.println("ERROR;Syntax: ANSWER;matchId;round;answeredAt;answer"); return; }
+        int matchId, round;
+        long answeredAt = -1;
+        String answer = rest.length == 3 ? rest[1] + ";" + rest[2] : rest[1];
+        try {
+            matchId = Integer.parseInt(parts[1].trim());
+            round = Integer.parseInt(rest[0].trim());
+            if (rest.length == 3 && rest[1].trim().matches("\\d+")) {
+                answeredAt = Long.parseLong(rest[1].trim());
+                answer = rest[2];
+            }
+        } catch (NumberFormatException e) {
+            out.println("ERROR;Syntax: ANSWER;matchId;round;answeredAt;answer");
+            return;
+        }
+        MatchRoom room = MatchEngine.room(matchId);
+        PartyRoom party = room == null ? MatchEngine.party(matchId) : null;
+        if (room == null && party == null) { out.println("ERROR;Match not found"); return; }
+        // Phòng xử lý câu trả lời trên loop riêng của nó; ở đây chỉ chờ kết quả kiểm tra
+        long maxCorrectionMs = AnswerWindow.maxCorrectionMs(minRttMs);
+        String error;
+        try {
+            error = (room != null
+                    ? room.answer(currentUserId, round, answer.trim(), receivedNanos, answeredAt, maxCorrectionMs)
+                    : party.answer(currentUserId, round, answer.trim(), receivedNanos, answeredAt, maxCorrectionMs))
+                    .get(ANSWER_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            error = "Match is busy, try again";
+        }
+        out.println(error == null ? "ANSWER_OK" : "ERROR;" + error);
+    }
+
+    // LEAVE;matchId -> bỏ trận, đối thủ thắng
+    private void handleLeave(String[] parts, PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        MatchRoom room = MatchEngine.roomOf(currentUserId);
+        if (room == null || (parts.length >= 2 && !parts[1].trim().equals(String.valueOf(room.matchId)))) {
+            out.println("ERROR;Match not found");
+            return;
+        }
+        room.forfeit(currentUserId);
+        out.println("LEAVE_OK");
+    }
+
+    // SPECTATE;matchId -> SPECTATE_OK;matchId;p1;p2;score1;score2;round;seed;catalogVersion,
+    // sau đó ROUND_START / ROUND_RESULT / MATCH_END của trận đến qua POLL như người chơi
+    private void handleSpectate(String[] parts, PrintWriter out) throws InterruptedException {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        if (parts.length < 2) { out.println("ERROR;Syntax: SPECTATE;matchId"); return; }
+        if (MatchEngine.isPlaying(currentUserId)) { out.println("ERROR;Player is already in a match"); return; }
+        int matchId;
+        try {
+            matchId = Integer.parseInt(parts[1].trim());
+        } catch (NumberFormatException e) {
+            out.println("ERROR;Syntax: SPECTATE;matchId");
+            return;
+        }
+        var reply = MatchEngine.spectate(currentUserId, matchId);
+        if (reply == null) { out.println("ERROR;Match not found"); return; }
+        try {
+            out.println(reply.get(ANSWER_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException | TimeoutException e) {
+            MatchEngine.stopSpectating(currentUserId);
+            out.println("ERROR;Match is busy, try again");
+        }
+    }
+
+    // PLAY_BOT[;easy|normal|hard] -> PLAY_BOT_OK, rồi START_MATCH;bot_<level>;... như trận thường
+    private void handlePlayBot(String[] parts, PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        Bot.Profile bot = Bot.profile(parts.length >= 2 ? parts[1].trim() : "normal");
+        if (bot == null) { out.println("ERROR;Level must be easy, normal or hard"); return; }
+        Matchmaker.INSTANCE.leave(currentUserId);
+        if (MatchEngine.startBotMatch(currentUserId, currentUser, bot) == null) {
+            out.println(MatchEngine.isPlaying(currentUserId) ? "ERROR;Player is already in a match" : "ERROR;Bot is not available");
+            return;
+        }
+        out.println("PLAY_BOT_OK");
+    }
+
+    // REMATCH;matchId (trong cửa sổ sau MATCH_END) -> REMATCH_OK; khi cả hai đồng ý, REMATCH_START qua POLL.
+    // Sự kiện: REMATCH_OPEN;matchId;windowMs;nextSeed, REMATCH_REQUESTED;matchId;name, REMATCH_CLOSED;matchId;reason
+    private void handleRematch(String[] parts, PrintWriter out) throws InterruptedException {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        int matchId;
+        try {
+            matchId = Integer.parseInt(parts.length < 2 ? "" : parts[1].trim());
+        } catch (NumberFormatException e) {
+            out.println("ERROR;Syntax: REMATCH;matchId");
+            return;
+        }
+        var reply = MatchEngine.rematch(currentUserId, matchId);
+        if (reply == null) { out.println("ERROR;Rematch is closed"); return; }
+        try {
+            out.println(reply.get(ANSWER_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException | TimeoutException e) {
+            out.println("ERROR;Match is busy, try again");
+        }
+    }
+
+    // REMATCH_DECLINE -> REMATCH_DECLINE_OK, đối thủ nhận REMATCH_CLOSED;matchId;DECLINED
+    private void handleRematchDecline(PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        MatchEngine.declineRematch(currentUserId);
+        out.println("REMATCH_DECLINE_OK");
+    }
+
+    // ======= PARTY ROOMS (2..8 người) =======
+    // Sự kiện qua POLL: PARTY_MEMBERS;partyId;host;names, START_PARTY;partyId;seed;catalogVersion;names,
+    // ROUND_START (kèm câu hỏi), PARTY_ROUND_RESULT, PARTY_LEFT;partyId;name, PARTY_END
+
+    // PARTY_CREATE -> PARTY_CREATED;partyId
+    private void handlePartyCreate(PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        PartyRoom party = MatchEngine.createParty(currentUserId, currentUser);
+        out.println(party == null ? "ERROR;Player is already in a match" : "PARTY_CREATED;" + party.matchId);
+    }
+
+    // PARTY_JOIN;partyId -> PARTY_JOINED;partyId
+    private void handlePartyJoin(String[] parts, PrintWriter out) throws InterruptedException {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        int partyId;
+        try {
+            partyId = Integer.parseInt(parts.length < 2 ? "" : parts[1].trim());
+        } catch (NumberFormatException e) {
+            out.println("ERROR;Syntax: PARTY_JOIN;partyId");
+            return;
+        }
+        if (MatchEngine.isPlaying(currentUserId)) { out.println("ERROR;Player is already in a match"); return; }
+        var reply = MatchEngine.joinParty(currentUserId, currentUser, partyId);
+        if (reply == null) { out.println("ERROR;Party not found"); return; }
+        try {
+            out.println(reply.get(ANSWER_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException | TimeoutException e) {
+            MatchEngine.leaveParty(currentUserId);
+            out.println("ERROR;Party is busy, try again");
+        }
+    }
+
+    // PARTY_START (chủ phòng) -> PARTY_START_OK, mọi thành viên nhận START_PARTY
+    private void handlePartyStart(PrintWriter out) throws InterruptedException {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        PartyRoom party = MatchEngine.partyOf(currentUserId);
+        if (party == null) { out.println("ERROR;Not in a party"); return; }
+        try {
+            out.println(party.start(currentUserId).get(ANSWER_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException | TimeoutException e) {
+            out.println("ERROR;Party is busy, try again");
+        }
+    }
+
+    private void handlePartyLeave(PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        out.println(MatchEngine.leaveParty(currentUserId) ? "PARTY_LEAVE_OK" : "ERROR;Not in a party");
+    }
+
+    private void handleSpectateStop(PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        out.println(MatchEngine.stopSpectating(currentUserId) ? "SPECTATE_STOPPED" : "ERROR;Not spectating");
+    }
+
+    // LIST_LIVE -> các trận đang diễn ra, trận có rating cao nhất trước, qua mailbox
+    private void handleListLive(PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        var mailbox = Server.box(currentUserId);
+        // Format: LIVE_MATCH;matchId;p1;rating1;p2;rating2;spectators
+        for (MatchRoom room : MatchEngine.liveMatches(LIVE_MATCHES_LIMIT)) {
+            mailbox.add("LIVE_MATCH;" + room.matchId + ";" + room.names[0] + ";" + RatingIndex.ratingOf(room.players[0])
+                    + ";" + room.names[1] + ";" + RatingIndex.ratingOf(room.players[1]) + ";" + room.spectatorCount);
         }
+        mailbox.add("LIVE_MATCH_END");
+        out.println("LIVE_MATCHES_REQUEST_OK");
+    }
+
+    // QUEUE_JOIN -> QUEUE_JOINED;rating, khi ghép được cặp server đẩy START_MATCH như thách đấu thường
+    private void handleQueueJoin(PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        if (MatchEngine.isPlaying(currentUserId)) { out.println("ERROR;Player is already in a match"); return; }
+        int rating = RatingIndex.ratingOf(currentUserId);
+        if (!Matchmaker.INSTANCE.join(currentUserId, currentUser, rating)) {
+            out.println("ERROR;Already in queue");
+            return;
+        }
+        out.println("QUEUE_JOINED;" + rating);
+    }
+
+    // QUEUE_LEAVE -> QUEUE_LEFT (hoặc ERROR nếu không còn trong hàng, ví dụ vừa được ghép cặp)
+    private void handleQueueLeave(PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        out.println(Matchmaker.INSTANCE.leave(currentUserId) ? "QUEUE_LEFT" : "ERROR;Not in queue");
+    }
+
+    // GET_DECK;matchId -> client không dựng được bộ câu hỏi từ seed (khác phiên bản Sound.csv):
+    // từ vòng sau, ROUND_START của client này kèm luôn nội dung câu hỏi
+    private void handleGetDeck(String[] parts, PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        MatchRoom room = MatchEngine.roomOf(currentUserId);
+        if (room == null || parts.length < 2 || !parts[1].trim().equals(String.valueOf(room.matchId))) {
+            out.println("ERROR;Match not found");
+            return;
+        }
+        room.requestFullRounds(currentUserId);
+        out.println("GET_DECK_OK");
+    }
+
+    // CHAT;text -> CHAT_OK; mọi phiên đọc tin qua CHAT_POLL
+    private void handleChat(String[] parts, PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        if (parts.length < 2) { out.println("ERROR;Syntax: CHAT;text"); return; }
+        String text = parts.length > 2 ? parts[1] + ";" + parts[2] : parts[1];
+        String error = LobbyChat.INSTANCE.post(currentUserId, currentUser, text);
+        out.println(error == null ? "CHAT_OK" : "ERROR;" + error);
+    }
+
+    // CHAT_POLL -> CHAT;seq;from;text (frame dùng chung cho mọi người đọc) hoặc NO_CHAT
+    private void handleChatPoll(PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        String frame = LobbyChat.INSTANCE.read(chatCursor);
+        if (frame == null) {
+            out.println("NO_CHAT");
+            return;
+        }
+        chatCursor = LobbyChat.seqOf(frame) + 1;
+        out.println(frame);
     }
 
     // POLL -> trả về 1 sự kiện hoặc NO_EVENT
@@ -198,7 +570,7 @@ public class ClientHandler extends Thread {
             out.flush();
             return; 
         }
-        var q = Server.box(currentUser);
+        var q = Server.box(currentUserId);
         String ev = q.poll();
         if (ev == null) {
             out.println("NO_EVENT");
@@ -235,10 +607,10 @@ public class ClientHandler extends Thread {
                 return;
             }
             
-            List<MatchHistory> matches = Database.getLast10Matches(currentUser);
-            var mailbox = Server.box(currentUser);
+            List<MatchHistory> matches = Database.getLast10Matches(currentUserId);
+            var mailbox = Server.box(currentUserId);
             
-            // Send each match as HISTORY;player1;player2;score1;score2;winner
+            // Send each match as HISTORY;player1;player2;score1;score2;winner;matchId
             for (MatchHistory match : matches) {
                 try {
                     // Check for null values
@@ -253,8 +625,8 @@ public class ClientHandler extends Thread {
                         continue;
                     }
                     
-                    // Format: HISTORY;player1;player2;score1;score2;winner
-                    mailbox.add("HISTORY;" + p1 + ";" + p2 + ";" + score1 + ";" + score2 + ";" + winner);
+                    // Format: HISTORY;player1;player2;score1;score2;winner;matchId (matchId dùng cho REPLAY)
+                    mailbox.add("HISTORY;" + p1 + ";" + p2 + ";" + score1 + ";" + score2 + ";" + winner + ";" + match.getMatchId());
                 } catch (Exception e) {
                     System.err.println("[GET_HISTORY] Error processing match: " + e.getMessage());
                     e.printStackTrace();
@@ -291,13 +663,84 @@ public class ClientHandler extends Thread {
         }
     }
 
-    // GET_LEADERBOARD -> send leaderboard via mailbox queue
+    private static final int LEADERBOARD_DEFAULT_LIMIT = 100;
+    private static final int LEADERBOARD_MAX_LIMIT = 500;
+
+    /*
+     * SUBSCRIBE_LEADERBOARD;offset;limit -> LEADERBOARD_SUBSCRIBED;offset;limit. The all-time window is then
+     * read with LEADERBOARD_POLL: its rows (LEADERBOARD;... then LEADERBOARD_END), followed by
+     * LEADERBOARD_ROW;rank;username;wins;winRate for each position that changes as matches finish.
+     */
+    private void handleSubscribeLeaderboard(String[] parts, PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        int offset = 0;
+        int limit = LEADERBOARD_DEFAULT_LIMIT;
+        if (parts.length >= 3) {
+            try {
+                offset = Math.max(0, Integer.parseInt(parts[1].trim()));
+                limit = Math.max(1, Math.min(LEADERBOARD_MAX_LIMIT, Integer.parseInt(parts[2].trim())));
+            } catch (NumberFormatException e) {
+                out.println("ERROR;Syntax: SUBSCRIBE_LEADERBOARD;offset;limit");
+                return;
+            }
+        }
+        stopLeaderboard();
+        leaderboardSub = Standings.subscribe(offset, limit);
+        out.println("LEADERBOARD_SUBSCRIBED;" + offset + ";" + limit);
+    }
+
+    // LEADERBOARD_POLL -> dòng kế tiếp của cửa sổ đã đăng ký, hoặc NO_EVENT
+    private void handleLeaderboardPoll(PrintWriter out) {
+        if (leaderboardSub == null) { out.println("ERROR;Not subscribed"); return; }
+        String line = Standings.poll(leaderboardSub);
+        out.println(line == null ? "NO_EVENT" : line);
+    }
+
+    private void stopLeaderboard() {
+        if (leaderboardSub != null) {
+            Standings.unsubscribe(leaderboardSub);
+            leaderboardSub = null;
+        }
+    }
+
+    // GET_LEADERBOARD[;window=all|day|week|season][;offset;limit] -> send one leaderboard page via mailbox queue
     private void handleGetLeaderboard(String[] parts, PrintWriter out) {
         try {
-            List<LeaderboardEntry> leaderboard = Database.getLeaderboard();
-            // Use currentUser if available, otherwise use a temporary mailbox
-            String userKey = currentUser != null ? currentUser : "anonymous";
-            var mailbox = Server.box(userKey);
+            // Results travel through the caller's mailbox, which only exists after login
+            if (currentUser == null) {
+                out.println("ERROR;Unauthenticated");
+                out.flush();
+                return;
+            }
+            // parts chỉ tách tối đa 3 phần, nên ghép lại rồi tách toàn bộ tham số
+            String[] args = parts.length > 1
+                    ? String.join(";", java.util.Arrays.copyOfRange(parts, 1, parts.length)).split(";")
+                    : new String[0];
+            LeaderboardWindow window = LeaderboardWindow.ALL;
+            int argIdx = 0;
+            if (args.length > 0 && args[0].trim().toLowerCase().startsWith("window=")) {
+                window = LeaderboardWindow.parse(args[0].trim().substring("window=".length()));
+                if (window == null) {
+                    out.println("ERROR;Window must be all, day, week or season");
+                    out.flush();
+                    return;
+                }
+                argIdx = 1;
+            }
+            int offset = 0;
+            int limit = LEADERBOARD_DEFAULT_LIMIT;
+            if (args.length >= argIdx + 2) {
+                try {
+                    offset = Math.max(0, Integer.parseInt(args[argIdx].trim()));
+                    limit = Math.max(1, Math.min(LEADERBOARD_MAX_LIMIT, Integer.parseInt(args[argIdx + 1].trim())));
+                } catch (NumberFormatException e) {
+                    out.println("ERROR;Syntax: GET_LEADERBOARD;window=week;offset;limit");
+                    out.flush();
+                    return;
+                }
+            }
+            List<LeaderboardEntry> leaderboard = LeaderboardService.getPage(window, offset, limit);
+            var mailbox = Server.box(currentUserId);
             
             // Send each entry as LEADERBOARD;username;wins;winRate
             for (LeaderboardEntry entry : leaderboard) {
@@ -309,7 +752,7 @@ public class ClientHandler extends Thread {
             mailbox.add("LEADERBOARD_END");
             
             // Log summary only - one line
-            System.out.println("[GET_LEADERBOARD] Leaderboard sent to " + (currentUser != null ? currentUser : "anonymous"));
+            System.out.println("[GET_LEADERBOARD] Leaderboard sent to " + currentUser);
             
             out.println("LEADERBOARD_REQUEST_OK");
             out.flush();
@@ -334,11 +777,111 @@ public class ClientHandler extends Thread {
         }
     }
 
+    // GET_MATCH_ROUNDS;matchId -> MATCH_ROUNDS;matchId;... (một dòng, xem MatchRounds), chỉ cho người đã chơi trận đó
+    private void handleGetMatchRounds(String[] parts, PrintWriter out) throws SQLException {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        int matchId;
+        try {
+            matchId = Integer.parseInt(parts.length >= 2 ? parts[1].trim() : "");
+        } catch (NumberFormatException e) {
+            out.println("ERROR;Syntax: GET_MATCH_ROUNDS;matchId");
+            return;
+        }
+        List<RoundRecord> rounds = Database.getMatchRounds(matchId, currentUserId);
+        if (rounds.isEmpty()) { out.println("ERROR;Match not found"); return; }
+        out.println(MatchRounds.encode(matchId, rounds));
+    }
+
+    // REPLAY;matchId[;round] -> REPLAY_OK;matchId;p1;p2;totalRounds;firstRound, rồi qua mailbox:
+    // REPLAY_ROUND;... cho từng vòng từ round trở đi và REPLAY_END;...
+    private void handleReplay(String[] parts, PrintWriter out) throws IOException, SQLException {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        if (parts.length < 2) { out.println("ERROR;Syntax: REPLAY;matchId;round"); return; }
+        int matchId, round;
+        try {
+            matchId = Integer.parseInt(parts[1].trim());
+            round = parts.length >= 3 ? Integer.parseInt(parts[2].trim()) : 1;
+        } catch (NumberFormatException e) {
+            out.println("ERROR;Syntax: REPLAY;matchId;round");
+            return;
+        }
+        // Chỉ người chơi của trận mới xem lại được, như GET_MATCH_ROUNDS
+        if (!Database.playedIn(matchId, currentUserId)) { out.println("ERROR;Replay not found"); return; }
+        ReplayLog.Replay replay = ReplayLog.INSTANCE.read(matchId, round);
+        if (replay == null) { out.println("ERROR;Replay not found"); return; }
+
+        var mailbox = Server.box(currentUserId);
+        for (String event : replay.rounds) mailbox.add(event);
+        mailbox.add(replay.end);
+        out.println("REPLAY_OK;" + matchId + ";" + replay.player1 + ";" + replay.player2 + ";"
+                + replay.totalRounds + ";" + replay.firstRound);
+    }
+
+    // GET_CATEGORY_LEADERBOARD;category -> top players of a category, served from memory via mailbox
+    private void handleGetCategoryLeaderboard(String[] parts, PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        if (parts.length < 2)    { out.println("ERROR;Syntax: GET_CATEGORY_LEADERBOARD;instrument|animal|vehicle"); return; }
+        String category = parts[1].trim().toLowerCase();
+        if (CategoryStats.categoryIndex(category) < 0) {
+            out.println("ERROR;Category must be instrument, animal or vehicle");
+            return;
+        }
+
+        var mailbox = Server.box(currentUserId);
+        // Format: CATEGORY_LEADERBOARD;category;username;rounds;accuracy;medianMs (-1: chưa có thời gian)
+        for (CategorySkillEntry entry : CategoryStats.top(category, LEADERBOARD_DEFAULT_LIMIT)) {
+            mailbox.add(String.format("CATEGORY_LEADERBOARD;%s;%s;%d;%.2f;%d",
+                category, entry.getUsername(), entry.getRounds(), entry.getAccuracy(), entry.getMedianMs()));
+        }
+        mailbox.add("CATEGORY_LEADERBOARD_END");
+        out.println("CATEGORY_LEADERBOARD_REQUEST_OK");
+    }
+
+    // GET_RATING_LEADERBOARD[;offset;limit] -> players by Elo rating, from RatingIndex via mailbox
+    private void handleGetRatingLeaderboard(String[] parts, PrintWriter out) {
+        if (currentUser == null) { out.println("ERROR;Unauthenticated"); return; }
+        int offset = 0;
+        int limit = LEADERBOARD_DEFAULT_LIMIT;
+        try {
+            if (parts.length >= 2 && !parts[1].isBlank()) offset = Math.max(0, Integer.parseInt(parts[1].trim()));
+            if (parts.length >= 3 && !parts[2].isBlank()) limit = Integer.parseInt(parts[2].trim());
+        } catch (NumberFormatException e) {
+            out.println("ERROR;Syntax: GET_RATING_LEADERBOARD;offset;limit");
+            return;
+        }
+        limit = Math.max(1, Math.min(limit, LEADERBOARD_MAX_LIMIT));
+
+        var mailbox = Server.box(currentUserId);
+        // Format: RATING_LEADERBOARD;rank;username;rating;ratedMatches
+        int rank = offset;
+        for (RatingIndex.Entry entry : RatingIndex.page(offset, limit)) {
+            mailbox.add("RATING_LEADERBOARD;" + (++rank) + ";" + entry.username + ";" + entry.rating + ";" + entry.ratedMatches);
+        }
+        mailbox.add("RATING_LEADERBOARD_END");
+        out.println("RATING_LEADERBOARD_REQUEST_OK");
+    }
+
     private void handleLogout(PrintWriter out) {
         if (currentUser != null) {
-            Server.ONLINE_USERS.remove(currentUser);
+            signOff(true);
+            stopLeaderboard();
             currentUser = null;
+            currentUserId = 0;
         }
         out.println("LOGOUT_OK");
     }
+
+    /**
+     * Release what the user holds on the server, but only while this session is still the current
+     * one: a LOGOUT or a drop on a socket replaced by a newer login must not touch the live session.
+     * {@code loggedOut}: the player left on purpose (forfeit now) rather than dropped (seat kept).
+     */
+    private void signOff(boolean loggedOut) {
+        if (!Server.ONLINE_USERS.remove(currentUserId, this)) return;
+        Invites.INSTANCE.removeAll(currentUserId);
+        LobbyChat.INSTANCE.forget(currentUserId);
+        Friends.INSTANCE.offline(currentUserId, currentUser);
+        if (loggedOut) MatchEngine.onDisconnect(currentUserId);
+        else MatchEngine.onConnectionLost(currentUserId);
+    }
 }
@@ -2,8 +2,12 @@ package com.mycompany.server;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Database {
 
@@ -32,32 +36,87 @@ public class Database {
         }
     }
 
-    public static boolean checkLogin(String username, String password) throws SQLException {
-        String sql = "SELECT password FROM public.users WHERE username = ?";
+    /**
+     * Check credentials; returns the user's id, or 0 if login failed
+     */
+    public static int checkLogin(String username, String password) throws SQLException {
+        String sql = "SELECT id, password FROM public.users WHERE username = ?";
         try (Connection conn = ds().getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, username);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
                     String pass = rs.getString("password");
-                    return pass != null && pass.equals(password);
+                    return (pass != null && pass.equals(password)) ? rs.getInt("id") : 0;
                 }
             }
         }
-        return false;
+        return 0;
     }
+
+    /**
+     * Look up a user's id by username; returns 0 if not found
+     */
+    /**
+     * Id of a bot account: 0 if the name is free, -1 if a player account holds it
+     */
+    public static int findBotId(String username) throws SQLException {
+        String sql = "SELECT id, is_bot FROM public.users WHERE username = ?";
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return 0;
+                return rs.getBoolean(2) ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    public static void registerBot(String username, String password) throws SQLException {
+        String sql = "INSERT INTO public.users (username, password, is_bot) VALUES (?, ?, TRUE)";
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, username);
+            ps.setString(2, password);
+            ps.executeUpdate();
+        }
+    }
+
+    public static int findUserId(String username) throws SQLException {
+        String sql = "SELECT id FROM public.users WHERE username = ?";
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
     /**
      * Get last 10 matches for a user (where user is either player1 or player2)
-     * Results are sorted by finished_at DESC (newest first)
+     * Results are sorted by finished_at DESC (newest first).
+     * Each side is read through its own (player_id, finished_at) index and only the
+     * 10 surviving rows are joined back to users for display names.
      */
-    public static List<MatchHistory> getLast10Matches(String username) throws SQLException {
-        String sql = "SELECT * FROM public.matches WHERE player1 = ? OR player2 = ? ORDER BY finished_at DESC LIMIT 10";
+    public static List<MatchHistory> getLast10Matches(int userId) throws SQLException {
+        String sql = "SELECT m.id, u1.username AS player1, u2.username AS player2, " +
+                     "       m.score1, m.score2, m.winner, m.finished_at " +
+                     "FROM ( " +
+                     "    (SELECT * FROM public.matches WHERE player1_id = ? ORDER BY finished_at DESC LIMIT 10) " +
+                     "    UNION ALL " +
+                     "    (SELECT * FROM public.matches WHERE player2_id = ? ORDER BY finished_at DESC LIMIT 10) " +
+                     "    ORDER BY finished_at DESC LIMIT 10 " +
+                     ") m " +
+                     "JOIN public.users u1 ON u1.id = m.player1_id " +
+                     "JOIN public.users u2 ON u2.id = m.player2_id " +
+                     "ORDER BY m.finished_at DESC";
         List<MatchHistory> matches = new ArrayList<>();
         
         try (Connection conn = ds().getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, username);
-            ps.setString(2, username);
+            ps.setInt(1, userId);
+            ps.setInt(2, userId);
             
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
@@ -88,6 +147,52 @@ public class Database {
         return matches;
     }
 
+    /**
+     * Whether {@code userId} played in the saved match; same rule as getMatchRounds, for REPLAY
+     */
+    public static boolean playedIn(int matchId, int userId) throws SQLException {
+        String sql = "SELECT 1 FROM public.matches WHERE id = ? AND (player1_id = ? OR player2_id = ?)";
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, matchId);
+            ps.setInt(2, userId);
+            ps.setInt(3, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Rounds of a saved 1v1 match in order, read through idx_match_rounds_match; empty if the match
+     * does not exist or {@code userId} did not play in it
+     */
+    public static List<RoundRecord> getMatchRounds(int matchId, int userId) throws SQLException {
+        String sql = "SELECT r.round_no, r.sound_key, r.category, r.question_text, r.correct_answer, " +
+                     "       r.p1_answer, r.p1_time_ms, r.p1_correct, r.p2_answer, r.p2_time_ms, r.p2_correct, " +
+                     "       r.winner_round, r.is_tiebreak " +
+                     "FROM public.match_rounds r " +
+                     "WHERE r.match_id = ? AND EXISTS (SELECT 1 FROM public.matches m " +
+                     "      WHERE m.id = r.match_id AND (m.player1_id = ? OR m.player2_id = ?)) " +
+                     "ORDER BY r.round_no";
+        List<RoundRecord> rounds = new ArrayList<>();
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, matchId);
+            ps.setInt(2, userId);
+            ps.setInt(3, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rounds.add(new RoundRecord(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5),
+                            rs.getString(6), (Integer) rs.getObject(7), rs.getBoolean(8),
+                            rs.getString(9), (Integer) rs.getObject(10), rs.getBoolean(11),
+                            rs.getString(12), rs.getBoolean(13)));
+                }
+            }
+        }
+        return rounds;
+    }
+
     /**
      * Get user stats: wins and total_matches
      */
@@ -115,18 +220,21 @@ public class Database {
     }
 
     /**
-     * Get leaderboard: top users sorted by win rate and wins
+     * Get one page of the leaderboard, sorted by win rate, wins, then username.
+     * Reads only win_rate/wins/username so the planner can walk idx_users_leaderboard
+     * as an index-only scan and stop after offset + limit rows.
      */
-    public static List<LeaderboardEntry> getLeaderboard() throws SQLException {
-        String sql = "SELECT username, wins, total_matches, " +
-                     "ROUND(CASE WHEN total_matches = 0 THEN 0 " +
-                     "     ELSE (wins * 100.0 / total_matches) END, 2) AS win_rate " +
+    public static List<LeaderboardEntry> getLeaderboardPage(int offset, int limit) throws SQLException {
+        String sql = "SELECT username, wins, win_rate " +
                      "FROM public.users " +
-                     "ORDER BY win_rate DESC, wins DESC, username ASC";
-        List<LeaderboardEntry> leaderboard = new ArrayList<>();
+                     "ORDER BY win_rate DESC, wins DESC, username ASC " +
+                     "LIMIT ? OFFSET ?";
+        List<LeaderboardEntry> leaderboard = new ArrayList<>(Math.max(0, limit));
         
         try (Connection conn = ds().getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, limit);
+            ps.setInt(2, offset);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     String username = rs.getString("username");
@@ -140,6 +248,755 @@ public class Database {
         return leaderboard;
     }
 
+    /**
+     * Get the top n users of the leaderboard
+     */
+    public static List<LeaderboardEntry> getTopN(int n) throws SQLException {
+        return getLeaderboardPage(0, n);
+    }
+
+    /**
+     * Get one page of a time-windowed leaderboard. Only the requested bucket of
+     * leaderboard_periods is read, via idx_leaderboard_periods_rank.
+     */
+    public static List<LeaderboardEntry> getPeriodLeaderboardPage(String periodType, LocalDate periodStart,
+                                                                  int offset, int limit) throws SQLException {
+        String sql = "SELECT u.username, p.wins, p.win_rate " +
+                     "FROM public.leaderboard_periods p " +
+                     "JOIN public.users u ON u.id = p.user_id " +
+                     "WHERE p.period_type = ? AND p.period_start = ? " +
+                     "ORDER BY p.win_rate DESC, p.wins DESC, u.username ASC " +
+                     "LIMIT ? OFFSET ?";
+        List<LeaderboardEntry> leaderboard = new ArrayList<>(Math.max(0, limit));
+
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, periodType);
+            ps.setDate(2, Date.valueOf(periodStart));
+            ps.setInt(3, limit);
+            ps.setInt(4, offset);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    leaderboard.add(new LeaderboardEntry(rs.getString(1), rs.getInt(2), rs.getDouble(3)));
+                }
+            }
+        }
+
+        return leaderboard;
+    }
+
+    /**
+     * Persist a finished match: the matches row, its match_rounds, both players' lifetime
+     * stats and Elo ratings, and their day/week/season buckets, all in one transaction.
+     * Returns the new match id; the new ratings are set on {@code result}.
+     */
+    public static int saveMatch(MatchResult result, List<RoundRecord> rounds) throws SQLException {
+        String insertMatch = "INSERT INTO public.matches " +
+                             "(player1_id, player2_id, score1, score2, winner, tie_break_used, total_rounds, started_at, finished_at, rated) " +
+                             "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING id";
+        String insertRound = "INSERT INTO public.match_rounds " +
+                             "(match_id, round_no, sound_key, category, question_text, correct_answer, " +
+                             " p1_answer, p1_time_ms, p1_correct, p2_answer, p2_time_ms, p2_correct, winner_round, is_tiebreak) " +
+                             "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        // Khóa hai dòng users theo thứ tự id (tránh deadlock giữa hai trận cùng người) rồi tính Elo
+        String lockRatings = "SELECT id, rating, rated_matches FROM public.users WHERE id IN (?, ?) ORDER BY id FOR UPDATE";
+        String updateUser = "UPDATE public.users SET total_matches = total_matches + 1, wins = wins + ?, " +
+                            "rating = ?, rated_matches = rated_matches + 1 WHERE id = ?";
+        // Các bucket đã niêm phong (sealed) không nhận thêm kết quả; bucket đã qua thì không ghi tới
+        // (xem vòng lặp bên dưới), kể cả khi chưa có dòng nào để niêm phong
+        String upsertPeriod = "INSERT INTO public.leaderboard_periods (user_id, period_type, period_start, wins, matches) " +
+                              "VALUES (?, ?, ?, ?, 1) " +
+                              "ON CONFLICT (period_type, period_start, user_id) DO UPDATE " +
+                              "SET wins = leaderboard_periods.wins + EXCLUDED.wins, " +
+                              "    matches = leaderboard_periods.matches + 1 " +
+                              "WHERE NOT leaderboard_periods.sealed";
+
+        int winnerId = result.getWinnerId();
+        int[] players = {result.getPlayer1Id(), result.getPlayer2Id()};
+        LocalDate day = result.getFinishedAt().toLocalDateTime().toLocalDate();
+        LocalDate today = LocalDate.now();
+
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int matchId;
+                try (PreparedStatement ps = conn.prepareStatement(insertMatch)) {
+                    ps.setInt(1, result.getPlayer1Id());
+                    ps.setInt(2, result.getPlayer2Id());
+                    ps.setInt(3, result.getScore1());
+                    ps.setInt(4, result.getScore2());
+                    ps.setString(5, result.getWinner());
+                    ps.setBoolean(6, result.isTieBreakUsed());
+                    ps.setInt(7, result.getTotalRounds());
+                    ps.setTimestamp(8, result.getStartedAt());
+                    ps.setTimestamp(9, result.getFinishedAt());
+                    ps.setBoolean(10, result.isRated());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        rs.next();
+                        matchId = rs.getInt(1);
+                    }
+                }
+
+                try (PreparedStatement ps = conn.prepareStatement(insertRound)) {
+                    for (RoundRecord r : rounds) {
+                        ps.setInt(1, matchId);
+                        ps.setInt(2, r.getRoundNo());
+                        ps.setString(3, r.getSoundKey());
+                        ps.setString(4, r.getCategory());
+                        ps.setString(5, r.getQuestionText());
+                        ps.setString(6, r.getCorrectAnswer());
+                        ps.setString(7, r.getP1Answer());
+                        ps.setObject(8, r.getP1TimeMs(), Types.INTEGER);
+                        ps.setBoolean(9, r.isP1Correct());
+                        ps.setString(10, r.getP2Answer());
+                        ps.setObject(11, r.getP2TimeMs(), Types.INTEGER);
+                        ps.setBoolean(12, r.isP2Correct());
+                        ps.setString(13, r.getWinnerRound());
+                        ps.setBoolean(14, r.isTiebreak());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+
+                if (!result.isRated()) {
+                    conn.commit();
+                    return matchId;
+                }
+
+                int[] ratings = {EloRating.INITIAL, EloRating.INITIAL};
+                int[] rated = {0, 0};
+                try (PreparedStatement ps = conn.prepareStatement(lockRatings)) {
+                    ps.setInt(1, players[0]);
+                    ps.setInt(2, players[1]);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            int seat = rs.getInt(1) == players[0] ? 0 : 1;
+                            ratings[seat] = rs.getInt(2);
+                            rated[seat] = rs.getInt(3);
+                        }
+                    }
+                }
+                int[] after = EloRating.update(ratings[0], rated[0], ratings[1], rated[1], result.getScore1ForRating());
+
+                try (PreparedStatement ps = conn.prepareStatement(updateUser)) {
+                    for (int seat = 0; seat < 2; seat++) {
+                        ps.setInt(1, players[seat] == winnerId ? 1 : 0);
+                        ps.setInt(2, after[seat]);
+                        ps.setInt(3, players[seat]);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+
+                try (PreparedStatement ps = conn.prepareStatement(upsertPeriod)) {
+                    for (LeaderboardWindow w : LeaderboardWindow.values()) {
+                        if (w.periodType() == null) continue;
+                        // Kết quả tới muộn (trận xong trước lúc chuyển kỳ): kỳ cũ đã chốt, không thêm dòng mới
+                        if (w.periodStart(day).isBefore(w.periodStart(today))) continue;
+                        Date start = Date.valueOf(w.periodStart(day));
+                        for (int id : players) {
+                            ps.setInt(1, id);
+                            ps.setString(2, w.periodType());
+                            ps.setDate(3, start);
+                            ps.setInt(4, id == winnerId ? 1 : 0);
+                            ps.addBatch();
+                        }
+                    }
+                    ps.executeBatch();
+                }
+
+                conn.commit();
+                result.setRatingsAfter(after[0], after[1], rated[0] + 1, rated[1] + 1);
+                return matchId;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Persist a finished party match: one party_matches row, one party_participants row per seat,
+     * and every seat's answer per round in party_answers. Returns party_matches.id.
+     * Parties do not touch users.wins / rating, which stay 1v1 statistics.
+     */
+    public static int savePartyMatch(PartyResult result) throws SQLException {
+        String insertParty = "INSERT INTO public.party_matches (host_id, players, total_rounds, started_at, finished_at) " +
+                             "VALUES (?, ?, ?, ?, ?) RETURNING id";
+        String insertParticipant = "INSERT INTO public.party_participants " +
+                                   "(party_match_id, seat, user_id, score, place, left_early) VALUES (?, ?, ?, ?, ?, ?)";
+        String insertRound = "INSERT INTO public.party_rounds " +
+                             "(party_match_id, round_no, sound_key, category, correct_answer, winner_seat) VALUES (?, ?, ?, ?, ?, ?)";
+        String insertAnswer = "INSERT INTO public.party_answers " +
+                              "(party_match_id, round_no, seat, answer, time_ms, correct) VALUES (?, ?, ?, ?, ?, ?)";
+
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int partyId;
+                try (PreparedStatement ps = conn.prepareStatement(insertParty)) {
+                    ps.setInt(1, result.getUserId(0));
+                    ps.setInt(2, result.size());
+                    ps.setInt(3, result.getTotalRounds());
+                    ps.setTimestamp(4, result.getStartedAt());
+                    ps.setTimestamp(5, result.getFinishedAt());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        rs.next();
+                        partyId = rs.getInt(1);
+                    }
+                }
+
+                try (PreparedStatement ps = conn.prepareStatement(insertParticipant)) {
+                    for (int seat = 0; seat < result.size(); seat++) {
+                        ps.setInt(1, partyId);
+                        ps.setInt(2, seat);
+                        ps.setInt(3, result.getUserId(seat));
+                        ps.setInt(4, result.getScore(seat));
+                        ps.setInt(5, result.getPlace(seat));
+                        ps.setBoolean(6, result.hasLeftEarly(seat));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+
+                try (PreparedStatement rounds = conn.prepareStatement(insertRound);
+                     PreparedStatement answers = conn.prepareStatement(insertAnswer)) {
+                    for (PartyResult.Round r : result.getRounds()) {
+                        rounds.setInt(1, partyId);
+                        rounds.setInt(2, r.roundNo);
+                        rounds.setString(3, r.soundKey);
+                        rounds.setString(4, r.category);
+                        rounds.setString(5, r.correctAnswer);
+                        rounds.setObject(6, r.winnerSeat < 0 ? null : r.winnerSeat, Types.INTEGER);
+                        rounds.addBatch();
+                        for (int seat = 0; seat < r.answers.length; seat++) {
+                            if (r.answers[seat] == null) continue; // không trả lời: không có dòng
+                            answers.setInt(1, partyId);
+                            answers.setInt(2, r.roundNo);
+                            answers.setInt(3, seat);
+                            answers.setString(4, r.answers[seat]);
+                            answers.setInt(5, r.timesMs[seat]);
+                            answers.setBoolean(6, r.answers[seat].equals(r.correctAnswer));
+                            answers.addBatch();
+                        }
+                    }
+                    rounds.executeBatch();
+                    answers.executeBatch();
+                }
+
+                conn.commit();
+                return partyId;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Every user's rating, for the in-memory RatingIndex: rows of {id, rating, rated_matches}
+     * with usernames in the same order
+     */
+    public static void loadRatings(List<int[]> rows, List<String> usernames) throws SQLException {
+        String sql = "SELECT id, username, rating, rated_matches FROM public.users";
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false); // cursor, không nạp hết vào heap một lần
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setFetchSize(5000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new int[] {rs.getInt(1), rs.getInt(3), rs.getInt(4)});
+                        usernames.add(rs.getString(2));
+                    }
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Every user's all-time record, for the in-memory Standings: rows of {id, wins, total_matches}
+     * with usernames in the same order
+     */
+    public static void loadStandings(List<int[]> rows, List<String> usernames) throws SQLException {
+        String sql = "SELECT id, username, wins, total_matches FROM public.users";
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setFetchSize(5000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new int[] {rs.getInt(1), rs.getInt(3), rs.getInt(4)});
+                        usernames.add(rs.getString(2));
+                    }
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Friends of a user (both directions present) as ids with usernames in the same order,
+     * and the usernames of pending requests to them (only the other direction present)
+     */
+    public static void loadFriends(int userId, List<Integer> ids, List<String> names, List<String> requests)
+            throws SQLException {
+        String friendsSql = "SELECT u.id, u.username FROM public.friends f " +
+                            "JOIN public.friends r ON r.user_id = f.friend_id AND r.friend_id = f.user_id " +
+                            "JOIN public.users u ON u.id = f.friend_id WHERE f.user_id = ?";
+        String requestsSql = "SELECT u.username FROM public.friends r JOIN public.users u ON u.id = r.user_id " +
+                             "WHERE r.friend_id = ? AND NOT EXISTS (SELECT 1 FROM public.friends f " +
+                             "WHERE f.user_id = r.friend_id AND f.friend_id = r.user_id)";
+        try (Connection conn = ds().getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(friendsSql)) {
+                ps.setInt(1, userId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getInt(1));
+                        names.add(rs.getString(2));
+                    }
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(requestsSql)) {
+                ps.setInt(1, userId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) requests.add(rs.getString(1));
+                }
+            }
+        }
+    }
+
+    /** Outcome of {@link #addFriend} */
+    public enum FriendAdd { REQUESTED, ALREADY_REQUESTED, FRIENDS, ALREADY_FRIENDS, FULL }
+
+    /**
+     * Record that {@code userId} added {@code friendId}. A user holds at most {@code maxFriends}
+     * rows (friends plus requests sent); since a friendship needs a row on each side, the limit
+     * holds for both users whoever is online.
+     */
+    public static FriendAdd addFriend(int userId, int friendId, int maxFriends) throws SQLException {
+        // Khóa dòng users của người thêm: hai lệnh thêm bạn song song của cùng người xếp hàng,
+        // nên phép đếm dưới đây không bị vượt (READ COMMITTED không tự đảm bảo điều đó)
+        String lockSql = "SELECT id FROM public.users WHERE id = ? FOR UPDATE";
+        String existsSql = "SELECT EXISTS (SELECT 1 FROM public.friends WHERE user_id = ? AND friend_id = ?), " +
+                           "       EXISTS (SELECT 1 FROM public.friends WHERE user_id = ? AND friend_id = ?)";
+        String insertSql = "INSERT INTO public.friends (user_id, friend_id) " +
+                           "SELECT ?, ? WHERE (SELECT COUNT(*) FROM public.friends WHERE user_id = ?) < ? " +
+                           "ON CONFLICT DO NOTHING";
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = conn.prepareStatement(lockSql)) {
+                    ps.setInt(1, userId);
+                    ps.executeQuery().close();
+                }
+                boolean mine, theirs;
+                try (PreparedStatement ps = conn.prepareStatement(existsSql)) {
+                    ps.setInt(1, userId);
+                    ps.setInt(2, friendId);
+                    ps.setInt(3, friendId);
+                    ps.setInt(4, userId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        rs.next();
+                        mine = rs.getBoolean(1);
+                        theirs = rs.getBoolean(2);
+                    }
+                }
+                FriendAdd outcome;
+                if (mine) {
+                    outcome = theirs ? FriendAdd.ALREADY_FRIENDS : FriendAdd.ALREADY_REQUESTED;
+                } else {
+                    try (PreparedStatement ps = conn.prepareStatement(insertSql)) {
+                        ps.setInt(1, userId);
+                        ps.setInt(2, friendId);
+                        ps.setInt(3, userId);
+                        ps.setInt(4, maxFriends);
+                        outcome = ps.executeUpdate() == 0 ? FriendAdd.FULL
+                                : theirs ? FriendAdd.FRIENDS : FriendAdd.REQUESTED;
+                    }
+                }
+                conn.commit();
+                return outcome;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /** Drop both directions (unfriend, or decline / withdraw a request) */
+    public static void removeFriend(int userId, int friendId) throws SQLException {
+        String sql = "DELETE FROM public.friends WHERE (user_id = ? AND friend_id = ?) OR (user_id = ? AND friend_id = ?)";
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, userId);
+            ps.setInt(2, friendId);
+            ps.setInt(3, friendId);
+            ps.setInt(4, userId);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * {min, max} of matches.finished_at in epoch ms, or null when there are no matches
+     */
+    public static long[] matchTimeRange() throws SQLException {
+        String sql = "SELECT MIN(finished_at), MAX(finished_at) FROM public.matches";
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            if (!rs.next() || rs.getTimestamp(1) == null) return null;
+            return new long[] {rs.getTimestamp(1).getTime(), rs.getTimestamp(2).getTime()};
+        }
+    }
+
+    public static int maxUserId() throws SQLException {
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT COALESCE(MAX(id), 0) FROM public.users");
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Outcomes of the matches finished in [fromMs, toMs), in rating order (finished_at, id),
+     * packed as {player1Id, player2Id, score1 * 2} triples to keep millions of rows compact.
+     */
+    public static int[] loadMatchOutcomes(long fromMs, long toMs) throws SQLException {
+        String sql = "SELECT player1_id, player2_id, winner FROM public.matches " +
+                     "WHERE finished_at >= ? AND finished_at < ? AND rated ORDER BY finished_at, id";
+        int[] out = new int[3 * 1024];
+        int n = 0;
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setFetchSize(10_000);
+                ps.setTimestamp(1, new Timestamp(fromMs));
+                ps.setTimestamp(2, new Timestamp(toMs));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (n + 3 > out.length) out = Arrays.copyOf(out, out.length * 2);
+                        String winner = rs.getString(3);
+                        out[n++] = rs.getInt(1);
+                        out[n++] = rs.getInt(2);
+                        out[n++] = "player1".equals(winner) ? 2 : "player2".equals(winner) ? 0 : 1;
+                    }
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Overwrite ratings after a full recompute, in batches inside one transaction.
+     * {@code rating[id]} / {@code ratedMatches[id]} are indexed by user id.
+     */
+    public static void saveAllRatings(int[] rating, int[] ratedMatches) throws SQLException {
+        String sql = "UPDATE public.users SET rating = ?, rated_matches = ? WHERE id = ? " +
+                     "AND (rating <> ? OR rated_matches <> ?)";
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                int pending = 0;
+                for (int id = 1; id < rating.length; id++) {
+                    ps.setInt(1, rating[id]);
+                    ps.setInt(2, ratedMatches[id]);
+                    ps.setInt(3, id);
+                    ps.setInt(4, rating[id]);
+                    ps.setInt(5, ratedMatches[id]);
+                    ps.addBatch();
+                    if (++pending == 1000) {
+                        ps.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) ps.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Seal every bucket of a period type that started before {@code currentStart}.
+     * Touches only unsealed rows through the partial index idx_leaderboard_periods_unsealed,
+     * so it reads just the buckets still open, not the whole history.
+     */
+    public static int sealPeriodsBefore(String periodType, LocalDate currentStart) throws SQLException {
+        String sql = "UPDATE public.leaderboard_periods SET sealed = TRUE " +
+                     "WHERE period_type = ? AND period_start < ? AND NOT sealed";
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, periodType);
+            ps.setDate(2, Date.valueOf(currentStart));
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Load all per-category skill aggregates (one small row per user and category)
+     */
+    public static List<CategoryStatRow> loadCategoryStats() throws SQLException {
+        String sql = "SELECT s.user_id, u.username, s.category, s.rounds, s.correct, s.time_sketch " +
+                     "FROM public.user_category_stats s JOIN public.users u ON u.id = s.user_id";
+        List<CategoryStatRow> rows = new ArrayList<>();
+        try (Connection conn = ds().getConnection()) {
+            // Fetch size is only honoured by pgjdbc inside a transaction
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setFetchSize(1000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new CategoryStatRow(rs.getInt(1), rs.getString(2), rs.getString(3),
+                                rs.getInt(4), rs.getInt(5), rs.getBytes(6)));
+                    }
+                }
+            } finally {
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Upsert a batch of per-category skill aggregates that include every match up to
+     * {@code throughMatchId}, and move the table's watermark there in the same transaction
+     */
+    public static void saveCategoryStats(List<CategoryStatRow> rows, int throughMatchId) throws SQLException {
+        if (rows.isEmpty()) return;
+        String sql = "INSERT INTO public.user_category_stats (user_id, category, rounds, correct, time_sketch) " +
+                     "VALUES (?, ?, ?, ?, ?) " +
+                     "ON CONFLICT (user_id, category) DO UPDATE " +
+                     "SET rounds = EXCLUDED.rounds, correct = EXCLUDED.correct, time_sketch = EXCLUDED.time_sketch";
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (CategoryStatRow row : rows) {
+                    ps.setInt(1, row.getUserId());
+                    ps.setString(2, row.getCategory());
+                    ps.setInt(3, row.getRounds());
+                    ps.setInt(4, row.getCorrect());
+                    ps.setBytes(5, row.getTimeSketch());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                saveWatermark(conn, "user_category_stats", throughMatchId);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Saved achievement progress: rows of {user_id, progress, unlocked 0/1} with the
+     * achievement ids in the same order
+     */
+    public static void loadAchievements(List<int[]> rows, List<String> ids) throws SQLException {
+        String sql = "SELECT user_id, achievement, progress, unlocked_at IS NOT NULL FROM public.user_achievements";
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setFetchSize(5000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new int[] {rs.getInt(1), rs.getInt(3), rs.getBoolean(4) ? 1 : 0});
+                        ids.add(rs.getString(2));
+                    }
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Upsert achievement progress: rows of {user_id, -, progress, newlyUnlocked 0/1} with the
+     * achievement ids in the same order. unlocked_at is set once, on the first flush after unlocking.
+     * The rows include every match up to {@code throughMatchId}; the watermark moves with them.
+     */
+    public static void saveAchievements(List<int[]> rows, List<String> ids, int throughMatchId) throws SQLException {
+        if (rows.isEmpty()) return;
+        String sql = "INSERT INTO public.user_achievements (user_id, achievement, progress, unlocked_at) " +
+                     "VALUES (?, ?, ?, CASE WHEN ? THEN NOW() END) " +
+                     "ON CONFLICT (user_id, achievement) DO UPDATE " +
+                     "SET progress = EXCLUDED.progress, " +
+                     "    unlocked_at = COALESCE(public.user_achievements.unlocked_at, EXCLUDED.unlocked_at)";
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (int i = 0; i < rows.size(); i++) {
+                    int[] row = rows.get(i);
+                    ps.setInt(1, row[0]);
+                    ps.setString(2, ids.get(i));
+                    ps.setInt(3, row[2]);
+                    ps.setBoolean(4, row[3] != 0);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                saveWatermark(conn, "user_achievements", throughMatchId);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Per-sound aggregates for SoundDifficulty: keys with {answers, correct} and the serialized
+     * time sketch (may be null for rows backfilled by the migration) in the same order
+     */
+    public static void loadSoundStats(List<String> keys, List<long[]> counts, List<byte[]> sketches) throws SQLException {
+        String sql = "SELECT sound_key, answers, correct, time_sketch FROM public.sound_stats";
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                keys.add(rs.getString(1));
+                counts.add(new long[] {rs.getLong(2), rs.getLong(3)});
+                sketches.add(rs.getBytes(4));
+            }
+        }
+    }
+
+    public static void saveSoundStats(List<String> keys, List<long[]> counts, List<byte[]> sketches,
+                                      int throughMatchId) throws SQLException {
+        if (keys.isEmpty()) return;
+        String sql = "INSERT INTO public.sound_stats (sound_key, answers, correct, time_sketch) VALUES (?, ?, ?, ?) " +
+                     "ON CONFLICT (sound_key) DO UPDATE " +
+                     "SET answers = EXCLUDED.answers, correct = EXCLUDED.correct, time_sketch = EXCLUDED.time_sketch";
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (int i = 0; i < keys.size(); i++) {
+                    ps.setString(1, keys.get(i));
+                    ps.setLong(2, counts.get(i)[0]);
+                    ps.setLong(3, counts.get(i)[1]);
+                    ps.setBytes(4, sketches.get(i));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                saveWatermark(conn, "sound_stats", throughMatchId);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Last matches.id already folded into an aggregate table ({@code name} in stats_watermarks);
+     * -1 if the table has no watermark, in which case nothing should be replayed
+     */
+    public static int loadWatermark(String name) throws SQLException {
+        String sql = "SELECT last_match_id FROM public.stats_watermarks WHERE name = ?";
+        try (Connection conn = ds().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    // Mốc chỉ tiến lên: một lần flush cũ ghi chậm không kéo lùi được
+    private static void saveWatermark(Connection conn, String name, int throughMatchId) throws SQLException {
+        String sql = "INSERT INTO public.stats_watermarks (name, last_match_id) VALUES (?, ?) " +
+                     "ON CONFLICT (name) DO UPDATE " +
+                     "SET last_match_id = GREATEST(public.stats_watermarks.last_match_id, EXCLUDED.last_match_id)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, name);
+            ps.setInt(2, throughMatchId);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * 1v1 matches saved after {@code afterId}, oldest first, with their rounds and which seats are
+     * human: what an aggregate flushed in batches replays at startup after a crash lost its last flush.
+     * Unrated matches come back marked unrated.
+     */
+    public static void loadMatchesAfter(int afterId, List<Integer> ids, List<MatchResult> results,
+                                        List<List<RoundRecord>> rounds, List<boolean[]> human) throws SQLException {
+        String matchSql = "SELECT m.id, m.player1_id, m.player2_id, m.score1, m.score2, m.winner, m.tie_break_used, " +
+                          "       m.total_rounds, m.started_at, m.finished_at, m.rated, u1.is_bot, u2.is_bot " +
+                          "FROM public.matches m " +
+                          "JOIN public.users u1 ON u1.id = m.player1_id JOIN public.users u2 ON u2.id = m.player2_id " +
+                          "WHERE m.id > ? ORDER BY m.id";
+        String roundSql = "SELECT match_id, round_no, sound_key, category, question_text, correct_answer, " +
+                          "       p1_answer, p1_time_ms, p1_correct, p2_answer, p2_time_ms, p2_correct, winner_round, is_tiebreak " +
+                          "FROM public.match_rounds WHERE match_id > ? ORDER BY match_id, round_no";
+        Map<Integer, List<RoundRecord>> byMatch = new HashMap<>();
+        try (Connection conn = ds().getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = conn.prepareStatement(matchSql)) {
+                    ps.setFetchSize(1000);
+                    ps.setInt(1, afterId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            MatchResult result = new MatchResult(rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5),
+                                    rs.getString(6), rs.getBoolean(7), rs.getInt(8), rs.getTimestamp(9), rs.getTimestamp(10));
+                            if (!rs.getBoolean(11)) result.markUnrated();
+                            List<RoundRecord> list = new ArrayList<>();
+                            ids.add(rs.getInt(1));
+                            results.add(result);
+                            rounds.add(list);
+                            human.add(new boolean[] {!rs.getBoolean(12), !rs.getBoolean(13)});
+                            byMatch.put(rs.getInt(1), list);
+                        }
+                    }
+                }
+                if (ids.isEmpty()) return;
+                try (PreparedStatement ps = conn.prepareStatement(roundSql)) {
+                    ps.setFetchSize(10_000);
+                    ps.setInt(1, afterId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            List<RoundRecord> list = byMatch.get(rs.getInt(1));
+                            if (list == null) continue; // trận lưu sau truy vấn đầu: lần khởi động sau mới tới
+                            list.add(new RoundRecord(rs.getInt(2), rs.getString(3), rs.getString(4), rs.getString(5),
+                                    rs.getString(6), rs.getString(7), (Integer) rs.getObject(8), rs.getBoolean(9),
+                                    rs.getString(10), (Integer) rs.getObject(11), rs.getBoolean(12),
+                                    rs.getString(13), rs.getBoolean(14)));
+                        }
+                    }
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
     public static void debugInfo() {
     try (var c = DbPool.get().getConnection();
          var st = c.createStatement();
@@ -0,0 +1,31 @@
+package com.mycompany.server;
+
+/**
+ * Elo rating formula. New accounts move faster (higher K) until they have
+ * PROVISIONAL_MATCHES rated matches, so farming fresh accounts gains little.
+ * Any change here needs a full recompute: see RatingRecompute.
+ */
+public class EloRating {
+    public static final int INITIAL = 1200;
+    static final int PROVISIONAL_MATCHES = 20;
+    static final double K_PROVISIONAL = 40;
+    static final double K_ESTABLISHED = 20;
+
+    static double expected(int rating, int opponentRating) {
+        return 1.0 / (1.0 + Math.pow(10, (opponentRating - rating) / 400.0));
+    }
+
+    static double k(int ratedMatches) {
+        return ratedMatches < PROVISIONAL_MATCHES ? K_PROVISIONAL : K_ESTABLISHED;
+    }
+
+    /**
+     * New ratings {r1', r2'} after one match; {@code score1} is 1 / 0.5 / 0 for player 1
+     */
+    public static int[] update(int r1, int matches1, int r2, int matches2, double score1) {
+        double e1 = expected(r1, r2);
+        int n1 = (int) Math.round(r1 + k(matches1) * (score1 - e1));
+        int n2 = (int) Math.round(r2 + k(matches2) * ((1 - score1) - (1 - e1)));
+        return new int[] {n1, n2};
+    }
+}
@@ -0,0 +1,258 @@
+package com.mycompany.server;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Friend lists and presence. The friends of every online user are cached here from the
+ * friends table at login; an inverted index maps each user to the online sessions watching
+ * them, so a login or logout is pushed (PRESENCE;name;ONLINE|OFFLINE, encoded once) only to
+ * that user's online friends instead of every lobby downloading the whole WHO list.
+ * Notifications go out through {@code notify} (userId, event) after the lock is released.
+ */
+public class Friends {
+    // Tối đa số dòng friends của một user: bạn bè cộng lời mời đã gửi (Database.addFriend kiểm tra)
+    static final int MAX_FRIENDS = 200;
+
+    public static final Friends INSTANCE = new Friends((userId, event) -> Server.box(userId).add(event));
+
+    /** Small set of user ids; only touched under the Friends lock */
+    static final class IdSet {
+        private int[] ids = new int[4];
+        private int size;
+
+        boolean add(int id) {
+            if (contains(id)) return false;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+            return true;
+        }
+
+        boolean remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean contains(int id) {
+            for (int i = 0; i < size; i++) if (ids[i] == id) return true;
+            return false;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+    // Bạn bè của từng user đang online
+    private final HashMap<Integer, IdSet> friendsOf = new HashMap<>();
+    // Chỉ mục ngược: user -> các phiên đang online theo dõi user đó
+    private final HashMap<Integer, IdSet> watchers = new HashMap<>();
+    private final BiConsumer<Integer, String> notify;
+
+    public Friends(BiConsumer<Integer, String> notify) {
+        this.notify = notify;
+    }
+
+    /**
+     * Load the user's friends and pending requests, subscribe the session to its friends and
+     * tell the online ones. Pending requests arrive as FRIEND_REQUEST;name events.
+     */
+    public void login(int userId, String name) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> requests = new ArrayList<>();
+        Database.loadFriends(userId, ids, names, requests);
+        int[] friendIds = new int[ids.size()];
+        for (int i = 0; i < friendIds.length; i++) {
+            friendIds[i] = ids.get(i);
+            UserDirectory.register(friendIds[i], names.get(i));
+        }
+        online(userId, name, friendIds);
+        for (String from : requests) notify.accept(userId, "FRIEND_REQUEST;" + from);
+    }
+
+    void online(int userId, String name, int[] friendIds) {
+        int[] targets;
+        synchronized (this) {
+            IdSet friends = new IdSet();
+            for (int f : friendIds) {
+                friends.add(f);
+                watchers.computeIfAbsent(f, k -> new IdSet()).add(userId);
+            }
+            friendsOf.put(userId, friends);
+            targets = watchersOf(userId);
+        }
+        publish(targets, "PRESENCE;" + name + ";ONLINE");
+    }
+
+    public void offline(int userId, String name) {
+        int[] targets;
+        synchronized (this) {
+            IdSet friends = friendsOf.remove(userId);
+            if (friends == null) return;
+            for (int i = 0; i < friends.size; i++) unwatch(friends.ids[i], userId);
+            targets = watchersOf(userId);
+        }
+        publish(targets, "PRESENCE;" + name + ";OFFLINE");
+    }
+
+    /**
+     * {@code userId} adds {@code friendId}: FRIEND_REQUEST to the other side, or, if they had
+     * already added back, FRIEND_ADDED;name;online to both. Returns the reply line. Repeating a
+     * pending request notifies nobody; MAX_FRIENDS is enforced by the database for both sides.
+     */
+    public String add(int userId, String name, int friendId, String friendName) throws SQLException {
+        synchronized (this) {
+            IdSet mine = friendsOf.get(userId);
+            if (mine != null && mine.contains(friendId)) return "ERROR;Already friends";
+        }
+        Database.FriendAdd added = Database.addFriend(userId, friendId, MAX_FRIENDS);
+        if (added == Database.FriendAdd.ALREADY_FRIENDS) return "ERROR;Already friends";
+        if (added == Database.FriendAdd.FULL) return "ERROR;Friend list is full";
+        if (added != Database.FriendAdd.FRIENDS) {
+            // Lời mời đang chờ gửi lại: không báo thêm lần nữa cho người kia
+            if (added == Database.FriendAdd.REQUESTED) notify.accept(friendId, "FRIEND_REQUEST;" + name);
+            return "FRIEND_ADD_OK;PENDING";
+        }
+        boolean meOnline, friendOnline;
+        synchronized (this) {
+            meOnline = link(userId, friendId);
+            friendOnline = link(friendId, userId);
+        }
+        notify.accept(userId, "FRIEND_ADDED;" + friendName + ";" + (friendOnline ? 1 : 0));
+        notify.accept(friendId, "FRIEND_ADDED;" + name + ";" + (meOnline ? 1 : 0));
+        return "FRIEND_ADD_OK;FRIENDS";
+    }
+
+    /** Unfriend, or decline / withdraw a request; the other side gets FRIEND_REMOVED;name */
+    public void remove(int userId, String name, int friendId) throws SQLException {
+        Database.removeFriend(userId, friendId);
+        synchronized (this) {
+            unlink(userId, friendId);
+            unlink(friendId, userId);
+        }
+        notify.accept(friendId, "FRIEND_REMOVED;" + name);
+    }
+
+    /** FRIENDS;name:1,name:0,... (1 = online), the lobby's starting point before PRESENCE events */
+    public String snapshot(int userId) {
+        int[] ids;
+        boolean[] online;
+        synchronized (this) {
+            IdSet friends = friendsOf.get(userId);
+            ids = friends == null ? new int[0] : friends.toArray();
+            online = new boolean[ids.length];
+            for (int i = 0; i < ids.length; i++) online[i] = friendsOf.containsKey(ids[i]);
+        }
+        StringBuilder sb = new StringBuilder("FRIENDS;");
+        for (int i = 0; i < ids.length; i++) {
+            String friend = UserDirectory.nameOf(ids[i]);
+            if (friend == null) continue;
+            if (sb.length() > "FRIENDS;".length()) sb.append(',');
+            sb.append(friend).append(':').append(online[i] ? 1 : 0);
+        }
+        return sb.toString();
+    }
+
+    // a thêm b vào danh sách (nếu a đang online) và theo dõi b; trả về a có online không
+    private boolean link(int a, int b) {
+        IdSet friends = friendsOf.get(a);
+        if (friends == null) return false;
+        friends.add(b);
+        watchers.computeIfAbsent(b, k -> new IdSet()).add(a);
+        return true;
+    }
+
+    private void unlink(int a, int b) {
+        IdSet friends = friendsOf.get(a);
+        if (friends != null && friends.remove(b)) unwatch(b, a);
+    }
+
+    private void unwatch(int watched, int watcher) {
+        IdSet set = watchers.get(watched);
+        if (set != null && set.remove(watcher) && set.size() == 0) watchers.remove(watched);
+    }
+
+    private int[] watchersOf(int userId) {
+        IdSet set = watchers.get(userId);
+        return set == null ? new int[0] : set.toArray();
+    }
+
+    private void publish(int[] targets, String event) {
+        for (int id : targets) notify.accept(id, event);
+    }
+
+    /**
+     * Presence traffic at {@code users} online with {@code friends} friends each, against every
+     * lobby polling WHO every 5 s (as LobbyFrame did). Churn: each user logs in and out once per
+     * {@code sessionMinutes} on average. Counts the bytes actually produced for both.
+     * Usage: Friends [users] [friends] [sessionMinutes]
+     */
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int friendsPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        double sessionMinutes = args.length > 2 ? Double.parseDouble(args[2]) : 30;
+        long whoPeriodMs = 5_000;
+
+        long[] bytes = new long[1];
+        Friends index = new Friends((userId, event) -> bytes[0] += event.length() + 1);
+        String[] names = new String[users + 1];
+        for (int u = 1; u <= users; u++) {
+            names[u] = "user" + u;
+            UserDirectory.register(u, names[u]);
+        }
+        // Đồ thị bạn bè ngẫu nhiên, đối xứng, mỗi người khoảng friendsPerUser bạn
+        Random random = new Random(42);
+        List<IdSet> graph = new ArrayList<>(users + 1);
+        for (int u = 0; u <= users; u++) graph.add(new IdSet());
+        for (int u = 1; u <= users; u++) {
+            while (graph.get(u).size() < friendsPerUser / 2) {
+                int f = 1 + random.nextInt(users);
+                if (f != u && graph.get(u).add(f)) graph.get(f).add(u);
+            }
+        }
+        for (int u = 1; u <= users; u++) index.online(u, names[u], graph.get(u).toArray());
+
+        // Một vòng đời phiên: OFFLINE tới các bạn, rồi đăng nhập lại: ONLINE + FRIENDS;... cho chính mình
+        int sessions = 20_000;
+        bytes[0] = 0;
+        long start = System.nanoTime();
+        for (int n = 0; n < sessions; n++) {
+            int u = 1 + random.nextInt(users);
+            index.offline(u, names[u]);
+            index.online(u, names[u], graph.get(u).toArray());
+            bytes[0] += index.snapshot(u).length() + 1 + "FRIENDS\n".length();
+        }
+        double usPerSession = (System.nanoTime() - start) / 1e3 / sessions;
+        double bytesPerSession = bytes[0] / (double) sessions;
+        double sessionsPerSec = users / (sessionMinutes * 60);
+
+        StringBuilder who = new StringBuilder("ONLINE;");
+        for (int u = 1; u <= users; u++) {
+            if (u > 1) who.append(',');
+            who.append(names[u]);
+        }
+        double whoBytesPerSec = (who.length() + 1 + "WHO\n".length()) * (double) users / (whoPeriodMs / 1000.0);
+
+        System.out.printf("[Friends] %,d online, ~%d friends each, sessions of %.0f min (%.1f logins/s)%n",
+                users, friendsPerUser, sessionMinutes, sessionsPerSec);
+        System.out.printf("[Friends] presence: %.0f bytes per login+logout, %.1f us CPU, %,.0f bytes/s total%n",
+                bytesPerSession, usPerSession, bytesPerSession * sessionsPerSec);
+        System.out.printf("[Friends] WHO every %d s: %,d bytes per reply, %,.0f bytes/s total%n",
+                whoPeriodMs / 1000, who.length() + 1, whoBytesPerSec);
+    }
+}
@@ -0,0 +1,149 @@
+package com.mycompany.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel: one thread drives every deadline on the server.
+ * Scheduling and cancelling are O(1); each tick only touches the tasks hashed
+ * into the current slot. Tasks run on the wheel thread, so they must be short
+ * (hand the real work to another executor or inbox).
+ */
+public class HashedTimerWheel {
+
+    public interface Timeout {
+        /** Returns false if the task already ran or was already cancelled */
+        boolean cancel();
+    }
+
+    private static final class Task implements Timeout {
+        final Runnable action;
+        final long deadlineNanos;
+        long remainingRounds;
+        volatile int state; // 0 = chờ, 1 = đã hủy, 2 = đã chạy
+        Task next, prev;
+
+        Task(Runnable action, long deadlineNanos) {
+            this.action = action;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public boolean cancel() {
+            synchronized (this) {
+                if (state != 0) return false;
+                state = 1;
+            }
+            return true; // được gỡ khỏi slot ở lần quay tới
+        }
+    }
+
+    private static final class Slot {
+        Task head, tail;
+
+        void add(Task t) {
+            if (tail == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void remove(Task t) {
+            if (t.prev != null) t.prev.next = t.next; else head = t.next;
+            if (t.next != null) t.next.prev = t.prev; else tail = t.prev;
+            t.next = t.prev = null;
+        }
+    }
+
+    private final long tickNanos;
+    private final Slot[] wheel;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Task> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+    private long tick;
+    private volatile boolean running = true;
+
+    public HashedTimerWheel(String name, long tickMs, int slots) {
+        if (Integer.bitCount(slots) != 1) throw new IllegalArgumentException("slots must be a power of two");
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.wheel = new Slot[slots];
+        for (int i = 0; i < slots; i++) wheel[i] = new Slot();
+        this.mask = slots - 1;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /** Run {@code action} on the wheel thread after roughly {@code delayMs} (rounded up to a tick) */
+    public Timeout schedule(Runnable action, long delayMs) {
+        Task t = new Task(action, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs)));
+        pending.add(t);
+        return t;
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long tickDeadline = startNanos + (tick + 1) * tickNanos;
+            long sleep = tickDeadline - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) return;
+                }
+                continue;
+            }
+            transferPending();
+            expire(wheel[(int) (tick & mask)], tickDeadline);
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        Task t;
+        while ((t = pending.poll()) != null) {
+            if (t.state != 0) continue;
+            long ticks = Math.max(tick, (t.deadlineNanos - startNanos + tickNanos - 1) / tickNanos - 1);
+            t.remainingRounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(t);
+        }
+    }
+
+    private void expire(Slot slot, long tickDeadline) {
+        Task t = slot.head;
+        while (t != null) {
+            Task next = t.next;
+            if (t.state != 0) {
+                slot.remove(t);
+            } else if (t.remainingRounds <= 0 && t.deadlineNanos <= tickDeadline) {
+                slot.remove(t);
+                boolean fire;
+                synchronized (t) {
+                    fire = t.state == 0;
+                    if (fire) t.state = 2;
+                }
+                if (fire) {
+                    try {
+                        t.action.run();
+                    } catch (Throwable e) {
+                        System.err.println("[TimerWheel] Task failed: " + e.getMessage());
+                        e.printStackTrace();
+                    }
+                }
+            } else {
+                t.remainingRounds--;
+            }
+            t = next;
+        }
+    }
+}
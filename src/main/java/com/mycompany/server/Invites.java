@@ -0,0 +1,205 @@
+package com.mycompany.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Pending challenges, keyed by (from, to) packed into a long: sending, dedupe, cancel and
+ * RESPOND are one hash lookup. Each invite is also linked into its sender's and recipient's
+ * lists, so a disconnect drops everything involving that user without scanning the map.
+ * Expiry rides on the shared timer wheel; an invite costs one timeout there, never a thread.
+ * Notifications go out through {@code notify} (userId, event) after the lock is released.
+ */
+public class Invites {
+    static final long TTL_MS = 30_000;
+
+    public static final Invites INSTANCE = new Invites((userId, event) -> Server.box(userId).add(event));
+
+    public enum SendResult { SENT, PENDING }
+
+    public static final class Invite {
+        public final int from;
+        public final int to;
+        public final String fromName;
+        public final String toName;
+        HashedTimerWheel.Timeout expiry;
+        // Danh sách móc nối của người gửi / người nhận
+        Invite prevSent, nextSent, prevReceived, nextReceived;
+
+        Invite(int from, String fromName, int to, String toName) {
+            this.from = from;
+            this.fromName = fromName;
+            this.to = to;
+            this.toName = toName;
+        }
+    }
+
+    private final HashMap<Long, Invite> byPair = new HashMap<>();
+    private final HashMap<Integer, Invite> sentHead = new HashMap<>();
+    private final HashMap<Integer, Invite> receivedHead = new HashMap<>();
+    private final BiConsumer<Integer, String> notify;
+
+    public Invites(BiConsumer<Integer, String> notify) {
+        this.notify = notify;
+    }
+
+    static long key(int from, int to) {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Record an invite and push INVITE_FROM to the recipient; PENDING if the same invite is still open.
+     */
+    public SendResult send(int from, String fromName, int to, String toName) {
+        Invite invite = new Invite(from, fromName, to, toName);
+        synchronized (this) {
+            if (byPair.putIfAbsent(key(from, to), invite) != null) return SendResult.PENDING;
+            link(invite);
+            invite.expiry = MatchEngine.TIMER.schedule(() -> expire(invite), TTL_MS);
+        }
+        notify.accept(to, "INVITE_FROM;" + fromName);
+        return SendResult.SENT;
+    }
+
+    /**
+     * Remove the invite {@code from} -> {@code to} for RESPOND; null if there is none (never sent, expired or cancelled).
+     */
+    public Invite take(int from, int to) {
+        Invite invite;
+        synchronized (this) {
+            invite = byPair.remove(key(from, to));
+            if (invite == null) return null;
+            unlink(invite);
+        }
+        invite.expiry.cancel();
+        return invite;
+    }
+
+    /**
+     * Whether the invite {@code from} -> {@code to} is still open, without taking it
+     */
+    public synchronized boolean pending(int from, int to) {
+        return byPair.containsKey(key(from, to));
+    }
+
+    /**
+     * Sender withdraws the invite; the recipient gets INVITE_CANCELLED;from
+     */
+    public boolean cancel(int from, int to) {
+        Invite invite = take(from, to);
+        if (invite == null) return false;
+        notify.accept(to, "INVITE_CANCELLED;" + invite.fromName);
+        return true;
+    }
+
+    /**
+     * User went offline: withdraw what they sent, and tell the senders of what they received
+     */
+    public void removeAll(int userId) {
+        Invite sent, received;
+        synchronized (this) {
+            sent = sentHead.remove(userId);
+            received = receivedHead.remove(userId);
+            for (Invite i = sent; i != null; i = i.nextSent) {
+                byPair.remove(key(i.from, i.to));
+                unlinkReceived(i);
+            }
+            for (Invite i = received; i != null; i = i.nextReceived) {
+                byPair.remove(key(i.from, i.to));
+                unlinkSent(i);
+            }
+        }
+        // Các nút đã gỡ khỏi danh sách của phía bên kia nhưng vẫn giữ next của danh sách này
+        for (Invite i = sent; i != null; i = i.nextSent) {
+            i.expiry.cancel();
+            notify.accept(i.to, "INVITE_CANCELLED;" + i.fromName);
+        }
+        for (Invite i = received; i != null; i = i.nextReceived) {
+            i.expiry.cancel();
+            notify.accept(i.from, "INVITE_RESULT;" + i.toName + ";OFFLINE");
+        }
+    }
+
+    public synchronized int size() {
+        return byPair.size();
+    }
+
+    private void expire(Invite invite) {
+        synchronized (this) {
+            if (!byPair.remove(key(invite.from, invite.to), invite)) return;
+            unlink(invite);
+        }
+        notify.accept(invite.to, "INVITE_EXPIRED;" + invite.fromName);
+        notify.accept(invite.from, "INVITE_RESULT;" + invite.toName + ";EXPIRED");
+    }
+
+    private void link(Invite i) {
+        i.nextSent = sentHead.put(i.from, i);
+        if (i.nextSent != null) i.nextSent.prevSent = i;
+        i.nextReceived = receivedHead.put(i.to, i);
+        if (i.nextReceived != null) i.nextReceived.prevReceived = i;
+    }
+
+    private void unlink(Invite i) {
+        unlinkSent(i);
+        unlinkReceived(i);
+    }
+
+    private void unlinkSent(Invite i) {
+        if (i.prevSent != null) i.prevSent.nextSent = i.nextSent;
+        else if (i.nextSent != null) sentHead.put(i.from, i.nextSent);
+        else sentHead.remove(i.from, i);
+        if (i.nextSent != null) i.nextSent.prevSent = i.prevSent;
+    }
+
+    private void unlinkReceived(Invite i) {
+        if (i.prevReceived != null) i.prevReceived.nextReceived = i.nextReceived;
+        else if (i.nextReceived != null) receivedHead.put(i.to, i.nextReceived);
+        else receivedHead.remove(i.to, i);
+        if (i.nextReceived != null) i.nextReceived.prevReceived = i.prevReceived;
+    }
+
+    /**
+     * Heap per pending invite and send() latency with many invites open (none expire during the run).
+     * Usage: Invites [invites] [users]
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        Invites invites = new Invites((userId, event) -> { });
+        String[] names = new String[users + 1]; // tên dùng chung như username của phiên đăng nhập
+        for (int u = 1; u <= users; u++) names[u] = "user" + u;
+        MatchEngine.TIMER.schedule(() -> { }, 1); // khởi động luồng timer trước khi đo
+
+        long before = usedHeap();
+        long[] ns = new long[count];
+        for (int n = 0; n < count; n++) {
+            int from = n % users + 1;
+            int to = (from + 1 + n / users) % users + 1;
+            if (to == from) to = to % users + 1;
+            long start = System.nanoTime();
+            invites.send(from, names[from], to, names[to]);
+            ns[n] = System.nanoTime() - start;
+        }
+        long after = usedHeap();
+        int pending = invites.size();
+        Arrays.sort(ns);
+        System.out.printf("[Invites] %,d pending among %,d users: %,d bytes per invite (incl. timeout)%n",
+                pending, users, (after - before) / Math.max(1, pending));
+        System.out.printf("[Invites] send p50 %,d ns, p99 %,d ns, max %,d ns%n",
+                ns[count / 2], ns[(int) (count * 0.99)], ns[count - 1]);
+
+        long start = System.nanoTime();
+        for (int u = 1; u <= users; u++) invites.removeAll(u);
+        System.out.printf("[Invites] disconnect cleanup of all users: %.1f ms, %d left%n",
+                (System.nanoTime() - start) / 1e6, invites.size());
+        System.exit(0);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
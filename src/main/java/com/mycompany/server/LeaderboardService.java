@@ -0,0 +1,103 @@
+package com.mycompany.server;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leaderboard pages for every time window, with a small page cache.
+ * Pages of the current bucket are cached until the next recorded match or the TTL,
+ * whichever comes first. Each page remembers the match generation it was loaded under, so a
+ * page whose query started before a commit is never served after it, even if it lands in the
+ * cache after onMatchRecorded cleared it.
+ */
+public class LeaderboardService {
+    private static final long CACHE_TTL_MS = 30_000;
+
+    private static final ConcurrentHashMap<String, CachedPage> CACHE = new ConcurrentHashMap<>();
+    // Tăng sau mỗi trận được lưu; trang nạp ở thế hệ cũ coi như hết hạn
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private static ScheduledExecutorService rolloverExecutor;
+
+    private static class CachedPage {
+        final List<LeaderboardEntry> entries;
+        final long loadedAt;
+        final long generation;
+
+        CachedPage(List<LeaderboardEntry> entries, long loadedAt, long generation) {
+            this.entries = entries;
+            this.loadedAt = loadedAt;
+            this.generation = generation;
+        }
+    }
+
+    public static List<LeaderboardEntry> getPage(LeaderboardWindow window, int offset, int limit) throws SQLException {
+        LocalDate start = window.periodStart(LocalDate.now());
+        String key = window + ":" + start + ":" + offset + ":" + limit;
+        long now = System.currentTimeMillis();
+        // Đọc trước khi truy vấn: trận commit trong lúc truy vấn làm trang này cũ ngay
+        long generation = GENERATION.get();
+
+        CachedPage cached = CACHE.get(key);
+        if (cached != null && cached.generation == generation && now - cached.loadedAt < CACHE_TTL_MS) {
+            return cached.entries;
+        }
+
+        List<LeaderboardEntry> entries = (window == LeaderboardWindow.ALL)
+                ? Database.getLeaderboardPage(offset, limit)
+                : Database.getPeriodLeaderboardPage(window.periodType(), start, offset, limit);
+        if (GENERATION.get() == generation) CACHE.put(key, new CachedPage(List.copyOf(entries), now, generation));
+        return entries;
+    }
+
+    /**
+     * Called after a match is persisted: every window's current bucket just changed.
+     */
+    public static void onMatchRecorded() {
+        GENERATION.incrementAndGet();
+        CACHE.clear();
+    }
+
+    /**
+     * Start the roll-over job. Sealing is idempotent, so it simply runs every hour
+     * and only does real work on the first run after a bucket boundary.
+     */
+    public static synchronized void startRollover() {
+        if (rolloverExecutor != null) return;
+        rolloverExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "leaderboard-rollover");
+            t.setDaemon(true);
+            return t;
+        });
+        rolloverExecutor.scheduleAtFixedRate(LeaderboardService::rollover, 0, 1, TimeUnit.HOURS);
+    }
+
+    static void rollover() {
+        LocalDate today = LocalDate.now();
+        for (LeaderboardWindow w : LeaderboardWindow.values()) {
+            if (w.periodType() == null) continue;
+            try {
+                int sealed = Database.sealPeriodsBefore(w.periodType(), w.periodStart(today));
+                if (sealed > 0) {
+                    System.out.println("[Leaderboard] Sealed " + sealed + " " + w.periodType() + " rows");
+                }
+            } catch (SQLException e) {
+                System.err.println("[Leaderboard] Roll-over failed for " + w.periodType() + ": " + e.getMessage());
+            }
+        }
+        // Drop pages cached under a previous bucket
+        CACHE.keySet().removeIf(k -> isStale(k, today));
+    }
+
+    private static boolean isStale(String key, LocalDate today) {
+        String[] parts = key.split(":");
+        LeaderboardWindow w = LeaderboardWindow.parse(parts[0]);
+        return w == null || !String.valueOf(w.periodStart(today)).equals(parts[1]);
+    }
+}
@@ -0,0 +1,47 @@
+package com.mycompany.server;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Time window of a leaderboard. ALL reads users directly; the others read one
+ * bucket of leaderboard_periods, identified by (period_type, period_start).
+ * A season is a calendar quarter.
+ */
+public enum LeaderboardWindow {
+    ALL(null),
+    DAY("day"),
+    WEEK("week"),
+    SEASON("season");
+
+    private final String periodType;
+
+    LeaderboardWindow(String periodType) {
+        this.periodType = periodType;
+    }
+
+    /** Value of leaderboard_periods.period_type, null for ALL */
+    public String periodType() {
+        return periodType;
+    }
+
+    /** First day of the bucket containing {@code date} */
+    public LocalDate periodStart(LocalDate date) {
+        return switch (this) {
+            case ALL -> null;
+            case DAY -> date;
+            case WEEK -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case SEASON -> date.withMonth(((date.getMonthValue() - 1) / 3) * 3 + 1).withDayOfMonth(1);
+        };
+    }
+
+    /** Parses "day" / "week" / "season" / "all" (case-insensitive); null if unknown */
+    public static LeaderboardWindow parse(String s) {
+        if (s == null) return null;
+        for (LeaderboardWindow w : values()) {
+            if (w.name().equalsIgnoreCase(s.trim())) return w;
+        }
+        return null;
+    }
+}
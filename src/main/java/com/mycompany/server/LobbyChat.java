@@ -0,0 +1,133 @@
+package com.mycompany.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The lobby chat channel: one shared ring of the most recent messages, each encoded once as
+ * the CHAT;seq;from;text frame every reader gets. Nothing is queued per listener; a session only
+ * keeps the seq of the next message it wants (its cursor) and pulls frames with CHAT_POLL.
+ * A reader that falls more than CAPACITY messages behind skips ahead to the oldest one kept.
+ *
+ * Posting is serialized; reading is lock-free (the frame is published before {@code head}).
+ */
+public class LobbyChat {
+    static final int CAPACITY = 256; // lũy thừa của 2
+    private static final int MASK = CAPACITY - 1;
+    // Người mới vào sảnh thấy chừng này tin gần nhất
+    static final int HISTORY = 20;
+    static final int MAX_LENGTH = 200;
+    // Mỗi user gửi tối đa một tin mỗi khoảng này
+    static final long MIN_INTERVAL_MS = 500;
+
+    public static final LobbyChat INSTANCE = new LobbyChat();
+
+    private final String[] ring = new String[CAPACITY];
+    private volatile long head; // seq của tin kế tiếp; ring giữ [head - CAPACITY, head)
+    private final ConcurrentHashMap<Integer, Long> lastPostMs = new ConcurrentHashMap<>();
+
+    /**
+     * Append a message; returns null if accepted, otherwise the error for the sender
+     */
+    public String post(int userId, String from, String text) {
+        // Giao thức theo dòng: không cho xuống dòng; text là trường cuối nên ';' vẫn giữ được
+        text = text.replace('\r', ' ').replace('\n', ' ').strip();
+        if (text.isEmpty()) return "Message is empty";
+        if (text.length() > MAX_LENGTH) return "Message is longer than " + MAX_LENGTH + " characters";
+        long now = System.currentTimeMillis();
+        Long last = lastPostMs.get(userId);
+        if (last != null && now - last < MIN_INTERVAL_MS) return "Too many messages, slow down";
+        // Chỉ tin được nhận mới tính: gửi dồn khi đang bị chặn không kéo dài thời gian chờ
+        lastPostMs.put(userId, now);
+        append(from, text);
+        return null;
+    }
+
+    synchronized long append(String from, String text) {
+        long seq = head;
+        ring[(int) (seq & MASK)] = "CHAT;" + seq + ";" + from + ";" + text;
+        head = seq + 1; // ghi volatile sau: người đọc thấy head mới thì thấy cả frame
+        return seq;
+    }
+
+    /** Cursor for a new session: the last HISTORY messages are still to be read */
+    public long historyCursor() {
+        return Math.max(0, head - HISTORY);
+    }
+
+    /**
+     * The frame at {@code cursor}, or null if the reader is up to date. A lapped cursor reads the
+     * oldest message still kept instead; the caller moves its cursor to {@link #seqOf} + 1.
+     */
+    public String read(long cursor) {
+        while (true) {
+            long h = head;
+            if (cursor >= h) return null;
+            if (cursor < h - CAPACITY) cursor = h - CAPACITY;
+            String frame = ring[(int) (cursor & MASK)];
+            // Người gửi có thể vừa ghi đè ô này: đọc lại nếu trong lúc đó cursor đã bị vượt vòng
+            if (cursor >= head - CAPACITY) return frame;
+        }
+    }
+
+    /** Seq of a frame returned by {@link #read} */
+    public static long seqOf(String frame) {
+        int start = frame.indexOf(';') + 1;
+        return Long.parseLong(frame, start, frame.indexOf(';', start), 10);
+    }
+
+    public void forget(int userId) {
+        lastPostMs.remove(userId);
+    }
+
+    /**
+     * Sustained rate with many listeners: every listener reads every message through its own
+     * cursor, against the per-user mailbox fan-out this replaces.
+     * Usage: LobbyChat [listeners] [messages]
+     */
+    public static void main(String[] args) {
+        int listeners = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        for (int pass = 0; pass < 2; pass++) { // lượt đầu để JIT làm nóng
+            LobbyChat chat = new LobbyChat();
+            long[] cursors = new long[listeners];
+            long delivered = 0;
+            long bytesBefore = mx.getThreadAllocatedBytes(tid);
+            long start = System.nanoTime();
+            for (int m = 0; m < messages; m++) {
+                chat.append("user" + (m % 100), "tin nhắn số " + m);
+                for (int i = 0; i < listeners; i++) {
+                    String frame = chat.read(cursors[i]);
+                    if (frame != null) {
+                        cursors[i] = seqOf(frame) + 1;
+                        delivered++;
+                    }
+                }
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            long bytes = mx.getThreadAllocatedBytes(tid) - bytesBefore;
+
+            Mailbox[] boxes = new Mailbox[listeners];
+            for (int i = 0; i < listeners; i++) boxes[i] = new Mailbox();
+            long boxBytesBefore = mx.getThreadAllocatedBytes(tid);
+            long boxStart = System.nanoTime();
+            for (int m = 0; m < messages; m++) {
+                String frame = "CHAT;" + m + ";user" + (m % 100) + ";tin nhắn số " + m;
+                for (int i = 0; i < listeners; i++) boxes[i].add(frame);
+                for (int i = 0; i < listeners; i++) boxes[i].poll();
+            }
+            double boxSecs = (System.nanoTime() - boxStart) / 1e9;
+            long boxBytes = mx.getThreadAllocatedBytes(tid) - boxBytesBefore;
+
+            if (pass == 1) {
+                System.out.printf("[LobbyChat] ring:    %,d listeners, %,.0f msgs/s (%,d deliveries), %,d bytes/msg%n",
+                        listeners, messages / secs, delivered, bytes / messages);
+                System.out.printf("[LobbyChat] mailbox: %,d listeners, %,.0f msgs/s, %,d bytes/msg%n",
+                        listeners, messages / boxSecs, boxBytes / messages);
+            }
+        }
+    }
+}
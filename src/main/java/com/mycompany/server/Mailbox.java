@@ -0,0 +1,55 @@
+package com.mycompany.server;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * A user's pending server->client events, drained one per POLL.
+ * Keeps its own size counter (ConcurrentLinkedQueue.size() walks the whole queue),
+ * so fan-out can cheaply refuse to pile more events onto a client that is not polling.
+ */
+public class Mailbox {
+    private final ConcurrentLinkedQueue<String> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** Always enqueue: events a player must not miss */
+    public void add(String event) {
+        events.add(event);
+        size.incrementAndGet();
+    }
+
+    /**
+     * Enqueue only while fewer than {@code limit} events are pending.
+     * The check is not atomic with the add; concurrent producers may overshoot by a few.
+     */
+    public boolean offer(String event, int limit) {
+        if (size.get() >= limit) return false;
+        add(event);
+        return true;
+    }
+
+    public String poll() {
+        String event = events.poll();
+        if (event != null) size.decrementAndGet();
+        return event;
+    }
+
+    /** Drop pending events that are no longer worth delivering; returns how many */
+    public int removeIf(Predicate<String> stale) {
+        int removed = 0;
+        for (Iterator<String> it = events.iterator(); it.hasNext(); ) {
+            String event = it.next();
+            if (stale.test(event) && events.remove(event)) {
+                size.decrementAndGet();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return size.get();
+    }
+}
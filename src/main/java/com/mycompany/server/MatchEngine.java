@@ -0,0 +1,409 @@
+package com.mycompany.server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server-side registry of running matches. Every room's deadlines share one
+ * hashed timer wheel (no thread per match), and rooms run as actors on a fixed
+ * set of RoomLoops, one per core, chosen by match id. Finished matches are
+ * persisted on a small separate pool so neither the wheel nor a loop waits on the database.
+ */
+public class MatchEngine {
+    static final HashedTimerWheel TIMER = new HashedTimerWheel("match-timer", 10, 1024);
+
+    private static final long STATS_INTERVAL_MS = 60_000;
+    // -Dmatch.persist=false: không lưu trận (BotLoad và các benchmark khác)
+    static final boolean PERSIST = Boolean.parseBoolean(System.getProperty("match.persist", "true"));
+    private static final RoomLoop[] LOOPS = createLoops(
+            Integer.getInteger("match.loops", Runtime.getRuntime().availableProcessors()));
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final ConcurrentHashMap<Integer, MatchRoom> ROOMS = new ConcurrentHashMap<>();
+    private static final UserTable<MatchRoom> BY_USER = new UserTable<>(1024);
+    // Trận mà mỗi user đang xem (tối đa một)
+    private static final UserTable<MatchRoom> SPECTATING = new UserTable<>(1024);
+    // Phòng nhóm: id chung dãy với trận 1v1 để ANSWER;matchId tìm được cả hai loại
+    private static final ConcurrentHashMap<Integer, PartyRoom> PARTIES = new ConcurrentHashMap<>();
+    private static final UserTable<PartyRoom> IN_PARTY = new UserTable<>(1024);
+    // Trận vừa xong còn mở cửa sổ đấu lại; không tính là đang chơi
+    private static final UserTable<MatchRoom> REMATCH = new UserTable<>(1024);
+
+    // Việc chậm hoặc có thể chặn: lưu trận party, ghép cặp từ hàng đợi
+    private static final ExecutorService BACKGROUND = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "match-background");
+        t.setDaemon(true);
+        return t;
+    });
+    // Lưu trận 1v1 và các hook sau commit trên đúng một luồng: trận áp dụng theo thứ tự id,
+    // nên chuỗi thành tích và mốc đã áp dụng của các bộ thống kê không bị đảo
+    private static final ExecutorService SAVER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "match-persist");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Start a match between two online users; returns null if either is already playing
+     */
+    public static synchronized MatchRoom startMatch(int p1, String name1, int p2, String name2) {
+        if (isPlaying(p1) || isPlaying(p2)) return null;
+        stopSpectating(p1);
+        stopSpectating(p2);
+        return launch(p1, name1, null, p2, name2, null);
+    }
+
+    /**
+     * Start a match against a bot of the given level; null if the user is already playing
+     * or the bot account is not ready
+     */
+    public static synchronized MatchRoom startBotMatch(int userId, String username, Bot.Profile bot) {
+        if (bot.userId() <= 0 || isPlaying(userId)) return null;
+        stopSpectating(userId);
+        return launch(userId, username, null, bot.userId(), bot.username, bot);
+    }
+
+    /**
+     * Bot against bot, for load tests. Bot seats are not in BY_USER, so one bot account
+     * can sit in any number of matches.
+     */
+    static MatchRoom startBotMatch(Bot.Profile a, Bot.Profile b) {
+        return launch(a.userId(), a.username, a, b.userId(), b.username, b);
+    }
+
+    private static MatchRoom launch(int p1, String name1, Bot.Profile bot1, int p2, String name2, Bot.Profile bot2) {
+        int matchId = NEXT_ID.incrementAndGet();
+        RoomLoop loop = LOOPS[matchId % LOOPS.length];
+        MatchRoom room = new MatchRoom(matchId, p1, name1, p2, name2, QuestionDeckService.take(), loop);
+        if (bot1 != null) room.attachBot(0, bot1);
+        if (bot2 != null) room.attachBot(1, bot2);
+        loop.rooms.incrementAndGet();
+        ROOMS.put(room.matchId, room);
+        if (bot1 == null) {
+            BY_USER.put(p1, room);
+            declineRematch(p1);
+        }
+        if (bot2 == null) {
+            BY_USER.put(p2, room);
+            declineRematch(p2);
+        }
+        room.start();
+        if (bot1 == null || bot2 == null) { // trận bot-bot (tải thử) không ghi log từng trận
+            System.out.println("[MatchEngine] Match " + room.matchId + " started: " + name1 + " vs " + name2
+                    + " (" + ROOMS.size() + " running)");
+        }
+        return room;
+    }
+
+    public static MatchRoom room(int matchId) {
+        return ROOMS.get(matchId);
+    }
+
+    public static MatchRoom roomOf(int userId) {
+        return BY_USER.get(userId);
+    }
+
+    /** In a 1v1 match or in a party room (waiting or started) */
+    public static boolean isPlaying(int userId) {
+        return BY_USER.containsKey(userId) || IN_PARTY.containsKey(userId);
+    }
+
+    /* ================== Rematch ================== */
+
+    /**
+     * REMATCH for the match that just ended; null if its rematch window is not open for this user.
+     * Completes with the reply line for the client.
+     */
+    public static CompletableFuture<String> rematch(int userId, int matchId) {
+        MatchRoom room = REMATCH.get(userId);
+        if (room == null || room.matchId != matchId) return null;
+        return room.rematch(userId);
+    }
+
+    public static boolean declineRematch(int userId) {
+        MatchRoom room = REMATCH.remove(userId);
+        if (room != null) room.declineRematch(userId);
+        return room != null;
+    }
+
+    static void onRematchOpen(MatchRoom room) {
+        for (int seat = 0; seat < 2; seat++) {
+            if (!room.isBot(seat)) REMATCH.put(room.players[seat], room);
+        }
+    }
+
+    static void onRematchClosed(MatchRoom room) {
+        for (int p : room.players) REMATCH.remove(p, room);
+    }
+
+    /**
+     * Both players agreed: register the room again as running. False if one of them
+     * went offline or into another match meanwhile.
+     */
+    static synchronized boolean onRematch(MatchRoom room) {
+        for (int seat = 0; seat < 2; seat++) {
+            int p = room.players[seat];
+            if (!room.isBot(seat) && (isPlaying(p) || !Server.isOnline(p))) return false;
+        }
+        onRematchClosed(room);
+        room.loop.rooms.incrementAndGet();
+        ROOMS.put(room.matchId, room);
+        for (int seat = 0; seat < 2; seat++) {
+            int p = room.players[seat];
+            if (room.isBot(seat)) continue;
+            BY_USER.put(p, room);
+            stopSpectating(p);
+            Matchmaker.INSTANCE.leave(p);
+        }
+        System.out.println("[MatchEngine] Match " + room.matchId + " rematch: " + room.names[0] + " vs " + room.names[1]
+                + " (" + ROOMS.size() + " running)");
+        return true;
+    }
+
+    /* ================== Party rooms ================== */
+
+    /**
+     * Open a party room hosted by {@code userId}; null if the user is already playing
+     */
+    public static synchronized PartyRoom createParty(int userId, String username) {
+        if (isPlaying(userId)) return null;
+        stopSpectating(userId);
+        Matchmaker.INSTANCE.leave(userId);
+        int partyId = NEXT_ID.incrementAndGet();
+        RoomLoop loop = LOOPS[partyId % LOOPS.length];
+        PartyRoom party = new PartyRoom(partyId, userId, username, loop);
+        loop.rooms.incrementAndGet();
+        PARTIES.put(partyId, party);
+        IN_PARTY.put(userId, party);
+        declineRematch(userId);
+        party.open();
+        return party;
+    }
+
+    /**
+     * Join a waiting party room; null if there is no such room or the user is already playing.
+     * Completes with the reply line for the client.
+     */
+    public static CompletableFuture<String> joinParty(int userId, String username, int partyId) {
+        PartyRoom party = PARTIES.get(partyId);
+        if (party == null) return null;
+        synchronized (MatchEngine.class) {
+            if (isPlaying(userId)) return null;
+            IN_PARTY.put(userId, party);
+        }
+        stopSpectating(userId);
+        Matchmaker.INSTANCE.leave(userId);
+        declineRematch(userId);
+        return party.join(userId, username);
+    }
+
+    public static PartyRoom party(int partyId) {
+        return PARTIES.get(partyId);
+    }
+
+    public static PartyRoom partyOf(int userId) {
+        return IN_PARTY.get(userId);
+    }
+
+    public static boolean leaveParty(int userId) {
+        PartyRoom party = IN_PARTY.get(userId);
+        if (party != null) party.leave(userId);
+        return party != null;
+    }
+
+    static void onPartyLeft(int userId, PartyRoom party) {
+        IN_PARTY.remove(userId, party);
+    }
+
+    // Phòng chờ không còn ai
+    static void onPartyClosed(PartyRoom party) {
+        PARTIES.remove(party.matchId);
+        party.loop.rooms.decrementAndGet();
+    }
+
+    static void onPartyFinished(PartyRoom party, PartyResult result) {
+        PARTIES.remove(party.matchId);
+        for (int seat = 0; seat < result.size(); seat++) IN_PARTY.remove(result.getUserId(seat), party);
+        party.loop.rooms.decrementAndGet();
+        BACKGROUND.execute(() -> {
+            try {
+                Database.savePartyMatch(result);
+            } catch (SQLException e) {
+                System.err.println("[MatchEngine] Failed to save party " + party.matchId + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Start a match for a pair made by the matchmaker. If one side went offline or into
+     * another match meanwhile, the other side goes back into the queue.
+     */
+    static void startFromQueue(Matchmaker.Ticket a, Matchmaker.Ticket b) {
+        boolean aReady = Server.isOnline(a.userId) && !isPlaying(a.userId);
+        boolean bReady = Server.isOnline(b.userId) && !isPlaying(b.userId);
+        if (aReady && bReady && startMatch(a.userId, a.username, b.userId, b.username) != null) return;
+        if (aReady && !isPlaying(a.userId)) Matchmaker.INSTANCE.join(a.userId, a.username, a.rating);
+        if (bReady && !isPlaying(b.userId)) Matchmaker.INSTANCE.join(b.userId, b.username, b.rating);
+    }
+
+    static void background(Runnable task) {
+        BACKGROUND.execute(task);
+    }
+
+    /**
+     * Start watching a match, leaving any match watched before; null if there is no such match.
+     * Completes with the reply line for the client.
+     */
+    public static CompletableFuture<String> spectate(int userId, int matchId) {
+        MatchRoom room = ROOMS.get(matchId);
+        if (room == null) return null;
+        MatchRoom previous = SPECTATING.put(userId, room);
+        if (previous != null && previous != room) previous.unspectate(userId);
+        return room.spectate(userId);
+    }
+
+    public static boolean stopSpectating(int userId) {
+        MatchRoom room = SPECTATING.remove(userId);
+        if (room != null) room.unspectate(userId);
+        return room != null;
+    }
+
+    static void onSpectatorDropped(int userId, MatchRoom room) {
+        SPECTATING.remove(userId, room);
+    }
+
+    /**
+     * Running matches with the highest combined rating first, for the lobby's live list
+     */
+    public static List<MatchRoom> liveMatches(int limit) {
+        List<MatchRoom> rooms = new ArrayList<>(ROOMS.values());
+        rooms.sort(Comparator.comparingInt((MatchRoom r) ->
+                -(RatingIndex.ratingOf(r.players[0]) + RatingIndex.ratingOf(r.players[1]))));
+        return rooms.size() > limit ? rooms.subList(0, limit) : rooms;
+    }
+
+    /**
+     * The socket dropped without LOGOUT: a player keeps their seat for the grace period
+     */
+    public static void onConnectionLost(int userId) {
+        stopSpectating(userId);
+        Matchmaker.INSTANCE.leave(userId);
+        leaveParty(userId);
+        declineRematch(userId);
+        MatchRoom room = BY_USER.get(userId);
+        if (room != null) room.seatLost(userId);
+    }
+
+    /**
+     * Called on login: if the user still holds a seat, a RESUME snapshot goes to their mailbox
+     */
+    public static boolean resume(int userId) {
+        MatchRoom room = BY_USER.get(userId);
+        if (room == null) return false;
+        room.resume(userId);
+        return true;
+    }
+
+    public static void onDisconnect(int userId) {
+        stopSpectating(userId);
+        Matchmaker.INSTANCE.leave(userId);
+        leaveParty(userId);
+        declineRematch(userId);
+        MatchRoom room = BY_USER.get(userId);
+        if (room != null) room.forfeit(userId);
+    }
+
+    static void send(int userId, String event) {
+        Server.box(userId).add(event);
+    }
+
+    static void onFinished(MatchRoom room, MatchResult result, List<RoundRecord> rounds) {
+        ROOMS.remove(room.matchId);
+        for (int p : room.players) BY_USER.remove(p, room);
+        room.spectators.forEach(id -> SPECTATING.remove(id, room));
+        room.loop.rooms.decrementAndGet();
+
+        if (!PERSIST) return;
+        List<ReplayLog.Round> replay = room.replayRounds();
+        boolean forfeit = room.forfeited();
+        boolean[] human = {!room.isBot(0), !room.isBot(1)};
+        SAVER.execute(() -> {
+            int savedId;
+            try {
+                savedId = Database.saveMatch(result, rounds);
+            } catch (Exception e) {
+                System.err.println("[MatchEngine] Failed to save match " + room.matchId + ": " + e.getMessage());
+                e.printStackTrace();
+                return;
+            }
+            // Mỗi hook tự bắt lỗi: một hook hỏng không làm mất các hook sau, nhất là replay
+            // Trận với bot không tính điểm: chỉ còn lịch sử, replay và độ khó âm thanh
+            if (result.isRated()) {
+                afterCommit("RatingIndex", savedId, () -> RatingIndex.onMatchPersisted(result));
+                afterCommit("Standings", savedId, () -> Standings.onMatchPersisted(result));
+                afterCommit("LeaderboardService", savedId, LeaderboardService::onMatchRecorded);
+                afterCommit("CategoryStats", savedId, () -> CategoryStats.onMatchPersisted(savedId, result, rounds));
+                afterCommit("Achievements", savedId, () -> Achievements.INSTANCE.onMatchPersisted(savedId, result, rounds));
+            }
+            afterCommit("SoundDifficulty", savedId, () -> SoundDifficulty.onMatchPersisted(savedId, rounds, human));
+            afterCommit("ReplayLog", savedId, () -> writeReplay(savedId, room, result, forfeit, replay));
+        });
+    }
+
+    private static void afterCommit(String hook, int savedId, Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            System.err.println("[MatchEngine] " + hook + " failed for match " + savedId + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Replay được khóa theo matches.id (id của DB), không phải id phòng vốn đếm lại khi khởi động lại
+    private static void writeReplay(int savedId, MatchRoom room, MatchResult result, boolean forfeit,
+                                    List<ReplayLog.Round> replay) {
+        int winner = "player1".equals(result.getWinner()) ? 0 : "player2".equals(result.getWinner()) ? 1 : -1;
+        try {
+            ReplayLog.INSTANCE.append(savedId, room.names[0], room.names[1], result.getStartedAt().getTime(),
+                    result.getFinishedAt().getTime(), winner, forfeit, result.getScore1(), result.getScore2(), replay);
+        } catch (IOException e) {
+            System.err.println("[MatchEngine] Failed to write replay of match " + savedId + ": " + e.getMessage());
+        }
+    }
+
+    private static RoomLoop[] createLoops(int n) {
+        RoomLoop[] loops = new RoomLoop[Math.max(1, n)];
+        for (int i = 0; i < loops.length; i++) loops[i] = new RoomLoop("match-loop-" + i);
+        TIMER.schedule(MatchEngine::reportStats, STATS_INTERVAL_MS);
+        return loops;
+    }
+
+    // Một dòng log mỗi phút cho mỗi loop đang có việc: số phòng, độ trễ message và answer->result, % bận
+    private static void reportStats() {
+        logLoopStats(TimeUnit.MILLISECONDS.toNanos(STATS_INTERVAL_MS));
+        TIMER.schedule(MatchEngine::reportStats, STATS_INTERVAL_MS);
+    }
+
+    static void logLoopStats(long intervalNanos) {
+        for (int i = 0; i < LOOPS.length; i++) {
+            RoomLoop loop = LOOPS[i];
+            boolean active = loop.rooms.get() > 0 || loop.messageCount() > 0;
+            String stats = loop.drainStats(intervalNanos);
+            if (active) System.out.println("[MatchEngine] loop " + i + ": " + stats);
+        }
+    }
+
+    static int runningMatches() {
+        return ROOMS.size();
+    }
+}
@@ -0,0 +1,176 @@
+package com.mycompany.server;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams matches / match_rounds to a gzip CSV file with bounded memory.
+ * Rows are pulled through a server-side cursor (setFetchSize inside a read-only
+ * transaction), so heap use depends on FETCH_SIZE, not on the number of rows exported.
+ *
+ * Usage:
+ *   MatchExporter matches|rounds out.csv.gz [--from 2025-01-01T00:00:00] [--to ...] [--player username]
+ */
+public class MatchExporter {
+    private static final int FETCH_SIZE = 5000;
+    private static final int PROGRESS_EVERY = 1_000_000;
+
+    private static final String MATCH_COLUMNS =
+            "m.id, m.player1_id, m.player2_id, m.score1, m.score2, m.winner, m.tie_break_used, " +
+            "m.total_rounds, m.started_at, m.finished_at";
+    private static final String ROUND_COLUMNS =
+            "r.match_id, r.round_no, r.sound_key, r.category, r.question_text, r.correct_answer, " +
+            "r.p1_answer, r.p1_time_ms, r.p1_correct, r.p2_answer, r.p2_time_ms, r.p2_correct, " +
+            "r.winner_round, r.is_tiebreak";
+
+    private final boolean rounds;
+    private Timestamp from;
+    private Timestamp to;
+    private int playerId;
+
+    private long rows;
+    private long peakHeap;
+
+    public MatchExporter(boolean rounds) {
+        this.rounds = rounds;
+    }
+
+    public MatchExporter from(Timestamp from) { this.from = from; return this; }
+    public MatchExporter to(Timestamp to) { this.to = to; return this; }
+    public MatchExporter player(int playerId) { this.playerId = playerId; return this; }
+
+    /**
+     * Export to {@code path}; returns the number of rows written
+     */
+    public long exportTo(String path) throws SQLException, IOException {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(rounds ? ROUND_COLUMNS : MATCH_COLUMNS)
+                .append(rounds ? " FROM public.match_rounds r JOIN public.matches m ON m.id = r.match_id"
+                               : " FROM public.matches m")
+                .append(" WHERE TRUE");
+        if (from != null) { sql.append(" AND m.finished_at >= ?"); params.add(from); }
+        if (to != null)   { sql.append(" AND m.finished_at < ?");  params.add(to); }
+        if (playerId > 0) {
+            sql.append(" AND (m.player1_id = ? OR m.player2_id = ?)");
+            params.add(playerId);
+            params.add(playerId);
+        }
+
+        long started = System.nanoTime();
+        try (Connection conn = DbPool.get().getConnection()) {
+            // pgjdbc chỉ dùng cursor khi autocommit tắt; nếu không nó nạp toàn bộ kết quả vào heap
+            conn.setAutoCommit(false);
+            conn.setReadOnly(true);
+            try (PreparedStatement ps = conn.prepareStatement(sql.toString(),
+                         ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                 Writer out = new BufferedWriter(new OutputStreamWriter(
+                         new GZIPOutputStream(new FileOutputStream(path), 1 << 16), StandardCharsets.UTF_8), 1 << 16)) {
+                ps.setFetchSize(FETCH_SIZE);
+                for (int i = 0; i < params.size(); i++) ps.setObject(i + 1, params.get(i));
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    int cols = meta.getColumnCount();
+                    for (int c = 1; c <= cols; c++) {
+                        if (c > 1) out.write(',');
+                        out.write(meta.getColumnLabel(c));
+                    }
+                    out.write('\n');
+
+                    while (rs.next()) {
+                        for (int c = 1; c <= cols; c++) {
+                            if (c > 1) out.write(',');
+                            writeCsv(out, rs.getString(c));
+                        }
+                        out.write('\n');
+                        if (++rows % PROGRESS_EVERY == 0) {
+                            sampleHeap();
+                            report(started, false);
+                        }
+                    }
+                }
+            } finally {
+                conn.rollback(); // read-only, chỉ để đóng transaction
+                conn.setReadOnly(false);
+                conn.setAutoCommit(true);
+            }
+        }
+        sampleHeap();
+        report(started, true);
+        return rows;
+    }
+
+    private static void writeCsv(Writer out, String value) throws IOException {
+        if (value == null) return;
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char ch = value.charAt(i);
+            quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"') out.write('"');
+            out.write(ch);
+        }
+        out.write('"');
+    }
+
+    private void sampleHeap() {
+        Runtime rt = Runtime.getRuntime();
+        peakHeap = Math.max(peakHeap, rt.totalMemory() - rt.freeMemory());
+    }
+
+    private void report(long startedNanos, boolean done) {
+        double secs = (System.nanoTime() - startedNanos) / 1e9;
+        System.out.printf("[Export] %s%,d rows in %.1fs (%,.0f rows/s), peak heap %.1f MB%n",
+                done ? "Done: " : "", rows, secs, rows / Math.max(secs, 1e-9), peakHeap / (1024.0 * 1024.0));
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || !(args[0].equals("matches") || args[0].equals("rounds"))) {
+            System.err.println("Usage: MatchExporter matches|rounds <out.csv.gz> [--from ts] [--to ts] [--player username]");
+            System.exit(2);
+        }
+        try {
+            MatchExporter exporter = new MatchExporter(args[0].equals("rounds"));
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--from" -> exporter.from(Timestamp.valueOf(value.replace('T', ' ')));
+                    case "--to" -> exporter.to(Timestamp.valueOf(value.replace('T', ' ')));
+                    case "--player" -> {
+                        int id = Database.findUserId(value);
+                        if (id <= 0) {
+                            System.err.println("Unknown player: " + value);
+                            System.exit(2);
+                        }
+                        exporter.player(id);
+                    }
+                    default -> {
+                        System.err.println("Unknown option: " + args[i]);
+                        System.exit(2);
+                    }
+                }
+            }
+            exporter.exportTo(args[1]);
+        } catch (Exception e) {
+            System.err.println("[Export] Failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
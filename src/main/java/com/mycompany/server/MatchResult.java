@@ -0,0 +1,80 @@
+package com.mycompany.server;
+
+import java.sql.Timestamp;
+
+/**
+ * DTO for a finished match, as handed to the persistence path
+ */
+public class MatchResult {
+    private final int player1Id;
+    private final int player2Id;
+    private final int score1;
+    private final int score2;
+    private final String winner; // 'player1' | 'player2' | 'draw'
+    private final boolean tieBreakUsed;
+    private final int totalRounds;
+    private final Timestamp startedAt;
+    private final Timestamp finishedAt;
+    // Rating và số trận rated của hai người sau trận, do Database.saveMatch điền khi commit
+    private int rating1After;
+    private int rating2After;
+    private int ratedMatches1After;
+    private int ratedMatches2After;
+    // Trận có bot: lưu vào lịch sử nhưng không tính rating, thắng thua hay bảng xếp hạng
+    private boolean rated = true;
+
+    public MatchResult(int player1Id, int player2Id, int score1, int score2, String winner,
+                       boolean tieBreakUsed, int totalRounds, Timestamp startedAt, Timestamp finishedAt) {
+        this.player1Id = player1Id;
+        this.player2Id = player2Id;
+        this.score1 = score1;
+        this.score2 = score2;
+        this.winner = winner;
+        this.tieBreakUsed = tieBreakUsed;
+        this.totalRounds = totalRounds;
+        this.startedAt = startedAt;
+        this.finishedAt = finishedAt;
+    }
+
+    public int getPlayer1Id() { return player1Id; }
+    public int getPlayer2Id() { return player2Id; }
+    public int getScore1() { return score1; }
+    public int getScore2() { return score2; }
+    public String getWinner() { return winner; }
+    public boolean isTieBreakUsed() { return tieBreakUsed; }
+    public int getTotalRounds() { return totalRounds; }
+    public Timestamp getStartedAt() { return startedAt; }
+    public Timestamp getFinishedAt() { return finishedAt; }
+
+    public boolean isRated() { return rated; }
+
+    void markUnrated() {
+        this.rated = false;
+    }
+
+    public int getRating1After() { return rating1After; }
+    public int getRating2After() { return rating2After; }
+    public int getRatedMatches1After() { return ratedMatches1After; }
+    public int getRatedMatches2After() { return ratedMatches2After; }
+
+    void setRatingsAfter(int rating1, int rating2, int ratedMatches1, int ratedMatches2) {
+        this.rating1After = rating1;
+        this.rating2After = rating2;
+        this.ratedMatches1After = ratedMatches1;
+        this.ratedMatches2After = ratedMatches2;
+    }
+
+    /** Player 1's score for rating purposes: 1 win, 0.5 draw, 0 loss */
+    public double getScore1ForRating() {
+        if ("player1".equals(winner)) return 1.0;
+        if ("player2".equals(winner)) return 0.0;
+        return 0.5;
+    }
+
+    /** Id of the winning user, or 0 for a draw */
+    public int getWinnerId() {
+        if ("player1".equals(winner)) return player1Id;
+        if ("player2".equals(winner)) return player2Id;
+        return 0;
+    }
+}
@@ -0,0 +1,500 @@
+package com.mycompany.server;
+
+import com.mycompany.common.SoundCatalog;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One running 1v1 match: owns round state, deadlines and scoring.
+ * 10 rounds, plus one tie-break round if the score is level; a correct answer scores 1,
+ * and in the tie-break only the round winner (correct, then faster) scores.
+ *
+ * The room is an actor (see RoomActor): answers, deadlines and disconnects are posted to its
+ * lock-free inbox and run one at a time on the RoomLoop it is pinned to, so none of the state
+ * below is locked. Only {@link #post} and the public entry points may be called from
+ * other threads.
+ *
+ * After a normal finish the room stays open for REMATCH_WINDOW_MS with the next deck already
+ * taken; if both seats send REMATCH it resets in place and plays again under the same match id.
+ */
+public class MatchRoom extends RoomActor {
+    static final int ROUNDS = 10;
+    static final long PREPARE_MS = 3000;
+    static final long READ_MS = 5000;
+    static final long ANSWER_MS = 10000;
+    static final long RESULT_MS = 3000;
+    // Bù độ trễ mạng cho câu trả lời gửi sát giờ
+    static final long GRACE_MS = 500;
+    // Mất kết nối giữa trận: giữ ghế chừng này rồi mới xử thua
+    static final long SEAT_GRACE_MS = 30_000;
+    // Sau trận: giữ phòng và bộ câu hỏi kế tiếp chừng này để hai người đấu lại
+    static final long REMATCH_WINDOW_MS = 15_000;
+    // Đấu lại không cần đồng bộ đồng hồ lại nên chuẩn bị ngắn hơn PREPARE_MS
+    static final long REMATCH_PREPARE_MS = 1000;
+
+    enum Phase { PREPARING, READING, ANSWERING, RESULT, FINISHED }
+
+    final int[] players;
+    final String[] names;
+
+    long seed;
+    private SoundCatalog.Question[] questions;
+    // Ghế nào đã xin câu hỏi đầy đủ (client có Sound.csv khác phiên bản)
+    private final boolean[] fullRounds = new boolean[2];
+    private final List<RoundRecord> records = new ArrayList<>(ROUNDS + 1);
+    private Timestamp startedAt = new Timestamp(System.currentTimeMillis());
+    private long startedAtMs = ServerClock.nowMs();
+    // Dữ liệu cho replay log, ghi ra đĩa sau khi trận đã lưu
+    private final List<ReplayLog.Round> replay = new ArrayList<>(ROUNDS + 1);
+    private boolean forfeited;
+
+    private Phase phase = Phase.PREPARING;
+    private int round; // 1-based, 11 = tie-break
+    private long openAtMs; // giờ server (ServerClock) mở trả lời của vòng hiện tại
+    private final String[] answers = new String[2];
+    private final int[] timesMs = new int[2];
+    private final boolean[] answered = new boolean[2];
+    private final int[] scores = new int[2];
+
+    private final boolean[] connected = {true, true};
+    // Ghế do bot chơi: sự kiện của ghế đó gọi thẳng Bot.onEvent thay vì vào mailbox
+    private final Bot[] bots = new Bot[2];
+    private final int[] graceGen = new int[2];
+    // Thời gian giữ ghế khi mất kết nối; mặc định SEAT_GRACE_MS, test đặt ngắn hơn
+    long seatGraceMs = SEAT_GRACE_MS;
+
+    // Cửa sổ đấu lại (chỉ mở khi phase == FINISHED)
+    private boolean rematchOpen;
+    private int rematchGen;
+    private final boolean[] rematchWanted = new boolean[2];
+    private QuestionDeckService.Deck nextDeck;
+
+    final Spectators spectators;
+    // Đọc từ luồng khác (LIST_LIVE), chỉ loop của phòng ghi
+    volatile int spectatorCount;
+    private String roundStartEvent;
+
+    MatchRoom(int matchId, int p1, String name1, int p2, String name2, QuestionDeckService.Deck deck, RoomLoop loop) {
+        super(matchId, loop);
+        this.players = new int[] {p1, p2};
+        this.names = new String[] {name1, name2};
+        this.seed = deck.seed;
+        this.questions = deck.questions;
+        this.spectators = new Spectators(matchId, id -> MatchEngine.onSpectatorDropped(id, this));
+    }
+
+    @Override
+    boolean finished() {
+        return phase == Phase.FINISHED;
+    }
+
+    /** Seat a bot; only before {@link #start} */
+    void attachBot(int seat, Bot.Profile profile) {
+        bots[seat] = new Bot(this, seat, profile);
+    }
+
+    boolean isBot(int seat) {
+        return bots[seat] != null;
+    }
+
+    /* ================== Entry points (any thread) ================== */
+
+    void start() {
+        post(() -> {
+            // START_MATCH;opponent;matchId;seed;catalogVersion: client tự dựng bộ câu hỏi từ seed
+            for (int seat = 0; seat < 2; seat++) {
+                sendTo(seat, "START_MATCH;" + names[1 - seat] + ";" + matchId + ";"
+                        + seed + ";" + SoundCatalog.VERSION);
+            }
+            schedule(this::beginRound, PREPARE_MS);
+        });
+    }
+
+    /**
+     * Submit an answer; completes with null if accepted, otherwise the error to send back.
+     * {@code receivedNanos} is when the command reached the server, so queueing time is not charged to the player.
+     * {@code answeredAtMs} is the client's estimate of when it answered, in server time (-1 if not sent);
+     * it is trusted only within {@code maxCorrectionMs} before arrival (see {@link AnswerWindow#maxCorrectionMs}).
+     */
+    CompletableFuture<String> answer(int userId, int roundNo, String answer, long receivedNanos, long answeredAtMs,
+                                     long maxCorrectionMs) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        post((Completion) () -> reply.complete(phase == Phase.FINISHED
+                ? "Match is over"
+                : onAnswer(seatOf(userId), roundNo, answer, receivedNanos, answeredAtMs, maxCorrectionMs)));
+        return reply;
+    }
+
+    /**
+     * A bot's answer; same rules as {@link #answer}, no reply. Its answeredAt comes from the server
+     * itself, so only the fixed ceiling applies (the timer may fire a little late)
+     */
+    void botAnswer(int seat, int roundNo, String answer, long receivedNanos, long answeredAtMs) {
+        post(() -> onAnswer(seat, roundNo, answer, receivedNanos, answeredAtMs, AnswerWindow.MAX_CORRECTION_MS));
+    }
+
+    /**
+     * Fallback for a client whose catalog version differs: its ROUND_START events
+     * carry the full question from now on
+     */
+    void requestFullRounds(int userId) {
+        post(() -> {
+            int seat = seatOf(userId);
+            if (seat >= 0) fullRounds[seat] = true;
+        });
+    }
+
+    /**
+     * A player left or dropped: the other one wins
+     */
+    void forfeit(int userId) {
+        post(() -> {
+            int seat = seatOf(userId);
+            if (seat < 0) return;
+            cancelTimer();
+            finish(1 - seat, "FORFEIT");
+        });
+    }
+
+    /**
+     * Add a spectator; completes with the reply line: SPECTATE_OK with a snapshot of the
+     * match, or an ERROR. Events after the snapshot follow through the spectator's mailbox.
+     */
+    CompletableFuture<String> spectate(int userId) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        post((Completion) () -> {
+            if (phase == Phase.FINISHED) {
+                MatchEngine.onSpectatorDropped(userId, this);
+                reply.complete("ERROR;Match is over");
+                return;
+            }
+            if (!spectators.add(userId)) {
+                MatchEngine.onSpectatorDropped(userId, this);
+                reply.complete("ERROR;Too many spectators");
+                return;
+            }
+            spectatorCount = spectators.size();
+            // SPECTATE_OK;matchId;p1;p2;score1;score2;round;seed;catalogVersion
+            reply.complete("SPECTATE_OK;" + matchId + ";" + names[0] + ";" + names[1] + ";" + scores[0] + ";"
+                    + scores[1] + ";" + round + ";" + seed + ";" + SoundCatalog.VERSION);
+            // Đang giữa vòng: gửi lại ROUND_START để người xem bắt kịp đồng hồ
+            if (phase == Phase.READING || phase == Phase.ANSWERING) MatchEngine.send(userId, roundStartEvent);
+        });
+        return reply;
+    }
+
+    void unspectate(int userId) {
+        post(() -> {
+            spectators.remove(userId);
+            spectatorCount = spectators.size();
+        });
+    }
+
+    /**
+     * Ask to play again in the rematch window; completes with the reply line. The match
+     * restarts once both seats asked (a bot seat always agrees).
+     */
+    CompletableFuture<String> rematch(int userId) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        post((Completion) () -> {
+            int seat = seatOf(userId);
+            if (!rematchOpen || seat < 0) {
+                reply.complete("ERROR;Rematch is closed");
+                return;
+            }
+            rematchWanted[seat] = true;
+            reply.complete("REMATCH_OK");
+            if (rematchWanted[1 - seat]) restart();
+            else sendTo(1 - seat, "REMATCH_REQUESTED;" + matchId + ";" + names[seat]);
+        });
+        return reply;
+    }
+
+    /** The player went back to the lobby, logged out or started something else */
+    void declineRematch(int userId) {
+        post((Completion) () -> {
+            int seat = seatOf(userId);
+            if (rematchOpen && seat >= 0) closeRematch("DECLINED", seat);
+        });
+    }
+
+    /**
+     * The player's connection dropped: keep the seat for {@link #seatGraceMs}. The match goes on
+     * meanwhile (missed rounds count as unanswered); if they are not back in time, they forfeit.
+     */
+    void seatLost(int userId) {
+        post(() -> {
+            int seat = seatOf(userId);
+            if (seat < 0 || !connected[seat]) return;
+            connected[seat] = false;
+            int gen = ++graceGen[seat];
+            sendTo(1 - seat, "OPPONENT_DISCONNECTED;" + matchId + ";" + seatGraceMs);
+            MatchEngine.TIMER.schedule(() -> post(() -> {
+                if (connected[seat] || graceGen[seat] != gen) return;
+                cancelTimer();
+                finish(1 - seat, "FORFEIT");
+            }), seatGraceMs);
+        });
+    }
+
+    /**
+     * The player logged in again: drop the events queued for this match while they were away
+     * and send one snapshot of the current state instead.
+     */
+    void resume(int userId) {
+        post(() -> {
+            int seat = seatOf(userId);
+            if (seat < 0) return;
+            boolean wasAway = !connected[seat];
+            connected[seat] = true;
+            graceGen[seat]++;
+            Server.box(userId).removeIf(this::isOwnEvent);
+            MatchEngine.send(userId, snapshot(seat));
+            if (wasAway) sendTo(1 - seat, "OPPONENT_RECONNECTED;" + matchId);
+        });
+    }
+
+    /**
+     * RESUME;matchId;opponent;seed;catalogVersion;round;myScore;opponentScore;phase;readMs;answerMs;tiebreak;openAt;answered
+     * [;soundKey;category;question;opts] - the question only for a seat on full rounds (GET_DECK).
+     * Remaining time is openAt + answerMs on the client's synced clock, so nothing here goes stale in flight.
+     */
+    String snapshot(int seat) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("RESUME;").append(matchId).append(';').append(names[1 - seat]).append(';').append(seed).append(';')
+          .append(SoundCatalog.VERSION).append(';').append(round).append(';').append(scores[seat]).append(';')
+          .append(scores[1 - seat]).append(';').append(phase).append(';').append(READ_MS).append(';')
+          .append(ANSWER_MS).append(';').append(round > ROUNDS ? 1 : 0).append(';').append(openAtMs).append(';')
+          .append(answered[seat] ? 1 : 0);
+        if (fullRounds[seat] && round > 0 && (phase == Phase.READING || phase == Phase.ANSWERING)) {
+            SoundCatalog.Question q = questions[round - 1];
+            sb.append(';').append(q.soundKey).append(';').append(q.category).append(';').append(q.questionText)
+              .append(';').append(String.join("|", q.options));
+        }
+        return sb.toString();
+    }
+
+    // Sự kiện của chính trận này (matchId ở trường thứ 2, hoặc thứ 3 với START_MATCH)
+    private boolean isOwnEvent(String event) {
+        String[] p = event.split(";", 4);
+        if (p[0].equals("START_MATCH")) return p.length > 2 && p[2].equals(String.valueOf(matchId));
+        boolean ours = p[0].equals("ROUND_START") || p[0].equals("ROUND_RESULT")
+                || p[0].equals("OPPONENT_DISCONNECTED") || p[0].equals("OPPONENT_RECONNECTED");
+        return ours && p.length > 1 && p[1].equals(String.valueOf(matchId));
+    }
+
+    int seatOf(int userId) {
+        return players[0] == userId ? 0 : players[1] == userId ? 1 : -1;
+    }
+
+    /* ================== Match logic (loop thread only) ================== */
+
+    private void beginRound() {
+        round++;
+        SoundCatalog.Question q = questions[round - 1];
+        for (int seat = 0; seat < 2; seat++) {
+            answers[seat] = null;
+            timesMs[seat] = -1;
+            answered[seat] = false;
+        }
+        phase = Phase.READING;
+        openAtMs = ServerClock.nowMs() + READ_MS;
+        // ROUND_START;matchId;round;readMs;answerMs;tiebreak;openAt - câu hỏi lấy từ bộ dựng theo seed,
+        // openAt là giờ server mở trả lời: hai client cùng phát âm thanh tại một thời điểm, không phụ thuộc lúc POLL
+        String event = "ROUND_START;" + matchId + ";" + round + ";" + READ_MS + ";" + ANSWER_MS + ";"
+                + (round > ROUNDS ? 1 : 0) + ";" + openAtMs;
+        roundStartEvent = event;
+        publish(event, true);
+        String full = null;
+        for (int seat = 0; seat < 2; seat++) {
+            if (!fullRounds[seat]) {
+                sendTo(seat, event);
+                continue;
+            }
+            // ...;soundKey;category;question;opt1|opt2|opt3|opt4
+            if (full == null) {
+                full = event + ";" + q.soundKey + ";" + q.category + ";" + q.questionText + ";" + String.join("|", q.options);
+            }
+            sendTo(seat, full);
+        }
+        schedule(this::openAnswers, READ_MS);
+    }
+
+    private void openAnswers() {
+        phase = Phase.ANSWERING;
+        schedule(this::closeRound, Math.max(0, openAtMs - ServerClock.nowMs()) + ANSWER_MS + GRACE_MS);
+    }
+
+    private String onAnswer(int seat, int roundNo, String answer, long receivedNanos, long answeredAtMs,
+                            long maxCorrectionMs) {
+        if (seat < 0) return "Not a player of this match";
+        long receivedMs = ServerClock.toMs(receivedNanos);
+        String error = AnswerWindow.reject(phase == Phase.ANSWERING, phase == Phase.READING, receivedMs, openAtMs,
+                roundNo, round, answered[seat]);
+        if (error != null) return error;
+
+        answered[seat] = true;
+        answers[seat] = answer;
+        timesMs[seat] = AnswerWindow.elapsedMs(receivedMs, openAtMs, answeredAtMs, maxCorrectionMs, loop);
+
+        if (answered[0] && answered[1]) {
+            cancelTimer();
+            closeRound();
+            loop.recordAnswerToResult(receivedNanos);
+        }
+        return null;
+    }
+
+    private void closeRound() {
+        phase = Phase.RESULT;
+        SoundCatalog.Question q = questions[round - 1];
+        boolean tiebreak = round > ROUNDS;
+        boolean[] correct = new boolean[2];
+        for (int seat = 0; seat < 2; seat++) {
+            correct[seat] = q.correctAnswer.equals(answers[seat]);
+        }
+
+        int roundWinner = -1; // -1 = hòa
+        if (correct[0] && !correct[1]) roundWinner = 0;
+        else if (correct[1] && !correct[0]) roundWinner = 1;
+        else if (correct[0] && correct[1] && timesMs[0] != timesMs[1]) roundWinner = timesMs[0] < timesMs[1] ? 0 : 1;
+
+        if (tiebreak) {
+            if (roundWinner >= 0) scores[roundWinner]++;
+        } else {
+            for (int seat = 0; seat < 2; seat++) if (correct[seat]) scores[seat]++;
+        }
+
+        records.add(new RoundRecord(round, q.soundKey, q.category, q.questionText, q.correctAnswer,
+                answers[0], answered[0] ? timesMs[0] : null, correct[0],
+                answers[1], answered[1] ? timesMs[1] : null, correct[1],
+                roundWinner < 0 ? "draw" : "player" + (roundWinner + 1), tiebreak));
+
+        replay.add(new ReplayLog.Round(openAtMs - startedAtMs, q, answers.clone(),
+                new int[] {answered[0] ? timesMs[0] : -1, answered[1] ? timesMs[1] : -1},
+                roundWinner, scores[0], scores[1]));
+
+        // ROUND_RESULT;matchId;round;correct;p1;p1Answer;p1TimeMs;p2;p2Answer;p2TimeMs;score1;score2;roundWinner
+        broadcast("ROUND_RESULT;" + matchId + ";" + round + ";" + q.correctAnswer + ";"
+                + names[0] + ";" + nz(answers[0]) + ";" + timesMs[0] + ";"
+                + names[1] + ";" + nz(answers[1]) + ";" + timesMs[1] + ";"
+                + scores[0] + ";" + scores[1] + ";" + (roundWinner < 0 ? "DRAW" : names[roundWinner]));
+
+        boolean more = round < ROUNDS || (round == ROUNDS && scores[0] == scores[1]);
+        schedule(more ? this::beginRound : () -> finish(-1, "NORMAL"), RESULT_MS);
+    }
+
+    private void finish(int forcedWinner, String reason) {
+        phase = Phase.FINISHED;
+        forfeited = reason.equals("FORFEIT");
+        int winner = forcedWinner;
+        if (winner < 0 && scores[0] != scores[1]) winner = scores[0] > scores[1] ? 0 : 1;
+
+        // MATCH_END;matchId;p1;score1;p2;score2;winner|DRAW;NORMAL|FORFEIT
+        broadcast("MATCH_END;" + matchId + ";" + names[0] + ";" + scores[0] + ";" + names[1] + ";" + scores[1] + ";"
+                + (winner < 0 ? "DRAW" : names[winner]) + ";" + reason);
+
+        MatchResult result = new MatchResult(players[0], players[1], scores[0], scores[1],
+                winner < 0 ? "draw" : "player" + (winner + 1), round > ROUNDS, Math.max(round, ROUNDS),
+                startedAt, new Timestamp(System.currentTimeMillis()));
+        if (bots[0] != null || bots[1] != null) result.markUnrated();
+        MatchEngine.onFinished(this, result, List.copyOf(records));
+        if (!forfeited && (bots[0] == null || bots[1] == null)) openRematch();
+    }
+
+    /* ================== Rematch (loop thread only, room FINISHED) ================== */
+
+    private void openRematch() {
+        rematchOpen = true;
+        int gen = ++rematchGen;
+        for (int seat = 0; seat < 2; seat++) rematchWanted[seat] = bots[seat] != null;
+        nextDeck = QuestionDeckService.take();
+        MatchEngine.onRematchOpen(this);
+        // REMATCH_OPEN;matchId;windowMs;nextSeed - client dựng sẵn bộ câu hỏi trận sau trong lúc chờ
+        for (int seat = 0; seat < 2; seat++) {
+            sendTo(seat, "REMATCH_OPEN;" + matchId + ";" + REMATCH_WINDOW_MS + ";" + nextDeck.seed);
+        }
+        MatchEngine.TIMER.schedule(() -> post((Completion) () -> {
+            if (rematchOpen && rematchGen == gen) closeRematch("EXPIRED", -1);
+        }), REMATCH_WINDOW_MS);
+    }
+
+    // REMATCH_CLOSED;matchId;DECLINED|EXPIRED|UNAVAILABLE, không gửi lại cho người vừa từ chối
+    private void closeRematch(String reason, int skipSeat) {
+        rematchOpen = false;
+        nextDeck = null;
+        MatchEngine.onRematchClosed(this);
+        for (int seat = 0; seat < 2; seat++) {
+            if (seat != skipSeat) sendTo(seat, "REMATCH_CLOSED;" + matchId + ";" + reason);
+        }
+    }
+
+    /**
+     * Both seats agreed: same room, same loop, same seats and fullRounds, next deck already built.
+     * Only per-match state is reset; the clock sync the clients did for the first match still holds.
+     */
+    private void restart() {
+        if (!MatchEngine.onRematch(this)) { // một người đã vào trận khác hoặc đã offline
+            closeRematch("UNAVAILABLE", -1);
+            return;
+        }
+        QuestionDeckService.Deck deck = nextDeck;
+        rematchOpen = false;
+        nextDeck = null;
+        cancelTimer();
+        seed = deck.seed;
+        questions = deck.questions;
+        records.clear();
+        replay.clear();
+        startedAt = new Timestamp(System.currentTimeMillis());
+        startedAtMs = ServerClock.nowMs();
+        forfeited = false;
+        round = 0;
+        openAtMs = 0;
+        for (int seat = 0; seat < 2; seat++) {
+            scores[seat] = 0;
+            connected[seat] = true;
+            graceGen[seat]++;
+        }
+        spectators.clear();
+        spectatorCount = 0;
+        roundStartEvent = null;
+        phase = Phase.PREPARING;
+        // REMATCH_START;matchId;seed;catalogVersion - thay cho START_MATCH, client giữ nguyên màn hình trận
+        for (int seat = 0; seat < 2; seat++) {
+            sendTo(seat, "REMATCH_START;" + matchId + ";" + seed + ";" + SoundCatalog.VERSION);
+        }
+        schedule(this::beginRound, REMATCH_PREPARE_MS);
+    }
+
+    /** Rounds for the replay log; read by MatchEngine.onFinished on the loop thread */
+    List<ReplayLog.Round> replayRounds() {
+        return List.copyOf(replay);
+    }
+
+    boolean forfeited() {
+        return forfeited;
+    }
+
+    private void broadcast(String event) {
+        // Mã hóa một lần, cùng một chuỗi cho hai người chơi và mọi người xem
+        for (int seat = 0; seat < 2; seat++) sendTo(seat, event);
+        publish(event, false);
+    }
+
+    private void sendTo(int seat, String event) {
+        if (bots[seat] != null) bots[seat].onEvent(event);
+        else MatchEngine.send(players[seat], event);
+    }
+
+    private void publish(String event, boolean skippable) {
+        if (spectators.publish(event, skippable) > 0) spectatorCount = spectators.size();
+    }
+
+    private static String nz(String s) {
+        return s == null ? "" : s;
+    }
+}
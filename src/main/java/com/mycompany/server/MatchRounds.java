@@ -0,0 +1,107 @@
+package com.mycompany.server;
+
+import com.mycompany.common.SoundCatalog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compact encoding of a saved match's rounds for GET_MATCH_ROUNDS, the detail shown when a row of
+ * the history dialog is expanded. One line per match:
+ *
+ *   MATCH_ROUNDS;matchId;round|round|...
+ *   round  = no,soundKey,correctAnswer,p1,p2,winner[,T]   (T = tie-break round, winner 1|2|0)
+ *   p1, p2 = empty (no answer) | +timeMs (correct) | -timeMs:answer (wrong)
+ *
+ * A correct answer is the round's correctAnswer, so only wrong answers are sent. Question text is
+ * left out: it is one of SoundCatalog's fixed prompts and the client does not show it here.
+ */
+public class MatchRounds {
+
+    public static String encode(int matchId, List<RoundRecord> rounds) {
+        StringBuilder sb = new StringBuilder(32 + rounds.size() * 48);
+        sb.append("MATCH_ROUNDS;").append(matchId).append(';');
+        for (int i = 0; i < rounds.size(); i++) {
+            RoundRecord r = rounds.get(i);
+            if (i > 0) sb.append('|');
+            sb.append(r.getRoundNo()).append(',').append(clean(r.getSoundKey())).append(',')
+              .append(clean(r.getCorrectAnswer())).append(',');
+            player(sb, r.getP1Answer(), r.getP1TimeMs(), r.isP1Correct());
+            sb.append(',');
+            player(sb, r.getP2Answer(), r.getP2TimeMs(), r.isP2Correct());
+            String winner = r.getWinnerRound();
+            sb.append(',').append("player1".equals(winner) ? '1' : "player2".equals(winner) ? '2' : '0');
+            if (r.isTiebreak()) sb.append(",T");
+        }
+        return sb.toString();
+    }
+
+    private static void player(StringBuilder sb, String answer, Integer timeMs, boolean correct) {
+        if (answer == null || timeMs == null) return;
+        if (correct) {
+            sb.append('+').append(timeMs);
+        } else {
+            sb.append('-').append(timeMs).append(':').append(clean(answer));
+        }
+    }
+
+    // Các ký tự phân cách của khung không được xuất hiện trong trường văn bản
+    private static String clean(String s) {
+        return s == null ? "" : s.replace(';', ' ').replace('|', ' ').replace(',', ' ');
+    }
+
+    /**
+     * Payload per match against the rows as stored (every match_rounds column as text) and the
+     * REPLAY_ROUND frames of the same match; plus encode time.
+     * Usage: MatchRounds [matches]
+     */
+    public static void main(String[] args) {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        Random random = new Random(42);
+        long compactBytes = 0, rowBytes = 0, replayBytes = 0, encodeNanos = 0;
+        for (int m = 0; m < matches; m++) {
+            SoundCatalog.Question[] deck = SoundCatalog.matchDeck(random.nextLong());
+            int roundsPlayed = random.nextInt(4) == 0 ? 11 : 10;
+            List<RoundRecord> rounds = new ArrayList<>(roundsPlayed);
+            int score1 = 0, score2 = 0;
+            for (int r = 0; r < roundsPlayed; r++) {
+                SoundCatalog.Question q = deck[r];
+                String[] answers = new String[2];
+                Integer[] times = new Integer[2];
+                boolean[] correct = new boolean[2];
+                for (int seat = 0; seat < 2; seat++) {
+                    if (random.nextInt(10) == 0) continue; // hết giờ
+                    correct[seat] = random.nextInt(10) < 7;
+                    answers[seat] = correct[seat] ? q.correctAnswer : q.options.get((q.options.indexOf(q.correctAnswer) + 1) % q.options.size());
+                    times[seat] = 800 + random.nextInt(6000);
+                }
+                String winner = correct[0] == correct[1] ? "draw" : correct[0] ? "player1" : "player2";
+                if (correct[0]) score1++;
+                if (correct[1]) score2++;
+                RoundRecord rec = new RoundRecord(r + 1, q.soundKey, q.category, q.questionText, q.correctAnswer,
+                        answers[0], times[0], correct[0], answers[1], times[1], correct[1], winner, r == 10);
+                rounds.add(rec);
+                rowBytes += utf8(String.join(";", String.valueOf(r + 1), q.soundKey, q.category, q.questionText, q.correctAnswer,
+                        String.valueOf(answers[0]), String.valueOf(times[0]), String.valueOf(correct[0]),
+                        String.valueOf(answers[1]), String.valueOf(times[1]), String.valueOf(correct[1]),
+                        winner, String.valueOf(r == 10))) + 1;
+                replayBytes += utf8("REPLAY_ROUND;" + m + ";" + (r + 1) + ";" + q.soundKey + ";" + q.category + ";" + q.questionText
+                        + ";" + String.join("|", q.options) + ";" + q.correctAnswer + ";" + answers[0] + ";" + times[0]
+                        + ";" + answers[1] + ";" + times[1] + ";" + score1 + ";" + score2 + ";" + winner) + 1;
+            }
+            long start = System.nanoTime();
+            String line = encode(m, rounds);
+            encodeNanos += System.nanoTime() - start;
+            compactBytes += utf8(line) + 1;
+        }
+        System.out.printf("[MatchRounds] %,d matches: compact %.0f bytes/match, full rows %.0f, REPLAY_ROUND frames %.0f%n",
+                matches, compactBytes / (double) matches, rowBytes / (double) matches, replayBytes / (double) matches);
+        System.out.printf("[MatchRounds] encode %.1f us/match%n", encodeNanos / 1e3 / matches);
+    }
+
+    private static int utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,225 @@
+package com.mycompany.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Matchmaking queue: waiting players sit in rating buckets (a TreeMap keyed by rating / BUCKET_WIDTH),
+ * so the nearest opponent is a floor/ceiling lookup, O(log n).
+ * A player's search window starts at BASE_WINDOW and widens the longer they wait;
+ * a pair is made when the rating gap fits either player's window.
+ * Two waiting players in one bucket would already have been paired (BUCKET_WIDTH < BASE_WINDOW),
+ * so a lookup visits at most one ticket per bucket inside the widest live window.
+ * Ready pairs are handed to {@code onPair} outside the queue lock.
+ */
+public class Matchmaker {
+    static final int BUCKET_WIDTH = 25;
+    static final int BASE_WINDOW = 50;
+    static final int WIDEN_PER_SECOND = 25;
+    static final int MAX_WINDOW = 600;
+    static final long SWEEP_MS = 1000;
+
+    public static final Matchmaker INSTANCE = new Matchmaker((a, b) -> MatchEngine.startFromQueue(a, b));
+
+    public static class Ticket {
+        public final int userId;
+        public final String username;
+        public final int rating;
+        final long joinedNanos;
+
+        Ticket(int userId, String username, int rating, long joinedNanos) {
+            this.userId = userId;
+            this.username = username;
+            this.rating = rating;
+            this.joinedNanos = joinedNanos;
+        }
+
+        int window(long nowNanos) {
+            long waitedSec = (nowNanos - joinedNanos) / 1_000_000_000L;
+            return (int) Math.min(MAX_WINDOW, BASE_WINDOW + waitedSec * WIDEN_PER_SECOND);
+        }
+    }
+
+    private final TreeMap<Integer, ArrayDeque<Ticket>> buckets = new TreeMap<>();
+    // Thứ tự chèn = thứ tự vào hàng: phần tử đầu là người chờ lâu nhất (cửa sổ rộng nhất)
+    private final LinkedHashMap<Integer, Ticket> byUser = new LinkedHashMap<>();
+    private final BiConsumer<Ticket, Ticket> onPair;
+    private boolean sweeping;
+
+    public Matchmaker(BiConsumer<Ticket, Ticket> onPair) {
+        this.onPair = onPair;
+    }
+
+    /**
+     * Enqueue a player, pairing immediately if someone suitable is waiting.
+     * Returns false if the player is already queued.
+     */
+    public boolean join(int userId, String username, int rating) {
+        return join(userId, username, rating, System.nanoTime());
+    }
+
+    boolean join(int userId, String username, int rating, long nowNanos) {
+        Ticket other;
+        Ticket ticket = new Ticket(userId, username, rating, nowNanos);
+        synchronized (this) {
+            if (byUser.containsKey(userId)) return false;
+            other = nearest(ticket, nowNanos);
+            if (other == null) {
+                add(ticket);
+                startSweeper();
+                return true;
+            }
+            remove(other);
+        }
+        onPair.accept(other, ticket); // người chờ lâu hơn là player1
+        return true;
+    }
+
+    public synchronized boolean leave(int userId) {
+        Ticket t = byUser.get(userId);
+        if (t == null) return false;
+        remove(t);
+        return true;
+    }
+
+    public synchronized boolean isQueued(int userId) {
+        return byUser.containsKey(userId);
+    }
+
+    public synchronized int size() {
+        return byUser.size();
+    }
+
+    /**
+     * Re-scan waiting players oldest-first with their widened windows.
+     */
+    void sweep(long nowNanos) {
+        List<Ticket[]> pairs = new ArrayList<>();
+        synchronized (this) {
+            for (Ticket t : byUser.values().toArray(new Ticket[0])) {
+                if (byUser.get(t.userId) != t) continue; // đã được ghép trong lượt này
+                Ticket other = nearest(t, nowNanos);
+                if (other != null) {
+                    remove(t);
+                    remove(other);
+                    pairs.add(new Ticket[] {t, other});
+                }
+            }
+        }
+        for (Ticket[] p : pairs) onPair.accept(p[0], p[1]);
+    }
+
+    // Đối thủ gần nhất (theo rating) mà khoảng cách nằm trong cửa sổ của một trong hai người
+    private Ticket nearest(Ticket t, long nowNanos) {
+        int window = t.window(nowNanos);
+        Iterator<Ticket> oldest = byUser.values().iterator();
+        int maxGap = oldest.hasNext() ? Math.max(window, oldest.next().window(nowNanos)) : window;
+        int key = t.rating / BUCKET_WIDTH;
+        Ticket best = null;
+        int bestGap = Integer.MAX_VALUE;
+
+        // Đi ra hai phía từ bucket của mình cho tới khi bucket xa hơn cửa sổ lớn nhất có thể
+        Map.Entry<Integer, ArrayDeque<Ticket>> lo = buckets.floorEntry(key);
+        Map.Entry<Integer, ArrayDeque<Ticket>> hi = buckets.higherEntry(key);
+        while (lo != null || hi != null) {
+            boolean takeLo = hi == null || (lo != null && key - lo.getKey() <= hi.getKey() - key);
+            Map.Entry<Integer, ArrayDeque<Ticket>> e = takeLo ? lo : hi;
+            int bucketGap = Math.max(0, Math.abs(e.getKey() - key) - 1) * BUCKET_WIDTH;
+            if (bucketGap > Math.min(maxGap, bestGap)) break;
+            for (Ticket c : e.getValue()) {
+                if (c == t) continue;
+                int gap = Math.abs(c.rating - t.rating);
+                if (gap < bestGap && gap <= Math.max(window, c.window(nowNanos))) {
+                    best = c;
+                    bestGap = gap;
+                }
+            }
+            if (takeLo) lo = buckets.lowerEntry(lo.getKey());
+            else hi = buckets.higherEntry(hi.getKey());
+        }
+        return best;
+    }
+
+    private void add(Ticket t) {
+        buckets.computeIfAbsent(t.rating / BUCKET_WIDTH, k -> new ArrayDeque<>()).addLast(t);
+        byUser.put(t.userId, t);
+    }
+
+    private void remove(Ticket t) {
+        byUser.remove(t.userId);
+        int key = t.rating / BUCKET_WIDTH;
+        ArrayDeque<Ticket> bucket = buckets.get(key);
+        if (bucket == null) return;
+        bucket.remove(t);
+        if (bucket.isEmpty()) buckets.remove(key);
+    }
+
+    // Quét định kỳ trên timer wheel, chỉ khi hàng đợi còn người
+    private void startSweeper() {
+        if (sweeping || this != INSTANCE) return;
+        sweeping = true;
+        MatchEngine.TIMER.schedule(this::sweepTick, SWEEP_MS);
+    }
+
+    private void sweepTick() {
+        // Ghép cặp chạy trên luồng riêng: onPair dựng phòng, không làm chậm timer wheel
+        MatchEngine.background(() -> {
+            sweep(System.nanoTime());
+            synchronized (this) {
+                sweeping = false;
+                if (!byUser.isEmpty()) startSweeper();
+            }
+        });
+    }
+
+    /**
+     * Burst simulation: {@code players} join at once with normally distributed ratings,
+     * then the queue is swept once per simulated second until everyone is paired.
+     * Reports pairing throughput and queue-time percentiles (simulated seconds).
+     * Usage: Matchmaker [players]
+     */
+    public static void main(String[] args) {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        Random random = new Random(7);
+        long[] waitedNanos = new long[players];
+        int[] paired = {0};
+        long[] clock = {0};
+        Matchmaker mm = new Matchmaker((a, b) -> {
+            waitedNanos[paired[0]++] = clock[0] - a.joinedNanos;
+            waitedNanos[paired[0]++] = clock[0] - b.joinedNanos;
+        });
+
+        long started = System.nanoTime();
+        for (int i = 1; i <= players; i++) {
+            int rating = (int) Math.round(1200 + random.nextGaussian() * 200);
+            mm.join(i, "bot" + i, Math.max(0, rating), clock[0]);
+        }
+        long joinNanos = System.nanoTime() - started;
+        int sweeps = 0;
+        while (mm.size() > 1 && sweeps < 60) {
+            clock[0] += SWEEP_MS * 1_000_000L;
+            mm.sweep(clock[0]);
+            sweeps++;
+        }
+        double secs = (System.nanoTime() - started) / 1e9;
+
+        long[] done = Arrays.copyOf(waitedNanos, paired[0]);
+        Arrays.sort(done);
+        System.out.printf("[Matchmaker] %,d players: %,d paired in %.2fs CPU (%,.0f joins/s, %d sweeps), %d left%n",
+                players, paired[0], secs, players / (joinNanos / 1e9), sweeps, mm.size());
+        if (done.length > 0) {
+            System.out.printf("[Matchmaker] queue time median %.1fs, p90 %.1fs, max %.1fs (simulated)%n",
+                    done[done.length / 2] / 1e9, done[(int) (done.length * 0.9)] / 1e9, done[done.length - 1] / 1e9);
+        }
+        Iterator<Ticket> left = mm.byUser.values().iterator();
+        while (left.hasNext()) System.out.println("[Matchmaker] unpaired: rating " + left.next().rating);
+    }
+}
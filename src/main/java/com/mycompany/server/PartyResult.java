@@ -0,0 +1,63 @@
+package com.mycompany.server;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * DTO for a finished party match (2..8 players), as handed to the persistence path.
+ * Arrays are indexed by seat; seat 0 is the host.
+ */
+public class PartyResult {
+    /** One round: the question and every seat's answer (null / -1 if none) */
+    public static class Round {
+        public final int roundNo;
+        public final String soundKey;
+        public final String category;
+        public final String correctAnswer;
+        public final int winnerSeat; // -1 = không ai đúng
+        public final String[] answers;
+        public final int[] timesMs;
+
+        public Round(int roundNo, String soundKey, String category, String correctAnswer, int winnerSeat,
+                     String[] answers, int[] timesMs) {
+            this.roundNo = roundNo;
+            this.soundKey = soundKey;
+            this.category = category;
+            this.correctAnswer = correctAnswer;
+            this.winnerSeat = winnerSeat;
+            this.answers = answers;
+            this.timesMs = timesMs;
+        }
+    }
+
+    private final int[] userIds;
+    private final int[] scores;
+    private final int[] places;
+    private final boolean[] leftEarly;
+    private final int totalRounds;
+    private final Timestamp startedAt;
+    private final Timestamp finishedAt;
+    private final List<Round> rounds;
+
+    public PartyResult(int[] userIds, int[] scores, int[] places, boolean[] leftEarly, int totalRounds,
+                       Timestamp startedAt, Timestamp finishedAt, List<Round> rounds) {
+        this.userIds = userIds;
+        this.scores = scores;
+        this.places = places;
+        this.leftEarly = leftEarly;
+        this.totalRounds = totalRounds;
+        this.startedAt = startedAt;
+        this.finishedAt = finishedAt;
+        this.rounds = rounds;
+    }
+
+    public int size() { return userIds.length; }
+    public int getUserId(int seat) { return userIds[seat]; }
+    public int getScore(int seat) { return scores[seat]; }
+    public int getPlace(int seat) { return places[seat]; }
+    public boolean hasLeftEarly(int seat) { return leftEarly[seat]; }
+    public int getTotalRounds() { return totalRounds; }
+    public Timestamp getStartedAt() { return startedAt; }
+    public Timestamp getFinishedAt() { return finishedAt; }
+    public List<Round> getRounds() { return rounds; }
+}
@@ -0,0 +1,379 @@
+package com.mycompany.server;
+
+import com.mycompany.common.SoundCatalog;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A party room of 2..MAX_PLAYERS players. The host (seat 0) opens it, others join by id,
+ * and the host starts it. 10 rounds with the same timing as a 1v1 match; a correct answer
+ * scores 1, and the final order is score, then total time on correct answers.
+ * No tie-break round and no rating change: Elo and the 1v1 history stay two-player.
+ *
+ * Like MatchRoom it is an actor on a RoomLoop. Every round event is encoded once into one
+ * String and the same reference is queued for each member, so a round costs one encode
+ * plus N mailbox pushes; scoring is a single pass over the seats.
+ * A member who drops or leaves mid-game is out for good (no seat grace as in 1v1).
+ */
+public class PartyRoom extends RoomActor {
+    static final int MAX_PLAYERS = 8;
+    static final int MIN_PLAYERS = 2;
+    static final int ROUNDS = MatchRoom.ROUNDS;
+
+    enum Phase { WAITING, PREPARING, READING, ANSWERING, RESULT, FINISHED }
+
+    private final int[] players;
+    private final String[] names;
+    private int size;
+    // Đọc từ luồng khác (danh sách phòng), chỉ loop của phòng ghi
+    volatile int memberCount;
+
+    private final boolean[] left;
+    private int active;
+    private final String[] answers;
+    private final int[] timesMs;
+    private final boolean[] answered;
+    private int answeredCount;
+    private final int[] scores;
+    // Tổng thời gian của các câu đúng: xếp hạng khi bằng điểm
+    private final long[] correctMs;
+
+    private Phase phase = Phase.WAITING;
+    private long seed;
+    private SoundCatalog.Question[] questions;
+    private int round;
+    private long openAtMs;
+    private Timestamp startedAt;
+    private final List<PartyResult.Round> records = new ArrayList<>(ROUNDS);
+    // Bộ đệm mã hóa dùng lại cho mọi sự kiện của phòng
+    private final StringBuilder sb = new StringBuilder(256);
+
+    PartyRoom(int matchId, int hostId, String hostName, RoomLoop loop) {
+        this(matchId, hostId, hostName, loop, MAX_PLAYERS);
+    }
+
+    private PartyRoom(int matchId, int hostId, String hostName, RoomLoop loop, int capacity) {
+        super(matchId, loop);
+        players = new int[capacity];
+        names = new String[capacity];
+        left = new boolean[capacity];
+        answers = new String[capacity];
+        timesMs = new int[capacity];
+        answered = new boolean[capacity];
+        scores = new int[capacity];
+        correctMs = new long[capacity];
+        players[0] = hostId;
+        names[0] = hostName;
+        size = memberCount = 1;
+    }
+
+    @Override
+    boolean finished() {
+        return phase == Phase.FINISHED;
+    }
+
+    /* ================== Entry points (any thread) ================== */
+
+    /** Host's own reply after creation, plus the member list */
+    void open() {
+        post(this::broadcastMembers);
+    }
+
+    /**
+     * Join while the room is waiting; completes with PARTY_JOINED;partyId or an ERROR line
+     */
+    CompletableFuture<String> join(int userId, String name) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        post((Completion) () -> {
+            String error = phase != Phase.WAITING ? "Party already started"
+                    : seatOf(userId) >= 0 ? null
+                    : size == players.length ? "Party is full" : null;
+            if (error != null) {
+                MatchEngine.onPartyLeft(userId, this);
+                reply.complete("ERROR;" + error);
+                return;
+            }
+            if (seatOf(userId) < 0) {
+                players[size] = userId;
+                names[size] = name;
+                memberCount = ++size;
+            }
+            reply.complete("PARTY_JOINED;" + matchId);
+            broadcastMembers();
+        });
+        return reply;
+    }
+
+    /**
+     * Host starts the game; completes with PARTY_START_OK or an ERROR line
+     */
+    CompletableFuture<String> start(int userId) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        post((Completion) () -> {
+            if (phase != Phase.WAITING) { reply.complete("ERROR;Party already started"); return; }
+            if (seatOf(userId) != 0) { reply.complete("ERROR;Only the host can start"); return; }
+            if (size < MIN_PLAYERS) { reply.complete("ERROR;Need at least " + MIN_PLAYERS + " players"); return; }
+            QuestionDeckService.Deck deck = QuestionDeckService.take();
+            seed = deck.seed;
+            questions = deck.questions;
+            active = size;
+            phase = Phase.PREPARING;
+            startedAt = new Timestamp(System.currentTimeMillis());
+            reply.complete("PARTY_START_OK");
+            // START_PARTY;partyId;seed;catalogVersion;name1,name2,...
+            sb.setLength(0);
+            sb.append("START_PARTY;").append(matchId).append(';').append(seed).append(';').append(SoundCatalog.VERSION).append(';');
+            appendNames();
+            broadcast(sb.toString());
+            schedule(this::beginRound, MatchRoom.PREPARE_MS);
+        });
+        return reply;
+    }
+
+    /**
+     * Same contract as {@link MatchRoom#answer}
+     */
+    CompletableFuture<String> answer(int userId, int roundNo, String answer, long receivedNanos, long answeredAtMs,
+                                     long maxCorrectionMs) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        post((Completion) () -> reply.complete(phase == Phase.FINISHED
+                ? "Match is over"
+                : onAnswer(userId, roundNo, answer, receivedNanos, answeredAtMs, maxCorrectionMs)));
+        return reply;
+    }
+
+    /**
+     * Leave (or drop): before the start the seat is freed; afterwards the player is out
+     * and the game goes on while at least MIN_PLAYERS remain
+     */
+    void leave(int userId) {
+        post(() -> {
+            int seat = seatOf(userId);
+            if (seat < 0 || left[seat]) return;
+            MatchEngine.onPartyLeft(userId, this);
+            if (phase == Phase.WAITING) {
+                // Dồn ghế; người ở ghế 0 mới thành chủ phòng
+                System.arraycopy(players, seat + 1, players, seat, size - seat - 1);
+                System.arraycopy(names, seat + 1, names, seat, size - seat - 1);
+                memberCount = --size;
+                if (size == 0) {
+                    phase = Phase.FINISHED;
+                    MatchEngine.onPartyClosed(this);
+                } else {
+                    broadcastMembers();
+                }
+                return;
+            }
+            left[seat] = true;
+            active--;
+            broadcast("PARTY_LEFT;" + matchId + ";" + names[seat]);
+            if (active < MIN_PLAYERS) {
+                cancelTimer();
+                finish("FORFEIT");
+            } else if (phase == Phase.ANSWERING || phase == Phase.READING) {
+                if (answered[seat]) answeredCount--;
+                if (answeredCount == active) {
+                    cancelTimer();
+                    closeRound();
+                }
+            }
+        });
+    }
+
+    int seatOf(int userId) {
+        for (int i = 0; i < size; i++) if (players[i] == userId) return i;
+        return -1;
+    }
+
+    /* ================== Game logic (loop thread only) ================== */
+
+    private void beginRound() {
+        round++;
+        SoundCatalog.Question q = questions[round - 1];
+        Arrays.fill(answers, 0, size, null);
+        Arrays.fill(timesMs, 0, size, -1);
+        Arrays.fill(answered, 0, size, false);
+        answeredCount = 0;
+        phase = Phase.READING;
+        openAtMs = ServerClock.nowMs() + MatchRoom.READ_MS;
+        // Cùng định dạng ROUND_START đầy đủ của trận 1v1 (kèm câu hỏi): một chuỗi cho cả phòng
+        sb.setLength(0);
+        sb.append("ROUND_START;").append(matchId).append(';').append(round).append(';').append(MatchRoom.READ_MS)
+          .append(';').append(MatchRoom.ANSWER_MS).append(";0;").append(openAtMs).append(';').append(q.soundKey)
+          .append(';').append(q.category).append(';').append(q.questionText).append(';').append(String.join("|", q.options));
+        broadcast(sb.toString());
+        schedule(this::openAnswers, MatchRoom.READ_MS);
+    }
+
+    private void openAnswers() {
+        phase = Phase.ANSWERING;
+        schedule(this::closeRound,
+                Math.max(0, openAtMs - ServerClock.nowMs()) + MatchRoom.ANSWER_MS + MatchRoom.GRACE_MS);
+    }
+
+    private String onAnswer(int userId, int roundNo, String answer, long receivedNanos, long answeredAtMs,
+                            long maxCorrectionMs) {
+        int seat = seatOf(userId);
+        if (seat < 0 || left[seat]) return "Not a player of this match";
+        long receivedMs = ServerClock.toMs(receivedNanos);
+        String error = AnswerWindow.reject(phase == Phase.ANSWERING, phase == Phase.READING, receivedMs, openAtMs,
+                roundNo, round, answered[seat]);
+        if (error != null) return error;
+
+        answered[seat] = true;
+        answers[seat] = answer;
+        timesMs[seat] = AnswerWindow.elapsedMs(receivedMs, openAtMs, answeredAtMs, maxCorrectionMs, loop);
+
+        if (++answeredCount == active) {
+            cancelTimer();
+            closeRound();
+            loop.recordAnswerToResult(receivedNanos);
+        }
+        return null;
+    }
+
+    private void closeRound() {
+        phase = Phase.RESULT;
+        broadcast(scoreRound());
+        schedule(round < ROUNDS ? this::beginRound : () -> finish("NORMAL"), MatchRoom.RESULT_MS);
+    }
+
+    /**
+     * Score the round in one pass over the seats and encode
+     * PARTY_ROUND_RESULT;partyId;round;correct;fastest|NONE;name:answer:timeMs:score,...
+     */
+    private String scoreRound() {
+        SoundCatalog.Question q = questions[round - 1];
+        int fastest = -1;
+        for (int i = 0; i < size; i++) {
+            if (left[i] || !q.correctAnswer.equals(answers[i])) continue;
+            scores[i]++;
+            correctMs[i] += timesMs[i];
+            if (fastest < 0 || timesMs[i] < timesMs[fastest]) fastest = i;
+        }
+        records.add(new PartyResult.Round(round, q.soundKey, q.category, q.correctAnswer, fastest,
+                Arrays.copyOf(answers, size), Arrays.copyOf(timesMs, size)));
+
+        sb.setLength(0);
+        sb.append("PARTY_ROUND_RESULT;").append(matchId).append(';').append(round).append(';').append(q.correctAnswer)
+          .append(';').append(fastest < 0 ? "NONE" : names[fastest]).append(';');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(names[i]).append(':').append(answers[i] == null ? "" : answers[i]).append(':')
+              .append(timesMs[i]).append(':').append(scores[i]);
+        }
+        return sb.toString();
+    }
+
+    private void finish(String reason) {
+        phase = Phase.FINISHED;
+        int[] places = places();
+        // PARTY_END;partyId;NORMAL|FORFEIT;name:score:place,... (FORFEIT = còn dưới MIN_PLAYERS người)
+        sb.setLength(0);
+        sb.append("PARTY_END;").append(matchId).append(';').append(reason).append(';');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(names[i]).append(':').append(scores[i]).append(':').append(places[i]);
+        }
+        broadcast(sb.toString());
+
+        PartyResult result = new PartyResult(Arrays.copyOf(players, size), Arrays.copyOf(scores, size), places,
+                Arrays.copyOf(left, size), round, startedAt, new Timestamp(System.currentTimeMillis()),
+                List.copyOf(records));
+        MatchEngine.onPartyFinished(this, result);
+    }
+
+    // Hạng 1-based: điểm giảm dần, rồi tổng thời gian câu đúng; người bỏ dở xếp sau; bằng nhau thì cùng hạng
+    private int[] places() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> left[a] != left[b] ? (left[a] ? 1 : -1)
+                : scores[a] != scores[b] ? Integer.compare(scores[b], scores[a])
+                : Long.compare(correctMs[a], correctMs[b]));
+        int[] places = new int[size];
+        for (int k = 0; k < size; k++) {
+            int i = order[k];
+            if (k > 0) {
+                int prev = order[k - 1];
+                boolean tied = left[i] == left[prev] && scores[i] == scores[prev] && correctMs[i] == correctMs[prev];
+                places[i] = tied ? places[prev] : k + 1;
+            } else {
+                places[i] = 1;
+            }
+        }
+        return places;
+    }
+
+    private void broadcastMembers() {
+        // PARTY_MEMBERS;partyId;host;name1,name2,...
+        sb.setLength(0);
+        sb.append("PARTY_MEMBERS;").append(matchId).append(';').append(names[0]).append(';');
+        appendNames();
+        broadcast(sb.toString());
+    }
+
+    private void appendNames() {
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(names[i]);
+        }
+    }
+
+    private void broadcast(String event) {
+        // Mã hóa một lần: cùng một chuỗi vào hộp thư của mọi thành viên còn trong phòng
+        for (int i = 0; i < size; i++) if (!left[i]) MatchEngine.send(players[i], event);
+    }
+
+    /**
+     * CPU per round (score + encode + fan-out to every member's mailbox) as the room grows;
+     * sizes past MAX_PLAYERS only show the trend.
+     * Usage: PartyRoom [rounds per size]
+     */
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        RoomLoop loop = new RoomLoop("party-bench");
+        Random rnd = new Random(42);
+        for (int n : new int[] {2, 4, 8, 16, 32, 64}) {
+            PartyRoom room = new PartyRoom(1, 1, "player1", loop, n);
+            for (int i = 1; i < n; i++) {
+                room.players[i] = i + 1;
+                room.names[i] = "player" + (i + 1);
+            }
+            room.size = room.active = n;
+            QuestionDeckService.Deck deck = QuestionDeckService.take();
+            room.questions = deck.questions;
+            Mailbox[] boxes = new Mailbox[n];
+            for (int i = 0; i < n; i++) boxes[i] = Server.box(room.players[i]);
+
+            for (int pass = 0; pass < 2; pass++) { // lượt đầu để JIT làm nóng
+                long cpuBefore = mx.getCurrentThreadCpuTime();
+                long bytesBefore = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int r = 0; r < rounds; r++) {
+                    room.round = r % ROUNDS + 1;
+                    SoundCatalog.Question q = room.questions[room.round - 1];
+                    for (int i = 0; i < n; i++) {
+                        room.answers[i] = q.options.get(rnd.nextInt(q.options.size()));
+                        room.timesMs[i] = rnd.nextInt(10_000);
+                    }
+                    room.broadcast(room.scoreRound());
+                    if (room.records.size() == ROUNDS) room.records.clear();
+                    for (Mailbox b : boxes) b.poll();
+                }
+                long cpu = mx.getCurrentThreadCpuTime() - cpuBefore;
+                long bytes = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytesBefore;
+                if (pass == 1) {
+                    System.out.printf("[PartyRoom] %2d players: %,6.0f ns CPU, %,6.0f bytes per round (%,.0f ns per player)%n",
+                            n, (double) cpu / rounds, (double) bytes / rounds, (double) cpu / rounds / n);
+                }
+            }
+        }
+        System.exit(0);
+    }
+}
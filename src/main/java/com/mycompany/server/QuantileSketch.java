@@ -0,0 +1,107 @@
+package com.mycompany.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Streaming quantile sketch for answer times (ms), log-bucketed with ~5% relative error.
+ * Only the range of buckets actually hit is allocated, and answer times cluster tightly,
+ * so a sketch is usually a few dozen ints. Not thread-safe; callers synchronize.
+ */
+public class QuantileSketch {
+    private static final double GAMMA = 1.1;
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private int zeroCount;     // giá trị <= 0 ms
+    private int offset;        // bucket index của counts[0]
+    private int[] counts;      // null khi chưa có giá trị dương nào
+    private long total;
+
+    public void add(int valueMs) {
+        total++;
+        if (valueMs <= 0) {
+            zeroCount++;
+            return;
+        }
+        int idx = (int) Math.ceil(Math.log(valueMs) / LOG_GAMMA);
+        if (counts == null) {
+            counts = new int[4];
+            offset = idx;
+        } else if (idx < offset) {
+            int[] grown = new int[counts.length + (offset - idx)];
+            System.arraycopy(counts, 0, grown, offset - idx, counts.length);
+            counts = grown;
+            offset = idx;
+        } else if (idx >= offset + counts.length) {
+            int[] grown = new int[idx - offset + 1];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            counts = grown;
+        }
+        counts[idx - offset]++;
+    }
+
+    public long count() {
+        return total;
+    }
+
+    /** Estimated q-quantile (0..1) in ms; 0 if empty */
+    public int quantile(double q) {
+        if (total == 0) return 0;
+        long rank = (long) Math.floor(q * (total - 1));
+        if (rank < zeroCount) return 0;
+        long seen = zeroCount;
+        for (int i = 0; counts != null && i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                // trung điểm (theo log) của bucket (gamma^(k-1), gamma^k]
+                return (int) Math.round(2 * Math.pow(GAMMA, offset + i) / (GAMMA + 1));
+            }
+        }
+        return (int) Math.round(Math.pow(GAMMA, offset + counts.length - 1));
+    }
+
+    public int median() {
+        return quantile(0.5);
+    }
+
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(zeroCount);
+            out.writeInt(offset);
+            int n = counts == null ? 0 : counts.length;
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) out.writeInt(counts[i]);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream không ném IOException
+        }
+    }
+
+    public static QuantileSketch fromBytes(byte[] data) {
+        QuantileSketch s = new QuantileSketch();
+        if (data == null || data.length == 0) return s;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            s.zeroCount = in.readInt();
+            s.offset = in.readInt();
+            int n = in.readInt();
+            s.total = s.zeroCount;
+            if (n > 0) {
+                s.counts = new int[n];
+                for (int i = 0; i < n; i++) {
+                    s.counts[i] = in.readInt();
+                    s.total += s.counts[i];
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[QuantileSketch] Corrupt sketch, starting empty: " + e.getMessage());
+            return new QuantileSketch();
+        }
+        return s;
+    }
+}
@@ -0,0 +1,120 @@
+package com.mycompany.server;
+
+import com.mycompany.common.SoundCatalog;
+
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of ready-made match decks (10 rounds + 1 tie-break question), each with the seed it
+ * was expanded from; clients rebuild the same deck from that seed.
+ * A background thread keeps the pool full, so starting a match only takes a deck off the queue;
+ * if the pool ever runs dry the deck is built inline.
+ *
+ * Decks are difficulty-balanced without changing how a seed expands (clients must rebuild the
+ * same deck): of CANDIDATES random seeds, the one whose deck is closest to the typical expected
+ * misses (SoundDifficulty) is kept. -Ddeck.candidates=1 turns balancing off.
+ */
+public class QuestionDeckService {
+    public static final int DECK_SIZE = SoundCatalog.MATCH_DECK_SIZE;
+    private static final int POOL_SIZE = 256;
+    static final int CANDIDATES = Math.max(1, Integer.getInteger("deck.candidates", 8));
+
+    public static class Deck {
+        public final long seed;
+        public final SoundCatalog.Question[] questions;
+
+        Deck(long seed, SoundCatalog.Question[] questions) {
+            this.seed = seed;
+            this.questions = questions;
+        }
+    }
+
+    private static final ArrayBlockingQueue<Deck> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final SecureRandom SEEDS = new SecureRandom();
+    private static Thread refiller;
+
+    public static synchronized void start() {
+        if (refiller != null) return;
+        refiller = new Thread(() -> {
+            try {
+                while (true) POOL.put(build(SEEDS, CANDIDATES));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "deck-refill");
+        refiller.setDaemon(true);
+        refiller.start();
+    }
+
+    public static Deck take() {
+        Deck deck = POOL.poll();
+        return deck != null ? deck : build(SEEDS, CANDIDATES);
+    }
+
+    static Deck build(Random seeds, int candidates) {
+        double target = SoundDifficulty.typicalDeckDifficulty();
+        long bestSeed = 0;
+        SoundCatalog.Question[] best = null;
+        double bestGap = Double.MAX_VALUE;
+        for (int i = 0; i < candidates; i++) {
+            long seed = seeds.nextLong();
+            SoundCatalog.Question[] questions = SoundCatalog.matchDeck(seed);
+            double gap = candidates == 1 ? 0 : Math.abs(SoundDifficulty.deckDifficulty(questions) - target);
+            if (gap < bestGap) {
+                bestSeed = seed;
+                best = questions;
+                bestGap = gap;
+            }
+        }
+        return new Deck(bestSeed, best);
+    }
+
+    /**
+     * Quick throughput check: decks/s and bytes allocated per deck on one thread.
+     * Usage: QuestionDeckService [decks]
+     */
+    public static void main(String[] args) {
+        int decks = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Random random = new Random(42);
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        long sink = 0;
+        for (int i = 0; i < decks / 10; i++) sink += SoundCatalog.matchDeck(random.nextLong()).length; // warm-up
+
+        long bytesBefore = mx.getThreadAllocatedBytes(tid);
+        long started = System.nanoTime();
+        for (int i = 0; i < decks; i++) sink += SoundCatalog.matchDeck(random.nextLong())[i % DECK_SIZE].options.size();
+        double secs = (System.nanoTime() - started) / 1e9;
+        long bytes = mx.getThreadAllocatedBytes(tid) - bytesBefore;
+
+        System.out.printf("[Decks] %,d decks in %.2fs: %,.0f decks/s, %,d bytes/deck (sink %d)%n",
+                decks, secs, decks / secs, bytes / decks, sink);
+
+        // Cân bằng độ khó: mỗi âm thanh một tỉ lệ sai giả lập 10%..60%, so độ lệch chuẩn số câu sai kỳ vọng
+        java.util.Set<String> seeded = new java.util.HashSet<>();
+        for (SoundCatalog.Question q : SoundCatalog.deck(random, 2_000)) {
+            if (!seeded.add(q.soundKey)) continue;
+            double miss = 0.1 + 0.5 * random.nextDouble();
+            for (int i = 0; i < 1_000; i++) SoundDifficulty.record(q.soundKey, random.nextDouble() >= miss, null);
+        }
+        SoundDifficulty.rebuildSnapshot();
+        int balanced = decks / 4;
+        for (int candidates : new int[] {1, CANDIDATES}) {
+            double sum = 0, sumSq = 0;
+            started = System.nanoTime();
+            for (int i = 0; i < balanced; i++) {
+                double d = SoundDifficulty.deckDifficulty(build(random, candidates).questions);
+                sum += d;
+                sumSq += d * d;
+            }
+            secs = (System.nanoTime() - started) / 1e9;
+            double mean = sum / balanced;
+            System.out.printf("[Decks] %d candidate(s): %,.0f decks/s, expected misses per match %.2f +- %.2f%n",
+                    candidates, balanced / secs, mean, Math.sqrt(sumSq / balanced - mean * mean));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.mycompany.server;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory Elo ratings, loaded once at startup and updated after each committed match.
+ * Lookups by user id feed matchmaking; a skip list ordered by rating serves the rating
+ * leaderboard without touching the database. Entries are immutable and replaced on update.
+ */
+public class RatingIndex {
+
+    public static class Entry {
+        public final int userId;
+        public final String username;
+        public final int rating;
+        public final int ratedMatches;
+
+        Entry(int userId, String username, int rating, int ratedMatches) {
+            this.userId = userId;
+            this.username = username;
+            this.rating = rating;
+            this.ratedMatches = ratedMatches;
+        }
+    }
+
+    private static final Comparator<Entry> BY_RATING = Comparator
+            .comparingInt((Entry e) -> -e.rating)
+            .thenComparing(e -> e.username)
+            .thenComparingInt(e -> e.userId);
+
+    private static final UserTable<Entry> BY_USER = new UserTable<>(1024);
+    private static final ConcurrentSkipListSet<Entry> RANKED = new ConcurrentSkipListSet<>(BY_RATING);
+
+    public static void start() {
+        List<int[]> rows = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        try {
+            Database.loadRatings(rows, names);
+        } catch (SQLException e) {
+            System.err.println("[RatingIndex] Failed to load ratings: " + e.getMessage());
+            return;
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            int[] r = rows.get(i);
+            put(new Entry(r[0], names.get(i), r[1], r[2]));
+        }
+        System.out.println("[RatingIndex] Loaded " + rows.size() + " ratings");
+    }
+
+    /** Rating used for matchmaking; unknown users (e.g. registered after startup) start at the initial rating */
+    public static int ratingOf(int userId) {
+        Entry e = BY_USER.get(userId);
+        return e == null ? EloRating.INITIAL : e.rating;
+    }
+
+    /**
+     * Called once saveMatch has committed the new ratings. Hooks of different matches may run
+     * in any order, so an update only applies if its rated_matches is newer than what we hold;
+     * the row lock in saveMatch makes that count a version of the user's rating.
+     */
+    public static void onMatchPersisted(MatchResult result) {
+        update(result.getPlayer1Id(), result.getRating1After(), result.getRatedMatches1After());
+        update(result.getPlayer2Id(), result.getRating2After(), result.getRatedMatches2After());
+    }
+
+    static synchronized void update(int userId, int rating, int ratedMatches) {
+        Entry old = BY_USER.get(userId);
+        if (old != null && old.ratedMatches >= ratedMatches) return; // kết quả cũ tới muộn
+        String name = old != null ? old.username : UserDirectory.nameOf(userId);
+        if (name == null) return;
+        put(new Entry(userId, name, rating, ratedMatches));
+    }
+
+    private static synchronized void put(Entry e) {
+        Entry old = BY_USER.put(e.userId, e);
+        if (old != null) RANKED.remove(old);
+        RANKED.add(e);
+    }
+
+    /**
+     * One page of the rating leaderboard; players without a rated match are left out
+     */
+    public static List<Entry> page(int offset, int limit) {
+        List<Entry> page = new ArrayList<>(Math.max(0, limit));
+        Iterator<Entry> it = RANKED.iterator();
+        int skipped = 0;
+        while (it.hasNext() && page.size() < limit) {
+            Entry e = it.next();
+            if (e.ratedMatches == 0) continue;
+            if (skipped++ < offset) continue;
+            page.add(e);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,103 @@
+package com.mycompany.server;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Offline full recompute of every Elo rating from match history, e.g. after V6 or a change to EloRating.
+ * Reading is the slow part, so the finished_at range is cut into time slices loaded in parallel
+ * (fork/join, fewer workers than the connection pool). Elo depends on match order, so applying
+ * the outcomes is a single pass over the slices in time order; it only touches two int arrays
+ * per match. Stop the server first, or matches saved meanwhile are overwritten.
+ * Usage: RatingRecompute [slices]
+ */
+public class RatingRecompute {
+    private static final int PARALLELISM = 6;
+
+    private static class LoadSlices extends RecursiveTask<int[][]> {
+        private static final long serialVersionUID = 1L;
+
+        final long fromMs;
+        final long sliceMs;
+        final int first;
+        final int count;
+
+        LoadSlices(long fromMs, long sliceMs, int first, int count) {
+            this.fromMs = fromMs;
+            this.sliceMs = sliceMs;
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        protected int[][] compute() {
+            if (count == 1) {
+                try {
+                    long start = fromMs + first * sliceMs;
+                    return new int[][] {Database.loadMatchOutcomes(start, start + sliceMs)};
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Slice " + first + ": " + e.getMessage(), e);
+                }
+            }
+            int half = count / 2;
+            LoadSlices right = new LoadSlices(fromMs, sliceMs, first + half, count - half);
+            right.fork();
+            int[][] left = new LoadSlices(fromMs, sliceMs, first, half).compute();
+            int[][] rest = right.join();
+            int[][] all = new int[count][];
+            System.arraycopy(left, 0, all, 0, left.length);
+            System.arraycopy(rest, 0, all, left.length, rest.length);
+            return all;
+        }
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int slices = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        long started = System.nanoTime();
+
+        long[] range = Database.matchTimeRange();
+        int maxUserId = Database.maxUserId();
+        int[] rating = new int[maxUserId + 1];
+        int[] ratedMatches = new int[maxUserId + 1];
+        Arrays.fill(rating, EloRating.INITIAL);
+
+        long matches = 0;
+        if (range != null) {
+            long span = range[1] + 1 - range[0];
+            long sliceMs = Math.max(1, (span + slices - 1) / slices);
+            slices = (int) Math.max(1, (span + sliceMs - 1) / sliceMs);
+            ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+            int[][] outcomes;
+            try {
+                outcomes = pool.invoke(new LoadSlices(range[0], sliceMs, 0, slices));
+            } finally {
+                pool.shutdown();
+            }
+            long loaded = System.nanoTime();
+            for (int[] slice : outcomes) matches += slice.length / 3;
+            System.out.printf("[RatingRecompute] loaded %,d matches in %d slices: %.2fs%n",
+                    matches, slices, (loaded - started) / 1e9);
+
+            for (int[] slice : outcomes) {
+                for (int i = 0; i < slice.length; i += 3) {
+                    int p1 = slice[i];
+                    int p2 = slice[i + 1];
+                    int[] after = EloRating.update(rating[p1], ratedMatches[p1], rating[p2], ratedMatches[p2], slice[i + 2] / 2.0);
+                    rating[p1] = after[0];
+                    rating[p2] = after[1];
+                    ratedMatches[p1]++;
+                    ratedMatches[p2]++;
+                }
+            }
+            System.out.printf("[RatingRecompute] applied: %.2fs (%,.0f matches/s)%n",
+                    (System.nanoTime() - loaded) / 1e9, matches / ((System.nanoTime() - loaded) / 1e9));
+        }
+
+        long saving = System.nanoTime();
+        Database.saveAllRatings(rating, ratedMatches);
+        System.out.printf("[RatingRecompute] saved %,d users: %.2fs, total %.2fs%n",
+                maxUserId, (System.nanoTime() - saving) / 1e9, (System.nanoTime() - started) / 1e9);
+    }
+}
@@ -0,0 +1,560 @@
+package com.mycompany.server;
+
+import com.mycompany.common.SoundCatalog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only binary replay log, one record per finished match, keyed by matches.id.
+ *
+ * A record is {varint matchId, varint length, body}. The body holds the player names,
+ * a table of round offsets (varint deltas) and the rounds; every repeated string (sound key,
+ * category, question, option names) is an id into one global dictionary (strings.dat),
+ * and times are varint deltas from the match start, so a 10-round match is a couple hundred bytes.
+ *
+ * Records go into segments of up to SEGMENT_BYTES. Each segment has a sparse index (.idx):
+ * one {minId, maxId, offset} entry per BLOCK records, so finding a match is a binary search
+ * plus a scan of at most BLOCK record headers, and the round table jumps straight to a round.
+ * Only the last segment is written; a torn record at its end is cut off on startup.
+ */
+public class ReplayLog {
+    static final long SEGMENT_BYTES = 64L << 20;
+    static final int BLOCK = 32;
+    private static final int INDEX_ENTRY_BYTES = 16;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("\\d{8}\\.seg");
+
+    public static final ReplayLog INSTANCE = new ReplayLog(new File(System.getProperty("replay.dir", "replays")));
+
+    /** What the room remembers about one round until the match is saved */
+    static final class Round {
+        final long openAtOffsetMs;
+        final SoundCatalog.Question question;
+        final String[] answers;
+        final int[] timesMs; // -1 = không trả lời
+        final int winner; // -1 = hòa, 0/1 = ghế thắng
+        final int score1;
+        final int score2;
+
+        Round(long openAtOffsetMs, SoundCatalog.Question question, String[] answers, int[] timesMs,
+              int winner, int score1, int score2) {
+            this.openAtOffsetMs = openAtOffsetMs;
+            this.question = question;
+            this.answers = answers;
+            this.timesMs = timesMs;
+            this.winner = winner;
+            this.score1 = score1;
+            this.score2 = score2;
+        }
+    }
+
+    /** A decoded replay, from the requested round on */
+    public static final class Replay {
+        public final int matchId;
+        public final String player1;
+        public final String player2;
+        public final int totalRounds;
+        public final int firstRound;
+        // Mỗi phần tử: REPLAY_ROUND;matchId;round;... đã mã hóa sẵn cho mailbox
+        public final List<String> rounds;
+        public final String end;
+
+        Replay(int matchId, String player1, String player2, int totalRounds, int firstRound,
+               List<String> rounds, String end) {
+            this.matchId = matchId;
+            this.player1 = player1;
+            this.player2 = player2;
+            this.totalRounds = totalRounds;
+            this.firstRound = firstRound;
+            this.rounds = rounds;
+            this.end = end;
+        }
+    }
+
+    private static final class Segment {
+        final int number;
+        final File data;
+        final File index;
+        // Các khối đã đóng: {minId, maxId lũy tiến, offset}; maxId lũy tiến nên tìm nhị phân được
+        int[] minIds = new int[64];
+        int[] maxIds = new int[64];
+        long[] offsets = new long[64];
+        int blocks;
+        long size;
+
+        Segment(File dir, int number) {
+            this.number = number;
+            this.data = new File(dir, String.format("%08d.seg", number));
+            this.index = new File(dir, String.format("%08d.idx", number));
+        }
+
+        void addBlock(int minId, int maxId, long offset) {
+            if (blocks == minIds.length) {
+                minIds = Arrays.copyOf(minIds, blocks * 2);
+                maxIds = Arrays.copyOf(maxIds, blocks * 2);
+                offsets = Arrays.copyOf(offsets, blocks * 2);
+            }
+            minIds[blocks] = minId;
+            maxIds[blocks] = blocks > 0 ? Math.max(maxId, maxIds[blocks - 1]) : maxId;
+            offsets[blocks] = offset;
+            blocks++;
+        }
+    }
+
+    private final File dir;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private DataOutputStream dictionaryOut;
+    private FileChannel active;
+    // Khối đang mở của segment cuối (chưa ghi vào .idx)
+    private int openMin = Integer.MAX_VALUE;
+    private int openMax = Integer.MIN_VALUE;
+    private int openCount;
+    private long openOffset;
+    private boolean opened;
+
+    ReplayLog(File dir) {
+        this.dir = dir;
+    }
+
+    /* ================== Writing ================== */
+
+    /**
+     * Encode and append one match. Called from the background pool after saveMatch, so
+     * the id is the database one; disk I/O never runs on a room loop.
+     */
+    public synchronized void append(int matchId, String player1, String player2, long startedAtMs, long finishedAtMs,
+                                    int winner, boolean forfeit, int score1, int score2, List<Round> rounds)
+            throws IOException {
+        open();
+        byte[] body = encode(player1, player2, startedAtMs, finishedAtMs, winner, forfeit, score1, score2, rounds);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(body.length + 10);
+        putVarint(record, matchId);
+        putVarint(record, body.length);
+        record.write(body, 0, body.length);
+
+        Segment seg = segments.get(segments.size() - 1);
+        if (seg.size > 0 && seg.size + record.size() > SEGMENT_BYTES) seg = roll();
+        if (openCount == 0) openOffset = seg.size;
+        active.write(ByteBuffer.wrap(record.toByteArray()), seg.size);
+        seg.size += record.size();
+        openMin = Math.min(openMin, matchId);
+        openMax = Math.max(openMax, matchId);
+        if (++openCount == BLOCK) sealBlock(seg);
+    }
+
+    private byte[] encode(String player1, String player2, long startedAtMs, long finishedAtMs,
+                          int winner, boolean forfeit, int score1, int score2, List<Round> rounds) throws IOException {
+        ByteArrayOutputStream roundBytes = new ByteArrayOutputStream(rounds.size() * 24);
+        int[] roundStarts = new int[rounds.size()];
+        for (int i = 0; i < rounds.size(); i++) {
+            roundStarts[i] = roundBytes.size();
+            Round r = rounds.get(i);
+            SoundCatalog.Question q = r.question;
+            putVarint(roundBytes, r.openAtOffsetMs);
+            putVarint(roundBytes, intern(q.soundKey));
+            putVarint(roundBytes, intern(q.category));
+            putVarint(roundBytes, intern(q.questionText));
+            for (int o = 0; o < SoundCatalog.OPTIONS; o++) {
+                putVarint(roundBytes, o < q.options.size() ? intern(q.options.get(o)) : intern(""));
+            }
+            roundBytes.write(Math.max(0, q.options.indexOf(q.correctAnswer)));
+            for (int seat = 0; seat < 2; seat++) {
+                // 0..3 = phương án đã chọn, 4 = không trả lời, 5 = câu trả lời không thuộc phương án nào
+                String a = r.answers[seat];
+                int idx = a == null ? 4 : q.options.indexOf(a);
+                roundBytes.write(idx < 0 ? 5 : idx);
+                putVarint(roundBytes, r.timesMs[seat] + 1L);
+            }
+            roundBytes.write(r.winner + 1);
+            putVarint(roundBytes, r.score1);
+            putVarint(roundBytes, r.score2);
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64 + roundBytes.size());
+        putString(body, player1);
+        putString(body, player2);
+        putVarint(body, startedAtMs);
+        putVarint(body, Math.max(0, finishedAtMs - startedAtMs));
+        body.write((winner + 1) | (forfeit ? 0x10 : 0));
+        putVarint(body, score1);
+        putVarint(body, score2);
+        putVarint(body, rounds.size());
+        for (int i = 0; i < roundStarts.length; i++) {
+            putVarint(body, roundStarts[i] - (i > 0 ? roundStarts[i - 1] : 0));
+        }
+        roundBytes.writeTo(body);
+        return body.toByteArray();
+    }
+
+    private int intern(String s) throws IOException {
+        Integer id = stringIds.get(s);
+        if (id != null) return id;
+        // Chuỗi mới: ghi vào từ điển trước khi có record nào tham chiếu tới nó
+        dictionaryOut.writeUTF(s);
+        dictionaryOut.flush();
+        strings.add(s);
+        stringIds.put(s, strings.size() - 1);
+        return strings.size() - 1;
+    }
+
+    private void sealBlock(Segment seg) throws IOException {
+        seg.addBlock(openMin, openMax, openOffset);
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        entry.putInt(openMin).putInt(openMax).putLong(openOffset).flip();
+        try (FileChannel idx = FileChannel.open(seg.index.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            idx.write(entry);
+        }
+        openMin = Integer.MAX_VALUE;
+        openMax = Integer.MIN_VALUE;
+        openCount = 0;
+    }
+
+    private Segment roll() throws IOException {
+        Segment last = segments.get(segments.size() - 1);
+        if (openCount > 0) sealBlock(last);
+        active.force(true);
+        active.close();
+        Segment next = new Segment(dir, last.number + 1);
+        segments.add(next);
+        active = FileChannel.open(next.data.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return next;
+    }
+
+    /* ================== Reading ================== */
+
+    /**
+     * Replay of a match from round {@code fromRound} (1-based), or null if there is none.
+     */
+    public synchronized Replay read(int matchId, int fromRound) throws IOException {
+        open();
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            byte[] body = find(segments.get(s), s == segments.size() - 1, matchId);
+            if (body != null) return decode(matchId, body, Math.max(1, fromRound));
+        }
+        return null;
+    }
+
+    private byte[] find(Segment seg, boolean isActive, int matchId) throws IOException {
+        // Khối đầu tiên có maxId lũy tiến >= id, rồi quét tới khi minId vượt id
+        int lo = 0;
+        int hi = seg.blocks;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (seg.maxIds[mid] < matchId) lo = mid + 1;
+            else hi = mid;
+        }
+        int b = lo;
+        for (; b < seg.blocks && seg.minIds[b] <= matchId; b++) {
+            byte[] body = scan(seg, seg.offsets[b], blockEnd(seg, isActive, b), matchId);
+            if (body != null) return body;
+        }
+        if (isActive && openCount > 0 && openMin <= matchId && matchId <= openMax) {
+            byte[] body = scan(seg, openOffset, seg.size, matchId);
+            if (body != null) return body;
+        }
+        // Hiếm: record được ghi trễ hơn cả một khối so với các id lân cận. Các khối trước lo
+        // chỉ chứa id nhỏ hơn, nên chỉ cần xét các khối phía sau có minId <= id
+        for (; b < seg.blocks; b++) {
+            if (seg.minIds[b] > matchId) continue;
+            byte[] body = scan(seg, seg.offsets[b], blockEnd(seg, isActive, b), matchId);
+            if (body != null) return body;
+        }
+        return null;
+    }
+
+    private long blockEnd(Segment seg, boolean isActive, int block) {
+        if (block + 1 < seg.blocks) return seg.offsets[block + 1];
+        return isActive && openCount > 0 ? openOffset : seg.size;
+    }
+
+    // Đọc một lần cả đoạn [from, to) (tối đa BLOCK record) rồi duyệt header trong bộ nhớ
+    private byte[] scan(Segment seg, long from, long to, int matchId) throws IOException {
+        byte[] bytes = new byte[(int) (to - from)];
+        try (RandomAccessFile f = seg == segments.get(segments.size() - 1) ? null : new RandomAccessFile(seg.data, "r")) {
+            FileChannel ch = f != null ? f.getChannel() : active;
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining() && ch.read(buf, from + buf.position()) > 0) { }
+        }
+        int[] pos = {0};
+        while (pos[0] < bytes.length) {
+            int id = (int) getVarint(bytes, pos);
+            int len = (int) getVarint(bytes, pos);
+            if (id == matchId) return Arrays.copyOfRange(bytes, pos[0], pos[0] + len);
+            pos[0] += len;
+        }
+        return null;
+    }
+
+    private Replay decode(int matchId, byte[] body, int fromRound) {
+        int[] pos = {0};
+        String p1 = getString(body, pos);
+        String p2 = getString(body, pos);
+        getVarint(body, pos); // startedAt
+        getVarint(body, pos); // duration
+        int flags = body[pos[0]++];
+        int winner = (flags & 0x0f) - 1;
+        boolean forfeit = (flags & 0x10) != 0;
+        int finalScore1 = (int) getVarint(body, pos);
+        int finalScore2 = (int) getVarint(body, pos);
+        int count = (int) getVarint(body, pos);
+        int[] starts = new int[count];
+        for (int i = 0; i < count; i++) starts[i] = (int) getVarint(body, pos) + (i > 0 ? starts[i - 1] : 0);
+        int roundsBase = pos[0];
+        String[] names = {p1, p2};
+
+        List<String> events = new ArrayList<>(Math.max(0, count - fromRound + 1));
+        for (int i = 0; i < count; i++) {
+            if (i + 1 < fromRound) continue;
+            pos[0] = roundsBase + starts[i]; // nhảy thẳng tới vòng cần xem
+            getVarint(body, pos); // openAt offset
+            String key = str(getVarint(body, pos));
+            String category = str(getVarint(body, pos));
+            String question = str(getVarint(body, pos));
+            String[] options = new String[SoundCatalog.OPTIONS];
+            for (int o = 0; o < options.length; o++) options[o] = str(getVarint(body, pos));
+            String correct = options[body[pos[0]++]];
+            StringBuilder ev = new StringBuilder(160);
+            // REPLAY_ROUND;matchId;round;soundKey;category;question;opt1|..|opt4;correct;p1Answer;p1TimeMs;p2Answer;p2TimeMs;score1;score2;winner
+            ev.append("REPLAY_ROUND;").append(matchId).append(';').append(i + 1).append(';').append(key).append(';')
+              .append(category).append(';').append(question).append(';').append(String.join("|", options)).append(';')
+              .append(correct);
+            for (int seat = 0; seat < 2; seat++) {
+                int a = body[pos[0]++];
+                long time = getVarint(body, pos) - 1;
+                ev.append(';').append(a < 4 ? options[a] : a == 5 ? "?" : "").append(';').append(time);
+            }
+            int roundWinner = body[pos[0]++] - 1;
+            int score1 = (int) getVarint(body, pos);
+            int score2 = (int) getVarint(body, pos);
+            ev.append(';').append(score1).append(';').append(score2).append(';')
+              .append(roundWinner < 0 ? "DRAW" : names[roundWinner]);
+            events.add(ev.toString());
+        }
+        // REPLAY_END;matchId;p1;score1;p2;score2;winner|DRAW;NORMAL|FORFEIT
+        String end = "REPLAY_END;" + matchId + ";" + p1 + ";" + finalScore1 + ";" + p2 + ";" + finalScore2 + ";"
+                + (winner < 0 ? "DRAW" : names[winner]) + ";" + (forfeit ? "FORFEIT" : "NORMAL");
+        return new Replay(matchId, p1, p2, count, fromRound, events, end);
+    }
+
+    private String str(long id) {
+        return id >= 0 && id < strings.size() ? strings.get((int) id) : "";
+    }
+
+    /* ================== Startup ================== */
+
+    private void open() throws IOException {
+        if (opened) return;
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+
+        File dict = new File(dir, "strings.dat");
+        if (dict.exists()) {
+            long validEnd = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dict)))) {
+                while (true) {
+                    in.mark(2);
+                    int len = in.readUnsignedShort();
+                    in.reset();
+                    String s = in.readUTF();
+                    stringIds.put(s, strings.size());
+                    strings.add(s);
+                    validEnd += 2 + len;
+                }
+            } catch (EOFException endOfDictionary) {
+                // hết file (hoặc chuỗi cuối bị ghi dở: chưa record nào dùng nó)
+            }
+            // Cắt chuỗi ghi dở, như đuôi segment: ghi tiếp sau nó thì mọi chuỗi mới đọc lệch
+            if (validEnd < dict.length()) {
+                System.err.println("[ReplayLog] Truncating torn string at " + dict.getName() + ":" + validEnd);
+                try (RandomAccessFile raf = new RandomAccessFile(dict, "rw")) {
+                    raf.setLength(validEnd);
+                }
+            }
+        }
+        dictionaryOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dict, true)));
+
+        // Chỉ các file đúng dạng 00000001.seg; file lạ trong thư mục thì bỏ qua
+        File[] files = dir.listFiles((d, name) -> SEGMENT_NAME.matcher(name).matches());
+        int[] numbers = files == null ? new int[0] : Arrays.stream(files)
+                .mapToInt(f -> Integer.parseInt(f.getName().substring(0, 8))).sorted().toArray();
+        for (int n : numbers) segments.add(loadSegment(n));
+        if (segments.isEmpty()) segments.add(new Segment(dir, 1));
+
+        Segment last = segments.get(segments.size() - 1);
+        active = FileChannel.open(last.data.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        recoverTail(last);
+        opened = true;
+        System.out.println("[ReplayLog] " + segments.size() + " segment(s), " + strings.size() + " strings in " + dir);
+    }
+
+    private Segment loadSegment(int number) throws IOException {
+        Segment seg = new Segment(dir, number);
+        seg.size = seg.data.length();
+        if (seg.index.exists()) {
+            byte[] idx = Files.readAllBytes(seg.index.toPath());
+            ByteBuffer buf = ByteBuffer.wrap(idx);
+            while (buf.remaining() >= INDEX_ENTRY_BYTES) {
+                int min = buf.getInt();
+                int max = buf.getInt();
+                long offset = buf.getLong();
+                if (offset < seg.size) seg.addBlock(min, max, offset);
+            }
+        }
+        return seg;
+    }
+
+    // Dựng lại khối đang mở từ các record sau khối cuối đã đóng; cắt record ghi dở ở cuối file
+    private void recoverTail(Segment seg) throws IOException {
+        long from = seg.blocks > 0 ? seg.offsets[seg.blocks - 1] : 0;
+        byte[] bytes = new byte[(int) (seg.size - from)];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining() && active.read(buf, from + buf.position()) > 0) { }
+
+        int[] pos = {0};
+        int inLastBlock = 0;
+        long validEnd = from;
+        while (pos[0] < bytes.length) {
+            int start = pos[0];
+            try {
+                int id = (int) getVarint(bytes, pos);
+                int len = (int) getVarint(bytes, pos);
+                if (len < 0 || pos[0] + len > bytes.length) break;
+                pos[0] += len;
+                validEnd = from + pos[0];
+                if (seg.blocks > 0 && inLastBlock < BLOCK) {
+                    inLastBlock++; // thuộc khối cuối đã có trong .idx
+                    continue;
+                }
+                if (openCount == 0) openOffset = from + start;
+                openMin = Math.min(openMin, id);
+                openMax = Math.max(openMax, id);
+                if (++openCount == BLOCK) sealBlock(seg);
+            } catch (ArrayIndexOutOfBoundsException torn) {
+                break;
+            }
+        }
+        if (validEnd < seg.size) {
+            System.err.println("[ReplayLog] Truncating torn record at " + seg.data.getName() + ":" + validEnd);
+            active.truncate(validEnd);
+            seg.size = validEnd;
+        }
+    }
+
+    /* ================== Varint helpers ================== */
+
+    static void putVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    static long getVarint(byte[] in, int[] pos) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in[pos[0]++];
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+    }
+
+    private static void putString(ByteArrayOutputStream out, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        putVarint(out, b.length);
+        out.write(b, 0, b.length);
+    }
+
+    private static String getString(byte[] in, int[] pos) {
+        int len = (int) getVarint(in, pos);
+        String s = new String(in, pos[0], len, StandardCharsets.UTF_8);
+        pos[0] += len;
+        return s;
+    }
+
+    /**
+     * Writes synthetic matches into a scratch directory and reports bytes per match,
+     * then replay start latency (index lookup + read + decode from a random round)
+     * right after reopening the log and once warm.
+     * Usage: ReplayLog [matches] [dir]
+     */
+    public static void main(String[] args) throws IOException {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        File scratch = new File(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"), "replay-bench");
+        File[] old = scratch.listFiles();
+        if (old != null) for (File f : old) f.delete();
+
+        Random random = new Random(3);
+        ReplayLog log = new ReplayLog(scratch);
+        long started = System.nanoTime();
+        for (int id = 1; id <= matches; id++) {
+            SoundCatalog.Question[] deck = SoundCatalog.matchDeck(random.nextLong());
+            List<Round> rounds = new ArrayList<>(MatchRoom.ROUNDS);
+            int s1 = 0;
+            int s2 = 0;
+            for (int r = 0; r < MatchRoom.ROUNDS; r++) {
+                SoundCatalog.Question q = deck[r];
+                String a1 = q.options.get(random.nextInt(4));
+                String a2 = random.nextInt(10) == 0 ? null : q.options.get(random.nextInt(4));
+                int t1 = random.nextInt(10_000);
+                int t2 = a2 == null ? -1 : random.nextInt(10_000);
+                if (q.correctAnswer.equals(a1)) s1++;
+                if (q.correctAnswer.equals(a2)) s2++;
+                rounds.add(new Round(3000 + r * 18_000L, q, new String[] {a1, a2}, new int[] {t1, t2},
+                        random.nextInt(3) - 1, s1, s2));
+            }
+            log.append(id, "player" + random.nextInt(1000), "player" + random.nextInt(1000),
+                    1_700_000_000_000L + id * 1000L, 1_700_000_000_000L + id * 1000L + 190_000,
+                    s1 == s2 ? -1 : s1 > s2 ? 0 : 1, false, s1, s2, rounds);
+        }
+        double writeSecs = (System.nanoTime() - started) / 1e9;
+        long bytes = 0;
+        for (Segment s : log.segments) bytes += s.size;
+        System.out.printf("[ReplayLog] %,d matches in %.2fs: %,d bytes/match, %d segment(s), %,d strings%n",
+                matches, writeSecs, bytes / matches, log.segments.size(), log.strings.size());
+        log.active.close();
+        log.dictionaryOut.close();
+
+        ReplayLog reopened = new ReplayLog(scratch);
+        long t0 = System.nanoTime();
+        Replay first = reopened.read(1 + random.nextInt(matches), 1 + random.nextInt(MatchRoom.ROUNDS));
+        System.out.printf("[ReplayLog] first replay after reopen (loads dictionary + index): %.2f ms, %d rounds%n",
+                (System.nanoTime() - t0) / 1e6, first == null ? -1 : first.rounds.size());
+
+        int lookups = 100_000;
+        long[] nanos = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            long t = System.nanoTime();
+            reopened.read(1 + random.nextInt(matches), 1 + random.nextInt(MatchRoom.ROUNDS));
+            nanos[i] = System.nanoTime() - t;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("[ReplayLog] replay start latency: median %.1f us, p99 %.1f us (%,d lookups)%n",
+                nanos[lookups / 2] / 1e3, nanos[(int) (lookups * 0.99)] / 1e3, lookups);
+    }
+}
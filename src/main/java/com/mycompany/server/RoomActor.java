@@ -0,0 +1,86 @@
+package com.mycompany.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Actor plumbing shared by match and party rooms: a lock-free inbox drained on the
+ * RoomLoop the room is pinned to, and deadlines on the shared timer wheel that come
+ * back as messages. Subclass state is only touched from {@link #drain}.
+ */
+abstract class RoomActor {
+    private static final class Message {
+        final Runnable action;
+        final long postedNanos;
+
+        Message(Runnable action, long postedNanos) {
+            this.action = action;
+            this.postedNanos = postedNanos;
+        }
+    }
+
+    /** Runs even after the room is finished: replies to a waiting caller, the rematch window */
+    interface Completion extends Runnable {
+    }
+
+    final int matchId;
+    final RoomLoop loop;
+
+    private final ConcurrentLinkedQueue<Message> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private HashedTimerWheel.Timeout timer;
+    private int timerGen;
+
+    RoomActor(int matchId, RoomLoop loop) {
+        this.matchId = matchId;
+        this.loop = loop;
+    }
+
+    /** Once true, only {@link Completion} messages still run */
+    abstract boolean finished();
+
+    /** Queue {@code action} to run on this room's loop; safe from any thread */
+    void post(Runnable action) {
+        inbox.add(new Message(action, System.nanoTime()));
+        if (scheduled.compareAndSet(false, true)) loop.ready(this);
+    }
+
+    /**
+     * Run up to {@code budget} queued messages; only called by the owning loop. A message that
+     * throws is logged and skipped: the room keeps running and stays schedulable.
+     */
+    void drain(int budget) {
+        Message m;
+        try {
+            while (budget-- > 0 && (m = inbox.poll()) != null) {
+                try {
+                    if (!finished()) m.action.run();
+                    else if (m.action instanceof Completion c) c.run(); // vẫn trả lời người đang chờ
+                } catch (RuntimeException e) {
+                    System.err.println("[RoomActor] Room " + matchId + ": message failed: " + e);
+                    e.printStackTrace();
+                }
+                loop.recordLatency(m.postedNanos);
+            }
+        } finally {
+            // Kể cả khi có Error: không bỏ cờ thì không message nào xếp lại phòng được nữa
+            scheduled.set(false);
+            // Message đến sau poll() cuối nhưng trước khi bỏ cờ: tự xếp lại hàng
+            if (!inbox.isEmpty() && scheduled.compareAndSet(false, true)) loop.ready(this);
+        }
+    }
+
+    /** Run {@code step} on the loop after {@code delayMs}, replacing the pending step */
+    void schedule(Runnable step, long delayMs) {
+        int gen = ++timerGen;
+        // Luồng timer chỉ gửi message, bước tiếp theo chạy trên loop của phòng
+        timer = MatchEngine.TIMER.schedule(() -> post(() -> {
+            if (gen == timerGen) step.run();
+        }), delayMs);
+    }
+
+    void cancelTimer() {
+        timerGen++;
+        if (timer != null) timer.cancel();
+    }
+}
@@ -0,0 +1,116 @@
+package com.mycompany.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One worker thread running match and party rooms as actors.
+ * A room is pinned to a single loop by its match id, and every message for it (answer,
+ * deadline, disconnect) runs on this thread, so room state needs no locks.
+ * Rooms with pending messages sit in a lock-free ready queue; the loop parks when it is empty.
+ */
+public class RoomLoop {
+    // Số message tối đa xử lý cho một phòng trước khi nhường phòng khác
+    private static final int BATCH = 64;
+
+    private final ConcurrentLinkedQueue<RoomActor> ready = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    // Thống kê: số message, độ trễ từ lúc gửi tới lúc xử lý xong
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final LongAdder busyNanos = new LongAdder();
+    // Từ lúc nhận câu trả lời cuối cùng tới lúc ROUND_RESULT vào hộp thư
+    private final LongAdder results = new LongAdder();
+    private final LongAdder resultNanos = new LongAdder();
+    private final AtomicLong maxResultNanos = new AtomicLong();
+    // Chênh lệch giữa lúc câu trả lời tới và thời điểm client khai (ms), tức phần bù trễ mạng + âm thanh
+    private final LongAdder corrections = new LongAdder();
+    private final LongAdder correctionMs = new LongAdder();
+    private final AtomicLong maxCorrectionMs = new AtomicLong();
+    // Câu trả lời khai sớm hơn mức RTT/2 + trễ âm thanh cho phép (bị kẹp lại)
+    private final LongAdder clampedClaims = new LongAdder();
+    final AtomicLong rooms = new AtomicLong();
+
+    public RoomLoop(String name) {
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** Called by a room whose inbox just went from idle to non-empty */
+    void ready(RoomActor room) {
+        ready.add(room);
+        LockSupport.unpark(thread);
+    }
+
+    /** Messages handled since the last {@link #drainStats} */
+    long messageCount() {
+        return messages.sum();
+    }
+
+    void recordLatency(long postedNanos) {
+        long latency = System.nanoTime() - postedNanos;
+        messages.increment();
+        latencyNanos.add(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    void recordAnswerToResult(long receivedNanos) {
+        long latency = System.nanoTime() - receivedNanos;
+        results.increment();
+        resultNanos.add(latency);
+        maxResultNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    void recordCorrection(long ms, boolean clamped) {
+        corrections.increment();
+        if (clamped) clampedClaims.increment();
+        correctionMs.add(ms);
+        maxCorrectionMs.accumulateAndGet(ms, Math::max);
+    }
+
+    /**
+     * Stats since the previous call, for the periodic log line
+     */
+    String drainStats(long intervalNanos) {
+        long n = messages.sumThenReset();
+        long total = latencyNanos.sumThenReset();
+        long max = maxLatencyNanos.getAndSet(0);
+        long r = results.sumThenReset();
+        long rTotal = resultNanos.sumThenReset();
+        long rMax = maxResultNanos.getAndSet(0);
+        long c = corrections.sumThenReset();
+        long cTotal = correctionMs.sumThenReset();
+        long cMax = maxCorrectionMs.getAndSet(0);
+        long clamped = clampedClaims.sumThenReset();
+        long busy = busyNanos.sumThenReset();
+        return String.format("rooms=%d msgs=%d msg avg/max=%.0f/%.0fus answer->result avg/max=%.0f/%.0fus "
+                        + "clock correction avg/max=%.0f/%dms clamped=%d busy=%.1f%%",
+                rooms.get(), n, n == 0 ? 0.0 : total / (n * 1000.0), max / 1000.0,
+                r == 0 ? 0.0 : rTotal / (r * 1000.0), rMax / 1000.0,
+                c == 0 ? 0.0 : (double) cTotal / c, cMax, clamped,
+                100.0 * busy / Math.max(intervalNanos, 1));
+    }
+
+    private void run() {
+        while (true) {
+            RoomActor room = ready.poll();
+            if (room == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                room.drain(BATCH);
+            } catch (Throwable e) {
+                System.err.println("[RoomLoop] Room " + room.matchId + " failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+            busyNanos.add(System.nanoTime() - start);
+        }
+    }
+}
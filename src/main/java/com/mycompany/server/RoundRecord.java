@@ -0,0 +1,53 @@
+package com.mycompany.server;
+
+/**
+ * DTO for one row of match_rounds. Answer/time fields are null when the player did not answer.
+ */
+public class RoundRecord {
+    private final int roundNo;
+    private final String soundKey;
+    private final String category; // 'instrument' | 'animal' | 'vehicle'
+    private final String questionText;
+    private final String correctAnswer;
+    private final String p1Answer;
+    private final Integer p1TimeMs;
+    private final boolean p1Correct;
+    private final String p2Answer;
+    private final Integer p2TimeMs;
+    private final boolean p2Correct;
+    private final String winnerRound; // 'player1' | 'player2' | 'draw'
+    private final boolean tiebreak;
+
+    public RoundRecord(int roundNo, String soundKey, String category, String questionText, String correctAnswer,
+                       String p1Answer, Integer p1TimeMs, boolean p1Correct,
+                       String p2Answer, Integer p2TimeMs, boolean p2Correct,
+                       String winnerRound, boolean tiebreak) {
+        this.roundNo = roundNo;
+        this.soundKey = soundKey;
+        this.category = category;
+        this.questionText = questionText;
+        this.correctAnswer = correctAnswer;
+        this.p1Answer = p1Answer;
+        this.p1TimeMs = p1TimeMs;
+        this.p1Correct = p1Correct;
+        this.p2Answer = p2Answer;
+        this.p2TimeMs = p2TimeMs;
+        this.p2Correct = p2Correct;
+        this.winnerRound = winnerRound;
+        this.tiebreak = tiebreak;
+    }
+
+    public int getRoundNo() { return roundNo; }
+    public String getSoundKey() { return soundKey; }
+    public String getCategory() { return category; }
+    public String getQuestionText() { return questionText; }
+    public String getCorrectAnswer() { return correctAnswer; }
+    public String getP1Answer() { return p1Answer; }
+    public Integer getP1TimeMs() { return p1TimeMs; }
+    public boolean isP1Correct() { return p1Correct; }
+    public String getP2Answer() { return p2Answer; }
+    public Integer getP2TimeMs() { return p2TimeMs; }
+    public boolean isP2Correct() { return p2Correct; }
+    public String getWinnerRound() { return winnerRound; }
+    public boolean isTiebreak() { return tiebreak; }
+}
@@ -3,21 +3,33 @@ package com.mycompany.server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Set;
 import java.util.concurrent.*;
 
 public class Server {
-    public static final Set<String> ONLINE_USERS = new ConcurrentSkipListSet<>();
+    // Presence theo user id: giá trị là handler đang giữ phiên đăng nhập
+    public static final UserTable<ClientHandler> ONLINE_USERS = new UserTable<>(1024);
 
-    // Hộp thư sự kiện cho từng user
-    public static final ConcurrentHashMap<String, ConcurrentLinkedQueue<String>> MAILBOX = new ConcurrentHashMap<>();
-    public static ConcurrentLinkedQueue<String> box(String user) {
-        return MAILBOX.computeIfAbsent(user, k -> new ConcurrentLinkedQueue<>());
+    // Hộp thư sự kiện cho từng user (theo user id)
+    public static final UserTable<Mailbox> MAILBOX = new UserTable<>(1024);
+    public static Mailbox box(int userId) {
+        return MAILBOX.computeIfAbsent(userId, k -> new Mailbox());
+    }
+
+    public static boolean isOnline(int userId) {
+        return ONLINE_USERS.containsKey(userId);
     }
 
     public static void main(String[] args) {
         DbPool.get();
         Database.debugInfo();
+        LeaderboardService.startRollover();
+        CategoryStats.start();
+        Achievements.INSTANCE.start();
+        RatingIndex.start();
+        Standings.start();
+        Bot.start();
+        SoundDifficulty.start(); // trước khi kho bộ đề bắt đầu dựng
+        QuestionDeckService.start();
 
         int port = 9090;
         System.out.println("Starting server on port " + port);
@@ -0,0 +1,20 @@
+package com.mycompany.server;
+
+/**
+ * The server's match clock in epoch milliseconds.
+ * Anchored to the wall clock once at startup and then advanced by System.nanoTime,
+ * so an NTP step on the host cannot move round deadlines or answer times.
+ * Clients estimate their offset to this clock with PING;t1 -> PONG;t1;t2;t3.
+ */
+public class ServerClock {
+    private static final long BASE_MS = System.currentTimeMillis();
+    private static final long BASE_NANOS = System.nanoTime();
+
+    public static long nowMs() {
+        return BASE_MS + (System.nanoTime() - BASE_NANOS) / 1_000_000;
+    }
+
+    public static long toMs(long nanoTime) {
+        return BASE_MS + (nanoTime - BASE_NANOS) / 1_000_000;
+    }
+}
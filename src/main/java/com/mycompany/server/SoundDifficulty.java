@@ -0,0 +1,263 @@
+package com.mycompany.server;
+
+import com.mycompany.common.SoundCatalog;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sound difficulty calibrated from the rounds actually played: how often a sound is answered
+ * correctly and how long it takes. Each persisted round is folded into its sound's counters and
+ * time sketch (O(1), human seats only); match_rounds is only re-read for the matches a crash kept
+ * out of the last flush. The aggregates live in sound_stats, loaded at startup and flushed back in
+ * batches like CategoryStats.
+ *
+ * The deck builder reads {@link #deckDifficulty} from an immutable snapshot rebuilt at every flush:
+ * each sound's miss rate, smoothed towards the global rate so a rarely played sound is not
+ * judged on a handful of answers.
+ */
+public class SoundDifficulty {
+    private static final long FLUSH_PERIOD_S = 30;
+    // Số câu trả lời "ảo" theo tỉ lệ chung cộng vào mỗi âm thanh (làm mượt Bayes)
+    private static final int PRIOR_ANSWERS = 50;
+    // Tỉ lệ trả lời sai giả định khi chưa có dữ liệu nào
+    private static final double DEFAULT_MISS_RATE = 0.3;
+
+    static class Stat {
+        long answers;
+        long correct;
+        final QuantileSketch times;
+
+        Stat(long answers, long correct, QuantileSketch times) {
+            this.answers = answers;
+            this.correct = correct;
+            this.times = times;
+        }
+    }
+
+    /** Immutable estimates read by the deck builder without locking */
+    static final class Snapshot {
+        final Map<String, Double> missRate;
+        final double globalMissRate;
+
+        Snapshot(Map<String, Double> missRate, double globalMissRate) {
+            this.missRate = missRate;
+            this.globalMissRate = globalMissRate;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Stat> STATS = new ConcurrentHashMap<>();
+    private static final Set<String> DIRTY = ConcurrentHashMap.newKeySet();
+    // Như CategoryStats: cộng một trận và chụp bản flush loại trừ nhau
+    private static final Object APPLY = new Object();
+    private static int appliedThrough;
+    private static volatile Snapshot snapshot = new Snapshot(Map.of(), DEFAULT_MISS_RATE);
+    private static ScheduledExecutorService flusher;
+
+    /**
+     * Fold a freshly persisted match's rounds ({@code matchId} is matches.id, in increasing order);
+     * {@code human[seat]} is false for bot seats, whose accuracy is configured rather than measured.
+     */
+    public static void onMatchPersisted(int matchId, List<RoundRecord> rounds, boolean[] human) {
+        synchronized (APPLY) {
+            if (matchId <= appliedThrough) return; // đã cộng khi khởi động
+            for (RoundRecord r : rounds) {
+                if (human[0]) record(r.getSoundKey(), r.isP1Correct(), r.getP1TimeMs());
+                if (human[1]) record(r.getSoundKey(), r.isP2Correct(), r.getP2TimeMs());
+            }
+            appliedThrough = matchId;
+        }
+    }
+
+    static void record(String soundKey, boolean correct, Integer timeMs) {
+        Stat s = STATS.computeIfAbsent(soundKey, k -> new Stat(0, 0, new QuantileSketch()));
+        synchronized (s) {
+            s.answers++;
+            if (correct) s.correct++;
+            if (timeMs != null) s.times.add(timeMs);
+        }
+        DIRTY.add(soundKey);
+    }
+
+    /** Expected misses over the regular rounds of a deck (the tie-break question is left out) */
+    public static double deckDifficulty(SoundCatalog.Question[] deck) {
+        Snapshot snap = snapshot;
+        double sum = 0;
+        for (int i = 0; i < MatchRoom.ROUNDS && i < deck.length; i++) {
+            sum += snap.missRate.getOrDefault(deck[i].soundKey, snap.globalMissRate);
+        }
+        return sum;
+    }
+
+    /** The difficulty of an average deck: what balanced decks aim for */
+    public static double typicalDeckDifficulty() {
+        return snapshot.globalMissRate * MatchRoom.ROUNDS;
+    }
+
+    /** Smoothed miss rate and median answer time of one sound, for logs and tools */
+    public static String describe(String soundKey) {
+        Snapshot snap = snapshot;
+        Stat s = STATS.get(soundKey);
+        int median;
+        long answers;
+        if (s == null) {
+            median = 0;
+            answers = 0;
+        } else {
+            synchronized (s) {
+                median = s.times.median();
+                answers = s.answers;
+            }
+        }
+        return String.format("%s: miss %.1f%% over %d answers, median %d ms", soundKey,
+                snap.missRate.getOrDefault(soundKey, snap.globalMissRate) * 100, answers, median);
+    }
+
+    static void rebuildSnapshot() {
+        long answers = 0, correct = 0;
+        Map<String, long[]> counts = new HashMap<>();
+        for (Map.Entry<String, Stat> e : STATS.entrySet()) {
+            Stat s = e.getValue();
+            synchronized (s) {
+                counts.put(e.getKey(), new long[] {s.answers, s.correct});
+                answers += s.answers;
+                correct += s.correct;
+            }
+        }
+        double global = answers == 0 ? DEFAULT_MISS_RATE : 1 - correct / (double) answers;
+        Map<String, Double> missRate = new HashMap<>();
+        for (Map.Entry<String, long[]> e : counts.entrySet()) {
+            long[] c = e.getValue();
+            missRate.put(e.getKey(), (c[0] - c[1] + PRIOR_ANSWERS * global) / (c[0] + PRIOR_ANSWERS));
+        }
+        snapshot = new Snapshot(Map.copyOf(missRate), global);
+    }
+
+    /**
+     * Load persisted aggregates, replay the matches saved after the last flush, and start the
+     * periodic flush. Called once at server start, before the deck pool starts filling.
+     */
+    public static synchronized void start() {
+        if (flusher != null) return;
+        List<String> keys = new ArrayList<>();
+        List<long[]> counts = new ArrayList<>();
+        List<byte[]> sketches = new ArrayList<>();
+        synchronized (APPLY) {
+            try {
+                Database.loadSoundStats(keys, counts, sketches);
+                for (int i = 0; i < keys.size(); i++) {
+                    byte[] sketch = sketches.get(i);
+                    STATS.put(keys.get(i), new Stat(counts.get(i)[0], counts.get(i)[1],
+                            sketch == null ? new QuantileSketch() : QuantileSketch.fromBytes(sketch)));
+                }
+                System.out.println("[SoundDifficulty] Loaded " + keys.size() + " sounds");
+                replaySince(Database.loadWatermark("sound_stats"));
+            } catch (SQLException e) {
+                System.err.println("[SoundDifficulty] Failed to load sound stats: " + e.getMessage());
+            }
+        }
+        rebuildSnapshot();
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sound-difficulty-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(SoundDifficulty::flush, FLUSH_PERIOD_S, FLUSH_PERIOD_S, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(SoundDifficulty::flush, "sound-difficulty-final-flush"));
+    }
+
+    // Cả trận có bot: ghế người vẫn được tính, như lúc chạy
+    private static void replaySince(int watermark) throws SQLException {
+        if (watermark < 0) return;
+        appliedThrough = Math.max(appliedThrough, watermark);
+        List<Integer> ids = new ArrayList<>();
+        List<List<RoundRecord>> rounds = new ArrayList<>();
+        List<boolean[]> human = new ArrayList<>();
+        Database.loadMatchesAfter(watermark, ids, new ArrayList<>(), rounds, human);
+        for (int i = 0; i < ids.size(); i++) onMatchPersisted(ids.get(i), rounds.get(i), human.get(i));
+        if (!ids.isEmpty()) {
+            appliedThrough = Math.max(appliedThrough, ids.get(ids.size() - 1));
+            System.out.println("[SoundDifficulty] Replayed " + ids.size() + " matches after #" + watermark);
+        }
+    }
+
+    static void flush() {
+        if (DIRTY.isEmpty()) return;
+        rebuildSnapshot();
+        List<String> keys = new ArrayList<>();
+        List<long[]> counts = new ArrayList<>();
+        List<byte[]> sketches = new ArrayList<>();
+        int through;
+        synchronized (APPLY) {
+            through = appliedThrough;
+            for (String key : DIRTY) {
+                DIRTY.remove(key);
+                Stat s = STATS.get(key);
+                if (s == null) continue;
+                synchronized (s) {
+                    keys.add(key);
+                    counts.add(new long[] {s.answers, s.correct});
+                    sketches.add(s.times.toBytes());
+                }
+            }
+        }
+        try {
+            Database.saveSoundStats(keys, counts, sketches, through);
+        } catch (SQLException e) {
+            System.err.println("[SoundDifficulty] Flush failed, will retry: " + e.getMessage());
+            DIRTY.addAll(keys);
+        }
+    }
+
+    /**
+     * Recompute cost: folds {@code rounds} synthetic answers (sounds with different true miss
+     * rates) and extrapolates to 100M, against the snapshot rebuild the deck builder depends on,
+     * which only grows with the number of sounds.
+     * Usage: SoundDifficulty [rounds]
+     */
+    public static void main(String[] args) {
+        long rounds = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+        Random random = new Random(42);
+        SoundCatalog.Question[] sample = SoundCatalog.deck(random, 2_000);
+        List<String> keys = new ArrayList<>();
+        for (SoundCatalog.Question q : sample) if (!keys.contains(q.soundKey)) keys.add(q.soundKey);
+        double[] trueMiss = new double[keys.size()];
+        for (int i = 0; i < trueMiss.length; i++) trueMiss[i] = 0.1 + 0.5 * random.nextDouble();
+
+        for (long n = 0; n < rounds / 10; n++) { // JIT làm nóng
+            int k = (int) (n % keys.size());
+            record(keys.get(k), random.nextDouble() >= trueMiss[k], 500 + random.nextInt(5000));
+        }
+        STATS.clear();
+        long start = System.nanoTime();
+        for (long n = 0; n < rounds; n++) {
+            int k = random.nextInt(keys.size());
+            record(keys.get(k), random.nextDouble() >= trueMiss[k], 500 + random.nextInt(5000));
+        }
+        double foldNs = (System.nanoTime() - start) / (double) rounds;
+
+        int rebuilds = 1_000;
+        start = System.nanoTime();
+        for (int i = 0; i < rebuilds; i++) rebuildSnapshot();
+        double rebuildUs = (System.nanoTime() - start) / 1e3 / rebuilds;
+
+        double worstError = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            worstError = Math.max(worstError, Math.abs(snapshot.missRate.get(keys.get(i)) - trueMiss[i]));
+        }
+        System.out.printf("[SoundDifficulty] %d sounds, %,d answers folded: %.0f ns/answer -> 100M answers %.1f s of CPU%n",
+                keys.size(), rounds, foldNs, foldNs * 100_000_000 / 1e9);
+        System.out.printf("[SoundDifficulty] snapshot rebuild %.1f us (independent of history), worst miss-rate error %.4f%n",
+                rebuildUs, worstError);
+        System.out.println("[SoundDifficulty] " + describe(keys.get(0)));
+    }
+}
@@ -0,0 +1,129 @@
+package com.mycompany.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Spectators of one match. Owned by the room's loop thread, so nothing here is locked.
+ * Each event is encoded once by the room and the same immutable String is queued for every
+ * viewer; publishing is a pointer push per mailbox. A viewer that stops polling is first
+ * down-sampled (skippable events such as ROUND_START are not queued once a few are pending)
+ * and then dropped with SPECTATE_DROPPED, so a slow viewer can never hold the match back.
+ */
+public class Spectators {
+    static final int MAX_PER_MATCH = 10_000;
+    // Đang chờ nhiều hơn SKIP_BACKLOG sự kiện: bỏ qua sự kiện không bắt buộc; đầy MAX_BACKLOG: loại khỏi trận
+    static final int SKIP_BACKLOG = 8;
+    static final int MAX_BACKLOG = 32;
+
+    private final int matchId;
+    private final IntConsumer onDrop;
+    private int[] ids = new int[8];
+    private int size;
+
+    Spectators(int matchId, IntConsumer onDrop) {
+        this.matchId = matchId;
+        this.onDrop = onDrop;
+    }
+
+    boolean add(int userId) {
+        if (indexOf(userId) >= 0) return true;
+        if (size == MAX_PER_MATCH) return false;
+        if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+        ids[size++] = userId;
+        return true;
+    }
+
+    boolean remove(int userId) {
+        int i = indexOf(userId);
+        if (i < 0) return false;
+        ids[i] = ids[--size]; // thứ tự không quan trọng
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) action.accept(ids[i]);
+    }
+
+    /**
+     * Queue {@code event} for every spectator. Returns how many were dropped.
+     */
+    int publish(String event, boolean skippable) {
+        int dropped = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            int id = ids[i];
+            Mailbox box = Server.MAILBOX.get(id);
+            if (box != null) {
+                if (skippable && box.size() >= SKIP_BACKLOG) continue;
+                if (box.offer(event, MAX_BACKLOG)) continue;
+                box.add("SPECTATE_DROPPED;" + matchId);
+            }
+            ids[i] = ids[--size];
+            dropped++;
+            onDrop.accept(id);
+        }
+        return dropped;
+    }
+
+    private int indexOf(int userId) {
+        for (int i = 0; i < size; i++) if (ids[i] == userId) return i;
+        return -1;
+    }
+
+    /**
+     * CPU cost of fan-out on one thread: ns per event per 1k spectators, encode-once vs.
+     * building the event string for each viewer. Viewers poll everything after each round.
+     * Usage: Spectators [spectators] [events]
+     */
+    public static void main(String[] args) {
+        int viewers = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Spectators spectators = new Spectators(1, id -> { });
+        Mailbox[] boxes = new Mailbox[viewers];
+        for (int i = 0; i < viewers; i++) {
+            spectators.add(i + 1);
+            boxes[i] = Server.box(i + 1);
+        }
+
+        for (int pass = 0; pass < 2; pass++) { // lượt đầu để JIT làm nóng
+            long[] cpu = new long[2];
+            long[] bytes = new long[2];
+            for (int mode = 0; mode < 2; mode++) {
+                long cpuBefore = mx.getCurrentThreadCpuTime();
+                long bytesBefore = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int e = 0; e < events; e++) {
+                    if (mode == 0) {
+                        spectators.publish(roundResult(e), false);
+                    } else {
+                        for (int i = 0; i < viewers; i++) boxes[i].offer(roundResult(e), MAX_BACKLOG);
+                    }
+                    if (e % SKIP_BACKLOG == SKIP_BACKLOG - 1) for (Mailbox b : boxes) while (b.poll() != null) { }
+                }
+                cpu[mode] = mx.getCurrentThreadCpuTime() - cpuBefore;
+                bytes[mode] = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytesBefore;
+                for (Mailbox b : boxes) while (b.poll() != null) { }
+            }
+            if (pass == 0) continue;
+            double per1k = events * (viewers / 1000.0);
+            System.out.printf("[Spectators] %,d viewers x %,d events (%d dropped)%n", viewers, events, viewers - spectators.size());
+            System.out.printf("[Spectators] encode once:       %,.0f ns CPU, %,.0f bytes per event per 1k viewers%n",
+                    cpu[0] / per1k, bytes[0] / per1k);
+            System.out.printf("[Spectators] encode per viewer: %,.0f ns CPU, %,.0f bytes per event per 1k viewers%n",
+                    cpu[1] / per1k, bytes[1] / per1k);
+        }
+    }
+
+    private static String roundResult(int e) {
+        return "ROUND_RESULT;1;" + (e % 11 + 1) + ";Piano;alice;Piano;1830;bob;Guitar;2410;" + e + ";" + (e / 2) + ";alice";
+    }
+}
@@ -0,0 +1,237 @@
+package com.mycompany.server;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory copy of the all-time leaderboard (users.wins / total_matches, same order as
+ * Database.getLeaderboardPage), loaded at startup and updated after each committed match.
+ *
+ * Open LeaderboardFrames subscribe to a window [offset, offset + limit). After every match each
+ * watched window is recomputed and diffed position by position against the rows it showed before
+ * (entries are immutable, so a changed row is a different object); only the changed positions are
+ * encoded, once per window, as LEADERBOARD_ROW;rank;username;wins;winRate into the window's delta log.
+ * Subscribers read the log through their own cursor with LEADERBOARD_POLL, so the lobby's POLL never
+ * competes with the frame for these events. A subscriber that falls more than LOG_CAPACITY rows
+ * behind gets LEADERBOARD_RESET and the full window again.
+ */
+public class Standings {
+    static final int LOG_CAPACITY = 1024;
+
+    public static class Entry {
+        public final int userId;
+        public final String username;
+        public final int wins;
+        public final int totalMatches;
+        // win_rate của DB là phần trăm làm tròn 2 chữ số; ở đây lưu phần trăm x100 để so sánh bằng int
+        final int winRateX100;
+
+        Entry(int userId, String username, int wins, int totalMatches) {
+            this.userId = userId;
+            this.username = username;
+            this.wins = wins;
+            this.totalMatches = totalMatches;
+            this.winRateX100 = totalMatches == 0 ? 0 : (int) Math.round(wins * 10000.0 / totalMatches);
+        }
+
+        public double winRate() {
+            return winRateX100 / 100.0;
+        }
+    }
+
+    /** A watched window and its delta log; guarded by the Standings class lock */
+    static final class Window {
+        final int offset;
+        final int limit;
+        Entry[] rows;
+        String[] snapshot; // LEADERBOARD;... của rows, dựng lại khi cần sau mỗi thay đổi
+        final String[] log = new String[LOG_CAPACITY];
+        long version; // số dòng đã ghi vào log
+        int subscribers;
+
+        Window(int offset, int limit) {
+            this.offset = offset;
+            this.limit = limit;
+        }
+    }
+
+    /** One session's subscription: where it is in the window's snapshot and log */
+    public static final class Subscription {
+        final Window window;
+        String[] snapshot;
+        int snapshotIndex;
+        long cursor;
+
+        Subscription(Window window) {
+            this.window = window;
+        }
+    }
+
+    private static final Comparator<Entry> BY_WIN_RATE = Comparator
+            .comparingInt((Entry e) -> -e.winRateX100)
+            .thenComparingInt(e -> -e.wins)
+            .thenComparing(e -> e.username)
+            .thenComparingInt(e -> e.userId);
+
+    private static final UserTable<Entry> BY_USER = new UserTable<>(1024);
+    private static final ConcurrentSkipListSet<Entry> RANKED = new ConcurrentSkipListSet<>(BY_WIN_RATE);
+    private static final HashMap<Long, Window> WINDOWS = new HashMap<>();
+
+    public static void start() {
+        List<int[]> rows = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        try {
+            Database.loadStandings(rows, names);
+        } catch (SQLException e) {
+            System.err.println("[Standings] Failed to load standings: " + e.getMessage());
+            return;
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            int[] r = rows.get(i);
+            put(new Entry(r[0], names.get(i), r[1], r[2]));
+        }
+        System.out.println("[Standings] Loaded " + rows.size() + " players");
+    }
+
+    /** Called once saveMatch has committed: the same +1 match / +1 win the database applied */
+    public static synchronized void onMatchPersisted(MatchResult result) {
+        int winnerId = result.getWinnerId();
+        record(result.getPlayer1Id(), winnerId == result.getPlayer1Id());
+        record(result.getPlayer2Id(), winnerId == result.getPlayer2Id());
+        publishDeltas();
+    }
+
+    private static void record(int userId, boolean won) {
+        Entry old = BY_USER.get(userId);
+        String name = old != null ? old.username : UserDirectory.nameOf(userId);
+        if (name == null) return;
+        put(new Entry(userId, name, (old == null ? 0 : old.wins) + (won ? 1 : 0), (old == null ? 0 : old.totalMatches) + 1));
+    }
+
+    private static void put(Entry e) {
+        Entry old = BY_USER.put(e.userId, e);
+        if (old != null) RANKED.remove(old);
+        RANKED.add(e);
+    }
+
+    public static List<Entry> page(int offset, int limit) {
+        List<Entry> page = new ArrayList<>(Math.max(0, limit));
+        Iterator<Entry> it = RANKED.iterator();
+        for (int skipped = 0; skipped < offset && it.hasNext(); skipped++) it.next();
+        while (it.hasNext() && page.size() < limit) page.add(it.next());
+        return page;
+    }
+
+    /* ================== Subscriptions ================== */
+
+    public static synchronized Subscription subscribe(int offset, int limit) {
+        Window w = WINDOWS.computeIfAbsent(((long) offset << 32) | limit, k -> {
+            Window created = new Window(offset, limit);
+            created.rows = page(offset, limit).toArray(new Entry[0]);
+            return created;
+        });
+        w.subscribers++;
+        Subscription s = new Subscription(w);
+        s.snapshot = snapshotOf(w);
+        s.cursor = w.version;
+        return s;
+    }
+
+    public static synchronized void unsubscribe(Subscription s) {
+        Window w = s.window;
+        if (--w.subscribers == 0) WINDOWS.remove(((long) w.offset << 32) | w.limit);
+    }
+
+    /**
+     * Next line for this subscriber: the window's rows (LEADERBOARD;... then LEADERBOARD_END) right after
+     * subscribing, then LEADERBOARD_ROW deltas; null when there is nothing new
+     */
+    public static synchronized String poll(Subscription s) {
+        if (s.snapshot != null) {
+            if (s.snapshotIndex < s.snapshot.length) return s.snapshot[s.snapshotIndex++];
+            s.snapshot = null;
+            return "LEADERBOARD_END";
+        }
+        Window w = s.window;
+        if (s.cursor >= w.version) return null;
+        if (s.cursor < w.version - LOG_CAPACITY) {
+            // Bị bỏ quá xa: gửi lại cả cửa sổ
+            s.snapshot = snapshotOf(w);
+            s.snapshotIndex = 0;
+            s.cursor = w.version;
+            return "LEADERBOARD_RESET";
+        }
+        return w.log[(int) (s.cursor++ % LOG_CAPACITY)];
+    }
+
+    private static void publishDeltas() {
+        for (Window w : WINDOWS.values()) {
+            Entry[] now = page(w.offset, w.limit).toArray(new Entry[0]);
+            Entry[] before = w.rows;
+            boolean changed = false;
+            for (int i = 0; i < now.length; i++) {
+                if (i < before.length && before[i] == now[i]) continue;
+                w.log[(int) (w.version++ % LOG_CAPACITY)] = String.format("LEADERBOARD_ROW;%d;%s;%d;%.2f",
+                        w.offset + i + 1, now[i].username, now[i].wins, now[i].winRate());
+                changed = true;
+            }
+            w.rows = now;
+            if (changed) w.snapshot = null;
+        }
+    }
+
+    private static String[] snapshotOf(Window w) {
+        if (w.snapshot == null) {
+            String[] lines = new String[w.rows.length];
+            for (int i = 0; i < lines.length; i++) {
+                Entry e = w.rows[i];
+                lines[i] = String.format("LEADERBOARD;%s;%d;%.2f", e.username, e.wins, e.winRate());
+            }
+            w.snapshot = lines;
+        }
+        return w.snapshot;
+    }
+
+    /**
+     * Cost of keeping a window live: delta rows per match and time per publish, against resending
+     * the whole window (what a reopened LeaderboardFrame costs).
+     * Usage: Standings [players] [matches] [limit]
+     */
+    public static void main(String[] args) {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int matches = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int limit = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        Random random = new Random(42);
+        for (int u = 1; u <= players; u++) {
+            int total = random.nextInt(200);
+            put(new Entry(u, "user" + u, total == 0 ? 0 : random.nextInt(total + 1), total));
+            UserDirectory.register(u, "user" + u);
+        }
+        Subscription s = subscribe(0, limit);
+        long snapshotBytes = 0;
+        for (String line; (line = poll(s)) != null; ) snapshotBytes += line.length() + 1;
+
+        long deltaBytes = 0, deltaRows = 0, publishNanos = 0;
+        for (int m = 0; m < matches; m++) {
+            int a = 1 + random.nextInt(players), b = 1 + random.nextInt(players);
+            if (a == b) continue;
+            MatchResult result = new MatchResult(a, b, 6, 4, "player1", false, 10, null, null);
+            long start = System.nanoTime();
+            onMatchPersisted(result);
+            publishNanos += System.nanoTime() - start;
+            for (String line; (line = poll(s)) != null; ) {
+                deltaBytes += line.length() + 1;
+                deltaRows++;
+            }
+        }
+        System.out.printf("[Standings] %,d players, window 0..%d: full window %,d bytes%n", players, limit, snapshotBytes);
+        System.out.printf("[Standings] %,d matches: %.2f delta rows and %.0f bytes per match, %.1f us per publish%n",
+                matches, deltaRows / (double) matches, deltaBytes / (double) matches, publishNanos / 1e3 / matches);
+    }
+}
@@ -0,0 +1,37 @@
+package com.mycompany.server;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-side id <-> username dictionary.
+ * Presence, mailboxes and caches are keyed by users.id; names are only resolved at the protocol edge.
+ */
+public class UserDirectory {
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static final UserTable<String> NAMES = new UserTable<>(1024);
+
+    public static void register(int id, String username) {
+        if (id <= 0 || username == null) return;
+        IDS.put(username, id);
+        NAMES.put(id, username);
+    }
+
+    /**
+     * Resolve a username to its id, hitting the database only on a cache miss.
+     * Returns 0 if the user does not exist.
+     */
+    public static int idOf(String username) throws SQLException {
+        if (username == null || username.isEmpty()) return 0;
+        Integer id = IDS.get(username);
+        if (id != null) return id;
+        int found = Database.findUserId(username);
+        if (found > 0) register(found, username);
+        return found;
+    }
+
+    /** Cached lookup only: every user that reached the server went through login or idOf. */
+    public static String nameOf(int id) {
+        return NAMES.get(id);
+    }
+}
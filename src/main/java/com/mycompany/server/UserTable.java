@@ -0,0 +1,91 @@
+package com.mycompany.server;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Map keyed by user id (users.id is a dense SERIAL), backed by a plain array
+ * so lookups never box the key or hash a username.
+ * Reads are lock-free; writes (login/logout, mailbox creation) are rare and synchronized.
+ */
+public class UserTable<V> {
+    private volatile AtomicReferenceArray<V> slots;
+    private volatile int size;
+
+    public UserTable(int initialCapacity) {
+        this.slots = new AtomicReferenceArray<>(Math.max(16, initialCapacity));
+    }
+
+    public V get(int id) {
+        AtomicReferenceArray<V> s = slots;
+        return (id > 0 && id < s.length()) ? s.get(id) : null;
+    }
+
+    public boolean containsKey(int id) {
+        return get(id) != null;
+    }
+
+    public synchronized V put(int id, V value) {
+        AtomicReferenceArray<V> s = ensureCapacity(id);
+        V old = s.getAndSet(id, value);
+        if (old == null) size++;
+        return old;
+    }
+
+    public synchronized V remove(int id) {
+        AtomicReferenceArray<V> s = slots;
+        if (id <= 0 || id >= s.length()) return null;
+        V old = s.getAndSet(id, null);
+        if (old != null) size--;
+        return old;
+    }
+
+    /** Removes the entry only if it is still mapped to {@code expected}. */
+    public synchronized boolean remove(int id, V expected) {
+        AtomicReferenceArray<V> s = slots;
+        if (id <= 0 || id >= s.length()) return false;
+        if (!s.compareAndSet(id, expected, null)) return false;
+        size--;
+        return true;
+    }
+
+    public V computeIfAbsent(int id, IntFunction<V> factory) {
+        V v = get(id);
+        if (v != null) return v;
+        synchronized (this) {
+            AtomicReferenceArray<V> s = ensureCapacity(id);
+            v = s.get(id);
+            if (v == null) {
+                v = factory.apply(id);
+                s.set(id, v);
+                size++;
+            }
+            return v;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(ObjIntConsumer<V> action) {
+        AtomicReferenceArray<V> s = slots;
+        for (int id = 1; id < s.length(); id++) {
+            V v = s.get(id);
+            if (v != null) action.accept(v, id);
+        }
+    }
+
+    private AtomicReferenceArray<V> ensureCapacity(int id) {
+        if (id <= 0) throw new IllegalArgumentException("Invalid user id: " + id);
+        AtomicReferenceArray<V> s = slots;
+        if (id < s.length()) return s;
+        int cap = s.length();
+        while (cap <= id) cap <<= 1;
+        AtomicReferenceArray<V> grown = new AtomicReferenceArray<>(cap);
+        for (int i = 0; i < s.length(); i++) grown.set(i, s.get(i));
+        slots = grown;
+        return grown;
+    }
+}
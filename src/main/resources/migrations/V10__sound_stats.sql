@@ -0,0 +1,34 @@
+---------------------------------------------------------
+-- V10: độ khó từng âm thanh (tỉ lệ đúng + sketch thời gian trả lời)
+-- Server cộng dồn từng vòng mới vào bộ nhớ và ghi xuống theo lô; không quét lại match_rounds.
+-- Lấp số liệu cũ một lần ở đây (không có thời gian: sketch bắt đầu rỗng).
+---------------------------------------------------------
+BEGIN;
+
+CREATE TABLE public.sound_stats (
+    sound_key VARCHAR(100) PRIMARY KEY,              -- id trong Sound.csv
+    answers BIGINT NOT NULL DEFAULT 0,               -- số lượt trả lời (kể cả hết giờ)
+    correct BIGINT NOT NULL DEFAULT 0,
+    time_sketch BYTEA                                -- QuantileSketch thời gian trả lời
+);
+
+-- Chỉ ghế người, như SoundDifficulty.onMatchPersisted. Cột is_bot tới V11 mới có:
+-- nhận bot qua tên các tài khoản Bot.start tạo (như V11)
+INSERT INTO public.sound_stats (sound_key, answers, correct)
+SELECT sound_key, COUNT(*), SUM(CASE WHEN correct THEN 1 ELSE 0 END)
+FROM (
+    SELECT r.sound_key, r.p1_correct AS correct
+    FROM public.match_rounds r
+    JOIN public.matches m ON m.id = r.match_id
+    JOIN public.users u ON u.id = m.player1_id
+    WHERE u.username NOT IN ('bot_easy', 'bot_normal', 'bot_hard')
+    UNION ALL
+    SELECT r.sound_key, r.p2_correct
+    FROM public.match_rounds r
+    JOIN public.matches m ON m.id = r.match_id
+    JOIN public.users u ON u.id = m.player2_id
+    WHERE u.username NOT IN ('bot_easy', 'bot_normal', 'bot_hard')
+) answers
+GROUP BY sound_key;
+
+COMMIT;
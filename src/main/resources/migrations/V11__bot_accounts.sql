@@ -0,0 +1,83 @@
+---------------------------------------------------------
+-- V11: tài khoản bot và trận không tính điểm
+-- Trận có bot vẫn lưu (lịch sử, replay) nhưng không đụng tới rating, wins,
+-- leaderboard_periods, thống kê chủ đề hay thành tích. Tiền tố bot_ dành riêng cho server.
+-- Phần người chơi đã cộng từ trận với bot được trừ ra khỏi wins, leaderboard_periods và
+-- user_category_stats. Không gỡ được: mẫu thời gian trong time_sketch và thành tích
+-- (user_achievements) đã đạt nhờ trận với bot vẫn giữ nguyên.
+-- Sau khi chạy: RatingRecompute để tính lại Elo chỉ từ các trận rated.
+---------------------------------------------------------
+BEGIN;
+
+ALTER TABLE public.users
+    ADD COLUMN is_bot BOOLEAN NOT NULL DEFAULT FALSE;
+
+ALTER TABLE public.matches
+    ADD COLUMN rated BOOLEAN NOT NULL DEFAULT TRUE;
+
+-- Các tài khoản Bot.start đã tạo trước đây
+UPDATE public.users SET is_bot = TRUE
+WHERE username IN ('bot_easy', 'bot_normal', 'bot_hard');
+
+UPDATE public.matches m SET rated = FALSE
+FROM public.users u
+WHERE u.is_bot AND u.id IN (m.player1_id, m.player2_id);
+
+-- Ghế người trong các trận với bot vừa đánh dấu
+CREATE TEMP TABLE bot_match_seats ON COMMIT DROP AS
+SELECT m.id AS match_id, s.seat, s.user_id, s.won, m.finished_at
+FROM public.matches m
+CROSS JOIN LATERAL (VALUES
+    (1, m.player1_id, m.winner = 'player1'),
+    (2, m.player2_id, m.winner = 'player2')
+) AS s(seat, user_id, won)
+JOIN public.users u ON u.id = s.user_id
+WHERE NOT m.rated AND NOT u.is_bot;
+
+UPDATE public.users u
+SET wins = GREATEST(0, u.wins - b.wins), total_matches = GREATEST(0, u.total_matches - b.matches)
+FROM (
+    SELECT user_id, SUM(CASE WHEN won THEN 1 ELSE 0 END) AS wins, COUNT(*) AS matches
+    FROM bot_match_seats GROUP BY user_id
+) b
+WHERE u.id = b.user_id;
+
+-- Bucket tính như LeaderboardWindow.periodStart (tuần bắt đầu thứ Hai, mùa = quý)
+UPDATE public.leaderboard_periods p
+SET wins = GREATEST(0, p.wins - b.wins), matches = GREATEST(0, p.matches - b.matches)
+FROM (
+    SELECT s.user_id, k.period_type, k.period_start,
+           SUM(CASE WHEN s.won THEN 1 ELSE 0 END) AS wins, COUNT(*) AS matches
+    FROM bot_match_seats s
+    CROSS JOIN LATERAL (VALUES
+        ('day',    s.finished_at::date),
+        ('week',   date_trunc('week', s.finished_at)::date),
+        ('season', date_trunc('quarter', s.finished_at)::date)
+    ) AS k(period_type, period_start)
+    GROUP BY s.user_id, k.period_type, k.period_start
+) b
+WHERE p.user_id = b.user_id AND p.period_type = b.period_type AND p.period_start = b.period_start;
+
+DELETE FROM public.leaderboard_periods WHERE matches = 0;
+
+UPDATE public.user_category_stats c
+SET rounds = GREATEST(0, c.rounds - b.rounds), correct = GREATEST(0, c.correct - b.correct)
+FROM (
+    SELECT s.user_id, r.category, COUNT(*) AS rounds,
+           SUM(CASE WHEN (s.seat = 1 AND r.p1_correct) OR (s.seat = 2 AND r.p2_correct) THEN 1 ELSE 0 END) AS correct
+    FROM bot_match_seats s JOIN public.match_rounds r ON r.match_id = s.match_id
+    GROUP BY s.user_id, r.category
+) b
+WHERE c.user_id = b.user_id AND c.category = b.category;
+
+-- Xóa phần bot đã tích lũy khỏi các bảng xếp hạng
+UPDATE public.users SET wins = 0, total_matches = 0, rating = 1200, rated_matches = 0
+WHERE is_bot;
+
+DELETE FROM public.leaderboard_periods p USING public.users u
+WHERE u.id = p.user_id AND u.is_bot;
+
+DELETE FROM public.user_category_stats s USING public.users u
+WHERE u.id = s.user_id AND u.is_bot;
+
+COMMIT;
@@ -0,0 +1,19 @@
+---------------------------------------------------------
+-- V12: mốc trận đã cộng của các bảng thống kê ghi theo lô
+-- CategoryStats, Achievements, SoundDifficulty giữ số liệu trong bộ nhớ và ghi xuống mỗi 30 s;
+-- mỗi lần ghi lưu kèm matches.id cuối cùng đã cộng, trong cùng transaction. Khi khởi động,
+-- các trận có id lớn hơn mốc (bị mất do server dừng đột ngột) được cộng lại từ match_rounds.
+-- Mốc ban đầu là trận mới nhất: chạy migration sau khi server đã dừng bình thường.
+---------------------------------------------------------
+BEGIN;
+
+CREATE TABLE public.stats_watermarks (
+    name VARCHAR(30) PRIMARY KEY,                    -- user_category_stats | user_achievements | sound_stats
+    last_match_id INT NOT NULL
+);
+
+INSERT INTO public.stats_watermarks (name, last_match_id)
+SELECT t.name, COALESCE((SELECT MAX(id) FROM public.matches), 0)
+FROM (VALUES ('user_category_stats'), ('user_achievements'), ('sound_stats')) AS t(name);
+
+COMMIT;
@@ -0,0 +1,11 @@
+---------------------------------------------------------
+-- V13: index một phần cho các bucket chưa niêm phong
+-- Database.sealPeriodsBefore chỉ đụng các dòng NOT sealed; không có index này nó phải quét
+-- toàn bộ lịch sử của period_type mỗi lần chuyển kỳ.
+---------------------------------------------------------
+BEGIN;
+
+CREATE INDEX idx_leaderboard_periods_unsealed
+    ON public.leaderboard_periods(period_type, period_start) WHERE NOT sealed;
+
+COMMIT;
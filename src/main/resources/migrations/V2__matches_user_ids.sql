@@ -0,0 +1,32 @@
+---------------------------------------------------------
+-- V2: matches.player1/player2 (VARCHAR username) -> player1_id/player2_id (INT users.id)
+-- Chạy một lần trên DB đã tạo bằng bản set.sql cũ.
+---------------------------------------------------------
+BEGIN;
+
+ALTER TABLE public.matches
+    ADD COLUMN player1_id INT,
+    ADD COLUMN player2_id INT;
+
+UPDATE public.matches m
+SET player1_id = u1.id,
+    player2_id = u2.id
+FROM public.users u1, public.users u2
+WHERE u1.username = m.player1
+  AND u2.username = m.player2;
+
+ALTER TABLE public.matches
+    ALTER COLUMN player1_id SET NOT NULL,
+    ALTER COLUMN player2_id SET NOT NULL,
+    ADD CONSTRAINT matches_player1_id_fkey FOREIGN KEY (player1_id) REFERENCES public.users(id),
+    ADD CONSTRAINT matches_player2_id_fkey FOREIGN KEY (player2_id) REFERENCES public.users(id),
+    DROP COLUMN player1,
+    DROP COLUMN player2;
+
+CREATE INDEX idx_matches_player1 ON public.matches(player1_id, finished_at DESC);
+CREATE INDEX idx_matches_player2 ON public.matches(player2_id, finished_at DESC);
+
+COMMIT;
+
+-- Dọn lại bảng sau khi DROP COLUMN để lấy lại dung lượng các hàng cũ:
+-- VACUUM FULL public.matches;
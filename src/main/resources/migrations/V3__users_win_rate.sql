@@ -0,0 +1,31 @@
+---------------------------------------------------------
+-- V3: cột win_rate sinh sẵn + index phủ cho truy vấn top-N bảng xếp hạng
+---------------------------------------------------------
+BEGIN;
+
+DROP VIEW IF EXISTS public.leaderboard;
+
+ALTER TABLE public.users
+    ADD COLUMN win_rate NUMERIC(5,2) GENERATED ALWAYS AS (
+        ROUND(
+            CASE WHEN total_matches = 0 THEN 0
+                 ELSE (wins * 100.0 / total_matches)
+            END, 2
+        )
+    ) STORED;
+
+CREATE INDEX idx_users_leaderboard ON public.users(win_rate DESC, wins DESC, username);
+
+CREATE VIEW public.leaderboard AS
+SELECT
+    username,
+    wins,
+    total_matches,
+    win_rate
+FROM public.users
+ORDER BY win_rate DESC, wins DESC, username;
+
+COMMIT;
+
+-- Cập nhật visibility map để top-N chạy được index-only scan
+VACUUM ANALYZE public.users;
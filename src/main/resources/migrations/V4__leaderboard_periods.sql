@@ -0,0 +1,46 @@
+---------------------------------------------------------
+-- V4: bảng xếp hạng theo ngày / tuần / mùa (quý)
+---------------------------------------------------------
+BEGIN;
+
+CREATE TABLE public.leaderboard_periods (
+    user_id INT NOT NULL REFERENCES public.users(id),
+    period_type VARCHAR(10) NOT NULL CHECK (period_type IN ('day', 'week', 'season')),
+    period_start DATE NOT NULL,
+
+    wins INT NOT NULL DEFAULT 0,
+    matches INT NOT NULL DEFAULT 0,
+    win_rate NUMERIC(5,2) GENERATED ALWAYS AS (
+        ROUND(
+            CASE WHEN matches = 0 THEN 0
+                 ELSE (wins * 100.0 / matches)
+            END, 2
+        )
+    ) STORED,
+
+    sealed BOOLEAN NOT NULL DEFAULT FALSE,
+
+    PRIMARY KEY (period_type, period_start, user_id)
+);
+
+CREATE INDEX idx_leaderboard_periods_rank
+    ON public.leaderboard_periods(period_type, period_start, win_rate DESC, wins DESC);
+
+-- Bucket hiện tại được dựng lại từ lịch sử một lần; về sau chỉ cập nhật dần khi lưu trận.
+INSERT INTO public.leaderboard_periods (user_id, period_type, period_start, wins, matches)
+SELECT p.user_id, b.period_type, b.period_start,
+       SUM(CASE WHEN p.won THEN 1 ELSE 0 END), COUNT(*)
+FROM (
+    SELECT player1_id AS user_id, winner = 'player1' AS won, finished_at FROM public.matches
+    UNION ALL
+    SELECT player2_id, winner = 'player2', finished_at FROM public.matches
+) p
+CROSS JOIN LATERAL (VALUES
+    ('day',    p.finished_at::date),
+    ('week',   date_trunc('week', p.finished_at)::date),
+    ('season', date_trunc('quarter', p.finished_at)::date)
+) AS b(period_type, period_start)
+WHERE p.finished_at >= date_trunc('quarter', NOW())
+GROUP BY p.user_id, b.period_type, b.period_start;
+
+COMMIT;
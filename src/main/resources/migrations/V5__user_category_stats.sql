@@ -0,0 +1,30 @@
+---------------------------------------------------------
+-- V5: thống kê kỹ năng theo thể loại (độ chính xác + sketch thời gian trả lời)
+-- Server cộng dồn các trận mới khi lưu; không quét lại match_rounds.
+-- Lấp số liệu cũ một lần ở đây (không có thời gian: sketch bắt đầu rỗng).
+---------------------------------------------------------
+BEGIN;
+
+CREATE TABLE public.user_category_stats (
+    user_id INT NOT NULL REFERENCES public.users(id),
+    category VARCHAR(50) NOT NULL CHECK (category IN ('instrument', 'animal', 'vehicle')),
+    rounds INT NOT NULL DEFAULT 0,
+    correct INT NOT NULL DEFAULT 0,
+    time_sketch BYTEA,
+    PRIMARY KEY (user_id, category)
+);
+
+-- Mỗi vòng tính cho cả hai ghế, như CategoryStats.onMatchPersisted
+INSERT INTO public.user_category_stats (user_id, category, rounds, correct)
+SELECT user_id, category, COUNT(*), SUM(CASE WHEN correct THEN 1 ELSE 0 END)
+FROM (
+    SELECT m.player1_id AS user_id, r.category, r.p1_correct AS correct
+    FROM public.match_rounds r JOIN public.matches m ON m.id = r.match_id
+    UNION ALL
+    SELECT m.player2_id, r.category, r.p2_correct
+    FROM public.match_rounds r JOIN public.matches m ON m.id = r.match_id
+) answers
+WHERE category IN ('instrument', 'animal', 'vehicle')
+GROUP BY user_id, category;
+
+COMMIT;
@@ -0,0 +1,13 @@
+---------------------------------------------------------
+-- V6: Elo rating cập nhật cùng transaction lưu trận
+-- Cột mới bắt đầu ở 1200; chạy RatingRecompute một lần để tính lại từ lịch sử trận.
+---------------------------------------------------------
+BEGIN;
+
+ALTER TABLE public.users
+    ADD COLUMN rating INT NOT NULL DEFAULT 1200,
+    ADD COLUMN rated_matches INT NOT NULL DEFAULT 0;
+
+CREATE INDEX idx_users_rating ON public.users(rating DESC, username);
+
+COMMIT;
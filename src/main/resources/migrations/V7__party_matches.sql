@@ -0,0 +1,51 @@
+---------------------------------------------------------
+-- V7: phòng nhóm 2..8 người (party rooms)
+-- Trận 1v1 vẫn ở matches / match_rounds; phòng nhóm dùng các bảng riêng theo ghế.
+---------------------------------------------------------
+BEGIN;
+
+CREATE TABLE public.party_matches (
+    id SERIAL PRIMARY KEY,
+    host_id INT NOT NULL REFERENCES public.users(id),
+    players INT NOT NULL CHECK (players BETWEEN 2 AND 8),
+    total_rounds INT NOT NULL DEFAULT 10,
+    started_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    finished_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
+-- Một dòng cho mỗi ghế; ghế 0 là chủ phòng
+CREATE TABLE public.party_participants (
+    party_match_id INT NOT NULL REFERENCES public.party_matches(id) ON DELETE CASCADE,
+    seat INT NOT NULL,
+    user_id INT NOT NULL REFERENCES public.users(id),
+    score INT NOT NULL DEFAULT 0,
+    place INT NOT NULL,                              -- hạng 1..N, bằng nhau thì cùng hạng
+    left_early BOOLEAN NOT NULL DEFAULT FALSE,
+    PRIMARY KEY (party_match_id, seat)
+);
+
+CREATE INDEX idx_party_participants_user ON public.party_participants(user_id, party_match_id DESC);
+
+CREATE TABLE public.party_rounds (
+    party_match_id INT NOT NULL REFERENCES public.party_matches(id) ON DELETE CASCADE,
+    round_no INT NOT NULL,
+    sound_key VARCHAR(100) NOT NULL,
+    category VARCHAR(50) NOT NULL CHECK (category IN ('instrument', 'animal', 'vehicle')),
+    correct_answer VARCHAR(100) NOT NULL,
+    winner_seat INT,                                 -- người đúng nhanh nhất, NULL nếu không ai đúng
+    PRIMARY KEY (party_match_id, round_no)
+);
+
+-- Chỉ các ghế có trả lời
+CREATE TABLE public.party_answers (
+    party_match_id INT NOT NULL,
+    round_no INT NOT NULL,
+    seat INT NOT NULL,
+    answer VARCHAR(100) NOT NULL,
+    time_ms INT NOT NULL,
+    correct BOOLEAN NOT NULL,
+    PRIMARY KEY (party_match_id, round_no, seat),
+    FOREIGN KEY (party_match_id, round_no) REFERENCES public.party_rounds(party_match_id, round_no) ON DELETE CASCADE
+);
+
+COMMIT;
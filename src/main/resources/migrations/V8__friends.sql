@@ -0,0 +1,19 @@
+---------------------------------------------------------
+-- V8: bạn bè
+-- Mỗi dòng là một chiều "user_id đã thêm friend_id"; hai người là bạn khi có đủ hai chiều,
+-- một chiều là lời mời kết bạn đang chờ.
+---------------------------------------------------------
+BEGIN;
+
+CREATE TABLE public.friends (
+    user_id INT NOT NULL REFERENCES public.users(id) ON DELETE CASCADE,
+    friend_id INT NOT NULL REFERENCES public.users(id) ON DELETE CASCADE,
+    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    PRIMARY KEY (user_id, friend_id),
+    CHECK (user_id <> friend_id)
+);
+
+-- Chiều ngược: ai đã thêm tôi (lời mời đến)
+CREATE INDEX idx_friends_friend ON public.friends(friend_id, user_id);
+
+COMMIT;
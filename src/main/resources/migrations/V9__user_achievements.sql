@@ -0,0 +1,16 @@
+---------------------------------------------------------
+-- V9: thành tích
+-- Tiến độ từng luật (achievements.csv) của mỗi user; server giữ bản trong bộ nhớ,
+-- cập nhật theo sự kiện trận đấu và ghi xuống theo lô.
+---------------------------------------------------------
+BEGIN;
+
+CREATE TABLE public.user_achievements (
+    user_id INT NOT NULL REFERENCES public.users(id) ON DELETE CASCADE,
+    achievement VARCHAR(40) NOT NULL,                -- id trong achievements.csv
+    progress INT NOT NULL DEFAULT 0,                 -- bộ đếm / độ dài chuỗi hiện tại
+    unlocked_at TIMESTAMP,                           -- NULL khi chưa đạt
+    PRIMARY KEY (user_id, achievement)
+);
+
+COMMIT;
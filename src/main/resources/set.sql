@@ -14,9 +14,29 @@ CREATE TABLE public.users (
     wins INT DEFAULT 0,
     total_matches INT DEFAULT 0,
 
+    -- tính sẵn khi ghi, để bảng xếp hạng đọc thẳng từ index
+    win_rate NUMERIC(5,2) GENERATED ALWAYS AS (
+        ROUND(
+            CASE WHEN total_matches = 0 THEN 0
+                 ELSE (wins * 100.0 / total_matches)
+            END, 2
+        )
+    ) STORED,
+
+    -- Elo, cập nhật trong cùng transaction với INSERT matches (xem EloRating)
+    rating INT NOT NULL DEFAULT 1200,
+    rated_matches INT NOT NULL DEFAULT 0,
+
+    -- tài khoản bot_easy/bot_normal/bot_hard do server tạo (Bot.start)
+    is_bot BOOLEAN NOT NULL DEFAULT FALSE,
+
     created_at TIMESTAMP DEFAULT NOW()
 );
 
+-- Top-N: index-only scan theo đúng thứ tự của bảng xếp hạng
+CREATE INDEX idx_users_leaderboard ON public.users(win_rate DESC, wins DESC, username);
+CREATE INDEX idx_users_rating ON public.users(rating DESC, username);
+
 INSERT INTO public.users (username, password) VALUES
 ('test1', 'test123'),
 ('test2', 'test123'),
@@ -46,8 +66,8 @@ CREATE TABLE public.sounds (
 CREATE TABLE public.matches (
     id SERIAL PRIMARY KEY,
 
-    player1 VARCHAR(100) NOT NULL REFERENCES public.users(username),
-    player2 VARCHAR(100) NOT NULL REFERENCES public.users(username),
+    player1_id INT NOT NULL REFERENCES public.users(id),
+    player2_id INT NOT NULL REFERENCES public.users(id),
 
     score1 INT NOT NULL DEFAULT 0,
     score2 INT NOT NULL DEFAULT 0,
@@ -59,10 +79,15 @@ CREATE TABLE public.matches (
     total_rounds INT NOT NULL DEFAULT 10,
 
     started_at TIMESTAMP NOT NULL DEFAULT NOW(),
-    finished_at TIMESTAMP NOT NULL DEFAULT NOW()
+    finished_at TIMESTAMP NOT NULL DEFAULT NOW(),
+
+    -- FALSE cho trận có bot: chỉ lưu lịch sử, không tính rating / thắng thua / xếp hạng
+    rated BOOLEAN NOT NULL DEFAULT TRUE
 );
 
 CREATE INDEX idx_matches_date ON public.matches(finished_at DESC);
+CREATE INDEX idx_matches_player1 ON public.matches(player1_id, finished_at DESC);
+CREATE INDEX idx_matches_player2 ON public.matches(player2_id, finished_at DESC);
 
 
 
@@ -99,6 +124,159 @@ CREATE INDEX idx_match_rounds_match ON public.match_rounds(match_id);
 
 
 
+---------------------------------------------------------
+-- USER_CATEGORY_STATS (độ chính xác + phân phối thời gian trả lời theo thể loại)
+-- Server giữ bản trong bộ nhớ và ghi xuống theo lô; không đọc lại match_rounds
+---------------------------------------------------------
+CREATE TABLE public.user_category_stats (
+    user_id INT NOT NULL REFERENCES public.users(id),
+    category VARCHAR(50) NOT NULL CHECK (category IN ('instrument', 'animal', 'vehicle')),
+    rounds INT NOT NULL DEFAULT 0,
+    correct INT NOT NULL DEFAULT 0,
+    time_sketch BYTEA,                               -- QuantileSketch đã tuần tự hóa
+    PRIMARY KEY (user_id, category)
+);
+
+
+
+---------------------------------------------------------
+-- LEADERBOARD_PERIODS (thống kê theo ngày / tuần / mùa)
+-- Cập nhật dần mỗi khi lưu trận; bucket cũ được niêm phong (sealed)
+---------------------------------------------------------
+CREATE TABLE public.leaderboard_periods (
+    user_id INT NOT NULL REFERENCES public.users(id),
+    period_type VARCHAR(10) NOT NULL CHECK (period_type IN ('day', 'week', 'season')),
+    period_start DATE NOT NULL,                      -- ngày / thứ Hai / ngày đầu quý
+
+    wins INT NOT NULL DEFAULT 0,
+    matches INT NOT NULL DEFAULT 0,
+    win_rate NUMERIC(5,2) GENERATED ALWAYS AS (
+        ROUND(
+            CASE WHEN matches = 0 THEN 0
+                 ELSE (wins * 100.0 / matches)
+            END, 2
+        )
+    ) STORED,
+
+    sealed BOOLEAN NOT NULL DEFAULT FALSE,
+
+    PRIMARY KEY (period_type, period_start, user_id)
+);
+
+CREATE INDEX idx_leaderboard_periods_rank
+    ON public.leaderboard_periods(period_type, period_start, win_rate DESC, wins DESC);
+
+-- Chuyển kỳ chỉ niêm phong các bucket còn mở
+CREATE INDEX idx_leaderboard_periods_unsealed
+    ON public.leaderboard_periods(period_type, period_start) WHERE NOT sealed;
+
+
+
+---------------------------------------------------------
+-- PARTY MATCHES (phòng nhóm 2..8 người)
+---------------------------------------------------------
+CREATE TABLE public.party_matches (
+    id SERIAL PRIMARY KEY,
+    host_id INT NOT NULL REFERENCES public.users(id),
+    players INT NOT NULL CHECK (players BETWEEN 2 AND 8),
+    total_rounds INT NOT NULL DEFAULT 10,
+    started_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    finished_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
+-- Một dòng cho mỗi ghế; ghế 0 là chủ phòng
+CREATE TABLE public.party_participants (
+    party_match_id INT NOT NULL REFERENCES public.party_matches(id) ON DELETE CASCADE,
+    seat INT NOT NULL,
+    user_id INT NOT NULL REFERENCES public.users(id),
+    score INT NOT NULL DEFAULT 0,
+    place INT NOT NULL,                              -- hạng 1..N, bằng nhau thì cùng hạng
+    left_early BOOLEAN NOT NULL DEFAULT FALSE,
+    PRIMARY KEY (party_match_id, seat)
+);
+
+CREATE INDEX idx_party_participants_user ON public.party_participants(user_id, party_match_id DESC);
+
+CREATE TABLE public.party_rounds (
+    party_match_id INT NOT NULL REFERENCES public.party_matches(id) ON DELETE CASCADE,
+    round_no INT NOT NULL,
+    sound_key VARCHAR(100) NOT NULL,
+    category VARCHAR(50) NOT NULL CHECK (category IN ('instrument', 'animal', 'vehicle')),
+    correct_answer VARCHAR(100) NOT NULL,
+    winner_seat INT,                                 -- người đúng nhanh nhất, NULL nếu không ai đúng
+    PRIMARY KEY (party_match_id, round_no)
+);
+
+-- Chỉ các ghế có trả lời
+CREATE TABLE public.party_answers (
+    party_match_id INT NOT NULL,
+    round_no INT NOT NULL,
+    seat INT NOT NULL,
+    answer VARCHAR(100) NOT NULL,
+    time_ms INT NOT NULL,
+    correct BOOLEAN NOT NULL,
+    PRIMARY KEY (party_match_id, round_no, seat),
+    FOREIGN KEY (party_match_id, round_no) REFERENCES public.party_rounds(party_match_id, round_no) ON DELETE CASCADE
+);
+
+
+
+---------------------------------------------------------
+-- FRIENDS (bạn bè: một dòng mỗi chiều, đủ hai chiều là bạn)
+---------------------------------------------------------
+CREATE TABLE public.friends (
+    user_id INT NOT NULL REFERENCES public.users(id) ON DELETE CASCADE,
+    friend_id INT NOT NULL REFERENCES public.users(id) ON DELETE CASCADE,
+    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    PRIMARY KEY (user_id, friend_id),
+    CHECK (user_id <> friend_id)
+);
+
+CREATE INDEX idx_friends_friend ON public.friends(friend_id, user_id);
+
+
+
+---------------------------------------------------------
+-- USER_ACHIEVEMENTS (tiến độ thành tích, ghi theo lô từ bộ nhớ)
+---------------------------------------------------------
+CREATE TABLE public.user_achievements (
+    user_id INT NOT NULL REFERENCES public.users(id) ON DELETE CASCADE,
+    achievement VARCHAR(40) NOT NULL,                -- id trong achievements.csv
+    progress INT NOT NULL DEFAULT 0,
+    unlocked_at TIMESTAMP,                           -- NULL khi chưa đạt
+    PRIMARY KEY (user_id, achievement)
+);
+
+
+
+---------------------------------------------------------
+-- SOUND_STATS (độ khó từng âm thanh, ghi theo lô từ bộ nhớ)
+---------------------------------------------------------
+CREATE TABLE public.sound_stats (
+    sound_key VARCHAR(100) PRIMARY KEY,              -- id trong Sound.csv
+    answers BIGINT NOT NULL DEFAULT 0,               -- số lượt trả lời (kể cả hết giờ)
+    correct BIGINT NOT NULL DEFAULT 0,
+    time_sketch BYTEA                                -- QuantileSketch thời gian trả lời
+);
+
+
+
+---------------------------------------------------------
+-- STATS_WATERMARKS (matches.id cuối cùng đã cộng vào từng bảng ghi theo lô)
+-- Ghi cùng transaction với mỗi lần flush; khởi động lại thì cộng tiếp các trận sau mốc
+---------------------------------------------------------
+CREATE TABLE public.stats_watermarks (
+    name VARCHAR(30) PRIMARY KEY,                    -- user_category_stats | user_achievements | sound_stats
+    last_match_id INT NOT NULL
+);
+
+INSERT INTO public.stats_watermarks (name, last_match_id) VALUES
+('user_category_stats', 0),
+('user_achievements', 0),
+('sound_stats', 0);
+
+
+
 ---------------------------------------------------------
 -- LEADERBOARD VIEW (bảng xếp hạng)
 ---------------------------------------------------------
@@ -107,13 +285,9 @@ SELECT
     username,
     wins,
     total_matches,
-    ROUND(
-        CASE WHEN total_matches = 0 THEN 0
-             ELSE (wins * 100.0 / total_matches)
-        END, 2
-    ) AS win_rate
+    win_rate
 FROM public.users
-ORDER BY win_rate DESC, wins DESC;
+ORDER BY win_rate DESC, wins DESC, username;
 
 
 
@@ -0,0 +1,90 @@
+package com.mycompany.client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ClockSync over a fake link whose server clock runs at a known offset and whose two directions
+ * have different delays. NTP-style estimation cannot see the asymmetry: the offset comes out
+ * wrong by (up - down) / 2, which must stay within half the RTT it reports.
+ */
+public class ClockSyncTest {
+    // Sai số cho Thread.sleep và lập lịch trên máy test
+    private static final long SLACK_MS = 8;
+
+    /** Answers PING like ClientHandler.handlePing, after sleeping the one-way delays */
+    private static final class FakeLink extends AuthClient {
+        final long serverOffsetMs;
+        final long upMs;
+        final long downMs;
+        long lastT3 = -1;
+        int echoes;
+
+        FakeLink(long serverOffsetMs, long upMs, long downMs) {
+            super("localhost", 0);
+            this.serverOffsetMs = serverOffsetMs;
+            this.upMs = upMs;
+            this.downMs = downMs;
+        }
+
+        @Override
+        public synchronized String sendCommand(String line) {
+            String[] p = line.split(";");
+            sleep(upMs);
+            long t2 = ClockSync.localMs() + serverOffsetMs;
+            if (p.length == 3 && Long.parseLong(p[2]) == lastT3) echoes++;
+            lastT3 = t2;
+            sleep(downMs);
+            return "PONG;" + p[1] + ";" + t2 + ";" + t2;
+        }
+
+        private static void sleep(long ms) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static long offsetError(ClockSync clock, FakeLink link) {
+        return clock.toServer(0) - link.serverOffsetMs;
+    }
+
+    @Test
+    public void asymmetricDelayErrorStaysWithinHalfRtt() {
+        FakeLink link = new FakeLink(123_456, 5, 45);
+        ClockSync clock = new ClockSync(link);
+        clock.sync(8, 5);
+
+        assertTrue(clock.isSynced());
+        long error = offsetError(clock, link);
+        long expected = (link.upMs - link.downMs) / 2;
+        assertTrue(Math.abs(error - expected) <= SLACK_MS, "offset error " + error + " ms, expected about " + expected);
+        assertTrue(Math.abs(error) <= clock.rttMs() / 2 + SLACK_MS,
+                "offset error " + error + " ms exceeds rtt/2 = " + clock.rttMs() / 2);
+        // Mọi PING sau lần đầu trả lại t3 của PONG trước, để server tự đo RTT
+        assertEquals(7, link.echoes);
+    }
+
+    @Test
+    public void openAtSkewBetweenPlayersIsBounded() {
+        FakeLink near = new FakeLink(-40_000, 5, 5);
+        FakeLink far = new FakeLink(9_000, 5, 60);
+        ClockSync a = new ClockSync(near);
+        ClockSync b = new ClockSync(far);
+        a.sync(8, 5);
+        b.sync(8, 5);
+
+        // Cả hai phát âm thanh lúc toLocal(openAt); quy lại về giờ server thật của từng máy
+        long openAt = 5_000_000;
+        long playedA = a.toLocal(openAt) + near.serverOffsetMs;
+        long playedB = b.toLocal(openAt) + far.serverOffsetMs;
+        long skew = Math.abs(playedA - playedB);
+        assertEquals(Math.abs(offsetError(a, near) - offsetError(b, far)), skew);
+        assertTrue(skew <= (a.rttMs() + b.rttMs()) / 2 + SLACK_MS,
+                "openAt skew " + skew + " ms, rtts " + a.rttMs() + "/" + b.rttMs());
+    }
+}
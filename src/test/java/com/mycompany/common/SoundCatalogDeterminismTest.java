@@ -0,0 +1,88 @@
+package com.mycompany.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Server and clients expand the same seed into the same deck independently, so the RNG sequence
+ * and the catalog are part of the protocol. These values are pinned on purpose: if one of them
+ * changes, old clients and replays no longer agree with the server. Change Sound.csv or
+ * SplitMix64 only together with a protocol/version bump, then update the expected values here.
+ */
+public class SoundCatalogDeterminismTest {
+
+    @Test
+    public void splitMix64SequenceIsPinned() {
+        SplitMix64 random = new SplitMix64(42);
+        assertEquals(0xbdd732262feb6e95L, random.nextLong64());
+        assertEquals(0x28efe333b266f103L, random.nextLong64());
+        assertEquals(0x47526757130f9f52L, random.nextLong64());
+        assertEquals(0x581ce1ff0e4ae394L, random.nextLong64());
+    }
+
+    @Test
+    public void nextIntGoesThroughNext() {
+        // Random.nextInt(bound) dựa trên next(31): chuỗi này cố định theo đặc tả của java.util.Random
+        SplitMix64 random = new SplitMix64(0);
+        int[] values = new int[4];
+        for (int i = 0; i < values.length; i++) values[i] = random.nextInt(100);
+        assertArrayEquals(new int[] {16, 17, 92, 72}, values);
+    }
+
+    @Test
+    public void catalogVersionIsPinned() {
+        assertEquals("2102939b", SoundCatalog.VERSION);
+    }
+
+    @Test
+    public void matchDeckForSeed1() {
+        assertDeck(1L,
+                new String[] {"ship", "police_car", "cow", "bicycle_bell", "cajon", "lion", "chicken", "sheep", "cow",
+                        "cajon", "piano"},
+                new int[] {3, 2, 3, 0, 3, 2, 2, 0, 3, 3, 1},
+                0x3f591a59L);
+    }
+
+    @Test
+    public void matchDeckForSeed123456789() {
+        assertDeck(123456789L,
+                new String[] {"bird", "chicken", "police_car", "duck", "car", "horse", "bird", "pig", "frog", "sheep",
+                        "ambulance"},
+                new int[] {2, 2, 0, 2, 0, 0, 2, 0, 3, 3, 3},
+                0x319b3f00L);
+    }
+
+    @Test
+    public void sameSeedSameDeck() {
+        SoundCatalog.Question[] a = SoundCatalog.matchDeck(-7L);
+        SoundCatalog.Question[] b = SoundCatalog.matchDeck(-7L);
+        assertEquals(SoundCatalog.MATCH_DECK_SIZE, a.length);
+        for (int i = 0; i < a.length; i++) {
+            assertEquals(a[i].soundKey, b[i].soundKey);
+            assertEquals(a[i].options, b[i].options);
+        }
+    }
+
+    /** Sound keys, slot of the correct answer, and a CRC32 over every option list (UTF-8, '|' separated) */
+    private static void assertDeck(long seed, String[] keys, int[] correctSlots, long optionsCrc) {
+        SoundCatalog.Question[] deck = SoundCatalog.matchDeck(seed);
+        assertEquals(keys.length, deck.length);
+        String[] actualKeys = new String[deck.length];
+        int[] actualSlots = new int[deck.length];
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < deck.length; i++) {
+            actualKeys[i] = deck[i].soundKey;
+            actualSlots[i] = deck[i].options.indexOf(deck[i].correctAnswer);
+            crc.update(String.join("|", deck[i].options).getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        assertArrayEquals(keys, actualKeys);
+        assertArrayEquals(correctSlots, actualSlots);
+        assertEquals(optionsCrc, crc.getValue());
+    }
+}
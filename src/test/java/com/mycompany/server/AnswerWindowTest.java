@@ -0,0 +1,44 @@
+package com.mycompany.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class AnswerWindowTest {
+    private static final long OPEN_AT = 1_000_000;
+    private final RoomLoop loop = new RoomLoop("answer-window-test");
+
+    @Test
+    public void correctionIsBoundedByHalfTheMeasuredRtt() {
+        long bound = AnswerWindow.maxCorrectionMs(80);
+        assertEquals(40 + AnswerWindow.AUDIO_ALLOWANCE_MS, bound);
+        // Gói tới lúc 3000 ms, client khai 1000 ms: chỉ được bù tới mức cho phép
+        assertEquals(3000 - bound, AnswerWindow.elapsedMs(OPEN_AT + 3000, OPEN_AT, OPEN_AT + 1000, bound, loop));
+        // Khai hợp lý (trong giới hạn) thì tính đúng như khai
+        assertEquals(2900, AnswerWindow.elapsedMs(OPEN_AT + 3000, OPEN_AT, OPEN_AT + 2900, bound, loop));
+    }
+
+    @Test
+    public void unmeasuredSessionGetsOnlyTheAudioAllowance() {
+        assertEquals(AnswerWindow.AUDIO_ALLOWANCE_MS, AnswerWindow.maxCorrectionMs(-1));
+        assertEquals(AnswerWindow.MAX_CORRECTION_MS, AnswerWindow.maxCorrectionMs(10_000));
+    }
+
+    @Test
+    public void claimsAfterArrivalOrWithoutTimestampUseArrival() {
+        long bound = AnswerWindow.maxCorrectionMs(100);
+        assertEquals(3000, AnswerWindow.elapsedMs(OPEN_AT + 3000, OPEN_AT, OPEN_AT + 5000, bound, loop));
+        assertEquals(3000, AnswerWindow.elapsedMs(OPEN_AT + 3000, OPEN_AT, -1, bound, loop));
+        assertEquals(0, AnswerWindow.elapsedMs(OPEN_AT - 100, OPEN_AT, OPEN_AT - 150, bound, loop));
+    }
+
+    @Test
+    public void windowOpensSlightlyBeforeOpenAt() {
+        assertNull(AnswerWindow.reject(false, true, OPEN_AT - AnswerWindow.EARLY_MS, OPEN_AT, 3, 3, false));
+        assertEquals("Not accepting answers for this round",
+                AnswerWindow.reject(false, true, OPEN_AT - AnswerWindow.EARLY_MS - 1, OPEN_AT, 3, 3, false));
+        assertEquals("Not accepting answers for this round", AnswerWindow.reject(true, false, OPEN_AT, OPEN_AT, 2, 3, false));
+        assertEquals("Already answered", AnswerWindow.reject(true, false, OPEN_AT, OPEN_AT, 3, 3, true));
+    }
+}
@@ -0,0 +1,31 @@
+package com.mycompany.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Category top list ordering when some players have no recorded answer times, as for the rows
+ * V5 backfilled from match_rounds: an empty sketch is unknown, not the fastest.
+ */
+public class CategoryStatsTest {
+
+    @Test
+    public void unknownMedianSortsAfterMeasuredTimes() {
+        int cat = CategoryStats.categoryIndex("vehicle");
+        UserDirectory.register(910_001, "backfilled");
+        UserDirectory.register(910_002, "timed");
+        for (int i = 0; i < 10; i++) {
+            CategoryStats.record(910_001, cat, true, null);
+            CategoryStats.record(910_002, cat, true, 4000);
+        }
+
+        List<CategorySkillEntry> top = CategoryStats.top("vehicle", 10);
+        assertEquals(2, top.size());
+        assertEquals("timed", top.get(0).getUsername());
+        assertEquals("backfilled", top.get(1).getUsername());
+        assertEquals(-1, top.get(1).getMedianMs());
+    }
+}
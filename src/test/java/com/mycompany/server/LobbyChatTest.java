@@ -0,0 +1,23 @@
+package com.mycompany.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class LobbyChatTest {
+
+    @Test
+    public void rejectedMessagesDoNotExtendTheWait() throws InterruptedException {
+        int user = 870_001;
+        long start = System.currentTimeMillis();
+        assertNull(LobbyChat.INSTANCE.post(user, "spammer", "hello"));
+        for (int i = 0; i < 2; i++) {
+            Thread.sleep(LobbyChat.MIN_INTERVAL_MS / 3);
+            assertEquals("Too many messages, slow down", LobbyChat.INSTANCE.post(user, "spammer", "again"));
+        }
+        // Đủ MIN_INTERVAL_MS kể từ tin được nhận: gửi được, dù vừa bị từ chối
+        Thread.sleep(Math.max(0, start + LobbyChat.MIN_INTERVAL_MS + 20 - System.currentTimeMillis()));
+        assertNull(LobbyChat.INSTANCE.post(user, "spammer", "finally"));
+    }
+}
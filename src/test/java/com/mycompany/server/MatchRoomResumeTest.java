@@ -0,0 +1,162 @@
+package com.mycompany.server;
+
+import com.mycompany.common.SoundCatalog;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Drives a MatchRoom through seatLost / resume on its own loop, with the players' mailboxes as
+ * the only output. No database: matches are not persisted.
+ */
+public class MatchRoomResumeTest {
+    static {
+        System.setProperty("match.persist", "false");
+    }
+
+    private static final long SEED = 123456789L;
+    // Mỗi test một cặp user và một id trận riêng, để mailbox không lẫn nhau
+    private static final AtomicInteger NEXT_USER = new AtomicInteger(900_000);
+    private static final AtomicInteger NEXT_MATCH = new AtomicInteger(900_000);
+
+    private final int alice = NEXT_USER.getAndIncrement();
+    private final int bob = NEXT_USER.getAndIncrement();
+
+    private MatchRoom newRoom(long graceMs) {
+        QuestionDeckService.Deck deck = new QuestionDeckService.Deck(SEED, SoundCatalog.matchDeck(SEED));
+        MatchRoom room = new MatchRoom(NEXT_MATCH.getAndIncrement(), alice, "alice", bob, "bob", deck,
+                new RoomLoop("resume-test"));
+        room.seatGraceMs = graceMs;
+        return room;
+    }
+
+    /** Wait until everything posted to the room so far has run */
+    private static void settle(MatchRoom room) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        room.post((RoomActor.Completion) done::countDown);
+        assertTrue(done.await(2, TimeUnit.SECONDS), "room loop did not run");
+    }
+
+    private static List<String> drain(int userId) {
+        List<String> events = new ArrayList<>();
+        for (String e; (e = Server.box(userId).poll()) != null; ) events.add(e);
+        return events;
+    }
+
+    private static String find(List<String> events, String prefix) {
+        for (String e : events) if (e.startsWith(prefix)) return e;
+        return null;
+    }
+
+    @Test
+    public void resumeDropsStaleEventsAndSendsSnapshot() throws InterruptedException {
+        MatchRoom room = newRoom(60_000);
+        int id = room.matchId;
+        room.seatLost(alice);
+        settle(room);
+        assertEquals("OPPONENT_DISCONNECTED;" + id + ";60000", find(drain(bob), "OPPONENT_DISCONNECTED;"));
+
+        // Những gì dồn lại trong lúc vắng mặt: của trận này thì bỏ, của nơi khác thì giữ
+        Mailbox box = Server.box(alice);
+        drain(alice);
+        box.add("START_MATCH;bob;" + id + ";" + SEED + ";" + SoundCatalog.VERSION);
+        box.add("ROUND_START;" + id + ";1;5000;10000;0;42");
+        box.add("CHAT;carol;hi");
+        box.add("ROUND_RESULT;" + id + ";1;cow;1;0;0");
+        box.add("ROUND_START;" + (id + 1000) + ";1;5000;10000;0;42");
+        box.add("OPPONENT_DISCONNECTED;" + id + ";60000");
+
+        room.resume(alice);
+        settle(room);
+        List<String> events = drain(alice);
+        assertEquals(3, events.size(), "mailbox after resume: " + events);
+        assertEquals("CHAT;carol;hi", events.get(0));
+        assertEquals("ROUND_START;" + (id + 1000) + ";1;5000;10000;0;42", events.get(1));
+
+        String[] f = events.get(2).split(";", -1);
+        assertEquals(14, f.length, "RESUME fields: " + events.get(2));
+        assertEquals("RESUME", f[0]);
+        assertEquals(String.valueOf(id), f[1]);
+        assertEquals("bob", f[2]);
+        assertEquals(String.valueOf(SEED), f[3]);
+        assertEquals(SoundCatalog.VERSION, f[4]);
+        assertEquals("0", f[5]); // chưa vào vòng nào
+        assertEquals("0", f[6]);
+        assertEquals("0", f[7]);
+        assertEquals("PREPARING", f[8]);
+        assertEquals(String.valueOf(MatchRoom.READ_MS), f[9]);
+        assertEquals(String.valueOf(MatchRoom.ANSWER_MS), f[10]);
+        assertEquals("0", f[11]);
+        assertEquals("0", f[13]);
+
+        assertEquals("OPPONENT_RECONNECTED;" + id, find(drain(bob), "OPPONENT_RECONNECTED;"));
+    }
+
+    @Test
+    public void snapshotMidRoundCarriesOpenAtAndFullQuestion() throws InterruptedException {
+        MatchRoom room = newRoom(60_000);
+        room.requestFullRounds(alice);
+        room.start();
+        long deadline = System.currentTimeMillis() + MatchRoom.PREPARE_MS + 2000;
+        String roundStart = null;
+        while (roundStart == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            roundStart = find(drain(bob), "ROUND_START;");
+        }
+        if (roundStart == null) fail("no ROUND_START after PREPARE_MS");
+        String openAt = roundStart.split(";")[6];
+
+        room.seatLost(alice);
+        room.resume(alice);
+        settle(room);
+        String resume = find(drain(alice), "RESUME;");
+        String[] f = resume.split(";", -1);
+        assertEquals(18, f.length, "RESUME fields: " + resume);
+        assertEquals("1", f[5]);
+        assertEquals("READING", f[8]);
+        assertEquals(openAt, f[12]);
+        SoundCatalog.Question q = SoundCatalog.matchDeck(SEED)[0];
+        assertEquals(q.soundKey, f[14]);
+        assertEquals(String.join("|", q.options), f[17]);
+        room.forfeit(bob); // dọn phòng
+    }
+
+    @Test
+    public void seatIsForfeitedAfterGrace() throws InterruptedException {
+        MatchRoom room = newRoom(300);
+        int id = room.matchId;
+        room.seatLost(alice);
+        settle(room);
+        Thread.sleep(100);
+        settle(room);
+        assertFalse(room.finished(), "forfeited before the grace period ended");
+        assertTrue(drain(bob).stream().noneMatch(e -> e.startsWith("MATCH_END;")));
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!room.finished() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        settle(room);
+        assertEquals("MATCH_END;" + id + ";alice;0;bob;0;bob;FORFEIT", find(drain(bob), "MATCH_END;"));
+    }
+
+    @Test
+    public void resumeWithinGraceKeepsTheSeat() throws InterruptedException {
+        MatchRoom room = newRoom(200);
+        room.seatLost(alice);
+        room.resume(alice);
+        settle(room);
+        Thread.sleep(400);
+        settle(room);
+        assertFalse(room.finished());
+        assertTrue(drain(bob).stream().noneMatch(e -> e.startsWith("MATCH_END;")));
+        room.forfeit(bob);
+    }
+}
@@ -0,0 +1,30 @@
+package com.mycompany.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RatingIndexTest {
+
+    @Test
+    public void olderResultArrivingLateIsIgnored() {
+        int user = 880_001;
+        UserDirectory.register(user, "late_hooks");
+        RatingIndex.update(user, 1216, 1);
+        // Trận thứ 3 commit sau trận thứ 2 nhưng hook của nó chạy trước
+        RatingIndex.update(user, 1240, 3);
+        RatingIndex.update(user, 1229, 2);
+        assertEquals(1240, RatingIndex.ratingOf(user));
+    }
+
+    @Test
+    public void newerResultReplacesEntry() {
+        int user = 880_002;
+        UserDirectory.register(user, "in_order");
+        RatingIndex.update(user, 1190, 4);
+        RatingIndex.update(user, 1205, 5);
+        assertEquals(1205, RatingIndex.ratingOf(user));
+        RatingIndex.update(user, 1300, 5); // cùng phiên bản: giữ bản đã có
+        assertEquals(1205, RatingIndex.ratingOf(user));
+    }
+}
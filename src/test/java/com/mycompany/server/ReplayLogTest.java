@@ -0,0 +1,64 @@
+package com.mycompany.server;
+
+import com.mycompany.common.SoundCatalog;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Reopening a ReplayLog after a crash: a string cut off mid-write at the end of strings.dat is
+ * dropped before new strings go after it, and stray files in the directory are not segments.
+ */
+public class ReplayLogTest {
+
+    private static List<ReplayLog.Round> rounds(long seed) {
+        SoundCatalog.Question[] deck = SoundCatalog.matchDeck(seed);
+        List<ReplayLog.Round> rounds = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            SoundCatalog.Question q = deck[r];
+            rounds.add(new ReplayLog.Round(3000 + r * 18_000L, q, new String[] {q.correctAnswer, null},
+                    new int[] {1200, -1}, 0, r + 1, 0));
+        }
+        return rounds;
+    }
+
+    @Test
+    public void tornDictionaryTailIsCutAndStrayFilesIgnored() throws IOException {
+        File dir = Files.createTempDirectory("replay-test").toFile();
+        ReplayLog log = new ReplayLog(dir);
+        log.append(1, "alice", "bob", 1_000, 200_000, 0, false, 3, 0, rounds(1));
+
+        // Chuỗi cuối ghi dở: độ dài 40 nhưng chỉ có 3 byte
+        try (FileOutputStream torn = new FileOutputStream(new File(dir, "strings.dat"), true)) {
+            torn.write(new byte[] {0, 40, 'c', 'a', 'r'});
+        }
+        Files.write(new File(dir, "backup.seg").toPath(), new byte[] {1, 2, 3});
+
+        log = new ReplayLog(dir);
+        log.append(2, "carol", "dave", 2_000, 201_000, 1, false, 0, 3, rounds(2));
+
+        ReplayLog reopened = new ReplayLog(dir);
+        ReplayLog.Replay second = reopened.read(2, 1);
+        assertNotNull(second);
+        assertEquals("carol", second.player1);
+        // Các chuỗi mới của trận 2 nằm sau chỗ bị cắt: đọc lại phải đúng từng vòng
+        SoundCatalog.Question[] deck = SoundCatalog.matchDeck(2);
+        for (int r = 0; r < 3; r++) {
+            String[] f = second.rounds.get(r).split(";");
+            assertEquals(deck[r].soundKey, f[3], "round " + (r + 1) + ": " + second.rounds.get(r));
+            assertEquals(deck[r].correctAnswer, f[7], "round " + (r + 1) + ": " + second.rounds.get(r));
+        }
+        ReplayLog.Replay first = reopened.read(1, 1);
+        assertNotNull(first);
+        assertEquals("alice", first.player1);
+        assertEquals(3, first.rounds.size());
+    }
+}
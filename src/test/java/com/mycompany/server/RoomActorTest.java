@@ -0,0 +1,70 @@
+package com.mycompany.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RoomActorTest {
+
+    private static final class TestRoom extends RoomActor {
+        boolean done;
+
+        TestRoom(RoomLoop loop) {
+            super(1, loop);
+        }
+
+        @Override
+        boolean finished() {
+            return done;
+        }
+    }
+
+    @Test
+    public void throwingMessageDoesNotWedgeTheRoom() throws InterruptedException {
+        TestRoom room = new TestRoom(new RoomLoop("test-loop"));
+        CountDownLatch ran = new CountDownLatch(1);
+        room.post(() -> {
+            throw new IllegalStateException("boom");
+        });
+        room.post(ran::countDown);
+        assertTrue(ran.await(2, TimeUnit.SECONDS), "message after a failing one must still run");
+
+        // Phòng vẫn nhận được message mới sau khi đã rảnh
+        CountDownLatch later = new CountDownLatch(1);
+        room.post(later::countDown);
+        assertTrue(later.await(2, TimeUnit.SECONDS), "room must stay schedulable after a failure");
+    }
+
+    @Test
+    public void failingMessageAloneThenNextPostRuns() throws InterruptedException {
+        TestRoom room = new TestRoom(new RoomLoop("test-loop"));
+        CountDownLatch failed = new CountDownLatch(1);
+        room.post(() -> {
+            failed.countDown();
+            throw new IllegalStateException("boom");
+        });
+        assertTrue(failed.await(2, TimeUnit.SECONDS));
+        Thread.sleep(50); // để loop xử lý xong lượt drain có lỗi
+
+        CountDownLatch ran = new CountDownLatch(1);
+        room.post(ran::countDown);
+        assertTrue(ran.await(2, TimeUnit.SECONDS), "post after a failed drain must reschedule the room");
+    }
+
+    @Test
+    public void onlyCompletionsRunAfterFinish() throws InterruptedException {
+        TestRoom room = new TestRoom(new RoomLoop("test-loop"));
+        AtomicInteger plain = new AtomicInteger();
+        CountDownLatch completion = new CountDownLatch(1);
+        room.post(() -> room.done = true);
+        room.post(plain::incrementAndGet);
+        room.post((RoomActor.Completion) completion::countDown);
+        assertTrue(completion.await(2, TimeUnit.SECONDS));
+        assertEquals(0, plain.get());
+    }
+}